@@ -1,22 +1,41 @@
 package com.zephyros.urbanup.config;
 
+import java.util.Map;
+import java.util.Optional;
+
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageChannel;
 import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.messaging.simp.config.StompBrokerRelayRegistration;
 import org.springframework.messaging.simp.stomp.StompCommand;
 import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
 import org.springframework.messaging.support.ChannelInterceptor;
 import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.scheduling.TaskScheduler;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
+import org.springframework.web.socket.server.support.DefaultHandshakeHandler;
 
+import com.zephyros.urbanup.model.User;
+import com.zephyros.urbanup.repository.UserRepository;
 import com.zephyros.urbanup.security.JwtUtil;
+import com.zephyros.urbanup.websocket.ChatAccessGuard;
+import com.zephyros.urbanup.websocket.ClusterBrokerBridge;
+import com.zephyros.urbanup.websocket.CompactPayloadCodec;
+import com.zephyros.urbanup.websocket.DeflateToggleUpgradeStrategy;
+import com.zephyros.urbanup.websocket.OutboundFlowControl;
+import com.zephyros.urbanup.websocket.PresenceRegistry;
+import com.zephyros.urbanup.websocket.WebSocketPrincipal;
 
 /**
  * WebSocket configuration for real-time chat messaging
@@ -28,10 +47,111 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
     @Autowired
     private JwtUtil jwtUtil;
 
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ChatAccessGuard chatAccessGuard;
+
+    @Autowired(required = false)
+    private ClusterBrokerBridge clusterBrokerBridge;
+
+    @Autowired
+    private PresenceRegistry presenceRegistry;
+
+    @Autowired
+    private OutboundFlowControl outboundFlowControl;
+
+    @Autowired
+    private CompactPayloadCodec compactPayloadCodec;
+
+    // Created by the broker configuration itself, hence lazy
+    @Autowired
+    @Lazy
+    @Qualifier("messageBrokerTaskScheduler")
+    private TaskScheduler messageBrokerTaskScheduler;
+
+    // Server/client STOMP heartbeat interval; every inbound heartbeat refreshes presence
+    @Value("${urbanup.websocket.presence.heartbeat-ms:10000}")
+    private long heartbeatMillis;
+
+    // simple (single node), relay (external STOMP broker) or redis (simple broker bridged over Redis pub/sub)
+    @Value("${urbanup.websocket.broker.mode:simple}")
+    private String brokerMode;
+
+    // Per-session transport limits; a session that exceeds the send buffer or time limit is closed
+    @Value("${urbanup.websocket.outbound.send-time-limit-ms:10000}")
+    private int sendTimeLimitMillis;
+
+    @Value("${urbanup.websocket.outbound.send-buffer-size-limit:524288}")
+    private int sendBufferSizeLimit;
+
+    @Value("${urbanup.websocket.inbound.message-size-limit:65536}")
+    private int messageSizeLimit;
+
+    // permessage-deflate on /ws-native; trades CPU for bandwidth on large or repetitive frames
+    @Value("${urbanup.websocket.native.permessage-deflate:true}")
+    private boolean nativeDeflate;
+
+    @Value("${urbanup.websocket.outbound.pool.core-size:4}")
+    private int outboundCorePoolSize;
+
+    @Value("${urbanup.websocket.outbound.pool.max-size:16}")
+    private int outboundMaxPoolSize;
+
+    @Value("${urbanup.websocket.outbound.pool.queue-capacity:10000}")
+    private int outboundQueueCapacity;
+
+    @Value("${urbanup.websocket.broker.relay.host:localhost}")
+    private String relayHost;
+
+    @Value("${urbanup.websocket.broker.relay.port:61613}")
+    private int relayPort;
+
+    @Value("${urbanup.websocket.broker.relay.client-login:guest}")
+    private String relayClientLogin;
+
+    @Value("${urbanup.websocket.broker.relay.client-passcode:guest}")
+    private String relayClientPasscode;
+
+    @Value("${urbanup.websocket.broker.relay.system-login:guest}")
+    private String relaySystemLogin;
+
+    @Value("${urbanup.websocket.broker.relay.system-passcode:guest}")
+    private String relaySystemPasscode;
+
+    @Value("${urbanup.websocket.broker.relay.virtual-host:}")
+    private String relayVirtualHost;
+
     @Override
     public void configureMessageBroker(MessageBrokerRegistry config) {
-        // Enable a simple message broker to handle subscriptions and broadcast messages
-        config.enableSimpleBroker("/topic", "/queue");
+        if ("relay".equalsIgnoreCase(brokerMode)) {
+            // Relay to an external STOMP broker (RabbitMQ, ActiveMQ) shared by all nodes.
+            // Unresolved user destinations and the user registry are broadcast so that
+            // /user/** destinations resolve against sessions connected to any node.
+            StompBrokerRelayRegistration relay = config.enableStompBrokerRelay("/topic", "/queue")
+                    .setRelayHost(relayHost)
+                    .setRelayPort(relayPort)
+                    .setClientLogin(relayClientLogin)
+                    .setClientPasscode(relayClientPasscode)
+                    .setSystemLogin(relaySystemLogin)
+                    .setSystemPasscode(relaySystemPasscode)
+                    .setUserDestinationBroadcast("/topic/unresolved-user-destination")
+                    .setUserRegistryBroadcast("/topic/user-registry");
+            if (!relayVirtualHost.isBlank()) {
+                relay.setVirtualHost(relayVirtualHost);
+            }
+        } else {
+            // Enable a simple message broker to handle subscriptions and broadcast messages
+            config.enableSimpleBroker("/topic", "/queue")
+                    .setHeartbeatValue(new long[] {heartbeatMillis, heartbeatMillis})
+                    .setTaskScheduler(messageBrokerTaskScheduler);
+            
+            // In redis mode every broker message is also fanned out to the other nodes
+            if (clusterBrokerBridge != null) {
+                config.configureBrokerChannel().interceptors(clusterBrokerBridge);
+            }
+        }
         
         // Define prefix for messages bound for @MessageMapping methods
         config.setApplicationDestinationPrefixes("/app");
@@ -49,6 +169,7 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
         
         // Additional endpoint without SockJS for native WebSocket clients
         registry.addEndpoint("/ws-native")
+                .setHandshakeHandler(new DefaultHandshakeHandler(new DeflateToggleUpgradeStrategy(nativeDeflate)))
                 .setAllowedOriginPatterns("*");
                 
         // Add endpoint for token-based authentication via query parameter
@@ -57,6 +178,24 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
                 .withSockJS();
     }
     
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        registration.setSendTimeLimit(sendTimeLimitMillis)
+                .setSendBufferSizeLimit(sendBufferSizeLimit)
+                .setMessageSizeLimit(messageSizeLimit)
+                .addDecoratorFactory(outboundFlowControl);
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        // Bounded pool and queue; frames for slow sessions are shed before they fill it
+        registration.taskExecutor()
+                .corePoolSize(outboundCorePoolSize)
+                .maxPoolSize(outboundMaxPoolSize)
+                .queueCapacity(outboundQueueCapacity);
+        registration.interceptors(outboundFlowControl, compactPayloadCodec);
+    }
+    
     @Override
     public void configureClientInboundChannel(ChannelRegistration registration) {
         registration.interceptors(new ChannelInterceptor() {
@@ -65,6 +204,10 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
                 StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
                 
                 if (accessor != null && StompCommand.CONNECT.equals(accessor.getCommand())) {
+                    // Payload encoding for frames sent to this session (regular JSON unless compact is requested)
+                    compactPayloadCodec.negotiate(accessor.getSessionId(),
+                            accessor.getFirstNativeHeader(CompactPayloadCodec.FORMAT_HEADER));
+                    
                     // Try to extract JWT token from headers first
                     String authToken = accessor.getFirstNativeHeader("Authorization");
                     
@@ -84,17 +227,29 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
                             if (jwtUtil.validateToken(token)) {
                                 String username = jwtUtil.extractUsername(token);
                                 
-                                // Set authentication in WebSocket session
-                                UsernamePasswordAuthenticationToken auth = 
-                                    new UsernamePasswordAuthenticationToken(username, null, null);
-                                accessor.setUser(auth);
-                                SecurityContextHolder.getContext().setAuthentication(auth);
+                                // Resolve the user once for the whole session; handlers read it from the session attributes
+                                Optional<User> userOpt = userRepository.findByEmail(username);
+                                Map<String, Object> sessionAttributes = accessor.getSessionAttributes();
+                                if (userOpt.isPresent() && sessionAttributes != null) {
+                                    WebSocketPrincipal principal = WebSocketPrincipal.create(userOpt.get());
+                                    chatAccessGuard.preload(principal);
+                                    sessionAttributes.put(WebSocketPrincipal.SESSION_ATTRIBUTE, principal);
+                                    
+                                    // Set authentication in WebSocket session
+                                    UsernamePasswordAuthenticationToken auth = 
+                                        new UsernamePasswordAuthenticationToken(username, null, null);
+                                    accessor.setUser(auth);
+                                    SecurityContextHolder.getContext().setAuthentication(auth);
+                                }
                             }
                         } catch (Exception e) {
                             // Invalid token - connection will be rejected
                             System.err.println("WebSocket authentication failed: " + e.getMessage());
                         }
                     }
+                } else if (accessor != null) {
+                    // Any other frame, heartbeats included, keeps the user's presence alive
+                    presenceRegistry.touch(accessor);
                 }
                 
                 return message;
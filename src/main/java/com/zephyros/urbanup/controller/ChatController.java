@@ -27,7 +27,11 @@ import com.zephyros.urbanup.model.Message;
 import com.zephyros.urbanup.model.Task;
 import com.zephyros.urbanup.model.User;
 import com.zephyros.urbanup.service.ChatService;
+import com.zephyros.urbanup.service.MediaAccessService;
+import com.zephyros.urbanup.service.MediaStorageService;
+import com.zephyros.urbanup.service.MediaStorageService.StoredMedia;
 import com.zephyros.urbanup.service.TaskService;
+import com.zephyros.urbanup.service.ThumbnailService;
 import com.zephyros.urbanup.service.UserService;
 
 @RestController
@@ -43,6 +47,15 @@ public class ChatController {
     @Autowired
     private UserService userService;
 
+    @Autowired
+    private MediaStorageService mediaStorageService;
+
+    @Autowired
+    private ThumbnailService thumbnailService;
+
+    @Autowired
+    private MediaAccessService mediaAccessService;
+
     // Helper method to convert a Message entity to a MessageResponseDto
     private MessageResponseDto convertToMessageDto(Message message) {
         return new MessageResponseDto(
@@ -186,22 +199,22 @@ public class ChatController {
             @RequestParam Long senderId,
             @RequestParam(required = false) String caption) {
         try {
-            if (file.isEmpty() || file.getSize() > 10 * 1024 * 1024) { // 10MB limit
-                return ResponseEntity.badRequest().body(new ApiResponse<>(false, "File is empty or too large (max 10MB)", null));
-            }
+            // Nothing is written for a chat the sender cannot post to
+            chatService.checkCanSend(chatId, senderId);
+            // Validates type and size while streaming the file to disk
+            StoredMedia media = mediaStorageService.store(file);
+            Message.MessageType messageType = media.getContentType().startsWith("image/")
+                    ? Message.MessageType.IMAGE : Message.MessageType.FILE;
 
-            String contentType = file.getContentType();
-            Message.MessageType messageType = Message.MessageType.FILE;
-            if (contentType != null && contentType.startsWith("image/")) {
-                messageType = Message.MessageType.IMAGE;
-            }
-
-            // Placeholder for file storage logic
             String fileName = file.getOriginalFilename();
-            String fileUrl = "/uploads/chat/" + chatId + "/" + System.currentTimeMillis() + "_" + fileName;
+            String fileUrl = media.getUrl();
+            mediaAccessService.recordChatMedia(chatId, fileUrl);
             String messageContent = (caption != null && !caption.trim().isEmpty() ? caption : fileName) + "::" + fileUrl;
 
             Message message = chatService.sendMessage(chatId, senderId, messageContent, messageType);
+            if (messageType == Message.MessageType.IMAGE) {
+                thumbnailService.enqueue(fileUrl, null);
+            }
             MessageResponseDto messageDto = convertToMessageDto(message);
 
             return ResponseEntity.status(HttpStatus.CREATED).body(new ApiResponse<>(true, "Media uploaded successfully", messageDto));
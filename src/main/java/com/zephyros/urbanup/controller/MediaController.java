@@ -0,0 +1,140 @@
+package com.zephyros.urbanup.controller;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import com.zephyros.urbanup.service.MediaAccessService;
+import com.zephyros.urbanup.service.MediaStorageService;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Downloads of stored media by their content-addressed name.
+ *
+ * Chat files are only served to the chat's participants (see {@link MediaAccessService}). The blob is
+ * handed to Tomcat's sendfile, which copies it to the socket with FileChannel.transferTo, so file bytes
+ * never pass through the heap. Containers without sendfile get a transferTo into the servlet output
+ * stream, which is heap-backed, so there each chunk is copied through a small heap buffer. A single byte range is answered with 206 for resumable downloads, and the
+ * SHA-256 in the name is the strong ETag. Content never changes under a URL, so responses are cached
+ * as immutable.
+ */
+@RestController
+@RequestMapping("/media")
+public class MediaController {
+
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    @Autowired
+    private MediaStorageService mediaStorageService;
+
+    @Autowired
+    private MediaAccessService mediaAccessService;
+
+    @Value("${urbanup.file.cache-max-age:365d}")
+    private Duration cacheMaxAge;
+
+    /**
+     * Download a stored file, e.g. GET /media/{sha256}.png, optionally with a Range header
+     */
+    @GetMapping("/{name:.+}")
+    public void download(@PathVariable String name, HttpServletRequest request, HttpServletResponse response,
+                         Authentication authentication) throws IOException {
+        Optional<Path> blob = mediaStorageService.resolve(name);
+        if (blob.isEmpty()) {
+            response.sendError(HttpStatus.NOT_FOUND.value());
+            return;
+        }
+        if (!mediaAccessService.canDownload(name, authentication != null ? authentication.getName() : null)) {
+            response.sendError(HttpStatus.FORBIDDEN.value());
+            return;
+        }
+        Path path = blob.get();
+        long length = Files.size(path);
+        String etag = "\"" + name.substring(0, name.indexOf('.')) + "\"";
+
+        // Private: media is only served to signed-in users
+        response.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.maxAge(cacheMaxAge).cachePrivate().immutable().getHeaderValue());
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setHeader("X-Content-Type-Options", "nosniff");
+        if (new ServletWebRequest(request, response).checkNotModified(etag)) {
+            return;
+        }
+
+        long start = 0;
+        long end = length - 1;
+        String range = request.getHeader(HttpHeaders.RANGE);
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (range != null && (ifRange == null || ifRange.equals(etag))) {
+            List<HttpRange> ranges;
+            try {
+                ranges = HttpRange.parseRanges(range);
+                // Multiple ranges are answered with the whole file, which the spec allows
+                if (ranges.size() == 1) {
+                    start = ranges.get(0).getRangeStart(length);
+                    end = ranges.get(0).getRangeEnd(length);
+                    // HttpRange clamps the end but not the start, so a range past the end is caught here
+                    if (start >= length) {
+                        throw new IllegalArgumentException("Range starts beyond the end of the file");
+                    }
+                    response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+                    response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+                }
+            } catch (IllegalArgumentException e) {
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                response.sendError(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+                return;
+            }
+        }
+
+        long count = end - start + 1;
+        response.setContentType(mediaStorageService.contentTypeOf(name));
+        response.setContentLengthLong(count);
+        if ("HEAD".equalsIgnoreCase(request.getMethod()) || count == 0) {
+            return;
+        }
+
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            request.setAttribute(SENDFILE_FILENAME, path.toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, end + 1);
+            return;
+        }
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = start;
+            while (count > 0) {
+                long sent = file.transferTo(position, count, out);
+                if (sent <= 0) {
+                    break;
+                }
+                position += sent;
+                count -= sent;
+            }
+        }
+    }
+}
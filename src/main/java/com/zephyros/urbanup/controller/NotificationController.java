@@ -1,9 +1,11 @@
 package com.zephyros.urbanup.controller;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
@@ -11,24 +13,34 @@ import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import com.zephyros.urbanup.dto.ApiResponse;
+import com.zephyros.urbanup.dto.NotificationPreferencesDto;
 import com.zephyros.urbanup.model.Notification;
+import com.zephyros.urbanup.service.NotificationPreferenceService;
 import com.zephyros.urbanup.service.NotificationService;
+import com.zephyros.urbanup.service.NotificationService.NotificationFeedPage;
 import com.zephyros.urbanup.service.UserService;
 
 @RestController
 @RequestMapping("/api/notifications")
 public class NotificationController {
 
+    private static final int MAX_PAGE_SIZE = 200;
+    private static final int MAX_BULK_IDS = 500;
+
     @Autowired
     private NotificationService notificationService;
     
     @Autowired
     private UserService userService;
+    
+    @Autowired
+    private NotificationPreferenceService notificationPreferenceService;
 
     /**
      * Get user notifications with pagination
@@ -46,7 +58,8 @@ public class NotificationController {
                 return ResponseEntity.status(HttpStatus.FORBIDDEN).body(response);
             }
             
-            List<Notification> notifications = notificationService.getUserNotifications(userId, limit, offset);
+            int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+            List<Notification> notifications = notificationService.getUserNotifications(userId, pageSize, Math.max(0, offset));
             
             ApiResponse<List<Notification>> response = new ApiResponse<>(true, "Notifications retrieved successfully", notifications);
             return ResponseEntity.ok(response);
@@ -57,6 +70,72 @@ public class NotificationController {
         }
     }
 
+    /**
+     * Notification feed, newest first, e.g. GET /api/notifications/user/5/feed?size=20.
+     * Pass the returned nextCursor back as cursor for the next page.
+     */
+    @GetMapping("/user/{userId}/feed")
+    public ResponseEntity<ApiResponse<NotificationFeedPage>> getNotificationFeed(
+            @PathVariable Long userId,
+            @RequestParam(defaultValue = "20") int size,
+            @RequestParam(required = false) String cursor,
+            Authentication authentication) {
+        try {
+            // Verify user has permission to access these notifications
+            if (!userService.isCurrentUser(userId, authentication)) {
+                ApiResponse<NotificationFeedPage> response = new ApiResponse<>(false, "Unauthorized access", null);
+                return ResponseEntity.status(HttpStatus.FORBIDDEN).body(response);
+            }
+            
+            int pageSize = Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+            NotificationFeedPage feed = notificationService.getNotificationFeed(userId, pageSize, cursor);
+            
+            ApiResponse<NotificationFeedPage> response = new ApiResponse<>(true, "Notifications retrieved successfully", feed);
+            return ResponseEntity.ok(response);
+            
+        } catch (IllegalArgumentException e) {
+            ApiResponse<NotificationFeedPage> response = new ApiResponse<>(false, e.getMessage(), null);
+            return ResponseEntity.badRequest().body(response);
+        } catch (Exception e) {
+            ApiResponse<NotificationFeedPage> response = new ApiResponse<>(false, "Failed to retrieve notifications", null);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
+        }
+    }
+
+    /**
+     * Get notifications created or updated after a point, e.g. after reconnecting. New notifications are
+     * otherwise pushed to /user/queue/notifications. Start with since (the createdAt of the last one seen),
+     * then pass the returned nextCursor as cursor until a page comes back empty.
+     */
+    @GetMapping("/user/{userId}/since")
+    public ResponseEntity<ApiResponse<NotificationFeedPage>> getNotificationsSince(
+            @PathVariable Long userId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime since,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "50") int limit,
+            Authentication authentication) {
+        try {
+            // Verify user has permission to access these notifications
+            if (!userService.isCurrentUser(userId, authentication)) {
+                ApiResponse<NotificationFeedPage> response = new ApiResponse<>(false, "Unauthorized access", null);
+                return ResponseEntity.status(HttpStatus.FORBIDDEN).body(response);
+            }
+            
+            int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+            NotificationFeedPage page = notificationService.getNotificationsSince(userId, since, cursor, pageSize);
+            
+            ApiResponse<NotificationFeedPage> response = new ApiResponse<>(true, "Notifications retrieved successfully", page);
+            return ResponseEntity.ok(response);
+            
+        } catch (IllegalArgumentException e) {
+            ApiResponse<NotificationFeedPage> response = new ApiResponse<>(false, e.getMessage(), null);
+            return ResponseEntity.badRequest().body(response);
+        } catch (Exception e) {
+            ApiResponse<NotificationFeedPage> response = new ApiResponse<>(false, "Failed to retrieve notifications", null);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
+        }
+    }
+
     /**
      * Get notification counts for user
      */
@@ -71,9 +150,9 @@ public class NotificationController {
                 return ResponseEntity.status(HttpStatus.FORBIDDEN).body(response);
             }
             
+            // Two indexed counts; nothing is loaded
             Long unreadCount = notificationService.getUnreadNotificationCount(userId);
-            List<Notification> allNotifications = notificationService.getUserNotifications(userId, Integer.MAX_VALUE, 0);
-            Long totalCount = (long) allNotifications.size();
+            Long totalCount = notificationService.getNotificationCount(userId);
             
             NotificationCounts counts = new NotificationCounts(totalCount, unreadCount);
             
@@ -143,6 +222,91 @@ public class NotificationController {
         }
     }
 
+    /**
+     * Mark all notifications of one type as read for user, e.g. PUT /user/5/read-by-type?type=SYSTEM_ANNOUNCEMENT
+     */
+    @PutMapping("/user/{userId}/read-by-type")
+    public ResponseEntity<ApiResponse<String>> markNotificationsAsReadByType(
+            @PathVariable Long userId,
+            @RequestParam Notification.NotificationType type,
+            Authentication authentication) {
+        try {
+            // Verify user has permission to modify these notifications
+            if (!userService.isCurrentUser(userId, authentication)) {
+                ApiResponse<String> response = new ApiResponse<>(false, "Unauthorized access", null);
+                return ResponseEntity.status(HttpStatus.FORBIDDEN).body(response);
+            }
+            
+            int markedCount = notificationService.markAllAsReadByType(userId, type);
+            
+            String message = String.format("%d notifications marked as read", markedCount);
+            ApiResponse<String> response = new ApiResponse<>(true, message, null);
+            return ResponseEntity.ok(response);
+            
+        } catch (Exception e) {
+            ApiResponse<String> response = new ApiResponse<>(false, "Failed to mark notifications as read", null);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
+        }
+    }
+
+    /**
+     * Mark all notifications about one chat as read for user
+     */
+    @PutMapping("/user/{userId}/read-by-chat")
+    public ResponseEntity<ApiResponse<String>> markNotificationsAsReadByChat(
+            @PathVariable Long userId,
+            @RequestParam Long chatId,
+            Authentication authentication) {
+        try {
+            // Verify user has permission to modify these notifications
+            if (!userService.isCurrentUser(userId, authentication)) {
+                ApiResponse<String> response = new ApiResponse<>(false, "Unauthorized access", null);
+                return ResponseEntity.status(HttpStatus.FORBIDDEN).body(response);
+            }
+            
+            int markedCount = notificationService.markAllAsReadByChat(userId, chatId);
+            
+            String message = String.format("%d notifications marked as read", markedCount);
+            ApiResponse<String> response = new ApiResponse<>(true, message, null);
+            return ResponseEntity.ok(response);
+            
+        } catch (Exception e) {
+            ApiResponse<String> response = new ApiResponse<>(false, "Failed to mark notifications as read", null);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
+        }
+    }
+
+    /**
+     * Delete several notifications of user at once, e.g. DELETE /user/5?ids=1,2,3
+     */
+    @DeleteMapping("/user/{userId}")
+    public ResponseEntity<ApiResponse<String>> deleteNotifications(
+            @PathVariable Long userId,
+            @RequestParam List<Long> ids,
+            Authentication authentication) {
+        try {
+            // Verify user has permission to delete these notifications
+            if (!userService.isCurrentUser(userId, authentication)) {
+                ApiResponse<String> response = new ApiResponse<>(false, "Unauthorized access", null);
+                return ResponseEntity.status(HttpStatus.FORBIDDEN).body(response);
+            }
+            if (ids.size() > MAX_BULK_IDS) {
+                ApiResponse<String> response = new ApiResponse<>(false, "At most " + MAX_BULK_IDS + " notifications can be deleted at once", null);
+                return ResponseEntity.badRequest().body(response);
+            }
+            
+            int deletedCount = notificationService.deleteNotifications(userId, ids);
+            
+            String message = String.format("%d notifications deleted", deletedCount);
+            ApiResponse<String> response = new ApiResponse<>(true, message, null);
+            return ResponseEntity.ok(response);
+            
+        } catch (Exception e) {
+            ApiResponse<String> response = new ApiResponse<>(false, "Failed to delete notifications", null);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
+        }
+    }
+
     /**
      * Delete a notification
      */
@@ -179,27 +343,56 @@ public class NotificationController {
     }
 
     /**
-     * Update notification preferences (placeholder for future implementation)
+     * Get notification preferences for user
+     */
+    @GetMapping("/user/{userId}/preferences")
+    public ResponseEntity<ApiResponse<NotificationPreferencesDto>> getNotificationPreferences(
+            @PathVariable Long userId,
+            Authentication authentication) {
+        try {
+            // Verify user has permission
+            if (!userService.isCurrentUser(userId, authentication)) {
+                ApiResponse<NotificationPreferencesDto> response = new ApiResponse<>(false, "Unauthorized access", null);
+                return ResponseEntity.status(HttpStatus.FORBIDDEN).body(response);
+            }
+            
+            NotificationPreferencesDto preferences = notificationPreferenceService.getPreferences(userId);
+            
+            ApiResponse<NotificationPreferencesDto> response = new ApiResponse<>(true, "Notification preferences retrieved", preferences);
+            return ResponseEntity.ok(response);
+            
+        } catch (Exception e) {
+            ApiResponse<NotificationPreferencesDto> response = new ApiResponse<>(false, "Failed to retrieve preferences", null);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
+        }
+    }
+
+    /**
+     * Update notification preferences, e.g. {"digest":"DAILY","dailyHour":8,"types":{"PAYMENT_RECEIVED":"IMMEDIATE"}}.
+     * HIGH and URGENT notifications are always delivered immediately. dailyHour is in the server's time zone.
      */
     @PutMapping("/user/{userId}/preferences")
-    public ResponseEntity<ApiResponse<String>> updateNotificationPreferences(
+    public ResponseEntity<ApiResponse<NotificationPreferencesDto>> updateNotificationPreferences(
             @PathVariable Long userId,
+            @RequestBody NotificationPreferencesDto preferences,
             Authentication authentication) {
         try {
             // Verify user has permission
             if (!userService.isCurrentUser(userId, authentication)) {
-                ApiResponse<String> response = new ApiResponse<>(false, "Unauthorized access", null);
+                ApiResponse<NotificationPreferencesDto> response = new ApiResponse<>(false, "Unauthorized access", null);
                 return ResponseEntity.status(HttpStatus.FORBIDDEN).body(response);
             }
             
-            // Placeholder - this would update user notification preferences
-            // For now, return success but note that preferences aren't implemented yet
+            NotificationPreferencesDto updated = notificationPreferenceService.updatePreferences(userId, preferences);
             
-            ApiResponse<String> response = new ApiResponse<>(true, "Notification preferences feature coming soon", null);
+            ApiResponse<NotificationPreferencesDto> response = new ApiResponse<>(true, "Notification preferences updated", updated);
             return ResponseEntity.ok(response);
             
+        } catch (IllegalArgumentException e) {
+            ApiResponse<NotificationPreferencesDto> response = new ApiResponse<>(false, e.getMessage(), null);
+            return ResponseEntity.badRequest().body(response);
         } catch (Exception e) {
-            ApiResponse<String> response = new ApiResponse<>(false, "Failed to update preferences", null);
+            ApiResponse<NotificationPreferencesDto> response = new ApiResponse<>(false, "Failed to update preferences", null);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
         }
     }
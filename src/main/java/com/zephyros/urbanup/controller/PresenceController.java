@@ -0,0 +1,42 @@
+package com.zephyros.urbanup.controller;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.zephyros.urbanup.dto.ApiResponse;
+import com.zephyros.urbanup.websocket.PresenceRegistry;
+import com.zephyros.urbanup.websocket.PresenceRegistry.PresenceView;
+
+@RestController
+@RequestMapping("/presence")
+public class PresenceController {
+
+    private static final int MAX_LOOKUP_SIZE = 500;
+
+    @Autowired
+    private PresenceRegistry presenceRegistry;
+
+    /**
+     * Bulk presence lookup, e.g. GET /presence?userIds=1,2,3
+     */
+    @GetMapping
+    public ResponseEntity<ApiResponse<List<PresenceView>>> getPresence(@RequestParam List<Long> userIds) {
+        if (userIds.size() > MAX_LOOKUP_SIZE) {
+            return ResponseEntity.badRequest()
+                .body(new ApiResponse<>(false, "At most " + MAX_LOOKUP_SIZE + " users per request", null));
+        }
+        try {
+            List<PresenceView> presence = presenceRegistry.lookup(userIds);
+            return ResponseEntity.ok(new ApiResponse<>(true, "Presence retrieved successfully", presence));
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError()
+                .body(new ApiResponse<>(false, "Failed to retrieve presence", null));
+        }
+    }
+}
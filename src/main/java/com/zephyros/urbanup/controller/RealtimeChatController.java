@@ -6,6 +6,9 @@ import java.util.Map;
 import java.util.Optional;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.messaging.handler.annotation.DestinationVariable;
 import org.springframework.messaging.handler.annotation.MessageMapping;
@@ -21,24 +24,41 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RequestPart;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.zephyros.urbanup.dto.ApiResponse;
 import com.zephyros.urbanup.model.Chat;
 import com.zephyros.urbanup.model.Message;
 import com.zephyros.urbanup.model.User;
+import com.zephyros.urbanup.service.ChatTranscriptService;
+import com.zephyros.urbanup.service.MessageSearchService;
+import com.zephyros.urbanup.service.MessageSearchService.SearchPage;
 import com.zephyros.urbanup.service.RealtimeChatService;
+import com.zephyros.urbanup.service.RealtimeChatService.MessageBroadcast;
 import com.zephyros.urbanup.service.UserService;
 
 @RestController
 @RequestMapping("/realtime-chat")
 public class RealtimeChatController {
     
+    private static final int MAX_PAGE_SIZE = 200;
+    
     @Autowired
     private RealtimeChatService realtimeChatService;
     
     @Autowired
     private UserService userService;
     
+    @Autowired
+    private ChatTranscriptService chatTranscriptService;
+    
+    @Autowired
+    private ObjectMapper objectMapper;
+    
+    @Autowired
+    private MessageSearchService messageSearchService;
+    
     /**
      * Create or get chat for a task
      */
@@ -82,10 +102,13 @@ public class RealtimeChatController {
     }
     
     /**
-     * Get chat messages
+     * Get a page of chat messages in the same shape as live broadcasts, e.g.
+     * GET /realtime-chat/12/messages?page=0&size=50. Page 0 is the newest messages and comes from the
+     * recent message cache, falling back to the database on a miss; each page is ordered oldest first.
+     * /messages/recent is the earlier name of the same endpoint.
      */
-    @GetMapping("/{chatId}/messages")
-    public ResponseEntity<ApiResponse<List<Message>>> getChatMessages(
+    @GetMapping({"/{chatId}/messages", "/{chatId}/messages/recent"})
+    public ResponseEntity<ApiResponse<List<MessageBroadcast>>> getRecentMessages(
             @PathVariable Long chatId,
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "50") int size,
@@ -99,7 +122,8 @@ public class RealtimeChatController {
                     .body(new ApiResponse<>(false, "User not found", null));
             }
             
-            List<Message> messages = realtimeChatService.getChatMessages(chatId, userOpt.get().getId(), page, size);
+            List<MessageBroadcast> messages = realtimeChatService.getRecentMessages(
+                chatId, userOpt.get().getId(), Math.max(0, page), Math.max(1, Math.min(size, MAX_PAGE_SIZE)));
             return ResponseEntity.ok(new ApiResponse<>(true, "Messages retrieved successfully", messages));
         } catch (IllegalArgumentException e) {
             return ResponseEntity.badRequest()
@@ -110,6 +134,81 @@ public class RealtimeChatController {
         }
     }
     
+    /**
+     * Full-text search across the user's chats, e.g. GET /realtime-chat/search?q=invoice&chatId=12.
+     * Pass the returned nextCursor back as cursor for the next page.
+     */
+    @GetMapping("/search")
+    public ResponseEntity<ApiResponse<SearchPage>> searchMessages(
+            @RequestParam("q") String query,
+            @RequestParam(required = false) Long chatId,
+            @RequestParam(defaultValue = "20") int size,
+            @RequestParam(required = false) String cursor,
+            Authentication authentication) {
+        
+        try {
+            String email = authentication.getName();
+            Optional<User> userOpt = userService.getUserByEmail(email);
+            if (userOpt.isEmpty()) {
+                return ResponseEntity.badRequest()
+                    .body(new ApiResponse<>(false, "User not found", null));
+            }
+            
+            SearchPage page = messageSearchService.search(userOpt.get().getId(), query, chatId, size, cursor);
+            return ResponseEntity.ok(new ApiResponse<>(true, "Search completed successfully", page));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest()
+                .body(new ApiResponse<>(false, e.getMessage(), null));
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError()
+                .body(new ApiResponse<>(false, "Failed to search messages", null));
+        }
+    }
+    
+    /**
+     * Stream the full chat transcript as NDJSON (default) or CSV
+     */
+    @GetMapping("/{chatId}/export")
+    public ResponseEntity<StreamingResponseBody> exportTranscript(
+            @PathVariable Long chatId,
+            @RequestParam(defaultValue = ChatTranscriptService.FORMAT_NDJSON) String format,
+            Authentication authentication) {
+        
+        try {
+            String email = authentication.getName();
+            Optional<User> userOpt = userService.getUserByEmail(email);
+            if (userOpt.isEmpty()) {
+                return exportError(HttpStatus.BAD_REQUEST, "User not found");
+            }
+            
+            boolean csv = ChatTranscriptService.FORMAT_CSV.equalsIgnoreCase(format);
+            if (!csv && !ChatTranscriptService.FORMAT_NDJSON.equalsIgnoreCase(format)) {
+                return exportError(HttpStatus.BAD_REQUEST, "Format must be ndjson or csv");
+            }
+            
+            chatTranscriptService.checkAccess(chatId, userOpt.get().getId());
+            
+            StreamingResponseBody body = out -> chatTranscriptService.writeTranscript(chatId, format, out);
+            return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                    "attachment; filename=\"chat-" + chatId + (csv ? ".csv" : ".ndjson") + "\"")
+                .contentType(csv ? new MediaType("text", "csv") : new MediaType("application", "x-ndjson"))
+                .body(body);
+        } catch (IllegalArgumentException e) {
+            return exportError(HttpStatus.FORBIDDEN, e.getMessage());
+        } catch (Exception e) {
+            return exportError(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to export chat");
+        }
+    }
+    
+    // Streaming endpoints cannot return an ApiResponse body directly, so it is written out the same way
+    private ResponseEntity<StreamingResponseBody> exportError(HttpStatus status, String message) {
+        ApiResponse<Void> response = new ApiResponse<>(false, message, null);
+        return ResponseEntity.status(status)
+            .contentType(MediaType.APPLICATION_JSON)
+            .body(out -> objectMapper.writeValue(out, response));
+    }
+    
     /**
      * Send text message
      */
@@ -134,7 +233,7 @@ public class RealtimeChatController {
             }
             
             Message message = realtimeChatService.sendRealtimeMessage(
-                chatId, userOpt.get().getId(), content, Message.MessageType.TEXT);
+                chatId, userOpt.get().getId(), content, Message.MessageType.TEXT, payload.get("clientMessageId"));
             
             return ResponseEntity.ok(new ApiResponse<>(true, "Message sent successfully", message));
         } catch (IllegalArgumentException e) {
@@ -0,0 +1,53 @@
+package com.zephyros.urbanup.controller;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.zephyros.urbanup.dto.ApiResponse;
+import com.zephyros.urbanup.service.ChatIngestionEngine;
+import com.zephyros.urbanup.service.WriteBehindMessageStore;
+import com.zephyros.urbanup.websocket.CompactPayloadCodec;
+import com.zephyros.urbanup.websocket.OfflineDeliveryQueue;
+import com.zephyros.urbanup.websocket.OutboundFlowControl;
+
+/**
+ * Operational counters for the real-time chat pipeline on this node
+ */
+@RestController
+@RequestMapping("/realtime-stats")
+public class RealtimeStatsController {
+
+    @Autowired
+    private ChatIngestionEngine chatIngestionEngine;
+
+    @Autowired(required = false)
+    private WriteBehindMessageStore writeBehindStore;
+
+    @Autowired
+    private OutboundFlowControl outboundFlowControl;
+
+    @Autowired
+    private CompactPayloadCodec compactPayloadCodec;
+
+    @Autowired
+    private OfflineDeliveryQueue offlineDeliveryQueue;
+
+    @GetMapping
+    public ResponseEntity<ApiResponse<Map<String, Object>>> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("ingestion", chatIngestionEngine.getStats());
+        stats.put("outbound", outboundFlowControl.getStats());
+        stats.put("compactSessions", compactPayloadCodec.getCompactSessionCount());
+        stats.put("offlineQueue", offlineDeliveryQueue.getStats());
+        if (writeBehindStore != null) {
+            stats.put("writeBehindPending", writeBehindStore.getPendingCount());
+        }
+        return ResponseEntity.ok(new ApiResponse<>(true, "Stats retrieved successfully", stats));
+    }
+}
@@ -1,22 +1,28 @@
 package com.zephyros.urbanup.controller;
 
-import java.security.Principal;
+import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.messaging.handler.annotation.DestinationVariable;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.annotation.SubscribeMapping;
 import org.springframework.stereotype.Controller;
 
 import com.zephyros.urbanup.model.Message;
-import com.zephyros.urbanup.model.User;
+import com.zephyros.urbanup.service.ChatIngestionEngine;
 import com.zephyros.urbanup.service.RealtimeChatService;
-import com.zephyros.urbanup.service.UserService;
+import com.zephyros.urbanup.websocket.ChatAccessGuard;
+import com.zephyros.urbanup.websocket.OfflineDeliveryQueue;
+import com.zephyros.urbanup.websocket.OfflineDeliveryQueue.OfflineBatch;
+import com.zephyros.urbanup.websocket.PresenceRegistry;
+import com.zephyros.urbanup.websocket.WebSocketPrincipal;
 
 /**
- * WebSocket Controller for real-time messaging
+ * WebSocket Controller for real-time messaging.
+ * The sender is read from the session principal resolved at CONNECT, never from the database.
  */
 @Controller
 public class RealtimeWebSocketController {
@@ -25,7 +31,31 @@ public class RealtimeWebSocketController {
     private RealtimeChatService realtimeChatService;
     
     @Autowired
-    private UserService userService;
+    private ChatIngestionEngine chatIngestionEngine;
+    
+    @Autowired
+    private ChatAccessGuard chatAccessGuard;
+    
+    @Autowired
+    private PresenceRegistry presenceRegistry;
+    
+    @Autowired
+    private OfflineDeliveryQueue offlineDeliveryQueue;
+    
+    /**
+     * Deliver everything queued while the user was offline, as the reply to subscribing to /app/offline-events.
+     * Clients subscribe right after CONNECT, once their other subscriptions are in place.
+     */
+    @SubscribeMapping("/offline-events")
+    public OfflineBatch drainOfflineEvents(SimpMessageHeaderAccessor headerAccessor) {
+        WebSocketPrincipal principal = WebSocketPrincipal.from(headerAccessor);
+        if (principal == null) {
+            OfflineBatch empty = new OfflineBatch();
+            empty.setEvents(List.of());
+            return empty;
+        }
+        return offlineDeliveryQueue.drain(principal.getUserId());
+    }
     
     /**
      * Handle WebSocket message sending
@@ -34,17 +64,17 @@ public class RealtimeWebSocketController {
     public void handleChatMessage(
             @DestinationVariable Long chatId,
             @Payload Map<String, Object> payload,
-            Principal principal) {
+            SimpMessageHeaderAccessor headerAccessor) {
         
         try {
-            String email = principal.getName();
-            Optional<User> userOpt = userService.getUserByEmail(email);
-            if (userOpt.isEmpty()) {
+            WebSocketPrincipal principal = WebSocketPrincipal.from(headerAccessor);
+            if (!chatAccessGuard.canAccess(principal, chatId)) {
                 return;
             }
             
             String content = (String) payload.get("content");
             String messageTypeStr = (String) payload.get("messageType");
+            String clientMessageId = (String) payload.get("clientMessageId");
             
             if (content == null || content.trim().isEmpty()) {
                 return;
@@ -59,7 +89,13 @@ public class RealtimeWebSocketController {
                 }
             }
             
-            realtimeChatService.sendRealtimeMessage(chatId, userOpt.get().getId(), content, messageType);
+            // Queued on the chat's ingestion lane; the sender gets an ack once the message is stored
+            chatIngestionEngine.submit(chatId, principal.getUserId(), content, messageType, null, clientMessageId)
+                .thenAccept(message -> realtimeChatService.sendMessageAck(principal.getEmail(), message))
+                .exceptionally(e -> {
+                    System.err.println("Error sending chat message: " + e.getMessage());
+                    return null;
+                });
             
         } catch (Exception e) {
             System.err.println("Error handling chat message: " + e.getMessage());
@@ -73,12 +109,11 @@ public class RealtimeWebSocketController {
     public void handleTypingIndicator(
             @DestinationVariable Long chatId,
             @Payload Map<String, Object> payload,
-            Principal principal) {
+            SimpMessageHeaderAccessor headerAccessor) {
         
         try {
-            String email = principal.getName();
-            Optional<User> userOpt = userService.getUserByEmail(email);
-            if (userOpt.isEmpty()) {
+            WebSocketPrincipal principal = WebSocketPrincipal.from(headerAccessor);
+            if (!chatAccessGuard.canAccess(principal, chatId)) {
                 return;
             }
             
@@ -87,7 +122,7 @@ public class RealtimeWebSocketController {
                 isTyping = false;
             }
             
-            realtimeChatService.broadcastTypingIndicator(chatId, userOpt.get().getId(), isTyping);
+            realtimeChatService.broadcastTypingIndicator(chatId, principal.getUserId(), isTyping);
             
         } catch (Exception e) {
             System.err.println("Error handling typing indicator: " + e.getMessage());
@@ -95,18 +130,17 @@ public class RealtimeWebSocketController {
     }
     
     /**
-     * Handle user presence updates
+     * Handle user presence updates; online/offline is tracked by the server, clients only set away/busy/online
      */
     @MessageMapping("/chat/{chatId}/presence")
     public void handlePresenceUpdate(
             @DestinationVariable Long chatId,
             @Payload Map<String, Object> payload,
-            Principal principal) {
+            SimpMessageHeaderAccessor headerAccessor) {
         
         try {
-            String email = principal.getName();
-            Optional<User> userOpt = userService.getUserByEmail(email);
-            if (userOpt.isEmpty()) {
+            WebSocketPrincipal principal = WebSocketPrincipal.from(headerAccessor);
+            if (!chatAccessGuard.canAccess(principal, chatId)) {
                 return;
             }
             
@@ -115,7 +149,7 @@ public class RealtimeWebSocketController {
                 status = "online";
             }
             
-            realtimeChatService.broadcastUserPresence(chatId, userOpt.get().getId(), status);
+            presenceRegistry.updateStatus(principal.getUserId(), status);
             
         } catch (Exception e) {
             System.err.println("Error handling presence update: " + e.getMessage());
@@ -128,16 +162,15 @@ public class RealtimeWebSocketController {
     @MessageMapping("/chat/{chatId}/read")
     public void handleReadStatus(
             @DestinationVariable Long chatId,
-            Principal principal) {
+            SimpMessageHeaderAccessor headerAccessor) {
         
         try {
-            String email = principal.getName();
-            Optional<User> userOpt = userService.getUserByEmail(email);
-            if (userOpt.isEmpty()) {
+            WebSocketPrincipal principal = WebSocketPrincipal.from(headerAccessor);
+            if (!chatAccessGuard.canAccess(principal, chatId)) {
                 return;
             }
             
-            realtimeChatService.markMessagesAsRead(chatId, userOpt.get().getId());
+            realtimeChatService.markMessagesAsRead(chatId, principal.getUserId());
             
         } catch (Exception e) {
             System.err.println("Error handling read status: " + e.getMessage());
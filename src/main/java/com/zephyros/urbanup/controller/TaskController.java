@@ -14,6 +14,7 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
 
 import com.zephyros.urbanup.dto.ApiResponse;
 import com.zephyros.urbanup.dto.TaskApplicationDto;
@@ -131,6 +132,29 @@ public class TaskController {
         }
     }
     
+    /**
+     * Upload an image for a task (poster only)
+     */
+    @PostMapping("/{taskId}/images")
+    public ResponseEntity<ApiResponse<Task>> addTaskImage(
+            @PathVariable Long taskId,
+            @RequestParam("file") MultipartFile file) {
+        try {
+            Long currentUserId = currentUserService.getCurrentUserId();
+            Task task = taskService.addTaskImage(taskId, currentUserId, file);
+            
+            ApiResponse<Task> response = new ApiResponse<>(true, "Image added successfully", task);
+            return ResponseEntity.status(HttpStatus.CREATED).body(response);
+            
+        } catch (IllegalArgumentException e) {
+            ApiResponse<Task> response = new ApiResponse<>(false, e.getMessage(), null);
+            return ResponseEntity.badRequest().body(response);
+        } catch (Exception e) {
+            ApiResponse<Task> response = new ApiResponse<>(false, "Image upload failed: " + e.getMessage(), null);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
+        }
+    }
+    
     /**
      * Apply for a task
      */
@@ -0,0 +1,54 @@
+package com.zephyros.urbanup.dto;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.zephyros.urbanup.model.Message;
+
+/**
+ * One message in a chat transcript export, read as a projection so no entities are managed
+ */
+public class MessageTranscriptRow {
+    private Long id;
+    private LocalDateTime createdAt;
+    private Long senderId;
+    private String senderName;
+    private String messageType;
+    private String content;
+    private List<String> attachmentUrls = new ArrayList<>();
+    
+    public MessageTranscriptRow() {}
+    
+    public MessageTranscriptRow(Long id, LocalDateTime createdAt, Long senderId, String senderFirstName,
+                                String senderLastName, Message.MessageType messageType, String content) {
+        this.id = id;
+        this.createdAt = createdAt;
+        this.senderId = senderId;
+        this.senderName = senderId != null ? senderFirstName + " " + senderLastName : "System";
+        this.messageType = messageType != null ? messageType.toString() : null;
+        this.content = content;
+    }
+    
+    // Getters and setters
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+    
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+    
+    public Long getSenderId() { return senderId; }
+    public void setSenderId(Long senderId) { this.senderId = senderId; }
+    
+    public String getSenderName() { return senderName; }
+    public void setSenderName(String senderName) { this.senderName = senderName; }
+    
+    public String getMessageType() { return messageType; }
+    public void setMessageType(String messageType) { this.messageType = messageType; }
+    
+    public String getContent() { return content; }
+    public void setContent(String content) { this.content = content; }
+    
+    public List<String> getAttachmentUrls() { return attachmentUrls; }
+    public void setAttachmentUrls(List<String> attachmentUrls) { this.attachmentUrls = attachmentUrls; }
+}
@@ -0,0 +1,27 @@
+package com.zephyros.urbanup.dto;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stored as JSON in UserProfile.notificationPreferences, e.g.
+ * {"digest":"HOURLY","dailyHour":8,"types":{"TASK_CREATED":"DAILY","PAYMENT_RECEIVED":"IMMEDIATE"}}
+ */
+public class NotificationPreferencesDto {
+    
+    private String digest = "IMMEDIATE"; // IMMEDIATE, HOURLY or DAILY for low and normal priority notifications
+    private Integer dailyHour = 8; // hour of day daily digests are delivered, in the server's time zone
+    private Map<String, String> types = new HashMap<>(); // per notification type overrides of digest
+    
+    public NotificationPreferencesDto() {}
+    
+    // Getters and setters
+    public String getDigest() { return digest; }
+    public void setDigest(String digest) { this.digest = digest; }
+    
+    public Integer getDailyHour() { return dailyHour; }
+    public void setDailyHour(Integer dailyHour) { this.dailyHour = dailyHour; }
+    
+    public Map<String, String> getTypes() { return types; }
+    public void setTypes(Map<String, String> types) { this.types = types; }
+}
@@ -0,0 +1,50 @@
+package com.zephyros.urbanup.model;
+
+import java.time.LocalDateTime;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+
+/**
+ * A stored media file sent in a chat, by content hash. Media downloads check these rows so chat files
+ * are only served to the chat's participants.
+ */
+@Entity
+@Table(name = "chat_media",
+    uniqueConstraints = @UniqueConstraint(name = "uk_chat_media_hash_chat", columnNames = {"media_hash", "chat_id"}))
+public class ChatMedia {
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @Column(name = "media_hash", nullable = false, length = 64)
+    private String mediaHash;
+    
+    @Column(name = "chat_id", nullable = false)
+    private Long chatId;
+    
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt = LocalDateTime.now();
+    
+    // Constructors
+    public ChatMedia() {}
+    
+    // Getters and Setters
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+    
+    public String getMediaHash() { return mediaHash; }
+    public void setMediaHash(String mediaHash) { this.mediaHash = mediaHash; }
+    
+    public Long getChatId() { return chatId; }
+    public void setChatId(Long chatId) { this.chatId = chatId; }
+    
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+}
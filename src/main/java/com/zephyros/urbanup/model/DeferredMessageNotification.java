@@ -0,0 +1,74 @@
+package com.zephyros.urbanup.model;
+
+import java.time.LocalDateTime;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+
+/**
+ * New-message notification held back while the recipient has the chat open. One entry per recipient
+ * and chat counts the messages and keeps the latest sender and preview, until the chat is read or closed.
+ */
+@Entity
+@Table(name = "notification_deferred_messages",
+    uniqueConstraints = @UniqueConstraint(name = "uk_notification_deferred_messages_user_chat", columnNames = {"user_id", "chat_id"}))
+public class DeferredMessageNotification {
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+    
+    @Column(name = "chat_id", nullable = false)
+    private Long chatId;
+    
+    @Column(name = "sender_name")
+    private String senderName;
+    
+    @Column(columnDefinition = "TEXT")
+    private String preview;
+    
+    @Column(name = "message_count", nullable = false)
+    private Integer messageCount = 0;
+    
+    @Column(name = "first_at", nullable = false)
+    private LocalDateTime firstAt;
+    
+    @Column(name = "last_at", nullable = false)
+    private LocalDateTime lastAt;
+    
+    // Constructors
+    public DeferredMessageNotification() {}
+    
+    // Getters and Setters
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+    
+    public Long getUserId() { return userId; }
+    public void setUserId(Long userId) { this.userId = userId; }
+    
+    public Long getChatId() { return chatId; }
+    public void setChatId(Long chatId) { this.chatId = chatId; }
+    
+    public String getSenderName() { return senderName; }
+    public void setSenderName(String senderName) { this.senderName = senderName; }
+    
+    public String getPreview() { return preview; }
+    public void setPreview(String preview) { this.preview = preview; }
+    
+    public Integer getMessageCount() { return messageCount; }
+    public void setMessageCount(Integer messageCount) { this.messageCount = messageCount; }
+    
+    public LocalDateTime getFirstAt() { return firstAt; }
+    public void setFirstAt(LocalDateTime firstAt) { this.firstAt = firstAt; }
+    
+    public LocalDateTime getLastAt() { return lastAt; }
+    public void setLastAt(LocalDateTime lastAt) { this.lastAt = lastAt; }
+}
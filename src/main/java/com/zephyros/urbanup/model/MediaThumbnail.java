@@ -0,0 +1,105 @@
+package com.zephyros.urbanup.model;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+import jakarta.persistence.CollectionTable;
+import jakarta.persistence.Column;
+import jakarta.persistence.ElementCollection;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.FetchType;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.JoinColumn;
+import jakarta.persistence.MapKeyColumn;
+import jakarta.persistence.Table;
+
+/**
+ * Thumbnail work for one stored image, keyed by its content hash. Pending rows are the durable work
+ * queue; done rows record the derived variant URLs by their longest edge in pixels.
+ */
+@Entity
+@Table(name = "media_thumbnails", indexes = {
+    @Index(name = "idx_media_thumbnails_status", columnList = "status, id")
+})
+public class MediaThumbnail {
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @Column(name = "source_hash", nullable = false, unique = true, length = 64)
+    private String sourceHash;
+    
+    @Column(name = "source_url", nullable = false)
+    private String sourceUrl;
+    
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private ThumbnailStatus status = ThumbnailStatus.PENDING;
+    
+    @Column(nullable = false)
+    private Integer attempts = 0;
+    
+    @Column(name = "last_error")
+    private String lastError;
+    
+    @ElementCollection(fetch = FetchType.EAGER)
+    @CollectionTable(name = "media_thumbnail_variants", joinColumns = @JoinColumn(name = "thumbnail_id"))
+    @MapKeyColumn(name = "size")
+    @Column(name = "url")
+    private Map<Integer, String> variantUrls = new HashMap<>();
+    
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt = LocalDateTime.now();
+    
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+    
+    public enum ThumbnailStatus {
+        PENDING,
+        DONE,
+        FAILED
+    }
+    
+    // Constructors
+    public MediaThumbnail() {}
+    
+    public MediaThumbnail(String sourceHash, String sourceUrl) {
+        this.sourceHash = sourceHash;
+        this.sourceUrl = sourceUrl;
+    }
+    
+    // Getters and Setters
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+    
+    public String getSourceHash() { return sourceHash; }
+    public void setSourceHash(String sourceHash) { this.sourceHash = sourceHash; }
+    
+    public String getSourceUrl() { return sourceUrl; }
+    public void setSourceUrl(String sourceUrl) { this.sourceUrl = sourceUrl; }
+    
+    public ThumbnailStatus getStatus() { return status; }
+    public void setStatus(ThumbnailStatus status) { this.status = status; }
+    
+    public Integer getAttempts() { return attempts; }
+    public void setAttempts(Integer attempts) { this.attempts = attempts; }
+    
+    public String getLastError() { return lastError; }
+    public void setLastError(String lastError) { this.lastError = lastError; }
+    
+    public Map<Integer, String> getVariantUrls() { return variantUrls; }
+    public void setVariantUrls(Map<Integer, String> variantUrls) { this.variantUrls = variantUrls; }
+    
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+    
+    public LocalDateTime getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(LocalDateTime updatedAt) { this.updatedAt = updatedAt; }
+}
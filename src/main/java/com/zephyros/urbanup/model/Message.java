@@ -8,24 +8,36 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 
 import jakarta.persistence.CollectionTable;
 import jakarta.persistence.Column;
+import jakarta.persistence.ConstraintMode;
 import jakarta.persistence.ElementCollection;
 import jakarta.persistence.Entity;
 import jakarta.persistence.EnumType;
 import jakarta.persistence.Enumerated;
 import jakarta.persistence.FetchType;
+import jakarta.persistence.ForeignKey;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
 import jakarta.persistence.Table;
 import jakarta.validation.constraints.Size;
 
 @Entity
-@Table(name = "messages")
+// Range-partitioned by month on created_at (db/migration V3), so unique keys must include created_at;
+// client message ids are kept unique per sender by MessageClientId instead
+@Table(name = "messages", indexes = {
+    @Index(name = "idx_messages_chat_id_id", columnList = "chat_id, id"),
+    @Index(name = "idx_messages_sender_client_message_id", columnList = "sender_id, client_message_id")
+})
 @JsonIgnoreProperties({"hibernateLazyInitializer", "handler", "chat"})
 public class Message {
     
+    public static final int CLIENT_MESSAGE_ID_MAX_LENGTH = 64;
+    
+    public static final int CONTENT_MAX_LENGTH = 1000;
+    
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
@@ -39,16 +51,17 @@ public class Message {
     private User sender;
     
     @Column(columnDefinition = "TEXT")
-    @Size(max = 1000, message = "Message cannot exceed 1000 characters")
+    @Size(max = CONTENT_MAX_LENGTH, message = "Message cannot exceed 1000 characters")
     private String content;
     
     @Enumerated(EnumType.STRING)
     @Column(nullable = false)
     private MessageType messageType = MessageType.TEXT;
     
-    // Media attachments
+    // Media attachments; no foreign key, since the partitioned messages table has no unique key on id alone
     @ElementCollection
-    @CollectionTable(name = "message_attachments", joinColumns = @JoinColumn(name = "message_id"))
+    @CollectionTable(name = "message_attachments", joinColumns = @JoinColumn(name = "message_id"),
+                     foreignKey = @ForeignKey(ConstraintMode.NO_CONSTRAINT))
     @Column(name = "attachment_url")
     private List<String> attachmentUrls = new ArrayList<>();
     
@@ -68,6 +81,10 @@ public class Message {
     @Column(name = "system_message_data", columnDefinition = "TEXT")
     private String systemMessageData;
     
+    // Id generated by the sending client, used to drop resent frames
+    @Column(name = "client_message_id", length = CLIENT_MESSAGE_ID_MAX_LENGTH)
+    private String clientMessageId;
+    
     public enum MessageType {
         TEXT("Text"),
         IMAGE("Image"),
@@ -155,6 +172,9 @@ public class Message {
     public String getSystemMessageData() { return systemMessageData; }
     public void setSystemMessageData(String systemMessageData) { this.systemMessageData = systemMessageData; }
     
+    public String getClientMessageId() { return clientMessageId; }
+    public void setClientMessageId(String clientMessageId) { this.clientMessageId = clientMessageId; }
+    
     // Helper methods
     public void addAttachment(String attachmentUrl) {
         if (this.attachmentUrls == null) {
@@ -0,0 +1,72 @@
+package com.zephyros.urbanup.model;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.util.Objects;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.IdClass;
+import jakarta.persistence.Table;
+
+/**
+ * Claim on a client message id, one row per sender and id. The partitioned messages table can only
+ * have unique keys that include created_at, so this small table carries the (sender_id, client_message_id)
+ * key instead; ChatIngestionEngine inserts the claim in the same transaction as the message.
+ */
+@Entity
+@Table(name = "message_client_ids")
+@IdClass(MessageClientId.Key.class)
+public class MessageClientId {
+    
+    @Id
+    @Column(name = "sender_id")
+    private Long senderId;
+    
+    @Id
+    @Column(name = "client_message_id", length = Message.CLIENT_MESSAGE_ID_MAX_LENGTH)
+    private String clientMessageId;
+    
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt = LocalDateTime.now();
+    
+    // Constructors
+    public MessageClientId() {}
+    
+    // Getters and Setters
+    public Long getSenderId() { return senderId; }
+    public void setSenderId(Long senderId) { this.senderId = senderId; }
+    
+    public String getClientMessageId() { return clientMessageId; }
+    public void setClientMessageId(String clientMessageId) { this.clientMessageId = clientMessageId; }
+    
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+    
+    public static class Key implements Serializable {
+        
+        private Long senderId;
+        private String clientMessageId;
+        
+        public Key() {}
+        
+        public Key(Long senderId, String clientMessageId) {
+            this.senderId = senderId;
+            this.clientMessageId = clientMessageId;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return Objects.equals(senderId, key.senderId) && Objects.equals(clientMessageId, key.clientMessageId);
+        }
+        
+        @Override
+        public int hashCode() {
+            return Objects.hash(senderId, clientMessageId);
+        }
+    }
+}
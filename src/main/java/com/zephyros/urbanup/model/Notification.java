@@ -14,6 +14,7 @@ import jakarta.persistence.FetchType;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
 import jakarta.persistence.MapKeyColumn;
@@ -22,7 +23,14 @@ import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.Size;
 
 @Entity
-@Table(name = "notifications")
+// Unread rows are also unique per (user_id, collapse_key), a partial index JPA cannot declare
+// (db/migration V10, db/hibernate-extras.sql)
+@Table(name = "notifications", indexes = {
+    @Index(name = "idx_notifications_user_created_at_id", columnList = "user_id, created_at, id"),
+    @Index(name = "idx_notifications_user_is_read", columnList = "user_id, is_read"),
+    @Index(name = "idx_notifications_expires_at", columnList = "expires_at"),
+    @Index(name = "idx_notifications_type_created_at", columnList = "type, created_at")
+})
 public class Notification {
     
     @Id
@@ -90,9 +98,30 @@ public class Notification {
     @Column(name = "pushed_at")
     private LocalDateTime pushedAt;
     
+    // Device push delivery state, maintained by PushDeliveryWorker
+    @Column(name = "push_attempts", nullable = false, columnDefinition = "integer not null default 0")
+    private Integer pushAttempts = 0;
+    
+    @Column(name = "next_push_at")
+    private LocalDateTime nextPushAt;
+    
+    @Column(name = "push_error")
+    private String pushError;
+    
+    // Dead letter: gave up after repeated or permanent failures; is_pushed stays false
+    @Column(name = "push_dead", nullable = false, columnDefinition = "boolean not null default false")
+    private Boolean pushDead = false;
+    
     @Column(name = "expires_at")
     private LocalDateTime expiresAt;
     
+    // Notifications with the same collapse key share one unread row; count is how many were merged
+    @Column(name = "collapse_key")
+    private String collapseKey;
+    
+    @Column(name = "collapse_count")
+    private Integer collapseCount = 1;
+    
     public enum NotificationType {
         TASK_CREATED("Task Created"),
         TASK_ACCEPTED("Task Accepted"),
@@ -108,7 +137,8 @@ public class Notification {
         PROFILE_UPDATE("Profile Update"),
         SYSTEM_ANNOUNCEMENT("System Announcement"),
         DEADLINE_REMINDER("Deadline Reminder"),
-        LOCATION_UPDATE("Location Update");
+        LOCATION_UPDATE("Location Update"),
+        DIGEST("Digest");
         
         private final String displayName;
         
@@ -235,9 +265,27 @@ public class Notification {
     public LocalDateTime getPushedAt() { return pushedAt; }
     public void setPushedAt(LocalDateTime pushedAt) { this.pushedAt = pushedAt; }
     
+    public Integer getPushAttempts() { return pushAttempts; }
+    public void setPushAttempts(Integer pushAttempts) { this.pushAttempts = pushAttempts; }
+    
+    public LocalDateTime getNextPushAt() { return nextPushAt; }
+    public void setNextPushAt(LocalDateTime nextPushAt) { this.nextPushAt = nextPushAt; }
+    
+    public String getPushError() { return pushError; }
+    public void setPushError(String pushError) { this.pushError = pushError; }
+    
+    public Boolean getPushDead() { return pushDead; }
+    public void setPushDead(Boolean pushDead) { this.pushDead = pushDead; }
+    
     public LocalDateTime getExpiresAt() { return expiresAt; }
     public void setExpiresAt(LocalDateTime expiresAt) { this.expiresAt = expiresAt; }
     
+    public String getCollapseKey() { return collapseKey; }
+    public void setCollapseKey(String collapseKey) { this.collapseKey = collapseKey; }
+    
+    public Integer getCollapseCount() { return collapseCount; }
+    public void setCollapseCount(Integer collapseCount) { this.collapseCount = collapseCount; }
+    
     // Helper methods
     public void markAsRead() {
         this.isRead = true;
@@ -249,6 +297,16 @@ public class Notification {
         this.pushedAt = LocalDateTime.now();
     }
     
+    // Queue the notification for device push again, e.g. after its content changed
+    public void resetPush() {
+        this.isPushed = false;
+        this.pushedAt = null;
+        this.pushAttempts = 0;
+        this.nextPushAt = null;
+        this.pushError = null;
+        this.pushDead = false;
+    }
+    
     public boolean isExpired() {
         return expiresAt != null && LocalDateTime.now().isAfter(expiresAt);
     }
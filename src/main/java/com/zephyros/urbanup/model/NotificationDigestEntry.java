@@ -0,0 +1,91 @@
+package com.zephyros.urbanup.model;
+
+import java.time.LocalDateTime;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+
+/**
+ * Notifications of one type held back for a user's next digest. Rather than a row per notification,
+ * each (user, type) pair has one entry that counts them and keeps the latest, until the digest is due.
+ */
+@Entity
+@Table(name = "notification_digest_entries",
+    uniqueConstraints = @UniqueConstraint(name = "uk_notification_digest_entries_user_type", columnNames = {"user_id", "type"}),
+    indexes = @Index(name = "idx_notification_digest_entries_due_at", columnList = "due_at"))
+public class NotificationDigestEntry {
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+    
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private Notification.NotificationType type;
+    
+    @Column(name = "item_count", nullable = false)
+    private Integer itemCount = 0;
+    
+    @Column(name = "latest_title")
+    private String latestTitle;
+    
+    @Column(name = "latest_message", columnDefinition = "TEXT")
+    private String latestMessage;
+    
+    @Column(name = "latest_deep_link_url")
+    private String latestDeepLinkUrl;
+    
+    @Column(name = "first_at", nullable = false)
+    private LocalDateTime firstAt;
+    
+    @Column(name = "last_at", nullable = false)
+    private LocalDateTime lastAt;
+    
+    @Column(name = "due_at", nullable = false)
+    private LocalDateTime dueAt;
+    
+    // Constructors
+    public NotificationDigestEntry() {}
+    
+    // Getters and Setters
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+    
+    public Long getUserId() { return userId; }
+    public void setUserId(Long userId) { this.userId = userId; }
+    
+    public Notification.NotificationType getType() { return type; }
+    public void setType(Notification.NotificationType type) { this.type = type; }
+    
+    public Integer getItemCount() { return itemCount; }
+    public void setItemCount(Integer itemCount) { this.itemCount = itemCount; }
+    
+    public String getLatestTitle() { return latestTitle; }
+    public void setLatestTitle(String latestTitle) { this.latestTitle = latestTitle; }
+    
+    public String getLatestMessage() { return latestMessage; }
+    public void setLatestMessage(String latestMessage) { this.latestMessage = latestMessage; }
+    
+    public String getLatestDeepLinkUrl() { return latestDeepLinkUrl; }
+    public void setLatestDeepLinkUrl(String latestDeepLinkUrl) { this.latestDeepLinkUrl = latestDeepLinkUrl; }
+    
+    public LocalDateTime getFirstAt() { return firstAt; }
+    public void setFirstAt(LocalDateTime firstAt) { this.firstAt = firstAt; }
+    
+    public LocalDateTime getLastAt() { return lastAt; }
+    public void setLastAt(LocalDateTime lastAt) { this.lastAt = lastAt; }
+    
+    public LocalDateTime getDueAt() { return dueAt; }
+    public void setDueAt(LocalDateTime dueAt) { this.dueAt = dueAt; }
+}
@@ -5,6 +5,8 @@ import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.hibernate.annotations.BatchSize;
+
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 
@@ -22,6 +24,7 @@ import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
 import jakarta.persistence.PreUpdate;
 import jakarta.persistence.Table;
+import jakarta.persistence.Transient;
 import jakarta.validation.constraints.DecimalMin;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.Size;
@@ -95,9 +98,14 @@ public class Task {
     @ElementCollection
     @CollectionTable(name = "task_images", joinColumns = @JoinColumn(name = "task_id"))
     @Column(name = "image_url")
+    @BatchSize(size = 50) // task lists read images for their previews
     @JsonIgnore
     private List<String> imageUrls = new ArrayList<>();
     
+    // Small thumbnail per image for list views (the original until its thumbnails exist); filled in by TaskService
+    @Transient
+    private List<String> imagePreviewUrls;
+    
     @ElementCollection
     @CollectionTable(name = "task_files", joinColumns = @JoinColumn(name = "task_id"))
     @Column(name = "file_url")
@@ -271,6 +279,9 @@ public class Task {
     public List<String> getImageUrls() { return imageUrls; }
     public void setImageUrls(List<String> imageUrls) { this.imageUrls = imageUrls; }
     
+    public List<String> getImagePreviewUrls() { return imagePreviewUrls; }
+    public void setImagePreviewUrls(List<String> imagePreviewUrls) { this.imagePreviewUrls = imagePreviewUrls; }
+    
     public List<String> getFileUrls() { return fileUrls; }
     public void setFileUrls(List<String> fileUrls) { this.fileUrls = fileUrls; }
     
@@ -0,0 +1,25 @@
+package com.zephyros.urbanup.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import com.zephyros.urbanup.model.ChatMedia;
+
+@Repository
+public interface ChatMediaRepository extends JpaRepository<ChatMedia, Long> {
+    
+    // The same file sent again in the same chat is already recorded
+    @Modifying
+    @Query(value = "INSERT INTO chat_media (media_hash, chat_id, created_at) VALUES (:hash, :chatId, now()) " +
+                   "ON CONFLICT (media_hash, chat_id) DO NOTHING", nativeQuery = true)
+    int record(@Param("hash") String hash, @Param("chatId") Long chatId);
+    
+    boolean existsByMediaHash(String mediaHash);
+    
+    @Query("SELECT COUNT(m) > 0 FROM ChatMedia m, Chat c WHERE m.mediaHash = :hash AND c.id = m.chatId " +
+           "AND (c.poster.id = :userId OR c.fulfiller.id = :userId)")
+    boolean isVisibleTo(@Param("hash") String hash, @Param("userId") Long userId);
+}
@@ -5,6 +5,7 @@ import java.util.List;
 import java.util.Optional;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
@@ -33,6 +34,18 @@ public interface ChatRepository extends JpaRepository<Chat, Long> {
     @Query("SELECT c FROM Chat c WHERE c.poster = :user OR c.fulfiller = :user ORDER BY c.updatedAt DESC")
     List<Chat> findChatsByUser(@Param("user") User user);
     
+    // Chat ids for a user, without loading the chats
+    @Query("SELECT c.id FROM Chat c WHERE c.poster.id = :userId OR c.fulfiller.id = :userId")
+    List<Long> findChatIdsByUserId(@Param("userId") Long userId);
+    
+    @Query("SELECT COUNT(c) > 0 FROM Chat c WHERE c.id = :chatId AND (c.poster.id = :userId OR c.fulfiller.id = :userId)")
+    boolean isParticipant(@Param("chatId") Long chatId, @Param("userId") Long userId);
+    
+    // Bump the chat's updatedAt without loading it; never moves it backwards
+    @Modifying
+    @Query("UPDATE Chat c SET c.updatedAt = :updatedAt WHERE c.id = :chatId AND c.updatedAt < :updatedAt")
+    int touchUpdatedAt(@Param("chatId") Long chatId, @Param("updatedAt") LocalDateTime updatedAt);
+    
     // Find chats where user is poster
     List<Chat> findByPosterOrderByUpdatedAtDesc(User poster);
     
@@ -0,0 +1,45 @@
+package com.zephyros.urbanup.repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import com.zephyros.urbanup.model.DeferredMessageNotification;
+
+@Repository
+public interface DeferredMessageNotificationRepository extends JpaRepository<DeferredMessageNotification, Long> {
+    
+    // One statement per deferred notification, safe against concurrent senders; the latest sender and preview win
+    @Modifying
+    @Query(value = "INSERT INTO notification_deferred_messages " +
+                   "(user_id, chat_id, sender_name, preview, message_count, first_at, last_at) " +
+                   "VALUES (:userId, :chatId, :senderName, :preview, :count, :now, :now) " +
+                   "ON CONFLICT (user_id, chat_id) DO UPDATE SET " +
+                   "message_count = notification_deferred_messages.message_count + EXCLUDED.message_count, " +
+                   "sender_name = EXCLUDED.sender_name, preview = EXCLUDED.preview, last_at = EXCLUDED.last_at",
+           nativeQuery = true)
+    int accumulate(@Param("userId") Long userId, @Param("chatId") Long chatId, @Param("senderName") String senderName,
+                   @Param("preview") String preview, @Param("count") int count, @Param("now") LocalDateTime now);
+    
+    @Query("SELECT d FROM DeferredMessageNotification d ORDER BY d.id")
+    List<DeferredMessageNotification> findOldest(Pageable pageable);
+    
+    // Locks one entry so two nodes never release it twice
+    @Query(value = "SELECT * FROM notification_deferred_messages WHERE id = :id FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    Optional<DeferredMessageNotification> lockById(@Param("id") Long id);
+    
+    @Modifying
+    @Query("DELETE FROM DeferredMessageNotification d WHERE d.id = :id")
+    int deleteEntry(@Param("id") Long id);
+    
+    @Modifying
+    @Query("DELETE FROM DeferredMessageNotification d WHERE d.userId = :userId AND d.chatId = :chatId")
+    int deleteForChat(@Param("userId") Long userId, @Param("chatId") Long chatId);
+}
@@ -0,0 +1,28 @@
+package com.zephyros.urbanup.repository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import com.zephyros.urbanup.model.MediaThumbnail;
+
+@Repository
+public interface MediaThumbnailRepository extends JpaRepository<MediaThumbnail, Long> {
+    
+    Optional<MediaThumbnail> findBySourceHash(String sourceHash);
+    
+    List<MediaThumbnail> findBySourceHashIn(Collection<String> sourceHashes);
+    
+    // Source image of a thumbnail variant, if the URL is one
+    @Query("SELECT t.sourceUrl FROM MediaThumbnail t JOIN t.variantUrls v WHERE v = :url")
+    List<String> findSourceUrlsByVariantUrl(@Param("url") String url);
+    
+    // Oldest pending work first
+    List<MediaThumbnail> findByStatusOrderByIdAsc(MediaThumbnail.ThumbnailStatus status, Pageable pageable);
+}
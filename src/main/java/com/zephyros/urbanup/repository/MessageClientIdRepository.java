@@ -0,0 +1,23 @@
+package com.zephyros.urbanup.repository;
+
+import java.time.LocalDateTime;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import com.zephyros.urbanup.model.MessageClientId;
+
+@Repository
+public interface MessageClientIdRepository extends JpaRepository<MessageClientId, MessageClientId.Key> {
+    
+    // 1 if the id was free, 0 if already claimed; waits for a concurrent claim of the same id to commit or roll back
+    @Modifying
+    @Query(value = "INSERT INTO message_client_ids (sender_id, client_message_id, created_at) " +
+                   "VALUES (:senderId, :clientMessageId, :now) ON CONFLICT (sender_id, client_message_id) DO NOTHING",
+           nativeQuery = true)
+    int claim(@Param("senderId") Long senderId, @Param("clientMessageId") String clientMessageId,
+              @Param("now") LocalDateTime now);
+}
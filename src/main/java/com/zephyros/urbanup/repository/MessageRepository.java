@@ -1,15 +1,18 @@
 package com.zephyros.urbanup.repository;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import com.zephyros.urbanup.dto.MessageTranscriptRow;
 import com.zephyros.urbanup.model.Chat;
 import com.zephyros.urbanup.model.Message;
 import com.zephyros.urbanup.model.User;
@@ -17,6 +20,15 @@ import com.zephyros.urbanup.model.User;
 @Repository
 public interface MessageRepository extends JpaRepository<Message, Long> {
     
+    /**
+     * Lower created_at bound for a chat's messages. messages is partitioned by month on created_at, so
+     * passing this as a parameter lets Postgres skip partitions from before the chat existed. A day of
+     * slack covers clock skew between the nodes that stamp createdAt.
+     */
+    static LocalDateTime partitionLowerBound(Chat chat) {
+        return chat.getCreatedAt().minusDays(1);
+    }
+    
     // Find messages by chat
     List<Message> findByChatOrderByCreatedAtAsc(Chat chat);
     
@@ -26,6 +38,22 @@ public interface MessageRepository extends JpaRepository<Message, Long> {
     
     List<Message> findByChatIdOrderByCreatedAtAsc(Long chatId);
     
+    @EntityGraph(attributePaths = {"sender"})
+    List<Message> findByChatIdAndCreatedAtGreaterThanEqualOrderByIdDesc(Long chatId, LocalDateTime since, Pageable pageable);
+    
+    // Previously stored messages for resent client message ids
+    List<Message> findBySenderIdAndClientMessageIdIn(Long senderId, Collection<String> clientMessageIds);
+    
+    // Transcript export: keyset chunk over (chat_id, id), projected so nothing enters the persistence context
+    @Query("SELECT new com.zephyros.urbanup.dto.MessageTranscriptRow(m.id, m.createdAt, s.id, s.firstName, s.lastName, m.messageType, m.content) " +
+           "FROM Message m LEFT JOIN m.sender s WHERE m.chat.id = :chatId AND m.createdAt >= :since AND m.id > :afterId ORDER BY m.id ASC")
+    List<MessageTranscriptRow> findTranscriptChunk(@Param("chatId") Long chatId, @Param("since") LocalDateTime since,
+                                                   @Param("afterId") Long afterId, Pageable pageable);
+    
+    @Query("SELECT m.id, a FROM Message m JOIN m.attachmentUrls a WHERE m.chat.id = :chatId AND m.createdAt >= :since AND m.id BETWEEN :fromId AND :toId")
+    List<Object[]> findAttachmentUrlsInRange(@Param("chatId") Long chatId, @Param("since") LocalDateTime since,
+                                             @Param("fromId") Long fromId, @Param("toId") Long toId);
+    
     // Find messages by chat with eager loading
     @Query("SELECT m FROM Message m LEFT JOIN FETCH m.sender LEFT JOIN FETCH m.chat c LEFT JOIN FETCH c.task t LEFT JOIN FETCH c.poster LEFT JOIN FETCH c.fulfiller WHERE m.chat = :chat ORDER BY m.createdAt ASC")
     List<Message> findByChatWithEagerLoading(@Param("chat") Chat chat);
@@ -49,6 +77,9 @@ public interface MessageRepository extends JpaRepository<Message, Long> {
     
     @Query("SELECT m FROM Message m WHERE m.chat.id = :chatId AND m.isRead = false AND m.sender.id != :recipientId")
     List<Message> findUnreadMessagesByChatIdAndRecipientId(@Param("chatId") Long chatId, @Param("recipientId") Long recipientId);
+    
+    @Query("SELECT COUNT(m) FROM Message m WHERE m.chat.id = :chatId AND m.isRead = false AND m.sender.id != :recipientId")
+    long countUnreadMessagesByChatIdAndRecipientId(@Param("chatId") Long chatId, @Param("recipientId") Long recipientId);
 
     @Query("SELECT COUNT(m) FROM Message m WHERE m.chat.id IN " +
            "(SELECT c.id FROM Chat c WHERE c.poster = :user OR c.fulfiller = :user) " +
@@ -84,7 +115,7 @@ public interface MessageRepository extends JpaRepository<Message, Long> {
     @Query("SELECT m FROM Message m WHERE m.chat = :chat AND SIZE(m.attachmentUrls) > 0 ORDER BY m.createdAt ASC")
     List<Message> findMessagesWithAttachmentsInChat(@Param("chat") Chat chat);
     
-    // Search messages
+    // Search messages (unindexed substring scans; user-facing search goes through MessageSearchService)
     @Query("SELECT m FROM Message m WHERE LOWER(m.content) LIKE LOWER(CONCAT('%', :searchTerm, '%')) ORDER BY m.createdAt DESC")
     List<Message> searchMessagesByContent(@Param("searchTerm") String searchTerm);
     
@@ -0,0 +1,43 @@
+package com.zephyros.urbanup.repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import com.zephyros.urbanup.model.NotificationDigestEntry;
+
+@Repository
+public interface NotificationDigestEntryRepository extends JpaRepository<NotificationDigestEntry, Long> {
+    
+    // One statement per held-back notification, safe against concurrent senders; due_at keeps its first value
+    @Modifying
+    @Query(value = "INSERT INTO notification_digest_entries " +
+                   "(user_id, type, item_count, latest_title, latest_message, latest_deep_link_url, first_at, last_at, due_at) " +
+                   "VALUES (:userId, :type, 1, :title, :message, :deepLinkUrl, :now, :now, :dueAt) " +
+                   "ON CONFLICT (user_id, type) DO UPDATE SET " +
+                   "item_count = notification_digest_entries.item_count + 1, " +
+                   "latest_title = EXCLUDED.latest_title, latest_message = EXCLUDED.latest_message, " +
+                   "latest_deep_link_url = EXCLUDED.latest_deep_link_url, last_at = EXCLUDED.last_at",
+           nativeQuery = true)
+    int accumulate(@Param("userId") Long userId, @Param("type") String type, @Param("title") String title,
+                   @Param("message") String message, @Param("deepLinkUrl") String deepLinkUrl,
+                   @Param("now") LocalDateTime now, @Param("dueAt") LocalDateTime dueAt);
+    
+    @Query("SELECT DISTINCT e.userId FROM NotificationDigestEntry e WHERE e.dueAt <= :now")
+    List<Long> findUserIdsDue(@Param("now") LocalDateTime now, Pageable pageable);
+    
+    // Locks the user's entries so two nodes never deliver the same digest
+    @Query(value = "SELECT * FROM notification_digest_entries WHERE user_id = :userId ORDER BY type FOR UPDATE SKIP LOCKED",
+           nativeQuery = true)
+    List<NotificationDigestEntry> lockEntriesForUser(@Param("userId") Long userId);
+    
+    @Modifying
+    @Query("DELETE FROM NotificationDigestEntry e WHERE e.id IN :ids")
+    int deleteByIds(@Param("ids") List<Long> ids);
+}
@@ -1,6 +1,7 @@
 package com.zephyros.urbanup.repository;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 import org.springframework.data.domain.Page;
@@ -22,6 +23,18 @@ public interface NotificationRepository extends JpaRepository<Notification, Long
     
     Page<Notification> findByUserOrderByCreatedAtDesc(User user, Pageable pageable);
     
+    // Feed pages, newest first; the keyset variant continues after the last row of the previous page
+    @Query("SELECT n FROM Notification n WHERE n.user.id = :userId ORDER BY n.createdAt DESC, n.id DESC")
+    List<Notification> findFeedForUser(@Param("userId") Long userId, Pageable pageable);
+    
+    @Query("SELECT n FROM Notification n WHERE n.user.id = :userId AND " +
+           "(n.createdAt < :beforeCreatedAt OR (n.createdAt = :beforeCreatedAt AND n.id < :beforeId)) " +
+           "ORDER BY n.createdAt DESC, n.id DESC")
+    List<Notification> findFeedForUserBefore(@Param("userId") Long userId,
+                                             @Param("beforeCreatedAt") LocalDateTime beforeCreatedAt,
+                                             @Param("beforeId") Long beforeId,
+                                             Pageable pageable);
+    
     // Find unread notifications
     List<Notification> findByIsReadFalse();
     
@@ -39,6 +52,12 @@ public interface NotificationRepository extends JpaRepository<Notification, Long
     @Query("SELECT COUNT(n) FROM Notification n WHERE n.user = :user AND n.isRead = false")
     Long countUnreadNotificationsForUser(@Param("user") User user);
     
+    @Query("SELECT COUNT(n) FROM Notification n WHERE n.user.id = :userId AND n.isRead = false")
+    Long countUnreadByUserId(@Param("userId") Long userId);
+    
+    @Query("SELECT COUNT(n) FROM Notification n WHERE n.user.id = :userId")
+    Long countByUserId(@Param("userId") Long userId);
+    
     // Find notifications by type
     List<Notification> findByType(Notification.NotificationType type);
     
@@ -73,12 +92,7 @@ public interface NotificationRepository extends JpaRepository<Notification, Long
     @Query("SELECT n FROM Notification n WHERE n.reviewId = :reviewId ORDER BY n.createdAt DESC")
     List<Notification> findNotificationsByReviewId(@Param("reviewId") Long reviewId);
     
-    // Find notifications that haven't been pushed
-    @Query("SELECT n FROM Notification n WHERE n.isPushed = false ORDER BY n.priority DESC, n.createdAt ASC")
-    List<Notification> findNotificationsToBePushed();
-    
-    @Query("SELECT n FROM Notification n WHERE n.user = :user AND n.isPushed = false ORDER BY n.priority DESC, n.createdAt ASC")
-    List<Notification> findNotificationsToBePushedForUser(@Param("user") User user);
+    // Notifications that haven't been pushed are claimed in batches by PushDeliveryWorker
     
     // Recent notifications
     @Query("SELECT n FROM Notification n WHERE n.createdAt >= :since ORDER BY n.createdAt DESC")
@@ -87,6 +101,15 @@ public interface NotificationRepository extends JpaRepository<Notification, Long
     @Query("SELECT n FROM Notification n WHERE n.user = :user AND n.createdAt >= :since ORDER BY n.createdAt DESC")
     List<Notification> findRecentNotificationsForUser(@Param("user") User user, @Param("since") LocalDateTime since);
     
+    // Catch-up after a missed push, oldest first; continues after the (createdAt, id) of the last row seen
+    @Query("SELECT n FROM Notification n WHERE n.user.id = :userId AND " +
+           "(n.createdAt > :afterCreatedAt OR (n.createdAt = :afterCreatedAt AND n.id > :afterId)) " +
+           "ORDER BY n.createdAt ASC, n.id ASC")
+    List<Notification> findCreatedAfterForUser(@Param("userId") Long userId,
+                                               @Param("afterCreatedAt") LocalDateTime afterCreatedAt,
+                                               @Param("afterId") Long afterId,
+                                               Pageable pageable);
+    
     // Expired notifications
     @Query("SELECT n FROM Notification n WHERE n.expiresAt IS NOT NULL AND n.expiresAt < :now")
     List<Notification> findExpiredNotifications(@Param("now") LocalDateTime now);
@@ -116,6 +139,34 @@ public interface NotificationRepository extends JpaRepository<Notification, Long
                                             @Param("type") Notification.NotificationType type, 
                                             @Param("readAt") LocalDateTime readAt);
     
+    // Set-based bulk operations by user id; each returns the number of rows affected
+    @Modifying
+    @Query("UPDATE Notification n SET n.isRead = true, n.readAt = :readAt WHERE n.user.id = :userId AND n.isRead = false")
+    int markAllReadForUser(@Param("userId") Long userId, @Param("readAt") LocalDateTime readAt);
+    
+    @Modifying
+    @Query("UPDATE Notification n SET n.isRead = true, n.readAt = :readAt " +
+           "WHERE n.user.id = :userId AND n.type = :type AND n.isRead = false")
+    int markReadByTypeForUser(@Param("userId") Long userId,
+                              @Param("type") Notification.NotificationType type,
+                              @Param("readAt") LocalDateTime readAt);
+    
+    @Modifying
+    @Query("UPDATE Notification n SET n.isRead = true, n.readAt = :readAt " +
+           "WHERE n.user.id = :userId AND n.chatId = :chatId AND n.isRead = false")
+    int markReadByChatForUser(@Param("userId") Long userId, @Param("chatId") Long chatId,
+                              @Param("readAt") LocalDateTime readAt);
+    
+    // Bulk JPQL deletes skip the additionalData collection, so its rows are removed first
+    @Modifying
+    @Query(value = "DELETE FROM notification_data d USING notifications n " +
+                   "WHERE d.notification_id = n.id AND n.user_id = :userId AND n.id IN (:ids)", nativeQuery = true)
+    int deleteDataByIdsForUser(@Param("userId") Long userId, @Param("ids") Collection<Long> ids);
+    
+    @Modifying
+    @Query("DELETE FROM Notification n WHERE n.user.id = :userId AND n.id IN :ids")
+    int deleteByIdsForUser(@Param("userId") Long userId, @Param("ids") Collection<Long> ids);
+    
     // Mark notifications as pushed
     @Modifying
     @Query("UPDATE Notification n SET n.isPushed = true, n.pushedAt = :pushedAt WHERE n.id = :notificationId")
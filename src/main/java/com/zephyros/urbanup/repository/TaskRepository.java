@@ -3,10 +3,12 @@ package com.zephyros.urbanup.repository;
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Optional;
 
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
@@ -14,6 +16,8 @@ import org.springframework.stereotype.Repository;
 import com.zephyros.urbanup.model.Task;
 import com.zephyros.urbanup.model.User;
 
+import jakarta.persistence.LockModeType;
+
 @Repository
 public interface TaskRepository extends JpaRepository<Task, Long> {
     
@@ -25,6 +29,11 @@ public interface TaskRepository extends JpaRepository<Task, Long> {
     @Query("SELECT DISTINCT t FROM Task t LEFT JOIN FETCH t.poster LEFT JOIN FETCH t.fulfiller WHERE t.id = :id")
     Task findByIdWithUsersEager(@Param("id") Long id);
     
+    // Row lock held until commit, so concurrent image uploads to one task are checked one at a time
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT t FROM Task t WHERE t.id = :id")
+    Optional<Task> findByIdForUpdate(@Param("id") Long id);
+    
     // Eager fetching versions for common queries
     @Query("SELECT DISTINCT t FROM Task t LEFT JOIN FETCH t.poster LEFT JOIN FETCH t.fulfiller WHERE t.status = :status")
     List<Task> findAllByStatusEager(@Param("status") Task.TaskStatus status);
@@ -165,4 +174,8 @@ public interface TaskRepository extends JpaRepository<Task, Long> {
            "AND t.poster.id != :userId " +
            "ORDER BY t.createdAt DESC")
     List<Task> findAvailableTasksExcludingUserApplications(@Param("status") Task.TaskStatus status, @Param("userId") Long userId);
+    
+    // Task images are public to signed-in users even when the same file was also sent in a chat
+    @Query(value = "SELECT COUNT(*) > 0 FROM task_images WHERE image_url = :url", nativeQuery = true)
+    boolean isTaskImage(@Param("url") String url);
 }
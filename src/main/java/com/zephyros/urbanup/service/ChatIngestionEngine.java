@@ -0,0 +1,557 @@
+package com.zephyros.urbanup.service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.zephyros.urbanup.model.Chat;
+import com.zephyros.urbanup.model.Message;
+import com.zephyros.urbanup.model.User;
+import com.zephyros.urbanup.repository.ChatRepository;
+import com.zephyros.urbanup.repository.MessageClientIdRepository;
+import com.zephyros.urbanup.repository.MessageRepository;
+import com.zephyros.urbanup.repository.UserRepository;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Ingests chat messages on a fixed set of single-threaded lanes, chosen by chatId.
+ *
+ * All messages for a chat go through the same lane, so they are stored and broadcast in submission
+ * order without any cross-thread locking. Each lane drains its queue in small batches: one transaction
+ * inserts the batch and bumps each chat's updatedAt once, and the messages are broadcast in order
+ * after the commit. With a {@link WriteBehindMessageStore} the batch is only written to the local
+ * append log before broadcasting, and reaches the database with the store's next flush.
+ *
+ * Sends carrying a clientMessageId are idempotent per sender: retries within the dedupe window share
+ * the original send's result. Beyond it, each new message claims its (sender_id, client_message_id) in
+ * message_client_ids in the same transaction as the insert, and a send whose claim is taken answers
+ * with the stored message instead. In write-behind mode retries are matched against the database
+ * before they are logged, and the store's flush claims the ids.
+ */
+@Component
+public class ChatIngestionEngine {
+
+    @Autowired
+    private ChatRepository chatRepository;
+
+    @Autowired
+    private MessageRepository messageRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private MessageClientIdRepository messageClientIdRepository;
+
+    // Broadcasts and notifications after a batch commits
+    @Autowired
+    @Lazy
+    private RealtimeChatService realtimeChatService;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    // Present only when write-behind mode is enabled
+    @Autowired(required = false)
+    private WriteBehindMessageStore writeBehindStore;
+
+    @Value("${urbanup.chat.ingestion.lanes:4}")
+    private int laneCount;
+
+    @Value("${urbanup.chat.ingestion.batch-size:32}")
+    private int batchSize;
+
+    @Value("${urbanup.chat.ingestion.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${urbanup.chat.ingestion.submit-timeout-ms:10000}")
+    private long submitTimeoutMillis;
+
+    @Value("${urbanup.chat.ingestion.dedupe-window-ms:120000}")
+    private long dedupeWindowMillis;
+
+    private Lane[] lanes;
+    private TransactionTemplate transactionTemplate;
+    private volatile boolean running;
+
+    private final long startedAt = System.currentTimeMillis();
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong persisted = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong batchNanos = new AtomicLong();
+    private final AtomicLong deduplicated = new AtomicLong();
+
+    // senderId:clientMessageId -> result of the first send, kept for the dedupe window
+    private final Map<String, CompletableFuture<Message>> recentSends = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<DedupeMark> dedupeExpiry = new ConcurrentLinkedQueue<>();
+
+    @PostConstruct
+    public void start() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        running = true;
+        lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new Lane(i);
+            lanes[i].thread.start();
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        // Lanes finish what is already queued before exiting
+        running = false;
+        for (Lane lane : lanes) {
+            lane.thread.join(TimeUnit.SECONDS.toMillis(10));
+        }
+    }
+
+    /**
+     * Queue a message for its chat's lane; the future completes once it is stored and broadcast.
+     * A repeated clientMessageId from the same sender completes with the originally stored message.
+     */
+    public CompletableFuture<Message> submit(Long chatId, Long senderId, String content, Message.MessageType messageType,
+                                             String attachmentUrl, String clientMessageId) {
+        if (clientMessageId != null && clientMessageId.length() > Message.CLIENT_MESSAGE_ID_MAX_LENGTH) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("clientMessageId is too long"));
+        }
+        IngestRequest request = new IngestRequest(chatId, senderId, content, messageType, attachmentUrl, clientMessageId);
+
+        String dedupeKey = clientMessageId != null ? senderId + ":" + clientMessageId : null;
+        if (dedupeKey != null) {
+            expireDedupeMarks();
+            CompletableFuture<Message> original = recentSends.putIfAbsent(dedupeKey, request.future);
+            if (original != null) {
+                deduplicated.incrementAndGet();
+                return original;
+            }
+            dedupeExpiry.add(new DedupeMark(dedupeKey, request.future, System.currentTimeMillis() + dedupeWindowMillis));
+            // A failed send may be retried with the same id
+            request.future.whenComplete((message, error) -> {
+                if (error != null) {
+                    recentSends.remove(dedupeKey, request.future);
+                }
+            });
+        }
+
+        if (!running || !laneFor(chatId).queue.offer(request)) {
+            rejected.incrementAndGet();
+            request.future.completeExceptionally(new IllegalStateException("Chat is busy, please retry"));
+        } else {
+            accepted.incrementAndGet();
+        }
+        return request.future;
+    }
+
+    /**
+     * Submit and wait for the stored message, rethrowing validation errors as-is
+     */
+    public Message ingest(Long chatId, Long senderId, String content, Message.MessageType messageType,
+                          String attachmentUrl, String clientMessageId) {
+        try {
+            return submit(chatId, senderId, content, messageType, attachmentUrl, clientMessageId).get(submitTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException("Failed to send message", e.getCause());
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("Timed out sending message");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while sending message");
+        }
+    }
+
+    public IngestionStats getStats() {
+        IngestionStats stats = new IngestionStats();
+        int queued = 0;
+        for (Lane lane : lanes) {
+            queued += lane.queue.size();
+        }
+        long batchCount = batches.get();
+        long uptimeSeconds = Math.max(1, (System.currentTimeMillis() - startedAt) / 1000);
+        stats.setLanes(laneCount);
+        stats.setQueued(queued);
+        stats.setAccepted(accepted.get());
+        stats.setRejected(rejected.get());
+        stats.setPersisted(persisted.get());
+        stats.setFailed(failed.get());
+        stats.setBatches(batchCount);
+        stats.setAverageBatchSize(batchCount == 0 ? 0 : (double) (persisted.get() + failed.get()) / batchCount);
+        stats.setAverageBatchMillis(batchCount == 0 ? 0 : batchNanos.get() / 1_000_000.0 / batchCount);
+        stats.setMessagesPerSecond((double) persisted.get() / uptimeSeconds);
+        stats.setDeduplicated(deduplicated.get());
+        return stats;
+    }
+
+    private void expireDedupeMarks() {
+        long now = System.currentTimeMillis();
+        DedupeMark mark;
+        while ((mark = dedupeExpiry.peek()) != null && mark.expiresAt <= now) {
+            if (dedupeExpiry.remove(mark)) {
+                recentSends.remove(mark.key, mark.future);
+            }
+        }
+    }
+
+    private Lane laneFor(Long chatId) {
+        return lanes[(Long.hashCode(chatId) & Integer.MAX_VALUE) % lanes.length];
+    }
+
+    private void processBatch(List<IngestRequest> batch) {
+        long start = System.nanoTime();
+        List<Stored> stored;
+        try {
+            stored = writeBehindStore != null ? appendToLog(batch) : transactionTemplate.execute(status -> persist(batch));
+        } catch (Exception e) {
+            if (batch.size() > 1) {
+                // One row broke a constraint (e.g. its chat was deleted); retry one by one so only it fails
+                for (IngestRequest request : batch) {
+                    processBatch(List.of(request));
+                }
+                return;
+            }
+            IngestRequest request = batch.get(0);
+            if (!(e instanceof DataIntegrityViolationException)) {
+                System.err.println("Failed to persist chat message: " + e.getMessage());
+            }
+            failed.incrementAndGet();
+            request.future.completeExceptionally(new IllegalStateException("Failed to send message"));
+            return;
+        }
+        batches.incrementAndGet();
+        batchNanos.addAndGet(System.nanoTime() - start);
+
+        for (Stored result : stored) {
+            if (result.error != null) {
+                failed.incrementAndGet();
+                result.request.future.completeExceptionally(result.error);
+                continue;
+            }
+            if (result.duplicate) {
+                deduplicated.incrementAndGet();
+                result.request.future.complete(result.message);
+                continue;
+            }
+            persisted.incrementAndGet();
+            try {
+                // In write-behind mode the store notifies recipients when it flushes
+                realtimeChatService.publishStoredMessage(result.chat, result.message, writeBehindStore == null);
+            } catch (Exception e) {
+                System.err.println("Failed to publish chat message: " + e.getMessage());
+            }
+            result.request.future.complete(result.message);
+        }
+    }
+
+    /**
+     * Validate and insert a batch, then bump updatedAt once per chat. Runs inside the lane's transaction.
+     */
+    private List<Stored> persist(List<IngestRequest> batch) {
+        Map<Long, Optional<Chat>> chats = new HashMap<>();
+        Map<Long, Optional<User>> senders = new HashMap<>();
+        List<Stored> results = prepare(batch, Map.of(),
+            chatId -> chats.computeIfAbsent(chatId, chatRepository::findById),
+            senderId -> senders.computeIfAbsent(senderId, userRepository::findById));
+        claimClientMessageIds(results);
+
+        List<Message> messages = new ArrayList<>(results.size());
+        Map<Long, LocalDateTime> chatUpdatedAt = new HashMap<>();
+        for (Stored result : results) {
+            if (result.message != null && !result.duplicate) {
+                messages.add(result.message);
+                chatUpdatedAt.put(result.chat.getId(), result.message.getCreatedAt());
+            }
+        }
+        messageRepository.saveAll(messages);
+        chatUpdatedAt.forEach(chatRepository::touchUpdatedAt);
+        return results;
+    }
+
+    /**
+     * Validate a batch against cached chats and users and make it durable in the write-behind log
+     */
+    private List<Stored> appendToLog(List<IngestRequest> batch) throws Exception {
+        List<Stored> results = prepare(batch, findByClientMessageIds(batch), writeBehindStore::findChat, writeBehindStore::findUser);
+        List<Message> messages = new ArrayList<>(results.size());
+        for (Stored result : results) {
+            if (result.message != null && !result.duplicate) {
+                messages.add(result.message);
+            }
+        }
+        writeBehindStore.append(messages);
+        return results;
+    }
+
+    /**
+     * Check each request's chat and sender and build its message; invalid requests carry their error.
+     * Requests found in {@code alreadyStored} (by senderId:clientMessageId) are answered with that row.
+     */
+    private List<Stored> prepare(List<IngestRequest> batch, Map<String, Message> alreadyStored,
+                                 Function<Long, Optional<Chat>> chatLookup,
+                                 Function<Long, Optional<User>> userLookup) {
+        List<Stored> results = new ArrayList<>(batch.size());
+        for (IngestRequest request : batch) {
+            Stored result = new Stored(request);
+            results.add(result);
+
+            Optional<Chat> chatOpt = chatLookup.apply(request.chatId);
+            Optional<User> senderOpt = userLookup.apply(request.senderId);
+            if (chatOpt.isEmpty()) {
+                result.error = new IllegalArgumentException("Chat not found");
+                continue;
+            }
+            if (senderOpt.isEmpty()) {
+                result.error = new IllegalArgumentException("Sender not found");
+                continue;
+            }
+
+            Chat chat = chatOpt.get();
+            User sender = senderOpt.get();
+            if (!sender.getId().equals(chat.getPoster().getId()) &&
+                !sender.getId().equals(chat.getFulfiller().getId())) {
+                result.error = new IllegalArgumentException("User not authorized to send messages in this chat");
+                continue;
+            }
+
+            // Checked here rather than at flush, where one oversized row would fail the whole batch
+            if (request.content != null && request.content.length() > Message.CONTENT_MAX_LENGTH) {
+                result.error = new IllegalArgumentException("Message cannot exceed " + Message.CONTENT_MAX_LENGTH + " characters");
+                continue;
+            }
+
+            Message existing = request.clientMessageId != null
+                ? alreadyStored.get(request.senderId + ":" + request.clientMessageId)
+                : null;
+            if (existing != null) {
+                result.chat = chat;
+                result.message = existing;
+                result.duplicate = true;
+                continue;
+            }
+
+            Message message = new Message();
+            message.setChat(chat);
+            message.setSender(sender);
+            message.setContent(request.content);
+            message.setMessageType(request.messageType);
+            message.setIsRead(false);
+            message.setCreatedAt(LocalDateTime.now());
+            message.setClientMessageId(request.clientMessageId);
+            if (request.attachmentUrl != null) {
+                message.getAttachmentUrls().add(request.attachmentUrl);
+            }
+
+            result.chat = chat;
+            result.message = message;
+        }
+        return results;
+    }
+
+    /**
+     * Claim the client message id of each new message. A claim held by a transaction still in flight
+     * blocks until that transaction ends, so a taken claim has a committed message behind it, which
+     * then answers the request. Runs inside the lane's transaction, so a failed batch releases its claims.
+     */
+    private void claimClientMessageIds(List<Stored> results) {
+        LocalDateTime now = LocalDateTime.now();
+        for (Stored result : results) {
+            IngestRequest request = result.request;
+            if (result.message == null || result.duplicate || request.clientMessageId == null) {
+                continue;
+            }
+            if (messageClientIdRepository.claim(request.senderId, request.clientMessageId, now) > 0) {
+                continue;
+            }
+            Message stored = findStoredMessage(request.senderId, request.clientMessageId);
+            if (stored != null) {
+                result.message = stored;
+                result.duplicate = true;
+            } else {
+                // Claimed, but the message has since been archived
+                result.message = null;
+                result.error = new IllegalArgumentException("Message was already sent");
+            }
+        }
+    }
+
+    /**
+     * Messages already stored for the batch's client message ids, keyed by senderId:clientMessageId.
+     * Used before write-behind logging, one indexed query per sender: the in-memory window cannot tell a
+     * first send from a retry that outlived it or went to another node.
+     */
+    private Map<String, Message> findByClientMessageIds(List<IngestRequest> batch) {
+        Map<Long, List<String>> idsBySender = new HashMap<>();
+        for (IngestRequest request : batch) {
+            if (request.clientMessageId != null) {
+                idsBySender.computeIfAbsent(request.senderId, id -> new ArrayList<>()).add(request.clientMessageId);
+            }
+        }
+        Map<String, Message> stored = new HashMap<>();
+        idsBySender.forEach((senderId, clientMessageIds) -> {
+            for (Message message : messageRepository.findBySenderIdAndClientMessageIdIn(senderId, clientMessageIds)) {
+                stored.put(senderId + ":" + message.getClientMessageId(), message);
+            }
+        });
+        return stored;
+    }
+
+    private Message findStoredMessage(Long senderId, String clientMessageId) {
+        try {
+            List<Message> stored = messageRepository.findBySenderIdAndClientMessageIdIn(senderId, List.of(clientMessageId));
+            return stored.isEmpty() ? null : stored.get(0);
+        } catch (Exception e) {
+            System.err.println("Failed to look up resent chat message: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private class Lane {
+        private final BlockingQueue<IngestRequest> queue = new LinkedBlockingQueue<>(queueCapacity);
+        private final Thread thread;
+
+        private Lane(int index) {
+            thread = new Thread(this::run, "chat-ingest-" + index);
+            thread.setDaemon(true);
+        }
+
+        private void run() {
+            List<IngestRequest> batch = new ArrayList<>(batchSize);
+            while (running || !queue.isEmpty()) {
+                try {
+                    IngestRequest first = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                    processBatch(batch);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (Exception e) {
+                    System.err.println("Chat ingestion lane error: " + e.getMessage());
+                } finally {
+                    batch.clear();
+                }
+            }
+        }
+    }
+
+    private static class IngestRequest {
+        private final Long chatId;
+        private final Long senderId;
+        private final String content;
+        private final Message.MessageType messageType;
+        private final String attachmentUrl;
+        private final String clientMessageId;
+        private final CompletableFuture<Message> future = new CompletableFuture<>();
+
+        private IngestRequest(Long chatId, Long senderId, String content, Message.MessageType messageType,
+                              String attachmentUrl, String clientMessageId) {
+            this.chatId = chatId;
+            this.senderId = senderId;
+            this.content = content;
+            this.messageType = messageType;
+            this.attachmentUrl = attachmentUrl;
+            this.clientMessageId = clientMessageId;
+        }
+    }
+
+    private static class Stored {
+        private final IngestRequest request;
+        private Chat chat;
+        private Message message;
+        private boolean duplicate;
+        private RuntimeException error;
+
+        private Stored(IngestRequest request) {
+            this.request = request;
+        }
+    }
+
+    private static class DedupeMark {
+        private final String key;
+        private final CompletableFuture<Message> future;
+        private final long expiresAt;
+
+        private DedupeMark(String key, CompletableFuture<Message> future, long expiresAt) {
+            this.key = key;
+            this.future = future;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    public static class IngestionStats {
+        private int lanes;
+        private int queued;
+        private long accepted;
+        private long rejected;
+        private long persisted;
+        private long failed;
+        private long batches;
+        private double averageBatchSize;
+        private double averageBatchMillis;
+        private double messagesPerSecond;
+        private long deduplicated;
+
+        // Getters and setters
+        public int getLanes() { return lanes; }
+        public void setLanes(int lanes) { this.lanes = lanes; }
+
+        public int getQueued() { return queued; }
+        public void setQueued(int queued) { this.queued = queued; }
+
+        public long getAccepted() { return accepted; }
+        public void setAccepted(long accepted) { this.accepted = accepted; }
+
+        public long getRejected() { return rejected; }
+        public void setRejected(long rejected) { this.rejected = rejected; }
+
+        public long getPersisted() { return persisted; }
+        public void setPersisted(long persisted) { this.persisted = persisted; }
+
+        public long getFailed() { return failed; }
+        public void setFailed(long failed) { this.failed = failed; }
+
+        public long getBatches() { return batches; }
+        public void setBatches(long batches) { this.batches = batches; }
+
+        public double getAverageBatchSize() { return averageBatchSize; }
+        public void setAverageBatchSize(double averageBatchSize) { this.averageBatchSize = averageBatchSize; }
+
+        public double getAverageBatchMillis() { return averageBatchMillis; }
+        public void setAverageBatchMillis(double averageBatchMillis) { this.averageBatchMillis = averageBatchMillis; }
+
+        public double getMessagesPerSecond() { return messagesPerSecond; }
+        public void setMessagesPerSecond(double messagesPerSecond) { this.messagesPerSecond = messagesPerSecond; }
+
+        public long getDeduplicated() { return deduplicated; }
+        public void setDeduplicated(long deduplicated) { this.deduplicated = deduplicated; }
+    }
+}
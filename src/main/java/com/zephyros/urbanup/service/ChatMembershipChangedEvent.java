@@ -0,0 +1,24 @@
+package com.zephyros.urbanup.service;
+
+/**
+ * Published when a user's access to a chat may have changed, so cached WebSocket authorizations
+ * for that user are checked against the database again.
+ */
+public class ChatMembershipChangedEvent {
+
+    private final Long userId;
+    private final Long chatId;
+
+    /**
+     * A null chatId means every chat of the user
+     */
+    public ChatMembershipChangedEvent(Long userId, Long chatId) {
+        this.userId = userId;
+        this.chatId = chatId;
+    }
+
+    // Getters
+    public Long getUserId() { return userId; }
+
+    public Long getChatId() { return chatId; }
+}
@@ -72,6 +72,22 @@ public class ChatService {
         return messageRepository.save(message);
     }
 
+    /**
+     * Check that the sender may post to the chat, without loading it; lets uploads fail before storing
+     */
+    @Transactional(readOnly = true)
+    public void checkCanSend(Long chatId, Long senderId) {
+        if (!chatRepository.existsById(chatId)) {
+            throw new IllegalArgumentException("Chat not found");
+        }
+        if (!userRepository.existsById(senderId)) {
+            throw new IllegalArgumentException("Sender not found");
+        }
+        if (!chatRepository.isParticipant(chatId, senderId)) {
+            throw new IllegalArgumentException("User not authorized to send messages in this chat");
+        }
+    }
+
     @Transactional(readOnly = true)
     public List<Message> getChatMessages(Long chatId, Long userId) {
         Chat chat = chatRepository.findByIdWithTaskAndUsers(chatId)
@@ -95,6 +111,7 @@ public class ChatService {
             }
             messageRepository.saveAll(messagesToUpdate);
         }
+        notificationService.clearDeferredMessages(userId, chatId);
     }
 
     @Transactional(readOnly = true)
@@ -0,0 +1,176 @@
+package com.zephyros.urbanup.service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.zephyros.urbanup.dto.MessageTranscriptRow;
+import com.zephyros.urbanup.model.Chat;
+import com.zephyros.urbanup.repository.ChatRepository;
+import com.zephyros.urbanup.repository.MessageRepository;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Streams full chat transcripts as NDJSON or CSV.
+ *
+ * Messages are read in fixed-size keyset chunks over (chat_id, id) as projections, each chunk in its
+ * own short read-only transaction, and written out before the next one is fetched. Memory stays
+ * bounded by the chunk size however long the chat is, and no connection is held while the client
+ * reads.
+ */
+@Service
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class ChatTranscriptService {
+
+    public static final String FORMAT_NDJSON = "ndjson";
+    public static final String FORMAT_CSV = "csv";
+
+    @Autowired
+    private ChatRepository chatRepository;
+
+    @Autowired
+    private MessageRepository messageRepository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${urbanup.chat.export.chunk-size:1000}")
+    private int chunkSize;
+
+    // The class itself runs without a transaction so nothing stays open while the response is written
+    private TransactionTemplate chunkTransaction;
+
+    @PostConstruct
+    public void init() {
+        chunkTransaction = new TransactionTemplate(transactionManager);
+        chunkTransaction.setReadOnly(true);
+    }
+
+    /**
+     * Check that the user may export the chat; call before starting the response
+     */
+    public void checkAccess(Long chatId, Long userId) {
+        if (!chatRepository.existsById(chatId)) {
+            throw new IllegalArgumentException("Chat not found");
+        }
+        if (!chatRepository.isParticipant(chatId, userId)) {
+            throw new IllegalArgumentException("User not authorized to export this chat");
+        }
+    }
+
+    /**
+     * Write the whole transcript, oldest message first
+     */
+    public void writeTranscript(Long chatId, String format, OutputStream out) throws IOException {
+        boolean csv = FORMAT_CSV.equalsIgnoreCase(format);
+        ObjectWriter rowWriter = objectMapper.writerFor(MessageTranscriptRow.class);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        if (csv) {
+            writer.write("id,created_at,sender_id,sender_name,message_type,content,attachment_urls\r\n");
+        }
+
+        Chat chat = chatRepository.findById(chatId).orElseThrow(() -> new IllegalArgumentException("Chat not found"));
+        LocalDateTime since = MessageRepository.partitionLowerBound(chat);
+        long afterId = 0;
+        while (true) {
+            long from = afterId;
+            List<MessageTranscriptRow> chunk = chunkTransaction.execute(status -> {
+                List<MessageTranscriptRow> rows = messageRepository.findTranscriptChunk(chatId, since, from, PageRequest.of(0, chunkSize));
+                if (!rows.isEmpty()) {
+                    attachUrls(chatId, since, rows);
+                }
+                return rows;
+            });
+            if (chunk == null || chunk.isEmpty()) {
+                break;
+            }
+            for (MessageTranscriptRow row : chunk) {
+                if (csv) {
+                    writeCsvRow(writer, row);
+                } else {
+                    writer.write(rowWriter.writeValueAsString(row));
+                    writer.write('\n');
+                }
+            }
+            // Hand each chunk to the client before reading the next
+            writer.flush();
+            if (chunk.size() < chunkSize) {
+                break;
+            }
+            afterId = chunk.get(chunk.size() - 1).getId();
+        }
+        writer.flush();
+    }
+
+    private void attachUrls(Long chatId, LocalDateTime since, List<MessageTranscriptRow> chunk) {
+        Long fromId = chunk.get(0).getId();
+        Long toId = chunk.get(chunk.size() - 1).getId();
+        List<Object[]> urls = messageRepository.findAttachmentUrlsInRange(chatId, since, fromId, toId);
+        if (urls.isEmpty()) {
+            return;
+        }
+        Map<Long, MessageTranscriptRow> byId = new HashMap<>();
+        for (MessageTranscriptRow row : chunk) {
+            byId.put(row.getId(), row);
+        }
+        for (Object[] url : urls) {
+            MessageTranscriptRow row = byId.get((Long) url[0]);
+            if (row != null) {
+                row.getAttachmentUrls().add((String) url[1]);
+            }
+        }
+    }
+
+    private void writeCsvRow(Writer writer, MessageTranscriptRow row) throws IOException {
+        writer.write(String.valueOf(row.getId()));
+        writer.write(',');
+        writer.write(row.getCreatedAt() != null ? row.getCreatedAt().toString() : "");
+        writer.write(',');
+        writer.write(row.getSenderId() != null ? String.valueOf(row.getSenderId()) : "");
+        writer.write(',');
+        writer.write(csvField(row.getSenderName()));
+        writer.write(',');
+        writer.write(csvField(row.getMessageType()));
+        writer.write(',');
+        writer.write(csvField(row.getContent()));
+        writer.write(',');
+        writer.write(csvField(String.join(" ", row.getAttachmentUrls())));
+        writer.write("\r\n");
+    }
+
+    private static String csvField(String value) {
+        if (value == null) {
+            return "";
+        }
+        // Leading formula characters (and the tab or CR some spreadsheets skip before them) are neutralized
+        if (!value.isEmpty() && "=+-@\t\r".indexOf(value.charAt(0)) >= 0) {
+            value = "'" + value;
+        }
+        if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+}
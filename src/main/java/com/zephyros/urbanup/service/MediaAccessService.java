@@ -0,0 +1,72 @@
+package com.zephyros.urbanup.service;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.zephyros.urbanup.model.User;
+import com.zephyros.urbanup.repository.ChatMediaRepository;
+import com.zephyros.urbanup.repository.MediaThumbnailRepository;
+import com.zephyros.urbanup.repository.TaskRepository;
+import com.zephyros.urbanup.repository.UserRepository;
+
+/**
+ * Decides who may download a stored media file.
+ *
+ * Files sent in a chat are recorded against the chat when uploaded and served only to its
+ * participants, and a thumbnail follows the image it was made from. Other files (task images,
+ * anything no chat has recorded) are served to any signed-in user. Content is deduplicated, so a chat
+ * file that is also a task image stays visible through the task.
+ */
+@Service
+@Transactional(readOnly = true)
+public class MediaAccessService {
+
+    @Autowired
+    private ChatMediaRepository chatMediaRepository;
+
+    @Autowired
+    private MediaThumbnailRepository thumbnailRepository;
+
+    @Autowired
+    private TaskRepository taskRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    /**
+     * Record that an uploaded file was sent in a chat; call before the message is sent
+     */
+    @Transactional
+    public void recordChatMedia(Long chatId, String mediaUrl) {
+        String hash = MediaStorageService.hashOf(mediaUrl);
+        if (hash != null) {
+            chatMediaRepository.record(hash, chatId);
+        }
+    }
+
+    /**
+     * Whether the signed-in user (by email) may download the blob with the given name (sha256.ext)
+     */
+    public boolean canDownload(String name, String email) {
+        String url = MediaStorageService.URL_PREFIX + name;
+        List<String> sources = thumbnailRepository.findSourceUrlsByVariantUrl(url);
+        if (!sources.isEmpty()) {
+            url = sources.get(0);
+        }
+        String hash = MediaStorageService.hashOf(url);
+        if (hash == null) {
+            return false;
+        }
+        if (!chatMediaRepository.existsByMediaHash(hash)) {
+            return true;
+        }
+        User user = email != null ? userRepository.findByEmail(email).orElse(null) : null;
+        if (user != null && chatMediaRepository.isVisibleTo(hash, user.getId())) {
+            return true;
+        }
+        return taskRepository.isTaskImage(url);
+    }
+}
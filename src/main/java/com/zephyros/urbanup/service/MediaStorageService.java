@@ -0,0 +1,352 @@
+package com.zephyros.urbanup.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.multipart.MultipartFile;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Content-addressed storage for uploaded media under urbanup.file.upload-dir.
+ *
+ * An upload is streamed through a direct buffer into a temp file while its SHA-256 is computed, so
+ * file bytes never pile up on the heap. The size limit is enforced as bytes arrive, and the type is
+ * checked against the file's leading magic bytes and urbanup.file.allowed-types before anything else
+ * is written. The finished file is renamed to blobs/ab/{sha256}.{ext} in one atomic move; an upload
+ * whose content is already stored is discarded and shares the existing blob.
+ */
+@Service
+public class MediaStorageService {
+
+    public static final String URL_PREFIX = "/media/";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int SNIFF_BYTES = 8;
+    private static final Pattern BLOB_NAME = Pattern.compile("[0-9a-f]{64}\\.[a-z0-9]+");
+
+    private static final List<FileKind> KINDS = List.of(
+            new FileKind("jpg", "image/jpeg", new byte[] {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF}, "jpg", "jpeg"),
+            new FileKind("png", "image/png", new byte[] {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'}, "png"),
+            new FileKind("gif", "image/gif", "GIF8".getBytes(StandardCharsets.US_ASCII), "gif"),
+            new FileKind("pdf", "application/pdf", "%PDF-".getBytes(StandardCharsets.US_ASCII), "pdf"),
+            new FileKind("doc", "application/msword",
+                    new byte[] {(byte) 0xD0, (byte) 0xCF, 0x11, (byte) 0xE0, (byte) 0xA1, (byte) 0xB1, 0x1A, (byte) 0xE1}, "doc"),
+            new FileKind("docx", "application/vnd.openxmlformats-officedocument.wordprocessingml.document",
+                    new byte[] {'P', 'K', 0x03, 0x04}, "docx").asContainer());
+
+    @Value("${urbanup.file.upload-dir:./uploads}")
+    private String uploadDir;
+
+    @Value("${urbanup.file.max-file-size:10MB}")
+    private DataSize maxFileSize;
+
+    @Value("${urbanup.file.allowed-types:jpg,jpeg,png,gif,pdf,doc,docx}")
+    private String allowedTypes;
+
+    private Path blobDir;
+    private Path tmpDir;
+    private Set<String> allowed;
+
+    @PostConstruct
+    public void init() throws IOException {
+        Path root = Paths.get(uploadDir).toAbsolutePath().normalize();
+        blobDir = Files.createDirectories(root.resolve("blobs"));
+        // Same file system as the blobs, so the final rename is atomic
+        tmpDir = Files.createDirectories(root.resolve("tmp"));
+        allowed = Arrays.stream(allowedTypes.split(","))
+                .map(type -> type.trim().toLowerCase(Locale.ROOT))
+                .filter(type -> !type.isEmpty())
+                .collect(Collectors.toSet());
+        removeAbandonedTempFiles();
+    }
+
+    public StoredMedia store(MultipartFile file) throws IOException {
+        if (file.isEmpty()) {
+            throw new IllegalArgumentException("File is empty");
+        }
+        try (InputStream in = file.getInputStream()) {
+            return store(in, file.getOriginalFilename());
+        }
+    }
+
+    /**
+     * Stream an upload into the store; throws IllegalArgumentException for disallowed or oversized files
+     */
+    public StoredMedia store(InputStream in, String originalFilename) throws IOException {
+        return write(in, originalFilename, true);
+    }
+
+    /**
+     * Store a file generated by the server, such as a thumbnail; urbanup.file.allowed-types does not apply
+     */
+    public StoredMedia storeDerived(InputStream in, String extension) throws IOException {
+        return write(in, "derived." + extension, false);
+    }
+
+    /**
+     * Content hash of a media URL returned by this store, or null for any other URL
+     */
+    public static String hashOf(String url) {
+        if (url == null || !url.startsWith(URL_PREFIX) || !BLOB_NAME.matcher(url.substring(URL_PREFIX.length())).matches()) {
+            return null;
+        }
+        return url.substring(URL_PREFIX.length(), URL_PREFIX.length() + 64);
+    }
+
+    private StoredMedia write(InputStream in, String originalFilename, boolean enforceAllowed) throws IOException {
+        String declaredType = extensionOf(originalFilename);
+        if (enforceAllowed && declaredType != null && !allowed.contains(declaredType)) {
+            throw new IllegalArgumentException("File type not allowed: " + declaredType);
+        }
+
+        long limit = maxFileSize.toBytes();
+        MessageDigest digest = sha256();
+        Path tmp = Files.createTempFile(tmpDir, "upload-", ".part");
+        try {
+            FileKind kind = null;
+            long size = 0;
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            try (ReadableByteChannel source = Channels.newChannel(in);
+                 FileChannel target = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                while (true) {
+                    int read = source.read(buffer);
+                    if (read > 0) {
+                        size += read;
+                        if (size > limit) {
+                            throw new IllegalArgumentException("File size exceeds " + maxFileSize.toMegabytes() + "MB limit");
+                        }
+                    }
+                    if (kind == null && (read == -1 || buffer.position() >= SNIFF_BYTES)) {
+                        kind = detect(buffer, declaredType, enforceAllowed);
+                    }
+                    if (kind != null) {
+                        buffer.flip();
+                        digest.update(buffer.duplicate());
+                        while (buffer.hasRemaining()) {
+                            target.write(buffer);
+                        }
+                        buffer.clear();
+                    }
+                    if (read == -1) {
+                        break;
+                    }
+                }
+                target.force(true);
+            }
+            if (size == 0) {
+                throw new IllegalArgumentException("File is empty");
+            }
+            if (kind.container) {
+                checkWordDocument(tmp);
+            }
+
+            String hash = HexFormat.of().formatHex(digest.digest());
+            String name = hash + "." + kind.extension;
+            Path blob = blobPath(name);
+            boolean deduplicated = Files.exists(blob);
+            if (!deduplicated) {
+                Files.createDirectories(blob.getParent());
+                try {
+                    Files.move(tmp, blob, StandardCopyOption.ATOMIC_MOVE);
+                } catch (FileAlreadyExistsException e) {
+                    // The same content finished uploading concurrently
+                    deduplicated = true;
+                }
+            }
+
+            StoredMedia media = new StoredMedia();
+            media.setHash(hash);
+            media.setUrl(URL_PREFIX + name);
+            media.setContentType(kind.contentType);
+            media.setSize(size);
+            media.setOriginalFilename(originalFilename);
+            media.setDeduplicated(deduplicated);
+            return media;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Locate a stored blob by its file name (sha256.ext), as used in media URLs
+     */
+    public Optional<Path> resolve(String name) {
+        if (name == null || !BLOB_NAME.matcher(name).matches()) {
+            return Optional.empty();
+        }
+        Path blob = blobPath(name);
+        return Files.isRegularFile(blob) ? Optional.of(blob) : Optional.empty();
+    }
+
+    /**
+     * Content type of a blob, from the extension it was stored under
+     */
+    public String contentTypeOf(String name) {
+        String extension = extensionOf(name);
+        for (FileKind kind : KINDS) {
+            if (kind.extension.equals(extension)) {
+                return kind.contentType;
+            }
+        }
+        return "application/octet-stream";
+    }
+
+    private Path blobPath(String name) {
+        return blobDir.resolve(name.substring(0, 2)).resolve(name);
+    }
+
+    private FileKind detect(ByteBuffer buffer, String declaredType, boolean enforceAllowed) {
+        for (FileKind kind : KINDS) {
+            if (kind.matches(buffer)) {
+                boolean permitted = !enforceAllowed || kind.aliases.stream().anyMatch(allowed::contains);
+                if (!permitted || (declaredType != null && !kind.aliases.contains(declaredType))) {
+                    break;
+                }
+                return kind;
+            }
+        }
+        throw new IllegalArgumentException("File content does not match an allowed type");
+    }
+
+    /**
+     * Any ZIP starts with the docx magic bytes; a Word document also has [Content_Types].xml and a
+     * word/ part. Only the central directory is read, not the file contents.
+     */
+    private static void checkWordDocument(Path file) {
+        boolean contentTypes = false;
+        boolean wordPart = false;
+        try (ZipFile zip = new ZipFile(file.toFile())) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                contentTypes |= "[Content_Types].xml".equals(entry.getName());
+                wordPart |= entry.getName().startsWith("word/");
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("File content does not match an allowed type");
+        }
+        if (!contentTypes || !wordPart) {
+            throw new IllegalArgumentException("File content does not match an allowed type");
+        }
+    }
+
+    private void removeAbandonedTempFiles() {
+        long cutoff = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(tmpDir, "upload-*.part")) {
+            for (Path file : files) {
+                if (Files.getLastModifiedTime(file).toMillis() < cutoff) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to clean up upload temp files: " + e.getMessage());
+        }
+    }
+
+    private static String extensionOf(String filename) {
+        if (filename == null) {
+            return null;
+        }
+        int dot = filename.lastIndexOf('.');
+        return dot >= 0 && dot < filename.length() - 1 ? filename.substring(dot + 1).toLowerCase(Locale.ROOT) : null;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class FileKind {
+        private final String extension;
+        private final String contentType;
+        private final byte[] magic;
+        private final Set<String> aliases;
+        // ZIP-based formats whose magic bytes alone do not identify them
+        private boolean container;
+
+        private FileKind(String extension, String contentType, byte[] magic, String... aliases) {
+            this.extension = extension;
+            this.contentType = contentType;
+            this.magic = magic;
+            this.aliases = Set.of(aliases);
+        }
+
+        private FileKind asContainer() {
+            this.container = true;
+            return this;
+        }
+
+        private boolean matches(ByteBuffer buffer) {
+            if (buffer.position() < magic.length) {
+                return false;
+            }
+            for (int i = 0; i < magic.length; i++) {
+                if (buffer.get(i) != magic[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    public static class StoredMedia {
+        private String hash;
+        private String url;
+        private String contentType;
+        private long size;
+        private String originalFilename;
+        private boolean deduplicated;
+
+        // Getters and setters
+        public String getHash() { return hash; }
+        public void setHash(String hash) { this.hash = hash; }
+
+        public String getUrl() { return url; }
+        public void setUrl(String url) { this.url = url; }
+
+        public String getContentType() { return contentType; }
+        public void setContentType(String contentType) { this.contentType = contentType; }
+
+        public long getSize() { return size; }
+        public void setSize(long size) { this.size = size; }
+
+        public String getOriginalFilename() { return originalFilename; }
+        public void setOriginalFilename(String originalFilename) { this.originalFilename = originalFilename; }
+
+        public boolean isDeduplicated() { return deduplicated; }
+        public void setDeduplicated(boolean deduplicated) { this.deduplicated = deduplicated; }
+    }
+}
@@ -0,0 +1,158 @@
+package com.zephyros.urbanup.service;
+
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Keeps the monthly partitions of the messages table (db/migration V3) in shape.
+ *
+ * Runs at startup and then daily. Partitions for the coming months are created ahead of time so
+ * inserts never fall into the default partition. With archiving enabled, partitions older than
+ * {@code after-months} are either detached from messages, leaving a standalone table to dump or drop,
+ * or copied into the compact messages_archive table and dropped. Every step takes a transaction-level
+ * advisory lock, so only one node does the work. Does nothing until the table is partitioned.
+ */
+@Component
+public class MessagePartitionMaintenance {
+
+    public static final String MODE_NONE = "none";
+    public static final String MODE_DETACH = "detach";
+    public static final String MODE_ARCHIVE = "archive";
+
+    private static final long LOCK_KEY = 0x75726270L;
+    private static final Pattern PARTITION_NAME = Pattern.compile("messages_p(\\d{6})");
+    private static final DateTimeFormatter SUFFIX = DateTimeFormatter.ofPattern("yyyyMM");
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${urbanup.chat.partitions.months-ahead:3}")
+    private int monthsAhead;
+
+    @Value("${urbanup.chat.partitions.archive.mode:none}")
+    private String archiveMode;
+
+    @Value("${urbanup.chat.partitions.archive.after-months:12}")
+    private int archiveAfterMonths;
+
+    private TransactionTemplate transactionTemplate;
+
+    @PostConstruct
+    public void init() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onStartup() {
+        runMaintenance();
+    }
+
+    @Scheduled(cron = "${urbanup.chat.partitions.maintenance-cron:0 30 3 * * *}")
+    public void runMaintenance() {
+        try {
+            if (!isPartitioned()) {
+                return;
+            }
+            YearMonth current = YearMonth.now();
+            for (int i = 0; i <= monthsAhead; i++) {
+                createPartition(current.plusMonths(i));
+            }
+            if (!MODE_NONE.equalsIgnoreCase(archiveMode)) {
+                YearMonth cutoff = current.minusMonths(archiveAfterMonths);
+                for (YearMonth month : listPartitions()) {
+                    if (month.isBefore(cutoff)) {
+                        archivePartition(month);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("Message partition maintenance failed: " + e.getMessage());
+        }
+    }
+
+    private boolean isPartitioned() {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                "SELECT EXISTS (SELECT 1 FROM pg_class WHERE oid = to_regclass('messages') AND relkind = 'p')",
+                Boolean.class));
+    }
+
+    private List<YearMonth> listPartitions() {
+        List<String> names = jdbcTemplate.queryForList(
+                "SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid " +
+                "WHERE i.inhparent = to_regclass('messages') ORDER BY c.relname",
+                String.class);
+        List<YearMonth> months = new ArrayList<>();
+        for (String name : names) {
+            Matcher matcher = PARTITION_NAME.matcher(name);
+            if (matcher.matches()) {
+                months.add(YearMonth.parse(matcher.group(1), SUFFIX));
+            }
+        }
+        return months;
+    }
+
+    private void createPartition(YearMonth month) {
+        String name = partitionName(month);
+        withLock(() -> {
+            if (Boolean.TRUE.equals(jdbcTemplate.queryForObject("SELECT to_regclass(?) IS NOT NULL", Boolean.class, name))) {
+                return;
+            }
+            // Fails if the default partition already holds rows for this month; those need moving by hand
+            jdbcTemplate.execute("CREATE TABLE " + name + " PARTITION OF messages FOR VALUES FROM ('"
+                    + month.atDay(1) + "') TO ('" + month.plusMonths(1).atDay(1) + "')");
+        });
+    }
+
+    private void archivePartition(YearMonth month) {
+        String name = partitionName(month);
+        withLock(() -> {
+            if (MODE_DETACH.equalsIgnoreCase(archiveMode)) {
+                jdbcTemplate.execute("ALTER TABLE messages DETACH PARTITION " + name);
+                return;
+            }
+            if (!MODE_ARCHIVE.equalsIgnoreCase(archiveMode)) {
+                return;
+            }
+            jdbcTemplate.update(
+                    "INSERT INTO messages_archive (id, chat_id, sender_id, content, message_type, is_read, is_system_message, " +
+                    "created_at, read_at, system_message_data, client_message_id, attachment_urls) " +
+                    "SELECT m.id, m.chat_id, m.sender_id, m.content, m.message_type, m.is_read, m.is_system_message, " +
+                    "m.created_at, m.read_at, m.system_message_data, m.client_message_id, " +
+                    "(SELECT array_agg(a.attachment_url) FROM message_attachments a WHERE a.message_id = m.id) " +
+                    "FROM " + name + " m ON CONFLICT DO NOTHING");
+            jdbcTemplate.update("DELETE FROM message_attachments a USING " + name + " m WHERE a.message_id = m.id");
+            jdbcTemplate.execute("DROP TABLE " + name);
+        });
+    }
+
+    private void withLock(Runnable work) {
+        transactionTemplate.executeWithoutResult(status -> {
+            if (Boolean.TRUE.equals(jdbcTemplate.queryForObject("SELECT pg_try_advisory_xact_lock(?)", Boolean.class, LOCK_KEY))) {
+                work.run();
+            }
+        });
+    }
+
+    private static String partitionName(YearMonth month) {
+        return "messages_p" + month.format(SUFFIX);
+    }
+}
@@ -0,0 +1,183 @@
+package com.zephyros.urbanup.service;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Full-text search over the messages of chats a user participates in.
+ *
+ * Matches use the GIN-indexed content_tsv column (db/migration V1, V2) with websearch syntax, so
+ * quoted phrases, OR and -exclusions work as users expect. Hits are ordered by ts_rank, newest
+ * first on ties, and paged by a (rank, id) keyset cursor instead of OFFSET. Snippets mark matches
+ * with ** rather than HTML tags, since message text is user content.
+ *
+ * Without the migrations (Flyway is off outside production, and the development profile recreates
+ * the schema with Hibernate) content_tsv does not exist. Search then falls back to a case-insensitive
+ * substring match, newest first, with every hit ranked 0 and the message start as its snippet.
+ */
+@Service
+@Transactional(readOnly = true)
+public class MessageSearchService {
+
+    private static final String SEARCH_SQL =
+            "SELECT m.id, m.chat_id, m.sender_id, m.created_at, r.rank, " +
+            "       ts_headline('english', m.content, q.query, 'StartSel=**, StopSel=**, MaxFragments=1, MaxWords=24, MinWords=8') AS snippet " +
+            "FROM websearch_to_tsquery('english', :query) AS q(query) " +
+            "JOIN messages m ON m.content_tsv @@ q.query " +
+            "JOIN chats c ON c.id = m.chat_id " +
+            "CROSS JOIN LATERAL (SELECT ts_rank(m.content_tsv, q.query) AS rank) r " +
+            "WHERE (c.poster_id = :userId OR c.fulfiller_id = :userId) " +
+            "  AND (CAST(:chatId AS bigint) IS NULL OR m.chat_id = :chatId) " +
+            "  AND (CAST(:afterRank AS real) IS NULL OR r.rank < CAST(:afterRank AS real) " +
+            "       OR (r.rank = CAST(:afterRank AS real) AND m.id < :afterId)) " +
+            "ORDER BY r.rank DESC, m.id DESC " +
+            "LIMIT :limit";
+
+    // Scans the user's messages; fine for development data, not for production tables
+    private static final String SUBSTRING_SEARCH_SQL =
+            "SELECT m.id, m.chat_id, m.sender_id, m.created_at, CAST(0 AS real) AS rank, left(m.content, 200) AS snippet " +
+            "FROM messages m " +
+            "JOIN chats c ON c.id = m.chat_id " +
+            "WHERE (c.poster_id = :userId OR c.fulfiller_id = :userId) " +
+            "  AND m.content ILIKE :pattern ESCAPE '\\' " +
+            "  AND (CAST(:chatId AS bigint) IS NULL OR m.chat_id = :chatId) " +
+            "  AND (CAST(:afterId AS bigint) IS NULL OR m.id < :afterId) " +
+            "ORDER BY m.id DESC " +
+            "LIMIT :limit";
+
+    private static final String TSV_COLUMN_SQL =
+            "SELECT count(*) FROM information_schema.columns " +
+            "WHERE table_schema = current_schema() AND table_name = 'messages' AND column_name = 'content_tsv'";
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Value("${urbanup.chat.search.max-page-size:50}")
+    private int maxPageSize;
+
+    @Value("${urbanup.chat.search.max-query-length:200}")
+    private int maxQueryLength;
+
+    // Checked on first search rather than at startup, after Hibernate has created or updated the schema
+    private volatile Boolean fullTextAvailable;
+
+    /**
+     * Search the user's chats, or only one of them when chatId is given
+     *
+     * @param cursor nextCursor of the previous page, or null for the first page
+     */
+    public SearchPage search(Long userId, String query, Long chatId, int size, String cursor) {
+        if (query == null || query.isBlank()) {
+            throw new IllegalArgumentException("Search query cannot be empty");
+        }
+        if (query.length() > maxQueryLength) {
+            throw new IllegalArgumentException("Search query is too long");
+        }
+        int limit = Math.max(1, Math.min(size, maxPageSize));
+
+        Float afterRank = null;
+        Long afterId = null;
+        if (cursor != null && !cursor.isBlank()) {
+            String[] parts = cursor.split("_", 2);
+            try {
+                afterRank = Float.parseFloat(parts[0]);
+                afterId = Long.parseLong(parts[1]);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid search cursor");
+            }
+        }
+
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("query", query)
+                .addValue("pattern", "%" + query.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%")
+                .addValue("userId", userId)
+                .addValue("chatId", chatId, Types.BIGINT)
+                .addValue("afterRank", afterRank, Types.REAL)
+                .addValue("afterId", afterId, Types.BIGINT)
+                .addValue("limit", limit);
+
+        String sql = isFullTextAvailable() ? SEARCH_SQL : SUBSTRING_SEARCH_SQL;
+        List<SearchHit> hits = jdbcTemplate.query(sql, params, (rs, rowNum) -> {
+            SearchHit hit = new SearchHit();
+            hit.setMessageId(rs.getLong("id"));
+            hit.setChatId(rs.getLong("chat_id"));
+            long senderId = rs.getLong("sender_id");
+            hit.setSenderId(rs.wasNull() ? null : senderId);
+            Timestamp createdAt = rs.getTimestamp("created_at");
+            hit.setCreatedAt(createdAt != null ? createdAt.toLocalDateTime() : null);
+            hit.setRank(rs.getFloat("rank"));
+            hit.setSnippet(rs.getString("snippet"));
+            return hit;
+        });
+
+        SearchPage page = new SearchPage();
+        page.setHits(hits);
+        if (hits.size() == limit) {
+            SearchHit last = hits.get(hits.size() - 1);
+            page.setNextCursor(last.getRank() + "_" + last.getMessageId());
+        }
+        return page;
+    }
+
+    private boolean isFullTextAvailable() {
+        Boolean available = fullTextAvailable;
+        if (available == null) {
+            Integer columns = jdbcTemplate.getJdbcTemplate().queryForObject(TSV_COLUMN_SQL, Integer.class);
+            available = columns != null && columns > 0;
+            if (!available) {
+                System.err.println("messages.content_tsv is missing (migrations not applied); message search falls back to substring matching");
+            }
+            fullTextAvailable = available;
+        }
+        return available;
+    }
+
+    public static class SearchHit {
+        private Long messageId;
+        private Long chatId;
+        private Long senderId;
+        private LocalDateTime createdAt;
+        private float rank;
+        private String snippet;
+
+        // Getters and setters
+        public Long getMessageId() { return messageId; }
+        public void setMessageId(Long messageId) { this.messageId = messageId; }
+
+        public Long getChatId() { return chatId; }
+        public void setChatId(Long chatId) { this.chatId = chatId; }
+
+        public Long getSenderId() { return senderId; }
+        public void setSenderId(Long senderId) { this.senderId = senderId; }
+
+        public LocalDateTime getCreatedAt() { return createdAt; }
+        public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+
+        public float getRank() { return rank; }
+        public void setRank(float rank) { this.rank = rank; }
+
+        public String getSnippet() { return snippet; }
+        public void setSnippet(String snippet) { this.snippet = snippet; }
+    }
+
+    public static class SearchPage {
+        private List<SearchHit> hits;
+        private String nextCursor;
+
+        // Getters and setters
+        public List<SearchHit> getHits() { return hits; }
+        public void setHits(List<SearchHit> hits) { this.hits = hits; }
+
+        public String getNextCursor() { return nextCursor; }
+        public void setNextCursor(String nextCursor) { this.nextCursor = nextCursor; }
+    }
+}
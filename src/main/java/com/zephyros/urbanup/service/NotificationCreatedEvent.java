@@ -0,0 +1,54 @@
+package com.zephyros.urbanup.service;
+
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.zephyros.urbanup.model.Notification;
+
+/**
+ * Published by {@link NotificationService} whenever a notification is stored or updated in place.
+ * Carries a snapshot taken inside the transaction, so listeners running after commit never touch
+ * the (by then detached) entity.
+ */
+public class NotificationCreatedEvent {
+
+    private final Long notificationId;
+    private final Long userId;
+    private final String username;
+    private final LocalDateTime createdAt;
+    private final Map<String, Object> payload;
+
+    public NotificationCreatedEvent(Notification notification) {
+        this.notificationId = notification.getId();
+        this.userId = notification.getUser().getId();
+        // STOMP user destinations are keyed by the authenticated name, which is the email
+        this.username = notification.getUser().getEmail();
+        this.createdAt = notification.getCreatedAt();
+
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("id", notification.getId());
+        payload.put("type", notification.getType());
+        payload.put("priority", notification.getPriority());
+        payload.put("title", notification.getTitle());
+        payload.put("message", notification.getMessage());
+        payload.put("deepLinkUrl", notification.getDeepLinkUrl());
+        payload.put("taskId", notification.getTaskId());
+        payload.put("chatId", notification.getChatId());
+        payload.put("paymentId", notification.getPaymentId());
+        payload.put("collapseCount", notification.getCollapseCount());
+        payload.put("createdAt", notification.getCreatedAt());
+        this.payload = payload;
+    }
+
+    // Getters
+    public Long getNotificationId() { return notificationId; }
+
+    public Long getUserId() { return userId; }
+
+    public String getUsername() { return username; }
+
+    public LocalDateTime getCreatedAt() { return createdAt; }
+
+    public Map<String, Object> getPayload() { return payload; }
+}
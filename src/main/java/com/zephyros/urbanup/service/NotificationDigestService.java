@@ -0,0 +1,174 @@
+package com.zephyros.urbanup.service;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.zephyros.urbanup.model.Notification;
+import com.zephyros.urbanup.model.NotificationDigestEntry;
+import com.zephyros.urbanup.repository.NotificationDigestEntryRepository;
+import com.zephyros.urbanup.repository.NotificationRepository;
+import com.zephyros.urbanup.repository.UserRepository;
+import com.zephyros.urbanup.service.NotificationPreferenceService.DigestMode;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Hourly and daily notification digests, as chosen in each user's notification preferences.
+ *
+ * Low and normal priority notifications of a digesting user are not stored as notifications. Each one
+ * only bumps the (user, type) entry in notification_digest_entries. Once an entry is due, all of the
+ * user's entries become one DIGEST notification, which is stored and pushed like any other. High and
+ * urgent notifications, chat messages (already collapsed per chat) and digests themselves are always
+ * delivered at once.
+ *
+ * Preferences carry no time zone, so a daily digest's hour is read in the server's local time zone: a
+ * dailyHour of 8 means 08:00 on the server clock, whatever the user's own time zone.
+ */
+@Service
+@Transactional
+public class NotificationDigestService {
+
+    private static final int MAX_TITLE_LENGTH = 200;
+    private static final int MAX_MESSAGE_LENGTH = 500;
+
+    @Autowired
+    private NotificationDigestEntryRepository digestEntryRepository;
+
+    @Autowired
+    private NotificationRepository notificationRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private NotificationPreferenceService preferenceService;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${urbanup.notifications.digest.max-users-per-run:1000}")
+    private int maxUsersPerRun;
+
+    private TransactionTemplate transactionTemplate;
+
+    @PostConstruct
+    public void init() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Hold a notification back for the user's next digest; returns false if it should be delivered now
+     */
+    public boolean hold(Notification notification) {
+        if (notification.getPriority() == Notification.NotificationPriority.HIGH
+                || notification.getPriority() == Notification.NotificationPriority.URGENT
+                || notification.getType() == Notification.NotificationType.NEW_MESSAGE
+                || notification.getType() == Notification.NotificationType.DIGEST
+                || notification.getId() != null) {
+            return false;
+        }
+        Long userId = notification.getUser().getId();
+        DigestMode mode = preferenceService.getDigestMode(userId, notification.getType());
+        if (mode == DigestMode.IMMEDIATE) {
+            return false;
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        digestEntryRepository.accumulate(userId, notification.getType().name(), notification.getTitle(),
+                notification.getMessage(), notification.getDeepLinkUrl(), now, dueAt(userId, mode, now));
+        return true;
+    }
+
+    /**
+     * Turn every user's due entries into a digest notification
+     */
+    @Scheduled(fixedDelayString = "${urbanup.notifications.digest.flush-interval-ms:60000}")
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void deliverDueDigests() {
+        try {
+            List<Long> userIds = digestEntryRepository.findUserIdsDue(LocalDateTime.now(), PageRequest.of(0, maxUsersPerRun));
+            for (Long userId : userIds) {
+                try {
+                    // One transaction per user, so one failure does not hold back the rest
+                    transactionTemplate.execute(status -> deliver(userId));
+                } catch (Exception e) {
+                    System.err.println("Failed to deliver notification digest to user " + userId + ": " + e.getMessage());
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("Notification digest run failed: " + e.getMessage());
+        }
+    }
+
+    private boolean deliver(Long userId) {
+        List<NotificationDigestEntry> entries = digestEntryRepository.lockEntriesForUser(userId);
+        LocalDateTime now = LocalDateTime.now();
+        // Empty when another node holds the entries; not due when it just delivered them
+        if (entries.isEmpty() || entries.stream().allMatch(entry -> entry.getDueAt().isAfter(now))) {
+            return false;
+        }
+
+        int total = entries.stream().mapToInt(NotificationDigestEntry::getItemCount).sum();
+        Notification digest = new Notification();
+        digest.setUser(userRepository.getReferenceById(userId));
+        digest.setType(Notification.NotificationType.DIGEST);
+        digest.setPriority(Notification.NotificationPriority.LOW);
+        digest.setTitle(total == 1 ? "1 new update" : total + " new updates");
+        digest.setIsRead(false);
+        digest.setCreatedAt(now);
+
+        List<String> lines = new ArrayList<>();
+        for (NotificationDigestEntry entry : entries) {
+            lines.add(entry.getItemCount() == 1
+                    ? entry.getLatestTitle()
+                    : entry.getItemCount() + " x " + entry.getType().getDisplayName() + " (latest: " + entry.getLatestTitle() + ")");
+            digest.addData(entry.getType().name(), String.valueOf(entry.getItemCount()));
+        }
+        if (total == 1) {
+            NotificationDigestEntry only = entries.get(0);
+            digest.setTitle(truncate(only.getLatestTitle(), MAX_TITLE_LENGTH));
+            digest.setMessage(truncate(only.getLatestMessage(), MAX_MESSAGE_LENGTH));
+            digest.setDeepLinkUrl(only.getLatestDeepLinkUrl());
+        } else {
+            digest.setMessage(truncate(String.join("; ", lines), MAX_MESSAGE_LENGTH));
+            digest.setDeepLinkUrl("/notifications");
+        }
+
+        Notification saved = notificationRepository.save(digest);
+        eventPublisher.publishEvent(new NotificationCreatedEvent(saved));
+        digestEntryRepository.deleteByIds(entries.stream().map(NotificationDigestEntry::getId).toList());
+        return true;
+    }
+
+    private LocalDateTime dueAt(Long userId, DigestMode mode, LocalDateTime now) {
+        if (mode == DigestMode.HOURLY) {
+            return now.truncatedTo(ChronoUnit.HOURS).plusHours(1);
+        }
+        // Server-local wall clock, like now
+        LocalDateTime today = now.truncatedTo(ChronoUnit.DAYS).withHour(preferenceService.getDailyHour(userId));
+        return today.isAfter(now) ? today : today.plusDays(1);
+    }
+
+    private static String truncate(String text, int maxLength) {
+        if (text == null || text.isBlank()) {
+            return "You have new updates.";
+        }
+        return text.length() <= maxLength ? text : text.substring(0, maxLength - 3) + "...";
+    }
+}
@@ -0,0 +1,203 @@
+package com.zephyros.urbanup.service;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.zephyros.urbanup.dto.NotificationPreferencesDto;
+import com.zephyros.urbanup.model.Notification;
+import com.zephyros.urbanup.model.UserProfile;
+import com.zephyros.urbanup.repository.UserProfileRepository;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Parsed notification preferences per user, read from UserProfile.notificationPreferences.
+ *
+ * The JSON is parsed once and cached for {@code cache-ttl-ms}, bounded by an LRU over users, so
+ * deciding how to deliver a notification costs no query in the common case. Preferences changed
+ * through this service apply on this node at once and on other nodes once their entry expires.
+ * Missing or unreadable preferences mean immediate delivery.
+ */
+@Service
+@Transactional
+public class NotificationPreferenceService {
+
+    public enum DigestMode {
+        IMMEDIATE,
+        HOURLY,
+        DAILY
+    }
+
+    @Autowired
+    private UserProfileRepository userProfileRepository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${urbanup.notifications.preferences.cache-size:10000}")
+    private int cacheSize;
+
+    @Value("${urbanup.notifications.preferences.cache-ttl-ms:300000}")
+    private long cacheTtlMillis;
+
+    private ObjectReader reader;
+    private Map<Long, CachedPreferences> cache;
+
+    @PostConstruct
+    public void init() {
+        // Older profiles may hold other keys in the same JSON
+        reader = objectMapper.readerFor(NotificationPreferencesDto.class)
+                .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, CachedPreferences> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * How a notification of the given type should reach the user
+     */
+    @Transactional(readOnly = true)
+    public DigestMode getDigestMode(Long userId, Notification.NotificationType type) {
+        CachedPreferences preferences = getCached(userId);
+        DigestMode mode = preferences.typeModes.get(type);
+        return mode != null ? mode : preferences.defaultMode;
+    }
+
+    /**
+     * Hour of day (server time) the user's daily digest is delivered
+     */
+    @Transactional(readOnly = true)
+    public int getDailyHour(Long userId) {
+        return getCached(userId).dailyHour;
+    }
+
+    @Transactional(readOnly = true)
+    public NotificationPreferencesDto getPreferences(Long userId) {
+        return getCached(userId).dto;
+    }
+
+    /**
+     * Validate and store the user's preferences; throws IllegalArgumentException for unknown modes or types
+     */
+    public NotificationPreferencesDto updatePreferences(Long userId, NotificationPreferencesDto preferences) {
+        CachedPreferences parsed = resolve(preferences, true);
+        UserProfile profile = userProfileRepository.findByUserId(userId)
+                .orElseThrow(() -> new IllegalArgumentException("User profile not found"));
+        try {
+            profile.setNotificationPreferences(objectMapper.writeValueAsString(parsed.dto));
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Invalid notification preferences");
+        }
+        userProfileRepository.save(profile);
+        synchronized (cache) {
+            cache.put(userId, parsed);
+        }
+        return parsed.dto;
+    }
+
+    private CachedPreferences getCached(Long userId) {
+        long now = System.currentTimeMillis();
+        synchronized (cache) {
+            CachedPreferences cached = cache.get(userId);
+            if (cached != null && now - cached.loadedAt < cacheTtlMillis) {
+                return cached;
+            }
+        }
+        CachedPreferences loaded = load(userId);
+        synchronized (cache) {
+            cache.put(userId, loaded);
+        }
+        return loaded;
+    }
+
+    private CachedPreferences load(Long userId) {
+        String json = userProfileRepository.findByUserId(userId)
+                .map(UserProfile::getNotificationPreferences)
+                .orElse(null);
+        NotificationPreferencesDto dto = new NotificationPreferencesDto();
+        if (json != null && !json.isBlank()) {
+            try {
+                dto = reader.readValue(json);
+            } catch (Exception e) {
+                System.err.println("Ignoring unreadable notification preferences of user " + userId + ": " + e.getMessage());
+            }
+        }
+        return resolve(dto, false);
+    }
+
+    // strict rejects bad values; otherwise they fall back to the defaults
+    private CachedPreferences resolve(NotificationPreferencesDto dto, boolean strict) {
+        CachedPreferences resolved = new CachedPreferences();
+        resolved.defaultMode = parseMode(dto.getDigest(), strict);
+        Integer hour = dto.getDailyHour();
+        if (hour != null && (hour < 0 || hour > 23)) {
+            if (strict) {
+                throw new IllegalArgumentException("dailyHour must be between 0 and 23");
+            }
+            hour = null;
+        }
+        resolved.dailyHour = hour != null ? hour : 8;
+
+        Map<String, String> types = new HashMap<>();
+        if (dto.getTypes() != null) {
+            for (Map.Entry<String, String> entry : dto.getTypes().entrySet()) {
+                Notification.NotificationType type;
+                try {
+                    type = Notification.NotificationType.valueOf(entry.getKey().trim().toUpperCase(Locale.ROOT));
+                } catch (IllegalArgumentException e) {
+                    if (strict) {
+                        throw new IllegalArgumentException("Unknown notification type: " + entry.getKey());
+                    }
+                    continue;
+                }
+                DigestMode mode = parseMode(entry.getValue(), strict);
+                resolved.typeModes.put(type, mode);
+                types.put(type.name(), mode.name());
+            }
+        }
+
+        NotificationPreferencesDto normalized = new NotificationPreferencesDto();
+        normalized.setDigest(resolved.defaultMode.name());
+        normalized.setDailyHour(resolved.dailyHour);
+        normalized.setTypes(types);
+        resolved.dto = normalized;
+        resolved.loadedAt = System.currentTimeMillis();
+        return resolved;
+    }
+
+    private static DigestMode parseMode(String value, boolean strict) {
+        if (value == null || value.isBlank()) {
+            return DigestMode.IMMEDIATE;
+        }
+        try {
+            return DigestMode.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            if (strict) {
+                throw new IllegalArgumentException("Unknown digest mode: " + value);
+            }
+            return DigestMode.IMMEDIATE;
+        }
+    }
+
+    private static class CachedPreferences {
+        private DigestMode defaultMode = DigestMode.IMMEDIATE;
+        private int dailyHour = 8;
+        private final Map<Notification.NotificationType, DigestMode> typeModes = new HashMap<>();
+        private NotificationPreferencesDto dto;
+        private long loadedAt;
+    }
+}
@@ -0,0 +1,184 @@
+package com.zephyros.urbanup.service;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.zephyros.urbanup.model.Notification;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Deletes notifications that are past their expiresAt or older than the retention of their type.
+ *
+ * Runs daily. Rows are removed in chunks of {@code chunk-size}, each a single statement that picks its
+ * ids with {@code LIMIT ... FOR UPDATE SKIP LOCKED}, so no chunk holds locks for long and concurrent
+ * runs on other nodes simply take different rows. Chunks are separated by a short pause to leave the
+ * database room for regular traffic, and one run stops after {@code max-chunks-per-run}; whatever is
+ * left goes with the next run. The rows purged per rule by the last run are kept in {@link #getLastReport()}.
+ *
+ * Off by default, like push delivery: set {@code NOTIFICATION_RETENTION=true} to enable the daily run.
+ */
+@Component
+public class NotificationRetentionService {
+
+    // One chunk: notification_data rows go in the same statement, since the bulk delete does not cascade
+    private static final String DELETE_CHUNK_SQL =
+            "WITH doomed AS (SELECT id FROM notifications WHERE %s ORDER BY id LIMIT ? FOR UPDATE SKIP LOCKED), " +
+            "data AS (DELETE FROM notification_data d USING doomed WHERE d.notification_id = doomed.id) " +
+            "DELETE FROM notifications n USING doomed WHERE n.id = doomed.id";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${urbanup.notifications.retention.enabled:false}")
+    private boolean enabled;
+
+    @Value("${urbanup.notifications.retention.default-days:90}")
+    private int defaultDays;
+
+    @Value("${urbanup.notifications.retention.types:}")
+    private String typesConfig;
+
+    @Value("${urbanup.notifications.retention.chunk-size:1000}")
+    private int chunkSize;
+
+    @Value("${urbanup.notifications.retention.pause-ms:100}")
+    private long pauseMillis;
+
+    @Value("${urbanup.notifications.retention.max-chunks-per-run:500}")
+    private int maxChunksPerRun;
+
+    private final Map<Notification.NotificationType, Integer> retentionDays = new EnumMap<>(Notification.NotificationType.class);
+
+    private volatile RetentionReport lastReport;
+
+    @PostConstruct
+    public void init() {
+        for (Notification.NotificationType type : Notification.NotificationType.values()) {
+            retentionDays.put(type, defaultDays);
+        }
+        // e.g. NEW_MESSAGE=30,SYSTEM_ANNOUNCEMENT=180
+        for (String entry : typesConfig.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            String[] parts = entry.split("=", 2);
+            retentionDays.put(Notification.NotificationType.valueOf(parts[0].trim().toUpperCase(Locale.ROOT)),
+                    Integer.parseInt(parts[1].trim()));
+        }
+    }
+
+    @Scheduled(cron = "${urbanup.notifications.retention.cron:0 0 4 * * *}")
+    public void runRetention() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            lastReport = purge();
+        } catch (Exception e) {
+            System.err.println("Notification retention failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Apply every retention rule once, within the per-run chunk budget
+     */
+    public RetentionReport purge() {
+        long started = System.currentTimeMillis();
+        RetentionReport report = new RetentionReport();
+        int[] budget = {maxChunksPerRun};
+
+        LocalDateTime now = LocalDateTime.now();
+        report.getPurged().put("EXPIRED", deleteInChunks("expires_at IS NOT NULL AND expires_at < ?", budget, Timestamp.valueOf(now)));
+        for (Map.Entry<Notification.NotificationType, Integer> rule : retentionDays.entrySet()) {
+            if (rule.getValue() <= 0) {
+                // Zero or less keeps this type until it expires
+                continue;
+            }
+            Timestamp cutoff = Timestamp.valueOf(now.minusDays(rule.getValue()));
+            long purged = deleteInChunks("type = ? AND created_at < ?", budget, rule.getKey().name(), cutoff);
+            if (purged > 0) {
+                report.getPurged().put(rule.getKey().name(), purged);
+            }
+        }
+
+        report.setComplete(budget[0] > 0);
+        report.setDurationMs(System.currentTimeMillis() - started);
+        return report;
+    }
+
+    /**
+     * Delete notifications created before the cutoff, in chunks, within the per-run chunk budget;
+     * anything past the budget is left for the next call or the next scheduled run
+     */
+    public long purgeCreatedBefore(LocalDateTime cutoff) {
+        int[] budget = {maxChunksPerRun};
+        return deleteInChunks("created_at < ?", budget, Timestamp.valueOf(cutoff));
+    }
+
+    public RetentionReport getLastReport() {
+        return lastReport;
+    }
+
+    private long deleteInChunks(String condition, int[] budget, Object... args) {
+        String sql = String.format(DELETE_CHUNK_SQL, condition);
+        Object[] params = new Object[args.length + 1];
+        System.arraycopy(args, 0, params, 0, args.length);
+        params[args.length] = chunkSize;
+
+        long total = 0;
+        while (budget[0] > 0) {
+            // Each chunk commits on its own, so locks are held only for one chunk
+            int deleted = jdbcTemplate.update(sql, params);
+            budget[0]--;
+            total += deleted;
+            if (deleted < chunkSize) {
+                break;
+            }
+            pause();
+        }
+        return total;
+    }
+
+    private void pause() {
+        if (pauseMillis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(pauseMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static class RetentionReport {
+        // Rows purged per rule: EXPIRED or a notification type
+        private Map<String, Long> purged = new LinkedHashMap<>();
+        private long durationMs;
+        private boolean complete;
+
+        public long getTotal() {
+            return purged.values().stream().mapToLong(Long::longValue).sum();
+        }
+
+        // Getters and setters
+        public Map<String, Long> getPurged() { return purged; }
+        public void setPurged(Map<String, Long> purged) { this.purged = purged; }
+
+        public long getDurationMs() { return durationMs; }
+        public void setDurationMs(long durationMs) { this.durationMs = durationMs; }
+
+        public boolean isComplete() { return complete; }
+        public void setComplete(boolean complete) { this.complete = complete; }
+    }
+}
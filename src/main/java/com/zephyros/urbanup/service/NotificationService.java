@@ -1,31 +1,105 @@
 package com.zephyros.urbanup.service;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import com.zephyros.urbanup.model.Chat;
+import com.zephyros.urbanup.model.DeferredMessageNotification;
 import com.zephyros.urbanup.model.Notification;
 import com.zephyros.urbanup.model.Payment;
 import com.zephyros.urbanup.model.Task;
 import com.zephyros.urbanup.model.User;
+import com.zephyros.urbanup.repository.ChatRepository;
+import com.zephyros.urbanup.repository.DeferredMessageNotificationRepository;
+import com.zephyros.urbanup.repository.MessageRepository;
 import com.zephyros.urbanup.repository.NotificationRepository;
 import com.zephyros.urbanup.repository.UserRepository;
+import com.zephyros.urbanup.websocket.OfflineDeliveryQueue;
+import com.zephyros.urbanup.websocket.PresenceRegistry;
+
+import jakarta.annotation.PostConstruct;
 
 @Service
 @Transactional
 public class NotificationService {
     
+    private static final int DEFERRED_BATCH_SIZE = 500;
+    
+    // The open notification of a chat is unique per recipient (partial index on unread rows), so
+    // concurrent senders either insert it or add to its count; an update is pushed again
+    private static final String COLLAPSE_UPSERT_SQL =
+            "INSERT INTO notifications AS n (user_id, type, priority, title, message, deep_link_url, chat_id, " +
+            "  collapse_key, collapse_count, is_read, is_pushed, push_attempts, push_dead, created_at) " +
+            "VALUES (:userId, 'NEW_MESSAGE', 'NORMAL', :title, :message, :deepLinkUrl, :chatId, " +
+            "  :collapseKey, :count, false, false, 0, false, :now) " +
+            "ON CONFLICT (user_id, collapse_key) WHERE is_read = false DO UPDATE SET " +
+            "  collapse_count = coalesce(n.collapse_count, 1) + EXCLUDED.collapse_count, " +
+            "  title = (coalesce(n.collapse_count, 1) + EXCLUDED.collapse_count) || ' New Messages', " +
+            "  message = 'You have ' || (coalesce(n.collapse_count, 1) + EXCLUDED.collapse_count) || :pluralMessage, " +
+            "  created_at = EXCLUDED.created_at, is_pushed = false, pushed_at = NULL, push_attempts = 0, " +
+            "  next_push_at = NULL, push_error = NULL, push_dead = false " +
+            "RETURNING n.id, n.collapse_count, n.title, n.message";
+    
     @Autowired
     private NotificationRepository notificationRepository;
     
     @Autowired
     private UserRepository userRepository;
     
+    @Autowired
+    private PresenceRegistry presenceRegistry;
+    
+    @Autowired
+    private OfflineDeliveryQueue offlineDeliveryQueue;
+    
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+    
+    @Autowired
+    private NotificationRetentionService notificationRetentionService;
+    
+    @Autowired
+    private NotificationDigestService notificationDigestService;
+    
+    @Autowired
+    private ChatRepository chatRepository;
+    
+    @Autowired
+    private MessageRepository messageRepository;
+    
+    @Autowired
+    private DeferredMessageNotificationRepository deferredMessageRepository;
+    
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+    
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    
+    private TransactionTemplate transactionTemplate;
+    
+    @PostConstruct
+    public void init() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+    
     /**
      * Send welcome notification to new user
      */
@@ -40,7 +114,7 @@ public class NotificationService {
         notification.setCreatedAt(LocalDateTime.now());
         notification.setIsRead(false);
         
-        return notificationRepository.save(notification);
+        return saveAndPublish(notification);
     }
     
     /**
@@ -56,7 +130,7 @@ public class NotificationService {
         notification.setCreatedAt(LocalDateTime.now());
         notification.setIsRead(false);
         
-        return notificationRepository.save(notification);
+        return saveAndPublish(notification);
     }
     
     /**
@@ -72,7 +146,7 @@ public class NotificationService {
         notification.setCreatedAt(LocalDateTime.now());
         notification.setIsRead(false);
         
-        return notificationRepository.save(notification);
+        return saveAndPublish(notification);
     }
     
     /**
@@ -88,7 +162,7 @@ public class NotificationService {
         notification.setCreatedAt(LocalDateTime.now());
         notification.setIsRead(false);
         
-        return notificationRepository.save(notification);
+        return saveAndPublish(notification);
     }
     
     /**
@@ -104,7 +178,7 @@ public class NotificationService {
         notification.setCreatedAt(LocalDateTime.now());
         notification.setIsRead(false);
         
-        return notificationRepository.save(notification);
+        return saveAndPublish(notification);
     }
     
     /**
@@ -120,7 +194,7 @@ public class NotificationService {
         notification.setCreatedAt(LocalDateTime.now());
         notification.setIsRead(false);
         
-        return notificationRepository.save(notification);
+        return saveAndPublish(notification);
     }
     
     /**
@@ -138,7 +212,7 @@ public class NotificationService {
         notification.setCreatedAt(LocalDateTime.now());
         notification.setIsRead(false);
         
-        return notificationRepository.save(notification);
+        return saveAndPublish(notification);
     }
     
     /**
@@ -157,7 +231,7 @@ public class NotificationService {
         notification.setCreatedAt(LocalDateTime.now());
         notification.setIsRead(false);
         
-        return notificationRepository.save(notification);
+        return saveAndPublish(notification);
     }
     
     /**
@@ -175,7 +249,7 @@ public class NotificationService {
         notification.setCreatedAt(LocalDateTime.now());
         notification.setIsRead(false);
         
-        return notificationRepository.save(notification);
+        return saveAndPublish(notification);
     }
     
     /**
@@ -193,7 +267,7 @@ public class NotificationService {
         notification.setCreatedAt(LocalDateTime.now());
         notification.setIsRead(false);
         
-        return notificationRepository.save(notification);
+        return saveAndPublish(notification);
     }
     
     /**
@@ -211,7 +285,7 @@ public class NotificationService {
         notification.setCreatedAt(LocalDateTime.now());
         notification.setIsRead(false);
         
-        return notificationRepository.save(notification);
+        return saveAndPublish(notification);
     }
     
     /**
@@ -229,26 +303,139 @@ public class NotificationService {
         notification.setCreatedAt(LocalDateTime.now());
         notification.setIsRead(false);
         
-        return notificationRepository.save(notification);
+        return saveAndPublish(notification);
     }
     
     /**
-     * Send new message notification
+     * Send new message notification.
+     * At most one unread NEW_MESSAGE notification exists per recipient and chat: later messages add to its
+     * count and replace its preview, in one upsert. While the recipient has the chat open the notification
+     * is deferred in notification_deferred_messages and null is returned; see {@link #releaseDeferredMessages()}.
      */
-    public Notification sendNewMessageNotification(User recipient, Chat chat, String senderName) {
+    public Notification sendNewMessageNotification(User recipient, Chat chat, String senderName,
+                                                   String preview, int messageCount) {
+        if (presenceRegistry.isViewingChat(recipient.getId(), chat.getId())) {
+            deferredMessageRepository.accumulate(recipient.getId(), chat.getId(), senderName, preview, messageCount,
+                LocalDateTime.now());
+            return null;
+        }
+        
+        String collapseKey = "chat:" + chat.getId();
+        String about = " about '" + chat.getTask().getTitle() + "'";
+        String latest = preview != null && !preview.isBlank() ? ": \"" + abbreviate(preview, 100) + "\"" : ".";
+        String pluralMessage = " new messages from " + senderName + about + latest;
+        
         Notification notification = new Notification();
         notification.setUser(recipient);
         notification.setType(Notification.NotificationType.NEW_MESSAGE);
         notification.setPriority(Notification.NotificationPriority.NORMAL);
-        notification.setTitle("New Message");
-        notification.setMessage("You have a new message from " + senderName + 
-                              " about '" + chat.getTask().getTitle() + "'.");
         notification.setDeepLinkUrl("/chats/" + chat.getId());
         notification.setChatId(chat.getId());
+        notification.setCollapseKey(collapseKey);
+        notification.setCollapseCount(messageCount);
+        notification.setTitle(messageCount == 1 ? "New Message" : messageCount + " New Messages");
+        notification.setMessage(messageCount == 1
+            ? "You have a new message from " + senderName + about + latest
+            : "You have " + messageCount + pluralMessage);
         notification.setCreatedAt(LocalDateTime.now());
         notification.setIsRead(false);
+        if (notificationDigestService.hold(notification)) {
+            return null;
+        }
         
-        return notificationRepository.save(notification);
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("userId", recipient.getId())
+                .addValue("title", notification.getTitle())
+                .addValue("message", notification.getMessage())
+                .addValue("deepLinkUrl", notification.getDeepLinkUrl())
+                .addValue("chatId", chat.getId())
+                .addValue("collapseKey", collapseKey)
+                .addValue("count", messageCount)
+                .addValue("now", notification.getCreatedAt())
+                .addValue("pluralMessage", pluralMessage);
+        Map<String, Object> row = jdbcTemplate.queryForMap(COLLAPSE_UPSERT_SQL, params);
+        notification.setId(((Number) row.get("id")).longValue());
+        notification.setCollapseCount(((Number) row.get("collapse_count")).intValue());
+        notification.setTitle((String) row.get("title"));
+        notification.setMessage((String) row.get("message"));
+        eventPublisher.publishEvent(new NotificationCreatedEvent(notification));
+        
+        if (!presenceRegistry.isOnline(recipient.getId())) {
+            // Replaces the queued event for this chat, like the notification itself
+            Map<String, Object> event = new LinkedHashMap<>();
+            event.put("id", notification.getId());
+            event.put("chatId", chat.getId());
+            event.put("title", notification.getTitle());
+            event.put("message", notification.getMessage());
+            event.put("deepLinkUrl", notification.getDeepLinkUrl());
+            event.put("messageCount", notification.getCollapseCount());
+            offlineDeliveryQueue.enqueue(recipient.getId(), "notification", null, event, collapseKey);
+        }
+        return notification;
+    }
+    
+    /**
+     * Drop the deferred new-message notification for a chat the user has just read
+     */
+    public void clearDeferredMessages(Long userId, Long chatId) {
+        deferredMessageRepository.deleteForChat(userId, chatId);
+    }
+    
+    /**
+     * Send the deferred new-message notifications of recipients who closed the chat without reading
+     * what arrived while it was open. Each one is locked, removed and sent in its own transaction, so
+     * with several nodes every entry is released once.
+     */
+    @Scheduled(fixedDelayString = "${urbanup.notifications.deferred-check-interval-ms:5000}")
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void releaseDeferredMessages() {
+        for (DeferredMessageNotification deferred : deferredMessageRepository.findOldest(PageRequest.of(0, DEFERRED_BATCH_SIZE))) {
+            if (presenceRegistry.isViewingChat(deferred.getUserId(), deferred.getChatId())) {
+                continue;
+            }
+            try {
+                transactionTemplate.executeWithoutResult(status -> releaseDeferred(deferred.getId()));
+            } catch (Exception e) {
+                System.err.println("Failed to send deferred message notification: " + e.getMessage());
+            }
+        }
+    }
+    
+    private void releaseDeferred(Long deferredId) {
+        Optional<DeferredMessageNotification> locked = deferredMessageRepository.lockById(deferredId);
+        if (locked.isEmpty()) {
+            // Released by another node, or cleared
+            return;
+        }
+        DeferredMessageNotification deferred = locked.get();
+        deferredMessageRepository.deleteEntry(deferredId);
+        if (messageRepository.countUnreadMessagesByChatIdAndRecipientId(deferred.getChatId(), deferred.getUserId()) == 0) {
+            return;
+        }
+        Optional<User> recipient = userRepository.findById(deferred.getUserId());
+        Optional<Chat> chat = chatRepository.findById(deferred.getChatId());
+        if (recipient.isPresent() && chat.isPresent()) {
+            sendNewMessageNotification(recipient.get(), chat.get(), deferred.getSenderName(), deferred.getPreview(),
+                deferred.getMessageCount());
+        }
+    }
+    
+    /**
+     * Store a notification and announce it, so it is pushed to the user once the transaction commits.
+     * Returns null when the user's preferences hold it back for their next digest.
+     */
+    private Notification saveAndPublish(Notification notification) {
+        if (notificationDigestService.hold(notification)) {
+            return null;
+        }
+        Notification saved = notificationRepository.save(notification);
+        eventPublisher.publishEvent(new NotificationCreatedEvent(saved));
+        return saved;
+    }
+    
+    private static String abbreviate(String text, int maxLength) {
+        String singleLine = text.replaceAll("\\s+", " ").trim();
+        return singleLine.length() <= maxLength ? singleLine : singleLine.substring(0, maxLength - 3) + "...";
     }
     
     /**
@@ -266,7 +453,7 @@ public class NotificationService {
         notification.setCreatedAt(LocalDateTime.now());
         notification.setIsRead(false);
         
-        return notificationRepository.save(notification);
+        return saveAndPublish(notification);
     }
     
     /**
@@ -276,48 +463,133 @@ public class NotificationService {
         return notificationRepository.findById(notificationId)
                 .filter(notification -> notification.getUser().getId().equals(userId))
                 .map(notification -> {
-                    notification.setIsRead(true);
-                    notification.setReadAt(LocalDateTime.now());
-                    notificationRepository.save(notification);
+                    if (!Boolean.TRUE.equals(notification.getIsRead())) {
+                        notification.setIsRead(true);
+                        notification.setReadAt(LocalDateTime.now());
+                        notificationRepository.save(notification);
+                        publishUpdate(userId, NotificationsUpdatedEvent.ACTION_READ, 1, List.of(notificationId), null, null);
+                    }
                     return true;
                 })
                 .orElse(false);
     }
     
     /**
-     * Mark all notifications as read for a user
+     * Mark all notifications as read for a user, in one UPDATE
      */
     public int markAllAsRead(Long userId) {
-        Optional<User> userOpt = userRepository.findById(userId);
-        if (userOpt.isPresent()) {
-            User user = userOpt.get();
-            List<Notification> unreadNotifications = notificationRepository.findUnreadNotificationsForUser(user);
-            
-            for (Notification notification : unreadNotifications) {
-                notification.setIsRead(true);
-                notification.setReadAt(LocalDateTime.now());
-            }
-            
-            notificationRepository.saveAll(unreadNotifications);
-            return unreadNotifications.size();
+        int marked = notificationRepository.markAllReadForUser(userId, LocalDateTime.now());
+        publishUpdate(userId, NotificationsUpdatedEvent.ACTION_READ, marked, null, null, null);
+        return marked;
+    }
+    
+    /**
+     * Mark all notifications of one type as read for a user, in one UPDATE
+     */
+    public int markAllAsReadByType(Long userId, Notification.NotificationType type) {
+        int marked = notificationRepository.markReadByTypeForUser(userId, type, LocalDateTime.now());
+        publishUpdate(userId, NotificationsUpdatedEvent.ACTION_READ, marked, null, type.name(), null);
+        return marked;
+    }
+    
+    /**
+     * Mark all notifications about one chat as read for a user, in one UPDATE
+     */
+    public int markAllAsReadByChat(Long userId, Long chatId) {
+        int marked = notificationRepository.markReadByChatForUser(userId, chatId, LocalDateTime.now());
+        publishUpdate(userId, NotificationsUpdatedEvent.ACTION_READ, marked, null, null, chatId);
+        return marked;
+    }
+    
+    /**
+     * Delete the given notifications of a user; ids belonging to other users are ignored
+     */
+    public int deleteNotifications(Long userId, Collection<Long> notificationIds) {
+        if (notificationIds.isEmpty()) {
+            return 0;
+        }
+        List<Long> ids = List.copyOf(new LinkedHashSet<>(notificationIds));
+        notificationRepository.deleteDataByIdsForUser(userId, ids);
+        int deleted = notificationRepository.deleteByIdsForUser(userId, ids);
+        publishUpdate(userId, NotificationsUpdatedEvent.ACTION_DELETED, deleted, ids, null, null);
+        return deleted;
+    }
+    
+    private void publishUpdate(Long userId, String action, int affected, List<Long> ids, String type, Long chatId) {
+        if (affected == 0) {
+            return;
         }
-        return 0;
+        userRepository.findById(userId).ifPresent(user -> eventPublisher.publishEvent(
+                new NotificationsUpdatedEvent(userId, user.getEmail(), action, affected, ids, type, chatId)));
     }
     
     /**
-     * Get user notifications with pagination
+     * Get user notifications with pagination; the offset is applied by the database
      */
     @Transactional(readOnly = true)
     public List<Notification> getUserNotifications(Long userId, int limit, int offset) {
-        Optional<User> userOpt = userRepository.findById(userId);
-        if (userOpt.isPresent()) {
-            return notificationRepository.findByUserOrderByCreatedAtDesc(userOpt.get())
-                    .stream()
-                    .skip(offset)
-                    .limit(limit)
-                    .toList();
+        if (limit <= 0 || offset < 0) {
+            return List.of();
+        }
+        if (offset % limit == 0) {
+            return notificationRepository.findFeedForUser(userId, PageRequest.of(offset / limit, limit));
+        }
+        // Unaligned offsets read the rows before the page too; the feed cursor avoids that
+        List<Notification> rows = notificationRepository.findFeedForUser(userId, PageRequest.of(0, offset + limit));
+        return rows.size() <= offset ? List.of() : rows.subList(offset, rows.size());
+    }
+    
+    /**
+     * Notification feed, newest first, read page by page with a keyset cursor
+     *
+     * @param cursor nextCursor of the previous page, or null for the first page
+     */
+    @Transactional(readOnly = true)
+    public NotificationFeedPage getNotificationFeed(Long userId, int size, String cursor) {
+        PageRequest page = PageRequest.of(0, size);
+        List<Notification> notifications;
+        if (cursor == null || cursor.isBlank()) {
+            notifications = notificationRepository.findFeedForUser(userId, page);
+        } else {
+            FeedCursor before = FeedCursor.parse(cursor);
+            notifications = notificationRepository.findFeedForUserBefore(userId, before.createdAt, before.id, page);
+        }
+        
+        NotificationFeedPage feed = new NotificationFeedPage();
+        feed.setNotifications(notifications);
+        if (notifications.size() == size) {
+            feed.setNextCursor(FeedCursor.of(notifications.get(notifications.size() - 1)));
         }
-        return List.of();
+        return feed;
+    }
+    
+    /**
+     * Notifications created or updated after a point, oldest first, for clients catching up on missed pushes.
+     * The first call passes since; later calls pass the returned nextCursor, which also breaks ties between
+     * notifications with the same createdAt.
+     *
+     * @param cursor nextCursor of the previous call; takes precedence over since
+     */
+    @Transactional(readOnly = true)
+    public NotificationFeedPage getNotificationsSince(Long userId, LocalDateTime since, String cursor, int limit) {
+        FeedCursor after;
+        if (cursor != null && !cursor.isBlank()) {
+            after = FeedCursor.parse(cursor);
+        } else if (since != null) {
+            // Everything at exactly since was already seen
+            after = new FeedCursor(since, Long.MAX_VALUE);
+        } else {
+            throw new IllegalArgumentException("Either since or cursor is required");
+        }
+        List<Notification> notifications = notificationRepository.findCreatedAfterForUser(
+                userId, after.createdAt, after.id, PageRequest.of(0, limit));
+        
+        NotificationFeedPage page = new NotificationFeedPage();
+        page.setNotifications(notifications);
+        // Always set, so an empty catch-up can be repeated from the same point
+        page.setNextCursor(notifications.isEmpty() ? FeedCursor.format(after)
+                : FeedCursor.of(notifications.get(notifications.size() - 1)));
+        return page;
     }
     
     /**
@@ -325,19 +597,23 @@ public class NotificationService {
      */
     @Transactional(readOnly = true)
     public Long getUnreadNotificationCount(Long userId) {
-        Optional<User> userOpt = userRepository.findById(userId);
-        return userOpt.map(user -> notificationRepository.countUnreadNotificationsForUser(user)).orElse(0L);
+        return notificationRepository.countUnreadByUserId(userId);
     }
     
     /**
-     * Delete old notifications (older than specified days)
+     * Get total notification count
      */
-    public int deleteOldNotifications(int daysOld) {
-        LocalDateTime cutoffDate = LocalDateTime.now().minusDays(daysOld);
-        List<Notification> oldNotifications = notificationRepository.findRecentNotifications(cutoffDate);
-        
-        notificationRepository.deleteAll(oldNotifications);
-        return oldNotifications.size();
+    @Transactional(readOnly = true)
+    public Long getNotificationCount(Long userId) {
+        return notificationRepository.countByUserId(userId);
+    }
+    
+    /**
+     * Delete old notifications (older than specified days), in bounded chunks
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public long deleteOldNotifications(int daysOld) {
+        return notificationRetentionService.purgeCreatedBefore(LocalDateTime.now().minusDays(daysOld));
     }
     
     /**
@@ -348,4 +624,46 @@ public class NotificationService {
         return notificationRepository.findById(notificationId)
                 .filter(notification -> notification.getUser().getId().equals(userId));
     }
+    
+    public static class NotificationFeedPage {
+        private List<Notification> notifications;
+        private String nextCursor;
+        
+        // Getters and setters
+        public List<Notification> getNotifications() { return notifications; }
+        public void setNotifications(List<Notification> notifications) { this.notifications = notifications; }
+        
+        public String getNextCursor() { return nextCursor; }
+        public void setNextCursor(String nextCursor) { this.nextCursor = nextCursor; }
+    }
+    
+    /**
+     * Keyset position in a user's notifications, written as {createdAt}_{id}
+     */
+    private static class FeedCursor {
+        private final LocalDateTime createdAt;
+        private final Long id;
+        
+        private FeedCursor(LocalDateTime createdAt, Long id) {
+            this.createdAt = createdAt;
+            this.id = id;
+        }
+        
+        private static FeedCursor parse(String cursor) {
+            try {
+                String[] parts = cursor.split("_", 2);
+                return new FeedCursor(LocalDateTime.parse(parts[0]), Long.parseLong(parts[1]));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid notification cursor");
+            }
+        }
+        
+        private static String of(Notification notification) {
+            return notification.getCreatedAt() + "_" + notification.getId();
+        }
+        
+        private static String format(FeedCursor cursor) {
+            return cursor.createdAt + "_" + cursor.id;
+        }
+    }
 }
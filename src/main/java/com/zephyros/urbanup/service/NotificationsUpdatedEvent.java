@@ -0,0 +1,50 @@
+package com.zephyros.urbanup.service;
+
+import java.util.List;
+
+/**
+ * Published by {@link NotificationService} after a bulk read or delete, so the user's clients can
+ * update their lists and unread badge without re-fetching.
+ */
+public class NotificationsUpdatedEvent {
+
+    public static final String ACTION_READ = "READ";
+    public static final String ACTION_DELETED = "DELETED";
+
+    private final Long userId;
+    private final String username;
+    private final String action;
+    private final int affected;
+    private final List<Long> ids;
+    private final String notificationType;
+    private final Long chatId;
+
+    /**
+     * ids, notificationType and chatId describe what was affected; all null means every notification of the user
+     */
+    public NotificationsUpdatedEvent(Long userId, String username, String action, int affected,
+                                     List<Long> ids, String notificationType, Long chatId) {
+        this.userId = userId;
+        this.username = username;
+        this.action = action;
+        this.affected = affected;
+        this.ids = ids;
+        this.notificationType = notificationType;
+        this.chatId = chatId;
+    }
+
+    // Getters
+    public Long getUserId() { return userId; }
+
+    public String getUsername() { return username; }
+
+    public String getAction() { return action; }
+
+    public int getAffected() { return affected; }
+
+    public List<Long> getIds() { return ids; }
+
+    public String getNotificationType() { return notificationType; }
+
+    public Long getChatId() { return chatId; }
+}
@@ -0,0 +1,305 @@
+package com.zephyros.urbanup.service;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import com.zephyros.urbanup.model.Notification;
+import com.zephyros.urbanup.service.PushProvider.PushMessage;
+import com.zephyros.urbanup.service.PushProvider.PushResult;
+import com.zephyros.urbanup.websocket.PresenceRegistry;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Delivers unpushed notifications to users' devices through the {@link PushProvider}.
+ *
+ * Workers on a small bounded pool claim batches of up to one provider call each. A batch is filled one
+ * priority at a time, most urgent first, so every claim reads the pending (priority, created_at) index
+ * in order instead of sorting all pending rows. Each claim is a single statement that picks rows with
+ * {@code FOR UPDATE SKIP LOCKED} and leases them by moving next_push_at forward, so other workers and
+ * nodes skip them and a crash only delays them until the lease runs out. Rows are left alone for a
+ * short grace period first: users with a live session get them over the WebSocket, and
+ * {@link com.zephyros.urbanup.websocket.NotificationPushDispatcher} marks those as pushed. Read
+ * notifications, users without a device token and users online on any node (see
+ * {@link PresenceRegistry#isOnline}) are settled without a call. Temporary failures are retried with
+ * exponential backoff; rejected messages and those out of attempts are dead-lettered with their last
+ * error. Rows older than max-age are never claimed; {@link #expireStale()} dead-letters them.
+ *
+ * Delivery is off by default and needs a real {@link PushProvider} bean when enabled; the stub provider
+ * only exists in the development and test profiles.
+ */
+@Component
+public class PushDeliveryWorker {
+
+    private static final int MAX_ERROR_LENGTH = 255;
+
+    // Most urgent first
+    private static final Notification.NotificationPriority[] CLAIM_ORDER = {
+            Notification.NotificationPriority.URGENT, Notification.NotificationPriority.HIGH,
+            Notification.NotificationPriority.NORMAL, Notification.NotificationPriority.LOW};
+
+    // Oldest rows of one priority, in idx_notifications_push_pending_priority order
+    private static final String CLAIM_SQL =
+            "WITH claimed AS (" +
+            "  UPDATE notifications n SET next_push_at = :leaseUntil WHERE n.id IN (" +
+            "    SELECT id FROM notifications" +
+            "    WHERE is_pushed = false AND push_dead = false AND priority = :priority" +
+            "      AND created_at >= :maxAgeCutoff AND created_at <= :graceCutoff" +
+            "      AND (next_push_at IS NULL OR next_push_at <= :now)" +
+            "    ORDER BY created_at" +
+            "    LIMIT :limit FOR UPDATE SKIP LOCKED)" +
+            "  RETURNING n.id, n.user_id, n.title, n.message, n.deep_link_url, n.priority, n.push_attempts, n.is_read" +
+            ") SELECT c.*, u.fcm_token FROM claimed c JOIN users u ON u.id = c.user_id";
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired(required = false)
+    private PushProvider pushProvider;
+
+    @Autowired
+    private PresenceRegistry presenceRegistry;
+
+    @Value("${urbanup.notifications.push-delivery.enabled:false}")
+    private boolean enabled;
+
+    @Value("${urbanup.notifications.push-delivery.workers:2}")
+    private int workers;
+
+    @Value("${urbanup.notifications.push-delivery.grace-ms:10000}")
+    private long graceMillis;
+
+    @Value("${urbanup.notifications.push-delivery.lease-ms:300000}")
+    private long leaseMillis;
+
+    @Value("${urbanup.notifications.push-delivery.max-attempts:5}")
+    private int maxAttempts;
+
+    @Value("${urbanup.notifications.push-delivery.backoff-base-ms:30000}")
+    private long backoffBaseMillis;
+
+    @Value("${urbanup.notifications.push-delivery.backoff-max-ms:3600000}")
+    private long backoffMaxMillis;
+
+    @Value("${urbanup.notifications.push-delivery.max-age-ms:86400000}")
+    private long maxAgeMillis;
+
+    @Value("${urbanup.notifications.push-delivery.batches-per-task:20}")
+    private int batchesPerTask;
+
+    private ThreadPoolTaskExecutor executor;
+    private final AtomicInteger running = new AtomicInteger();
+
+    @PostConstruct
+    public void start() {
+        if (enabled && pushProvider == null) {
+            throw new IllegalStateException("Push delivery is enabled but no push provider is configured "
+                    + "(urbanup.notifications.push-delivery.provider)");
+        }
+        executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(workers);
+        executor.setMaxPoolSize(workers);
+        executor.setQueueCapacity(0);
+        executor.setThreadNamePrefix("urbanup-push-");
+        executor.initialize();
+    }
+
+    @PreDestroy
+    public void stop() {
+        // Claimed rows are retried once their lease runs out
+        executor.shutdown();
+    }
+
+    /**
+     * Keep every worker busy while there is pending work
+     */
+    @Scheduled(fixedDelayString = "${urbanup.notifications.push-delivery.poll-interval-ms:1000}")
+    public void poll() {
+        if (!enabled) {
+            return;
+        }
+        while (running.get() < workers) {
+            running.incrementAndGet();
+            try {
+                executor.execute(() -> {
+                    try {
+                        drain();
+                    } finally {
+                        running.decrementAndGet();
+                    }
+                });
+            } catch (TaskRejectedException e) {
+                running.decrementAndGet();
+                return;
+            }
+        }
+    }
+
+    private void drain() {
+        // Bounded, so workers come back to the pool regularly even under a constant backlog
+        for (int i = 0; i < batchesPerTask; i++) {
+            try {
+                if (deliverBatch() < pushProvider.maxBatchSize()) {
+                    return;
+                }
+            } catch (Exception e) {
+                System.err.println("Push delivery batch failed: " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    /**
+     * Claim and deliver one batch; returns the number of notifications claimed
+     */
+    private int deliverBatch() {
+        LocalDateTime now = LocalDateTime.now();
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("leaseUntil", Timestamp.valueOf(now.plus(Duration.ofMillis(leaseMillis))))
+                .addValue("maxAgeCutoff", Timestamp.valueOf(now.minus(Duration.ofMillis(maxAgeMillis))))
+                .addValue("graceCutoff", Timestamp.valueOf(now.minus(Duration.ofMillis(graceMillis))))
+                .addValue("now", Timestamp.valueOf(now));
+        int batchSize = pushProvider.maxBatchSize();
+        List<Claimed> claimed = new ArrayList<>();
+        for (Notification.NotificationPriority priority : CLAIM_ORDER) {
+            if (claimed.size() >= batchSize) {
+                break;
+            }
+            params.addValue("priority", priority.name()).addValue("limit", batchSize - claimed.size());
+            claimed.addAll(jdbcTemplate.query(CLAIM_SQL, params, PushDeliveryWorker::claimedRow));
+        }
+        if (claimed.isEmpty()) {
+            return 0;
+        }
+
+        List<Long> settled = new ArrayList<>();
+        List<Claimed> toSend = new ArrayList<>();
+        for (Claimed row : claimed) {
+            // Already seen, nowhere to send it, or delivered over the user's live session
+            if (row.read || row.token == null || row.token.isBlank() || presenceRegistry.isOnline(row.userId)) {
+                settled.add(row.id);
+            } else {
+                toSend.add(row);
+            }
+        }
+
+        if (!toSend.isEmpty()) {
+            List<PushMessage> messages = new ArrayList<>(toSend.size());
+            for (Claimed row : toSend) {
+                messages.add(row.message);
+            }
+            List<PushResult> results;
+            try {
+                results = pushProvider.send(messages);
+            } catch (Exception e) {
+                results = new ArrayList<>(messages.size());
+                for (int i = 0; i < messages.size(); i++) {
+                    results.add(new PushResult(PushProvider.Outcome.RETRY, e.getMessage()));
+                }
+            }
+
+            List<MapSqlParameterSource> failures = new ArrayList<>();
+            for (int i = 0; i < toSend.size(); i++) {
+                Claimed row = toSend.get(i);
+                PushResult result = i < results.size() ? results.get(i)
+                        : new PushResult(PushProvider.Outcome.RETRY, "No result from provider");
+                if (result.getOutcome() == PushProvider.Outcome.SENT) {
+                    settled.add(row.id);
+                } else {
+                    failures.add(failure(row, result, now));
+                }
+            }
+            if (!failures.isEmpty()) {
+                jdbcTemplate.batchUpdate(
+                        "UPDATE notifications SET push_attempts = :attempts, next_push_at = :nextPushAt, " +
+                        "push_error = :error, push_dead = :dead WHERE id = :id",
+                        failures.toArray(new MapSqlParameterSource[0]));
+            }
+        }
+
+        if (!settled.isEmpty()) {
+            jdbcTemplate.update(
+                    "UPDATE notifications SET is_pushed = true, pushed_at = :pushedAt, next_push_at = NULL, push_error = NULL " +
+                    "WHERE id IN (:ids)",
+                    new MapSqlParameterSource().addValue("pushedAt", Timestamp.valueOf(now)).addValue("ids", settled));
+        }
+        return claimed.size();
+    }
+
+    private static Claimed claimedRow(ResultSet rs, int rowNum) throws SQLException {
+        Claimed row = new Claimed();
+        row.id = rs.getLong("id");
+        row.userId = rs.getLong("user_id");
+        row.attempts = rs.getInt("push_attempts");
+        row.read = rs.getBoolean("is_read");
+        row.token = rs.getString("fcm_token");
+        PushMessage message = new PushMessage();
+        message.setNotificationId(row.id);
+        message.setDeviceToken(row.token);
+        message.setTitle(rs.getString("title"));
+        message.setBody(rs.getString("message"));
+        message.setDeepLinkUrl(rs.getString("deep_link_url"));
+        message.setPriority(rs.getString("priority"));
+        row.message = message;
+        return row;
+    }
+
+    private MapSqlParameterSource failure(Claimed row, PushResult result, LocalDateTime now) {
+        int attempts = row.attempts + 1;
+        boolean dead = result.getOutcome() == PushProvider.Outcome.REJECTED || attempts >= maxAttempts;
+        // base * 2^(attempts - 1), capped
+        long backoff = Math.min(backoffMaxMillis, backoffBaseMillis << Math.min(attempts - 1, 20));
+        String error = result.getError() != null && result.getError().length() > MAX_ERROR_LENGTH
+                ? result.getError().substring(0, MAX_ERROR_LENGTH) : result.getError();
+        return new MapSqlParameterSource()
+                .addValue("id", row.id)
+                .addValue("attempts", attempts)
+                .addValue("nextPushAt", dead ? null : Timestamp.valueOf(now.plus(Duration.ofMillis(backoff))))
+                .addValue("error", error)
+                .addValue("dead", dead);
+    }
+
+    /**
+     * Dead-letter pushes that could not go out in time; they are no longer useful on a lock screen
+     */
+    @Scheduled(fixedDelayString = "${urbanup.notifications.push-delivery.expire-interval-ms:60000}")
+    public void expireStale() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            LocalDateTime cutoff = LocalDateTime.now().minus(Duration.ofMillis(maxAgeMillis));
+            jdbcTemplate.update(
+                    "UPDATE notifications SET push_dead = true, push_error = 'Expired before delivery' " +
+                    "WHERE is_pushed = false AND push_dead = false AND created_at < :cutoff",
+                    new MapSqlParameterSource("cutoff", Timestamp.valueOf(cutoff)));
+        } catch (Exception e) {
+            System.err.println("Failed to expire stale pushes: " + e.getMessage());
+        }
+    }
+
+    private static class Claimed {
+        private long id;
+        private long userId;
+        private int attempts;
+        private boolean read;
+        private String token;
+        private PushMessage message;
+    }
+}
@@ -0,0 +1,75 @@
+package com.zephyros.urbanup.service;
+
+import java.util.List;
+
+/**
+ * Device push service used by {@link PushDeliveryWorker}, e.g. FCM. One call delivers a whole batch,
+ * the way FCM's batch send does.
+ */
+public interface PushProvider {
+
+    /**
+     * Most messages accepted by one {@link #send} call
+     */
+    int maxBatchSize();
+
+    /**
+     * Deliver a batch; returns one result per message, in the same order
+     */
+    List<PushResult> send(List<PushMessage> messages);
+
+    enum Outcome {
+        SENT,
+        // Temporary failure such as a timeout or throttling; tried again later
+        RETRY,
+        // Will never succeed, e.g. an unregistered device token
+        REJECTED
+    }
+
+    class PushMessage {
+        private Long notificationId;
+        private String deviceToken;
+        private String title;
+        private String body;
+        private String deepLinkUrl;
+        private String priority;
+
+        // Getters and setters
+        public Long getNotificationId() { return notificationId; }
+        public void setNotificationId(Long notificationId) { this.notificationId = notificationId; }
+
+        public String getDeviceToken() { return deviceToken; }
+        public void setDeviceToken(String deviceToken) { this.deviceToken = deviceToken; }
+
+        public String getTitle() { return title; }
+        public void setTitle(String title) { this.title = title; }
+
+        public String getBody() { return body; }
+        public void setBody(String body) { this.body = body; }
+
+        public String getDeepLinkUrl() { return deepLinkUrl; }
+        public void setDeepLinkUrl(String deepLinkUrl) { this.deepLinkUrl = deepLinkUrl; }
+
+        public String getPriority() { return priority; }
+        public void setPriority(String priority) { this.priority = priority; }
+    }
+
+    class PushResult {
+        private final Outcome outcome;
+        private final String error;
+
+        public PushResult(Outcome outcome, String error) {
+            this.outcome = outcome;
+            this.error = error;
+        }
+
+        public static PushResult sent() {
+            return new PushResult(Outcome.SENT, null);
+        }
+
+        // Getters
+        public Outcome getOutcome() { return outcome; }
+
+        public String getError() { return error; }
+    }
+}
@@ -1,12 +1,20 @@
 package com.zephyros.urbanup.service;
 
+import java.io.IOException;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 
@@ -18,6 +26,10 @@ import com.zephyros.urbanup.repository.ChatRepository;
 import com.zephyros.urbanup.repository.MessageRepository;
 import com.zephyros.urbanup.repository.TaskRepository;
 import com.zephyros.urbanup.repository.UserRepository;
+import com.zephyros.urbanup.service.MediaStorageService.StoredMedia;
+import com.zephyros.urbanup.websocket.OfflineDeliveryQueue;
+import com.zephyros.urbanup.websocket.PresenceRegistry;
+import com.zephyros.urbanup.websocket.TypingStateAggregator;
 
 @Service
 @Transactional
@@ -41,6 +53,30 @@ public class RealtimeChatService {
     @Autowired
     private SimpMessagingTemplate messagingTemplate;
     
+    @Autowired
+    private TypingStateAggregator typingStateAggregator;
+    
+    @Autowired
+    private RecentMessageCache recentMessageCache;
+    
+    @Autowired
+    private ChatIngestionEngine chatIngestionEngine;
+    
+    @Autowired
+    private PresenceRegistry presenceRegistry;
+    
+    @Autowired
+    private OfflineDeliveryQueue offlineDeliveryQueue;
+    
+    @Autowired
+    private MediaStorageService mediaStorageService;
+    
+    @Autowired
+    private ThumbnailService thumbnailService;
+    
+    @Autowired
+    private MediaAccessService mediaAccessService;
+    
     /**
      * Create or get chat between users for a task
      */
@@ -84,57 +120,41 @@ public class RealtimeChatService {
     }
     
     /**
-     * Send a real-time message
+     * Send a real-time message through the chat's ingestion lane and wait until it is stored.
+     * A resend with the same clientMessageId returns the originally stored message.
      */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public Message sendRealtimeMessage(Long chatId, Long senderId, String content, 
-                                     Message.MessageType messageType) {
-        // Validate chat and sender
-        Optional<Chat> chatOpt = chatRepository.findById(chatId);
-        Optional<User> senderOpt = userRepository.findById(senderId);
-        
-        if (chatOpt.isEmpty()) {
-            throw new IllegalArgumentException("Chat not found");
-        }
+                                     Message.MessageType messageType, String clientMessageId) {
+        return chatIngestionEngine.ingest(chatId, senderId, content, messageType, null, clientMessageId);
+    }
+    
+    /**
+     * Broadcast a message accepted by the ingestion engine and optionally notify the other participant
+     */
+    public void publishStoredMessage(Chat chat, Message message, boolean notifyRecipient) {
+        User sender = message.getSender();
         
-        if (senderOpt.isEmpty()) {
-            throw new IllegalArgumentException("Sender not found");
-        }
+        // Broadcast message via WebSocket
+        broadcastMessage(chat.getId(), message);
         
-        Chat chat = chatOpt.get();
-        User sender = senderOpt.get();
+        // Sending a message ends the sender's typing state
+        typingStateAggregator.onTyping(chat.getId(), sender.getId(), false);
         
-        // Validate sender has access to this chat
-        if (!sender.getId().equals(chat.getPoster().getId()) && 
-            !sender.getId().equals(chat.getFulfiller().getId())) {
-            throw new IllegalArgumentException("User not authorized to send messages in this chat");
+        if (notifyRecipient) {
+            notifyNewMessage(chat, sender, message.getContent(), 1);
         }
-        
-        // Create and save message
-        Message message = new Message();
-        message.setChat(chat);
-        message.setSender(sender);
-        message.setContent(content);
-        message.setMessageType(messageType);
-        message.setIsRead(false);
-        message.setCreatedAt(LocalDateTime.now());
-        
-        Message savedMessage = messageRepository.save(message);
-        
-        // Update chat timestamp
-        chat.setUpdatedAt(LocalDateTime.now());
-        chatRepository.save(chat);
-        
-        // Broadcast message via WebSocket
-        broadcastMessage(chatId, savedMessage);
-        
-        // Send notification to the other participant
+    }
+    
+    /**
+     * Notify the participant who is not the sender about new messages, collapsed per chat
+     */
+    public void notifyNewMessage(Chat chat, User sender, String preview, int messageCount) {
         User recipient = sender.getId().equals(chat.getPoster().getId()) ? 
             chat.getFulfiller() : chat.getPoster();
         
         notificationService.sendNewMessageNotification(recipient, chat, 
-            sender.getFirstName() + " " + sender.getLastName());
-        
-        return savedMessage;
+            sender.getFirstName() + " " + sender.getLastName(), preview, messageCount);
     }
     
     /**
@@ -167,23 +187,26 @@ public class RealtimeChatService {
     /**
      * Upload and send media message
      */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public Message sendMediaMessage(Long chatId, Long senderId, MultipartFile file, 
                                   String caption) {
-        // Validate file
-        if (file.isEmpty()) {
-            throw new IllegalArgumentException("File is empty");
+        if (!chatRepository.isParticipant(chatId, senderId)) {
+            throw new IllegalArgumentException("User not authorized to send messages in this chat");
         }
         
-        if (file.getSize() > 10 * 1024 * 1024) { // 10MB limit
-            throw new IllegalArgumentException("File size exceeds 10MB limit");
+        // Validates type and size while streaming the file to disk
+        StoredMedia media;
+        try {
+            media = mediaStorageService.store(file);
+        } catch (IOException e) {
+            System.err.println("Failed to store chat attachment: " + e.getMessage());
+            throw new IllegalStateException("Failed to store file");
         }
-        
-        // TODO: Implement actual file storage (AWS S3, local storage, etc.)
-        // For now, create a placeholder URL
-        String fileUrl = "/uploads/" + System.currentTimeMillis() + "_" + file.getOriginalFilename();
+        String fileUrl = media.getUrl();
+        mediaAccessService.recordChatMedia(chatId, fileUrl);
         
         // Determine message type based on file content
-        String contentType = file.getContentType();
+        String contentType = media.getContentType();
         Message.MessageType messageType = Message.MessageType.FILE;
         
         if (contentType != null) {
@@ -195,21 +218,54 @@ public class RealtimeChatService {
         // Create message content with file info
         String messageContent = caption != null ? caption : file.getOriginalFilename();
         
-        Message message = sendRealtimeMessage(chatId, senderId, messageContent, messageType);
-        
-        // Add attachment URL to the message
-        message.getAttachmentUrls().add(fileUrl);
-        messageRepository.save(message);
-        
+        // The attachment is stored and broadcast together with the message
+        Message message = chatIngestionEngine.ingest(chatId, senderId, messageContent, messageType, fileUrl, null);
+        if (messageType == Message.MessageType.IMAGE) {
+            thumbnailService.enqueue(fileUrl, chatId);
+        }
         return message;
     }
     
     /**
-     * Get chat messages with pagination
+     * Get a page of recent chat messages in the live broadcast shape; page 0 is the newest messages and
+     * each page is ordered oldest first. The first page is served from the recent message cache when possible.
      */
     @Transactional(readOnly = true)
-    public List<Message> getChatMessages(Long chatId, Long userId, int page, int size) {
-        // Validate user has access to chat
+    public List<MessageBroadcast> getRecentMessages(Long chatId, Long userId, int page, int size) {
+        if (page == 0) {
+            List<MessageBroadcast> cached = recentMessageCache.getLatest(chatId, userId, size);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        
+        Chat chat = getParticipantChat(chatId, userId);
+        
+        // Load a full buffer's worth on a first-page miss so the next open is served from memory
+        boolean warm = page == 0 && size <= recentMessageCache.getMessagesPerChat();
+        Pageable pageable = warm
+            ? PageRequest.of(0, recentMessageCache.getMessagesPerChat())
+            : PageRequest.of(page, size);
+        
+        List<MessageBroadcast> messages = new ArrayList<>();
+        for (Message message : messageRepository.findByChatIdAndCreatedAtGreaterThanEqualOrderByIdDesc(
+                chatId, MessageRepository.partitionLowerBound(chat), pageable)) {
+            messages.add(toBroadcast(chatId, message));
+        }
+        Collections.reverse(messages);
+        withPreviews(messages);
+        
+        if (warm) {
+            recentMessageCache.warm(chatId, chat.getPoster().getId(), chat.getFulfiller().getId(), messages);
+            return messages.subList(Math.max(0, messages.size() - size), messages.size());
+        }
+        return messages;
+    }
+    
+    /**
+     * Load a chat the user participates in
+     */
+    private Chat getParticipantChat(Long chatId, Long userId) {
         Optional<Chat> chatOpt = chatRepository.findById(chatId);
         if (chatOpt.isEmpty()) {
             throw new IllegalArgumentException("Chat not found");
@@ -220,9 +276,7 @@ public class RealtimeChatService {
             !userId.equals(chat.getFulfiller().getId())) {
             throw new IllegalArgumentException("User not authorized to access this chat");
         }
-        
-        // Get messages with pagination
-        return messageRepository.findByChatIdOrderByCreatedAtAsc(chatId);
+        return chat;
     }
     
     /**
@@ -255,6 +309,8 @@ public class RealtimeChatService {
         }
         
         messageRepository.saveAll(unreadMessages);
+        recentMessageCache.markRead(chatId, userId);
+        notificationService.clearDeferredMessages(userId, chatId);
         
         // Broadcast read status update
         broadcastReadStatus(chatId, userId, unreadMessages.size());
@@ -291,27 +347,89 @@ public class RealtimeChatService {
      */
     private void broadcastMessage(Long chatId, Message message) {
         try {
-            // Create a simplified message object for broadcasting
-            MessageBroadcast broadcast = new MessageBroadcast();
-            broadcast.setId(message.getId());
-            broadcast.setChatId(chatId);
-            broadcast.setSenderId(message.getSender() != null ? message.getSender().getId() : null);
-            broadcast.setSenderName(message.getSender() != null ? 
-                message.getSender().getFirstName() + " " + message.getSender().getLastName() : "System");
-            broadcast.setContent(message.getContent());
-            broadcast.setMessageType(message.getMessageType().toString());
-            broadcast.setAttachmentUrl(message.getAttachmentUrls().isEmpty() ? null : message.getAttachmentUrls().get(0));
-            broadcast.setCreatedAt(message.getCreatedAt());
-            broadcast.setIsRead(message.getIsRead());
+            MessageBroadcast broadcast = toBroadcast(chatId, message);
+            withPreviews(List.of(broadcast));
+            recentMessageCache.put(broadcast);
             
             // Broadcast to chat subscribers
-            messagingTemplate.convertAndSend("/topic/chat/" + chatId, broadcast);
+            String destination = "/topic/chat/" + chatId;
+            messagingTemplate.convertAndSend(destination, broadcast);
+            
+            // Participants without a live session get it when they reconnect
+            Chat chat = message.getChat();
+            if (chat != null) {
+                for (User participant : List.of(chat.getPoster(), chat.getFulfiller())) {
+                    if (!participant.getId().equals(broadcast.getSenderId()) && !presenceRegistry.isOnline(participant.getId())) {
+                        offlineDeliveryQueue.enqueue(participant.getId(), "message", destination, broadcast, null);
+                    }
+                }
+            }
         } catch (Exception e) {
             // Log error but don't fail the message send
             System.err.println("Failed to broadcast message: " + e.getMessage());
         }
     }
     
+    /**
+     * Acknowledge a stored message to its sender so the client can settle its pending entry
+     */
+    public void sendMessageAck(String username, Message message) {
+        try {
+            MessageAck ack = new MessageAck();
+            ack.setChatId(message.getChat().getId());
+            ack.setClientMessageId(message.getClientMessageId());
+            ack.setMessageId(message.getId());
+            // Lanes store each chat's messages in order, so the id doubles as the per-chat sequence
+            ack.setSequence(message.getId());
+            ack.setCreatedAt(message.getCreatedAt());
+            
+            messagingTemplate.convertAndSendToUser(username, "/queue/message-acks", ack);
+        } catch (Exception e) {
+            System.err.println("Failed to send message ack: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Create a simplified message object for broadcasting and history
+     */
+    private MessageBroadcast toBroadcast(Long chatId, Message message) {
+        MessageBroadcast broadcast = new MessageBroadcast();
+        broadcast.setId(message.getId());
+        broadcast.setChatId(chatId);
+        broadcast.setSenderId(message.getSender() != null ? message.getSender().getId() : null);
+        broadcast.setSenderName(message.getSender() != null ? 
+            message.getSender().getFirstName() + " " + message.getSender().getLastName() : "System");
+        broadcast.setContent(message.getContent());
+        broadcast.setMessageType(message.getMessageType().toString());
+        broadcast.setAttachmentUrl(message.getAttachmentUrls().isEmpty() ? null : message.getAttachmentUrls().get(0));
+        broadcast.setCreatedAt(message.getCreatedAt());
+        broadcast.setIsRead(message.getIsRead());
+        broadcast.setClientMessageId(message.getClientMessageId());
+        return broadcast;
+    }
+    
+    /**
+     * Fill in the small thumbnail of image messages with one lookup for the whole list; null until generated
+     */
+    private List<MessageBroadcast> withPreviews(List<MessageBroadcast> messages) {
+        List<String> imageUrls = new ArrayList<>();
+        for (MessageBroadcast broadcast : messages) {
+            if ("IMAGE".equals(broadcast.getMessageType()) && broadcast.getAttachmentUrl() != null) {
+                imageUrls.add(broadcast.getAttachmentUrl());
+            }
+        }
+        if (imageUrls.isEmpty()) {
+            return messages;
+        }
+        Map<String, String> previews = thumbnailService.getPreviewUrls(imageUrls);
+        for (MessageBroadcast broadcast : messages) {
+            if ("IMAGE".equals(broadcast.getMessageType()) && broadcast.getAttachmentUrl() != null) {
+                broadcast.setThumbnailUrl(previews.get(broadcast.getAttachmentUrl()));
+            }
+        }
+        return messages;
+    }
+    
     /**
      * Broadcast read status update
      */
@@ -330,37 +448,10 @@ public class RealtimeChatService {
     }
     
     /**
-     * Broadcast typing indicator
+     * Broadcast typing indicator (coalesced per chat by the typing aggregator)
      */
     public void broadcastTypingIndicator(Long chatId, Long userId, boolean isTyping) {
-        try {
-            TypingIndicator indicator = new TypingIndicator();
-            indicator.setChatId(chatId);
-            indicator.setUserId(userId);
-            indicator.setIsTyping(isTyping);
-            indicator.setTimestamp(LocalDateTime.now());
-            
-            messagingTemplate.convertAndSend("/topic/chat/" + chatId + "/typing", indicator);
-        } catch (Exception e) {
-            System.err.println("Failed to broadcast typing indicator: " + e.getMessage());
-        }
-    }
-    
-    /**
-     * Broadcast user presence
-     */
-    public void broadcastUserPresence(Long chatId, Long userId, String status) {
-        try {
-            UserPresence presence = new UserPresence();
-            presence.setChatId(chatId);
-            presence.setUserId(userId);
-            presence.setStatus(status);
-            presence.setTimestamp(LocalDateTime.now());
-            
-            messagingTemplate.convertAndSend("/topic/chat/" + chatId + "/presence", presence);
-        } catch (Exception e) {
-            System.err.println("Failed to broadcast user presence: " + e.getMessage());
-        }
+        typingStateAggregator.onTyping(chatId, userId, isTyping);
     }
     
     // Inner classes for WebSocket messages
@@ -372,8 +463,10 @@ public class RealtimeChatService {
         private String content;
         private String messageType;
         private String attachmentUrl;
+        private String thumbnailUrl;
         private LocalDateTime createdAt;
         private Boolean isRead;
+        private String clientMessageId;
         
         // Getters and setters
         public Long getId() { return id; }
@@ -397,37 +490,47 @@ public class RealtimeChatService {
         public String getAttachmentUrl() { return attachmentUrl; }
         public void setAttachmentUrl(String attachmentUrl) { this.attachmentUrl = attachmentUrl; }
         
+        public String getThumbnailUrl() { return thumbnailUrl; }
+        public void setThumbnailUrl(String thumbnailUrl) { this.thumbnailUrl = thumbnailUrl; }
+        
         public LocalDateTime getCreatedAt() { return createdAt; }
         public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
         
         public Boolean getIsRead() { return isRead; }
         public void setIsRead(Boolean isRead) { this.isRead = isRead; }
+        
+        public String getClientMessageId() { return clientMessageId; }
+        public void setClientMessageId(String clientMessageId) { this.clientMessageId = clientMessageId; }
     }
     
-    public static class ReadStatusUpdate {
+    public static class MessageAck {
         private Long chatId;
-        private Long userId;
-        private int messageCount;
-        private LocalDateTime timestamp;
+        private String clientMessageId;
+        private Long messageId;
+        private Long sequence;
+        private LocalDateTime createdAt;
         
         // Getters and setters
         public Long getChatId() { return chatId; }
         public void setChatId(Long chatId) { this.chatId = chatId; }
         
-        public Long getUserId() { return userId; }
-        public void setUserId(Long userId) { this.userId = userId; }
+        public String getClientMessageId() { return clientMessageId; }
+        public void setClientMessageId(String clientMessageId) { this.clientMessageId = clientMessageId; }
         
-        public int getMessageCount() { return messageCount; }
-        public void setMessageCount(int messageCount) { this.messageCount = messageCount; }
+        public Long getMessageId() { return messageId; }
+        public void setMessageId(Long messageId) { this.messageId = messageId; }
         
-        public LocalDateTime getTimestamp() { return timestamp; }
-        public void setTimestamp(LocalDateTime timestamp) { this.timestamp = timestamp; }
+        public Long getSequence() { return sequence; }
+        public void setSequence(Long sequence) { this.sequence = sequence; }
+        
+        public LocalDateTime getCreatedAt() { return createdAt; }
+        public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
     }
     
-    public static class TypingIndicator {
+    public static class ReadStatusUpdate {
         private Long chatId;
         private Long userId;
-        private boolean isTyping;
+        private int messageCount;
         private LocalDateTime timestamp;
         
         // Getters and setters
@@ -437,17 +540,18 @@ public class RealtimeChatService {
         public Long getUserId() { return userId; }
         public void setUserId(Long userId) { this.userId = userId; }
         
-        public boolean isTyping() { return isTyping; }
-        public void setIsTyping(boolean isTyping) { this.isTyping = isTyping; }
+        public int getMessageCount() { return messageCount; }
+        public void setMessageCount(int messageCount) { this.messageCount = messageCount; }
         
         public LocalDateTime getTimestamp() { return timestamp; }
         public void setTimestamp(LocalDateTime timestamp) { this.timestamp = timestamp; }
     }
     
-    public static class UserPresence {
+    public static class TypingIndicator {
         private Long chatId;
         private Long userId;
-        private String status;
+        private boolean isTyping;
+        private Set<Long> typingUserIds;
         private LocalDateTime timestamp;
         
         // Getters and setters
@@ -457,8 +561,11 @@ public class RealtimeChatService {
         public Long getUserId() { return userId; }
         public void setUserId(Long userId) { this.userId = userId; }
         
-        public String getStatus() { return status; }
-        public void setStatus(String status) { this.status = status; }
+        public boolean isTyping() { return isTyping; }
+        public void setIsTyping(boolean isTyping) { this.isTyping = isTyping; }
+        
+        public Set<Long> getTypingUserIds() { return typingUserIds; }
+        public void setTypingUserIds(Set<Long> typingUserIds) { this.typingUserIds = typingUserIds; }
         
         public LocalDateTime getTimestamp() { return timestamp; }
         public void setTimestamp(LocalDateTime timestamp) { this.timestamp = timestamp; }
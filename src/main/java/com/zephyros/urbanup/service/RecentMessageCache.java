@@ -0,0 +1,244 @@
+package com.zephyros.urbanup.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.zephyros.urbanup.service.RealtimeChatService.MessageBroadcast;
+
+/**
+ * In-memory ring buffer of the most recent {@link MessageBroadcast} payloads per chat, used to serve
+ * the first page of chat history without touching the database.
+ *
+ * Buffers are kept in an LRU over chats so the total footprint stays bounded. A buffer is only read
+ * once it has been warmed from the database, which also records the chat's participants so a hit can
+ * be authorized without a query. Disabled in relay broker mode, where messages sent through other
+ * nodes never reach this one.
+ */
+@Component
+public class RecentMessageCache {
+
+    private final int messagesPerChat;
+    private final boolean enabled;
+    private final Map<Long, ChatBuffer> chats;
+
+    private final ObjectReader broadcastReader;
+
+    @Autowired
+    public RecentMessageCache(@Value("${urbanup.chat.recent-cache.max-chats:10000}") int maxChats,
+                              @Value("${urbanup.chat.recent-cache.messages-per-chat:50}") int messagesPerChat,
+                              @Value("${urbanup.websocket.broker.mode:simple}") String brokerMode,
+                              ObjectMapper objectMapper) {
+        this.messagesPerChat = messagesPerChat;
+        this.enabled = maxChats > 0 && messagesPerChat > 0 && !"relay".equalsIgnoreCase(brokerMode);
+        this.chats = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, ChatBuffer> eldest) {
+                return size() > maxChats;
+            }
+        };
+        this.broadcastReader = objectMapper.readerFor(MessageBroadcast.class)
+                .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    }
+
+    public int getMessagesPerChat() {
+        return messagesPerChat;
+    }
+
+    /**
+     * Add or replace a message in its chat's buffer
+     */
+    public void put(MessageBroadcast message) {
+        if (!enabled) {
+            return;
+        }
+        ChatBuffer buffer;
+        synchronized (chats) {
+            buffer = chats.computeIfAbsent(message.getChatId(), id -> new ChatBuffer(messagesPerChat));
+        }
+        buffer.upsert(message);
+    }
+
+    /**
+     * Get the newest {@code size} messages, oldest first, or null if the buffer cannot answer for this user
+     */
+    public List<MessageBroadcast> getLatest(Long chatId, Long userId, int size) {
+        if (!enabled || size > messagesPerChat) {
+            return null;
+        }
+        ChatBuffer buffer;
+        synchronized (chats) {
+            buffer = chats.get(chatId);
+        }
+        return buffer != null ? buffer.latest(userId, size) : null;
+    }
+
+    /**
+     * Fill a chat's buffer with its newest messages from the database, merging anything appended meanwhile
+     */
+    public void warm(Long chatId, Long posterId, Long fulfillerId, Collection<MessageBroadcast> newestMessages) {
+        if (!enabled) {
+            return;
+        }
+        ChatBuffer buffer;
+        synchronized (chats) {
+            buffer = chats.computeIfAbsent(chatId, id -> new ChatBuffer(messagesPerChat));
+        }
+        buffer.warm(posterId, fulfillerId, newestMessages);
+    }
+
+    /**
+     * Reflect a read receipt: messages from anyone but the reader become read
+     */
+    public void markRead(Long chatId, Long readerId) {
+        ChatBuffer buffer;
+        synchronized (chats) {
+            buffer = chats.get(chatId);
+        }
+        if (buffer != null) {
+            buffer.markRead(readerId);
+        }
+    }
+
+    public void evict(Long chatId) {
+        synchronized (chats) {
+            chats.remove(chatId);
+        }
+    }
+
+    /**
+     * Apply a chat message broadcast by another node; the buffer is dropped if the payload cannot be read
+     */
+    public void onRemoteBroadcast(Long chatId, byte[] payload) {
+        if (!enabled) {
+            return;
+        }
+        ChatBuffer buffer;
+        synchronized (chats) {
+            buffer = chats.get(chatId);
+        }
+        if (buffer == null) {
+            return;
+        }
+        try {
+            MessageBroadcast message = broadcastReader.readValue(payload);
+            message.setChatId(chatId);
+            buffer.upsert(message);
+        } catch (Exception e) {
+            evict(chatId);
+        }
+    }
+
+    public int getCachedChatCount() {
+        synchronized (chats) {
+            return chats.size();
+        }
+    }
+
+    /**
+     * Fixed-size ring ordered by message id; the oldest message is overwritten once full
+     */
+    private static class ChatBuffer {
+        private final MessageBroadcast[] ring;
+        private int head; // index of the oldest message
+        private int count;
+        private boolean warmed;
+        private Long posterId;
+        private Long fulfillerId;
+
+        private ChatBuffer(int capacity) {
+            this.ring = new MessageBroadcast[capacity];
+        }
+
+        private synchronized void upsert(MessageBroadcast message) {
+            if (message.getId() == null) {
+                return;
+            }
+            // Common case: newer than everything buffered
+            if (count == 0 || message.getId() > at(count - 1).getId()) {
+                append(message);
+                return;
+            }
+            // Replace an existing message, or slot a late-committed one into place
+            int pos = count - 1;
+            while (pos >= 0 && at(pos).getId() > message.getId()) {
+                pos--;
+            }
+            if (pos >= 0 && at(pos).getId().equals(message.getId())) {
+                set(pos, message);
+                return;
+            }
+            if (count < ring.length) {
+                for (int i = count; i > pos + 1; i--) {
+                    set(i, at(i - 1));
+                }
+                set(pos + 1, message);
+                count++;
+            } else if (pos >= 0) {
+                // Full: drop the oldest and shift the older part down
+                for (int i = 0; i < pos; i++) {
+                    set(i, at(i + 1));
+                }
+                set(pos, message);
+            }
+            // Otherwise it is older than the whole window
+        }
+
+        private synchronized void warm(Long posterId, Long fulfillerId, Collection<MessageBroadcast> newestMessages) {
+            for (MessageBroadcast message : newestMessages) {
+                upsert(message);
+            }
+            this.posterId = posterId;
+            this.fulfillerId = fulfillerId;
+            warmed = true;
+        }
+
+        private synchronized List<MessageBroadcast> latest(Long userId, int size) {
+            if (!warmed || userId == null || !(userId.equals(posterId) || userId.equals(fulfillerId))) {
+                return null;
+            }
+            int n = Math.min(size, count);
+            List<MessageBroadcast> result = new ArrayList<>(n);
+            for (int i = count - n; i < count; i++) {
+                result.add(at(i));
+            }
+            return result;
+        }
+
+        private synchronized void markRead(Long readerId) {
+            for (int i = 0; i < count; i++) {
+                MessageBroadcast message = at(i);
+                if (message.getSenderId() != null && !message.getSenderId().equals(readerId)) {
+                    message.setIsRead(true);
+                }
+            }
+        }
+
+        private void append(MessageBroadcast message) {
+            if (count < ring.length) {
+                ring[(head + count) % ring.length] = message;
+                count++;
+            } else {
+                ring[head] = message;
+                head = (head + 1) % ring.length;
+            }
+        }
+
+        private MessageBroadcast at(int i) {
+            return ring[(head + i) % ring.length];
+        }
+
+        private void set(int i, MessageBroadcast message) {
+            ring[(head + i) % ring.length] = message;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.zephyros.urbanup.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+/**
+ * Local stand-in for a device push service, for development and offline load tests. Nothing leaves
+ * the process: each call sleeps for the configured latency, and a share of messages fails with a
+ * retryable error. Tokens starting with "invalid" are rejected like unregistered devices. Only available
+ * in the development and test profiles, so production never silently drops pushes.
+ */
+@Component
+@Profile({"development", "test"})
+@ConditionalOnProperty(name = "urbanup.notifications.push-delivery.provider", havingValue = "stub")
+public class StubPushProvider implements PushProvider {
+
+    @Value("${urbanup.notifications.push-delivery.stub.latency-ms:20}")
+    private long latencyMillis;
+
+    @Value("${urbanup.notifications.push-delivery.stub.failure-rate:0.0}")
+    private double failureRate;
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    @Override
+    public int maxBatchSize() {
+        return 500;
+    }
+
+    @Override
+    public List<PushResult> send(List<PushMessage> messages) {
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        List<PushResult> results = new ArrayList<>(messages.size());
+        for (PushMessage message : messages) {
+            if (message.getDeviceToken().startsWith("invalid")) {
+                failed.incrementAndGet();
+                results.add(new PushResult(Outcome.REJECTED, "Unregistered device token"));
+            } else if (failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate) {
+                failed.incrementAndGet();
+                results.add(new PushResult(Outcome.RETRY, "Simulated provider failure"));
+            } else {
+                sent.incrementAndGet();
+                results.add(PushResult.sent());
+            }
+        }
+        return results;
+    }
+
+    public long getSentCount() {
+        return sent.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+}
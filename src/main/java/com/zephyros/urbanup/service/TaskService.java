@@ -1,13 +1,19 @@
 package com.zephyros.urbanup.service;
 
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.multipart.MultipartFile;
 
 import com.zephyros.urbanup.model.Task;
 import com.zephyros.urbanup.model.TaskApplication;
@@ -15,6 +21,7 @@ import com.zephyros.urbanup.model.User;
 import com.zephyros.urbanup.repository.TaskApplicationRepository;
 import com.zephyros.urbanup.repository.TaskRepository;
 import com.zephyros.urbanup.repository.UserRepository;
+import com.zephyros.urbanup.service.MediaStorageService.StoredMedia;
 
 @Service
 @Transactional
@@ -32,6 +39,18 @@ public class TaskService {
     @Autowired
     private NotificationService notificationService;
     
+    @Autowired
+    private MediaStorageService mediaStorageService;
+    
+    @Autowired
+    private ThumbnailService thumbnailService;
+    
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+    
+    @Value("${urbanup.task.max-images:5}")
+    private int maxImages;
+    
     // Task Creation and Management
     
     /**
@@ -419,6 +438,41 @@ public class TaskService {
         return true;
     }
     
+    /**
+     * Add an image to a task, up to urbanup.task.max-images; thumbnails are generated in the background
+     */
+    public Task addTaskImage(Long taskId, Long posterId, MultipartFile file) {
+        // Multipart bodies are already on disk, so the lock only covers a local copy into the media store
+        Optional<Task> taskOpt = taskRepository.findByIdForUpdate(taskId);
+        if (taskOpt.isEmpty()) {
+            throw new IllegalArgumentException("Task not found");
+        }
+        
+        Task task = taskOpt.get();
+        if (!task.getPoster().getId().equals(posterId)) {
+            throw new IllegalArgumentException("Only task poster can add images");
+        }
+        if (task.getImageUrls().size() >= maxImages) {
+            throw new IllegalArgumentException("A task can have at most " + maxImages + " images");
+        }
+        
+        StoredMedia media;
+        try {
+            media = mediaStorageService.store(file);
+        } catch (IOException e) {
+            System.err.println("Failed to store task image: " + e.getMessage());
+            throw new IllegalStateException("Failed to store file");
+        }
+        if (!media.getContentType().startsWith("image/")) {
+            throw new IllegalArgumentException("File is not an image");
+        }
+        
+        task.addImageUrl(media.getUrl());
+        Task savedTask = taskRepository.save(task);
+        eventPublisher.publishEvent(new ThumbnailRequestedEvent(media.getUrl(), null));
+        return withImagePreviews(List.of(savedTask)).get(0);
+    }
+    
     // Search and Discovery
     
     /**
@@ -430,24 +484,24 @@ public class TaskService {
         
         // Priority order: status first, then category, then default to OPEN
         if (status != null) {
-            return taskRepository.findAllByStatusEager(status)
+            return withImagePreviews(taskRepository.findAllByStatusEager(status)
                     .stream()
                     .skip(offset)
                     .limit(limit)
-                    .toList();
+                    .toList());
         } else if (category != null) {
-            return taskRepository.findAllByCategoryEager(category)
+            return withImagePreviews(taskRepository.findAllByCategoryEager(category)
                     .stream()
                     .filter(task -> task.getStatus() == Task.TaskStatus.OPEN) // Only OPEN tasks by default
                     .skip(offset)
                     .limit(limit)
-                    .toList();
+                    .toList());
         } else {
-            return taskRepository.findAllByStatusEager(Task.TaskStatus.OPEN)
+            return withImagePreviews(taskRepository.findAllByStatusEager(Task.TaskStatus.OPEN)
                     .stream()
                     .skip(offset)
                     .limit(limit)
-                    .toList();
+                    .toList());
         }
     }
     
@@ -467,7 +521,7 @@ public class TaskService {
         List<Task> allAvailableTasks = taskRepository.findAvailableTasksExcludingUserApplications(Task.TaskStatus.OPEN, userId);
         
         // Apply additional filters
-        return allAvailableTasks.stream()
+        return withImagePreviews(allAvailableTasks.stream()
                 .filter(task -> {
                     // Category filter
                     if (category != null && !task.getCategory().equals(category)) {
@@ -486,7 +540,7 @@ public class TaskService {
                 })
                 .skip(offset)
                 .limit(limit)
-                .toList();
+                .toList());
     }
     
     /**
@@ -496,10 +550,10 @@ public class TaskService {
     public List<Task> getAvailableTasksForUser(Long userId) {
         if (userId == null) {
             // If no user ID, return all OPEN tasks (for unauthenticated access)
-            return taskRepository.findAllByStatusEager(Task.TaskStatus.OPEN);
+            return withImagePreviews(taskRepository.findAllByStatusEager(Task.TaskStatus.OPEN));
         }
         
-        return taskRepository.findAvailableTasksExcludingUserApplications(Task.TaskStatus.OPEN, userId);
+        return withImagePreviews(taskRepository.findAvailableTasksExcludingUserApplications(Task.TaskStatus.OPEN, userId));
     }
     
     /**
@@ -508,7 +562,7 @@ public class TaskService {
     @Transactional(readOnly = true)
     public List<Task> getTasksByPoster(Long posterId) {
         Optional<User> posterOpt = userRepository.findById(posterId);
-        return posterOpt.map(poster -> taskRepository.findByPoster(poster))
+        return posterOpt.map(poster -> withImagePreviews(taskRepository.findByPoster(poster)))
                       .orElse(List.of());
     }
     
@@ -518,7 +572,7 @@ public class TaskService {
     @Transactional(readOnly = true)
     public List<Task> getTasksByFulfiller(Long fulfillerId) {
         Optional<User> fulfillerOpt = userRepository.findById(fulfillerId);
-        return fulfillerOpt.map(fulfiller -> taskRepository.findByFulfiller(fulfiller))
+        return fulfillerOpt.map(fulfiller -> withImagePreviews(taskRepository.findByFulfiller(fulfiller)))
                           .orElse(List.of());
     }
     
@@ -565,6 +619,9 @@ public class TaskService {
     @Transactional(readOnly = true)
     public Optional<Task> getTaskById(Long taskId) {
         Task task = taskRepository.findByIdWithUsersEager(taskId);
+        if (task != null) {
+            withImagePreviews(List.of(task));
+        }
         return Optional.ofNullable(task);
     }
     
@@ -654,4 +711,21 @@ public class TaskService {
         
         return (long) tasks.size();
     }
+    
+    // Fills in each task's imagePreviewUrls with one batched thumbnail lookup
+    private List<Task> withImagePreviews(List<Task> tasks) {
+        List<String> imageUrls = new ArrayList<>();
+        for (Task task : tasks) {
+            imageUrls.addAll(task.getImageUrls());
+        }
+        Map<String, String> previews = imageUrls.isEmpty() ? Map.of() : thumbnailService.getPreviewUrls(imageUrls);
+        for (Task task : tasks) {
+            List<String> taskPreviews = new ArrayList<>();
+            for (String url : task.getImageUrls()) {
+                taskPreviews.add(previews.getOrDefault(url, url));
+            }
+            task.setImagePreviewUrls(taskPreviews);
+        }
+        return tasks;
+    }
 }
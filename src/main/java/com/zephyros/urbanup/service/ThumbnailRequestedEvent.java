@@ -0,0 +1,24 @@
+package com.zephyros.urbanup.service;
+
+/**
+ * Published when an uploaded image should get thumbnails. Handled after the surrounding transaction
+ * commits, so no work is queued for an upload whose transaction rolled back.
+ */
+public class ThumbnailRequestedEvent {
+
+    private final String mediaUrl;
+    private final Long chatId;
+
+    /**
+     * chatId, if given, has its cached history refreshed when the thumbnails are done
+     */
+    public ThumbnailRequestedEvent(String mediaUrl, Long chatId) {
+        this.mediaUrl = mediaUrl;
+        this.chatId = chatId;
+    }
+
+    // Getters
+    public String getMediaUrl() { return mediaUrl; }
+
+    public Long getChatId() { return chatId; }
+}
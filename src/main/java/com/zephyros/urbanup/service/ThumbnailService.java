@@ -0,0 +1,346 @@
+package com.zephyros.urbanup.service;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import com.zephyros.urbanup.model.MediaThumbnail;
+import com.zephyros.urbanup.repository.MediaThumbnailRepository;
+import com.zephyros.urbanup.service.MediaStorageService.StoredMedia;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Background thumbnail generation for uploaded images.
+ *
+ * Uploading an image records a pending media_thumbnails row and hands it to a small bounded worker
+ * pool. Rows are the durable queue: work that did not fit in the pool, failed, or was cut off by a
+ * restart is picked up again by the periodic poll. Each configured size is rendered once per distinct
+ * image, bounded by its longest edge, and stored in the media store like any other blob. Large images
+ * are subsampled while decoding so a full-resolution bitmap is never held. Two nodes may occasionally
+ * render the same image; since the output is content-addressed they simply arrive at the same blobs.
+ */
+@Service
+public class ThumbnailService {
+
+    private static final int PREVIEW_CACHE_SIZE = 10000;
+
+    @Autowired
+    private MediaThumbnailRepository thumbnailRepository;
+
+    @Autowired
+    private MediaStorageService mediaStorageService;
+
+    @Autowired
+    private RecentMessageCache recentMessageCache;
+
+    @Value("${urbanup.media.thumbnails.sizes:160,480,1080}")
+    private String sizesConfig;
+
+    @Value("${urbanup.media.thumbnails.workers:2}")
+    private int workers;
+
+    @Value("${urbanup.media.thumbnails.queue-capacity:100}")
+    private int queueCapacity;
+
+    @Value("${urbanup.media.thumbnails.max-attempts:3}")
+    private int maxAttempts;
+
+    @Value("${urbanup.media.thumbnails.max-pixels:50000000}")
+    private long maxPixels;
+
+    @Value("${urbanup.media.thumbnails.miss-cache-ttl-ms:10000}")
+    private long missCacheTtlMillis;
+
+    private int[] sizes;
+    private ThreadPoolTaskExecutor executor;
+
+    // Rows queued or running on this node, so the poll does not submit them twice
+    private final Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+
+    // Chats whose cached history should be rebuilt once an image's thumbnails exist
+    private final Map<String, Set<Long>> waitingChats = new ConcurrentHashMap<>();
+
+    // Smallest variant per source hash; thumbnails never change once done
+    private final Map<String, String> previewCache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > PREVIEW_CACHE_SIZE;
+        }
+    };
+
+    // Source hashes without a finished thumbnail (pending, failed or unknown) -> when to look again;
+    // guarded by the previewCache lock
+    private final Map<String, Long> missingPreviews = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > PREVIEW_CACHE_SIZE;
+        }
+    };
+
+    @PostConstruct
+    public void start() {
+        sizes = Arrays.stream(sizesConfig.split(",")).map(String::trim).mapToInt(Integer::parseInt).sorted().toArray();
+        executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(workers);
+        executor.setMaxPoolSize(workers);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("urbanup-thumbnail-");
+        executor.initialize();
+    }
+
+    @PreDestroy
+    public void stop() {
+        // Unfinished rows stay pending and are picked up after the restart
+        executor.shutdown();
+    }
+
+    /**
+     * Queue thumbnail generation for an uploaded image; chatId, if given, has its cached history refreshed when done
+     */
+    public void enqueue(String mediaUrl, Long chatId) {
+        String hash = MediaStorageService.hashOf(mediaUrl);
+        if (hash == null) {
+            return;
+        }
+        if (chatId != null) {
+            waitingChats.computeIfAbsent(hash, h -> ConcurrentHashMap.newKeySet()).add(chatId);
+        }
+        MediaThumbnail job = thumbnailRepository.findBySourceHash(hash).orElse(null);
+        if (job == null) {
+            try {
+                job = thumbnailRepository.save(new MediaThumbnail(hash, mediaUrl));
+            } catch (DataIntegrityViolationException e) {
+                // Queued concurrently by another upload of the same image
+                return;
+            }
+        }
+        if (job.getStatus() == MediaThumbnail.ThumbnailStatus.PENDING) {
+            submit(job.getId());
+        } else {
+            waitingChats.remove(hash);
+        }
+    }
+
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void onThumbnailRequested(ThumbnailRequestedEvent event) {
+        enqueue(event.getMediaUrl(), event.getChatId());
+    }
+
+    /**
+     * Re-submit pending work, including rows left over from before a restart
+     */
+    @Scheduled(fixedDelayString = "${urbanup.media.thumbnails.poll-interval-ms:30000}")
+    public void pollPending() {
+        try {
+            List<MediaThumbnail> pending = thumbnailRepository.findByStatusOrderByIdAsc(
+                    MediaThumbnail.ThumbnailStatus.PENDING, PageRequest.of(0, queueCapacity));
+            for (MediaThumbnail job : pending) {
+                if (!submit(job.getId())) {
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("Failed to poll pending thumbnails: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Smallest thumbnail URL per source URL for a batch of images; images without thumbnails are left out.
+     * Images known to have none are not looked up again until urbanup.media.thumbnails.miss-cache-ttl-ms
+     * has passed, or until this node finishes their thumbnails.
+     */
+    public Map<String, String> getPreviewUrls(Collection<String> mediaUrls) {
+        Map<String, String> previews = new HashMap<>();
+        Map<String, String> missingByHash = new HashMap<>();
+        long now = System.currentTimeMillis();
+        synchronized (previewCache) {
+            for (String url : mediaUrls) {
+                String hash = MediaStorageService.hashOf(url);
+                if (hash == null) {
+                    continue;
+                }
+                String cached = previewCache.get(hash);
+                Long retryAt = missingPreviews.get(hash);
+                if (cached != null) {
+                    previews.put(url, cached);
+                } else if (retryAt == null || retryAt <= now) {
+                    missingByHash.put(hash, url);
+                }
+            }
+        }
+        if (!missingByHash.isEmpty()) {
+            for (MediaThumbnail job : thumbnailRepository.findBySourceHashIn(missingByHash.keySet())) {
+                String preview = cachePreview(job);
+                if (preview != null) {
+                    previews.put(missingByHash.remove(job.getSourceHash()), preview);
+                }
+            }
+            synchronized (previewCache) {
+                for (String hash : missingByHash.keySet()) {
+                    missingPreviews.put(hash, now + missCacheTtlMillis);
+                }
+            }
+        }
+        return previews;
+    }
+
+    private String cachePreview(MediaThumbnail job) {
+        if (job.getStatus() != MediaThumbnail.ThumbnailStatus.DONE || job.getVariantUrls().isEmpty()) {
+            return null;
+        }
+        String preview = new TreeMap<>(job.getVariantUrls()).firstEntry().getValue();
+        synchronized (previewCache) {
+            previewCache.put(job.getSourceHash(), preview);
+            missingPreviews.remove(job.getSourceHash());
+        }
+        return preview;
+    }
+
+    private boolean submit(Long jobId) {
+        if (!inFlight.add(jobId)) {
+            return true;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    process(jobId);
+                } finally {
+                    inFlight.remove(jobId);
+                }
+            });
+            return true;
+        } catch (TaskRejectedException e) {
+            // Pool is full; the row stays pending for the next poll
+            inFlight.remove(jobId);
+            return false;
+        }
+    }
+
+    private void process(Long jobId) {
+        MediaThumbnail job = thumbnailRepository.findById(jobId).orElse(null);
+        if (job == null || job.getStatus() != MediaThumbnail.ThumbnailStatus.PENDING) {
+            return;
+        }
+        try {
+            job.setVariantUrls(render(job.getSourceUrl()));
+            job.setStatus(MediaThumbnail.ThumbnailStatus.DONE);
+            job.setLastError(null);
+        } catch (Exception e) {
+            job.setAttempts(job.getAttempts() + 1);
+            job.setLastError(e.getMessage() != null && e.getMessage().length() > 255 ? e.getMessage().substring(0, 255) : e.getMessage());
+            if (job.getAttempts() >= maxAttempts) {
+                job.setStatus(MediaThumbnail.ThumbnailStatus.FAILED);
+                System.err.println("Giving up on thumbnails for " + job.getSourceUrl() + ": " + e.getMessage());
+            }
+        }
+        job.setUpdatedAt(LocalDateTime.now());
+        thumbnailRepository.save(job);
+        cachePreview(job);
+
+        if (job.getStatus() != MediaThumbnail.ThumbnailStatus.PENDING) {
+            Set<Long> chats = waitingChats.remove(job.getSourceHash());
+            if (chats != null && job.getStatus() == MediaThumbnail.ThumbnailStatus.DONE) {
+                for (Long chatId : chats) {
+                    recentMessageCache.evict(chatId);
+                }
+            }
+        }
+    }
+
+    private Map<Integer, String> render(String sourceUrl) throws IOException {
+        Path source = mediaStorageService.resolve(sourceUrl.substring(MediaStorageService.URL_PREFIX.length()))
+                .orElseThrow(() -> new IOException("Source image is missing"));
+
+        BufferedImage image;
+        int width;
+        int height;
+        try (ImageInputStream in = ImageIO.createImageInputStream(source.toFile())) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                throw new IOException("Unsupported image format");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                width = reader.getWidth(0);
+                height = reader.getHeight(0);
+                if ((long) width * height > maxPixels) {
+                    throw new IOException("Image is too large to thumbnail");
+                }
+                // Decode at no more than twice the largest size, which is still enough for a clean downscale
+                int largest = sizes[sizes.length - 1];
+                int subsampling = Math.max(1, Math.max(width, height) / (largest * 2));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                image = reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+
+        boolean alpha = image.getColorModel().hasAlpha();
+        String format = alpha ? "png" : "jpg";
+        Map<Integer, String> variants = new HashMap<>();
+        for (int size : sizes) {
+            // Images already smaller than a size are shown as they are
+            if (size >= Math.max(width, height)) {
+                break;
+            }
+            double scale = (double) size / Math.max(image.getWidth(), image.getHeight());
+            int targetWidth = Math.max(1, (int) Math.round(image.getWidth() * scale));
+            int targetHeight = Math.max(1, (int) Math.round(image.getHeight() * scale));
+            BufferedImage scaled = new BufferedImage(targetWidth, targetHeight,
+                    alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+            Graphics2D graphics = scaled.createGraphics();
+            try {
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                graphics.drawImage(image, 0, 0, targetWidth, targetHeight, null);
+            } finally {
+                graphics.dispose();
+            }
+            // Thumbnails are small, so they are encoded in memory and then streamed into the store
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ImageIO.write(scaled, format, out);
+            StoredMedia stored = mediaStorageService.storeDerived(new ByteArrayInputStream(out.toByteArray()), format);
+            variants.put(size, stored.getUrl());
+        }
+        return variants;
+    }
+}
@@ -5,6 +5,7 @@ import java.util.List;
 import java.util.Optional;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -30,6 +31,9 @@ public class UserService {
     @Autowired
     private NotificationService notificationService;
     
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+    
     // User Registration and Authentication
     
     /**
@@ -235,6 +239,7 @@ public class UserService {
             user.setIsActive(false);
             user.setUpdatedAt(LocalDateTime.now());
             userRepository.save(user);
+            eventPublisher.publishEvent(new ChatMembershipChangedEvent(userId, null));
             
             // Send account deactivation notification
             notificationService.sendAccountDeactivationNotification(user);
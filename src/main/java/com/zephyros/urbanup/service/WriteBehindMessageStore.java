@@ -0,0 +1,544 @@
+package com.zephyros.urbanup.service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zephyros.urbanup.model.Chat;
+import com.zephyros.urbanup.model.Message;
+import com.zephyros.urbanup.model.User;
+import com.zephyros.urbanup.repository.ChatRepository;
+import com.zephyros.urbanup.repository.UserRepository;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Write-behind persistence for chat messages, enabled with urbanup.chat.write-behind.enabled.
+ *
+ * Accepted messages get their ids from the messages sequence, are appended to a local log and
+ * fsynced, and can then be broadcast and acknowledged right away. A flusher inserts them into
+ * Postgres with multi-row statements every few milliseconds, bumps each chat's updatedAt and updates
+ * the collapsed new-message notification once per chat and sender. Log segments are deleted once
+ * every record in them is in the database; on startup any remaining segments are queued for the
+ * flusher again. Inserts use ON CONFLICT (id, created_at) DO NOTHING, so replaying records that were
+ * already flushed is harmless, while any other constraint violation is reported instead of dropped.
+ * The same statement claims each record's client message id in message_client_ids; a record whose id
+ * was claimed by another message (a retry that reached another node) is not inserted.
+ *
+ * A flush the database rejects with a constraint violation is split in halves until the offending
+ * record is isolated; that record is written to the dead-letter file in the log directory and the
+ * rest of the batch goes through. Other failures, such as the database being unreachable, keep the
+ * whole batch for the next flush.
+ */
+@Component
+@ConditionalOnProperty(name = "urbanup.chat.write-behind.enabled", havingValue = "true")
+public class WriteBehindMessageStore {
+
+    private static final int INSERT_CHUNK_SIZE = 500;
+    private static final int LOOKUP_CACHE_SIZE = 10000;
+    private static final String DEAD_LETTER_FILE = "dead-letter.jsonl";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private ChatRepository chatRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    @Lazy
+    private RealtimeChatService realtimeChatService;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${urbanup.chat.write-behind.log-dir:./data/message-log}")
+    private String logDir;
+
+    @Value("${urbanup.chat.write-behind.segment-bytes:16777216}")
+    private long segmentBytes;
+
+    @Value("${urbanup.chat.write-behind.max-pending:50000}")
+    private int maxPending;
+
+    private TransactionTemplate transactionTemplate;
+
+    private final Object logLock = new Object();
+    private final ConcurrentLinkedQueue<Segment> segments = new ConcurrentLinkedQueue<>();
+    private Segment activeSegment;
+    private int segmentCounter;
+
+    private final ConcurrentLinkedQueue<PendingRecord> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    // Records from a failed flush, retried first; only touched by the flusher
+    private List<PendingRecord> retry = new ArrayList<>();
+    private final AtomicInteger deadLettered = new AtomicInteger();
+
+    // Participants and names never change, so lookups are cached instead of read per message
+    private final Map<Long, Chat> chatCache = lruCache();
+    private final Map<Long, User> userCache = lruCache();
+
+    @PostConstruct
+    public void start() throws IOException {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        Path dir = Paths.get(logDir);
+        Files.createDirectories(dir);
+        recover(dir);
+        synchronized (logLock) {
+            activeSegment = openSegment();
+        }
+        // Get recovered records in before serving; whatever fails stays queued for the scheduled flush
+        flush();
+    }
+
+    @PreDestroy
+    public void stop() {
+        flush();
+        synchronized (logLock) {
+            activeSegment.sealed = true;
+        }
+        deleteFlushedSegments();
+    }
+
+    public Optional<Chat> findChat(Long chatId) {
+        return cachedLookup(chatCache, chatId, chatRepository::findById);
+    }
+
+    public Optional<User> findUser(Long userId) {
+        return cachedLookup(userCache, userId, userRepository::findById);
+    }
+
+    /**
+     * Assign ids to the messages and make them durable in the local log. Once this returns they
+     * may be broadcast; they reach Postgres with the next flush.
+     */
+    public void append(List<Message> messages) throws IOException {
+        if (messages.isEmpty()) {
+            return;
+        }
+        if (pendingCount.get() + messages.size() > maxPending) {
+            throw new IllegalStateException("Message store is behind, please retry");
+        }
+        // Entity validation never runs on this path, and a record must not be acknowledged if it cannot be inserted
+        for (Message message : messages) {
+            if (message.getContent() != null && message.getContent().length() > Message.CONTENT_MAX_LENGTH) {
+                throw new IllegalArgumentException("Message cannot exceed " + Message.CONTENT_MAX_LENGTH + " characters");
+            }
+        }
+
+        List<Long> ids = jdbcTemplate.queryForList(
+            "SELECT nextval(pg_get_serial_sequence('messages', 'id')) FROM generate_series(1, ?)",
+            Long.class, messages.size());
+
+        List<LogRecord> records = new ArrayList<>(messages.size());
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < messages.size(); i++) {
+            Message message = messages.get(i);
+            message.setId(ids.get(i));
+            LogRecord record = LogRecord.of(message);
+            records.add(record);
+            lines.append(objectMapper.writeValueAsString(record)).append('\n');
+        }
+
+        synchronized (logLock) {
+            Segment segment = activeSegment;
+            ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                segment.channel.write(buffer);
+            }
+            // One fsync per lane batch
+            segment.channel.force(false);
+            segment.pending.addAndGet(records.size());
+            for (LogRecord record : records) {
+                pending.add(new PendingRecord(record, segment));
+            }
+            pendingCount.addAndGet(records.size());
+
+            if (segment.channel.size() >= segmentBytes) {
+                segment.sealed = true;
+                activeSegment = openSegment();
+            }
+        }
+    }
+
+    /**
+     * Insert everything accepted since the last flush
+     */
+    @Scheduled(fixedDelayString = "${urbanup.chat.write-behind.flush-interval-ms:20}")
+    public synchronized void flush() {
+        List<PendingRecord> batch = retry;
+        retry = new ArrayList<>();
+        PendingRecord next;
+        while ((next = pending.poll()) != null) {
+            batch.add(next);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        // Records are completed in batch order, so whatever is not done is a suffix of the batch
+        List<PendingRecord> done = new ArrayList<>(batch.size());
+        Set<Long> inserted = new HashSet<>();
+        try {
+            insertOrSplit(batch, inserted, done);
+        } catch (Exception e) {
+            System.err.println("Failed to flush chat messages, will retry: " + e.getMessage());
+            retry = new ArrayList<>(batch.subList(done.size(), batch.size()));
+        }
+        if (done.isEmpty()) {
+            return;
+        }
+
+        List<LogRecord> records = new ArrayList<>(done.size());
+        for (PendingRecord record : done) {
+            records.add(record.record);
+        }
+        notifyRecipients(records, inserted);
+        for (PendingRecord record : done) {
+            record.segment.pending.decrementAndGet();
+        }
+        pendingCount.addAndGet(-done.size());
+        deleteFlushedSegments();
+    }
+
+    public int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    public int getDeadLetterCount() {
+        return deadLettered.get();
+    }
+
+    /**
+     * Insert a batch in one transaction; on a constraint violation split it until the bad record is
+     * isolated and dead-lettered. Any other failure propagates with {@code done} holding what got in.
+     */
+    private void insertOrSplit(List<PendingRecord> batch, Set<Long> inserted, List<PendingRecord> done) {
+        List<LogRecord> records = new ArrayList<>(batch.size());
+        for (PendingRecord record : batch) {
+            records.add(record.record);
+        }
+        try {
+            inserted.addAll(transactionTemplate.execute(status -> insert(records)));
+            done.addAll(batch);
+        } catch (DataIntegrityViolationException e) {
+            if (batch.size() == 1) {
+                deadLetter(batch.get(0).record, e);
+                done.add(batch.get(0));
+                return;
+            }
+            int middle = batch.size() / 2;
+            insertOrSplit(batch.subList(0, middle), inserted, done);
+            insertOrSplit(batch.subList(middle, batch.size()), inserted, done);
+        }
+    }
+
+    /**
+     * Keep a record the database refuses, with the reason, for manual repair
+     */
+    private void deadLetter(LogRecord record, DataIntegrityViolationException cause) {
+        deadLettered.incrementAndGet();
+        System.err.println("Dead-lettering chat message " + record.getId() + ": " + cause.getMessage());
+        try {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("record", record);
+            entry.put("error", String.valueOf(cause.getMostSpecificCause().getMessage()));
+            entry.put("failedAt", LocalDateTime.now());
+            Files.writeString(Paths.get(logDir, DEAD_LETTER_FILE), objectMapper.writeValueAsString(entry) + "\n",
+                StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            System.err.println("Failed to write dead-letter record " + record.getId() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Multi-row insert of messages and their attachments, then one updatedAt bump per chat.
+     * Returns the ids actually inserted, i.e. not already present from an earlier flush and not
+     * holding a client message id another message has claimed.
+     */
+    private Set<Long> insert(List<LogRecord> records) {
+        Set<Long> inserted = new HashSet<>();
+        for (int from = 0; from < records.size(); from += INSERT_CHUNK_SIZE) {
+            List<LogRecord> chunk = records.subList(from, Math.min(records.size(), from + INSERT_CHUNK_SIZE));
+            StringBuilder sql = new StringBuilder(
+                "WITH incoming (id, chat_id, sender_id, content, message_type, created_at, client_message_id) AS (VALUES ");
+            List<Object> args = new ArrayList<>(chunk.size() * 7);
+            for (int i = 0; i < chunk.size(); i++) {
+                LogRecord record = chunk.get(i);
+                sql.append(i == 0
+                    ? "(CAST(? AS bigint), CAST(? AS bigint), CAST(? AS bigint), CAST(? AS text), CAST(? AS varchar), CAST(? AS timestamp), CAST(? AS varchar))"
+                    : ", (?, ?, ?, ?, ?, ?, ?)");
+                args.add(record.getId());
+                args.add(record.getChatId());
+                args.add(record.getSenderId());
+                args.add(record.getContent());
+                args.add(record.getMessageType());
+                args.add(Timestamp.valueOf(record.getCreatedAt()));
+                args.add(record.getClientMessageId());
+            }
+            // A replayed record finds its own claim taken and is skipped, like a conflict on (id, created_at)
+            sql.append("), claimed AS (" +
+                "INSERT INTO message_client_ids (sender_id, client_message_id, created_at) " +
+                "SELECT sender_id, client_message_id, created_at FROM incoming WHERE client_message_id IS NOT NULL " +
+                "ON CONFLICT DO NOTHING RETURNING sender_id, client_message_id, created_at) " +
+                "INSERT INTO messages (id, chat_id, sender_id, content, message_type, is_read, is_system_message, created_at, client_message_id) " +
+                "SELECT id, chat_id, sender_id, content, message_type, false, false, created_at, client_message_id FROM incoming r " +
+                "WHERE r.client_message_id IS NULL OR EXISTS (SELECT 1 FROM claimed c " +
+                "WHERE c.sender_id = r.sender_id AND c.client_message_id = r.client_message_id AND c.created_at = r.created_at) " +
+                // The primary key is (id, created_at), both taken from the log, so only replayed records conflict
+                "ON CONFLICT (id, created_at) DO NOTHING RETURNING id");
+            inserted.addAll(jdbcTemplate.queryForList(sql.toString(), Long.class, args.toArray()));
+        }
+
+        List<Object[]> attachments = new ArrayList<>();
+        Map<Long, LocalDateTime> chatUpdatedAt = new HashMap<>();
+        for (LogRecord record : records) {
+            if (!inserted.contains(record.getId())) {
+                continue;
+            }
+            if (record.getAttachmentUrl() != null) {
+                attachments.add(new Object[] {record.getId(), record.getAttachmentUrl()});
+            }
+            chatUpdatedAt.merge(record.getChatId(), record.getCreatedAt(), (a, b) -> a.isAfter(b) ? a : b);
+        }
+        if (!attachments.isEmpty()) {
+            jdbcTemplate.batchUpdate("INSERT INTO message_attachments (message_id, attachment_url) VALUES (?, ?)", attachments);
+        }
+        List<Object[]> touches = new ArrayList<>();
+        chatUpdatedAt.forEach((chatId, updatedAt) ->
+            touches.add(new Object[] {Timestamp.valueOf(updatedAt), chatId, Timestamp.valueOf(updatedAt)}));
+        jdbcTemplate.batchUpdate("UPDATE chats SET updated_at = ? WHERE id = ? AND updated_at < ?", touches);
+        return inserted;
+    }
+
+    /**
+     * One notification update per chat and sender per flush, carrying the message count and latest preview
+     */
+    private void notifyRecipients(List<LogRecord> records, Set<Long> inserted) {
+        // chat:sender -> newest record and number of messages in this flush
+        Map<String, LogRecord> latest = new LinkedHashMap<>();
+        Map<String, Integer> counts = new HashMap<>();
+        for (LogRecord record : records) {
+            if (inserted.contains(record.getId())) {
+                String key = record.getChatId() + ":" + record.getSenderId();
+                latest.put(key, record);
+                counts.merge(key, 1, Integer::sum);
+            }
+        }
+        latest.forEach((key, record) -> {
+            try {
+                Optional<Chat> chat = findChat(record.getChatId());
+                Optional<User> sender = findUser(record.getSenderId());
+                if (chat.isPresent() && sender.isPresent()) {
+                    realtimeChatService.notifyNewMessage(chat.get(), sender.get(), record.getContent(), counts.get(key));
+                }
+            } catch (Exception e) {
+                System.err.println("Failed to send new message notification: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Queue the records of segments left by a previous run; each segment is deleted once they are flushed.
+     * An unreadable directory or segment is reported and left on disk rather than failing startup.
+     */
+    private void recover(Path dir) {
+        List<Path> leftovers;
+        try (Stream<Path> files = Files.list(dir)) {
+            leftovers = files.filter(path -> path.getFileName().toString().endsWith(".log")).sorted().toList();
+        } catch (IOException e) {
+            System.err.println("Failed to list message log segments: " + e.getMessage());
+            return;
+        }
+        for (Path path : leftovers) {
+            try {
+                List<LogRecord> records = new ArrayList<>();
+                try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        try {
+                            records.add(objectMapper.readValue(line, LogRecord.class));
+                        } catch (IOException e) {
+                            // Torn write at the tail of a crashed segment; it was never acknowledged
+                            System.err.println("Skipping unreadable message log record in " + path.getFileName());
+                        }
+                    }
+                }
+                Segment segment = new Segment(path, FileChannel.open(path, StandardOpenOption.READ));
+                segment.sealed = true;
+                segment.pending.set(records.size());
+                segments.add(segment);
+                for (LogRecord record : records) {
+                    pending.add(new PendingRecord(record, segment));
+                }
+                pendingCount.addAndGet(records.size());
+            } catch (IOException e) {
+                System.err.println("Failed to recover message log segment " + path.getFileName() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void deleteFlushedSegments() {
+        for (Segment segment : segments) {
+            if (segment.sealed && segment.pending.get() == 0) {
+                segments.remove(segment);
+                try {
+                    segment.channel.close();
+                    Files.deleteIfExists(segment.path);
+                } catch (IOException e) {
+                    System.err.println("Failed to delete message log segment: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private Segment openSegment() throws IOException {
+        Path path;
+        do {
+            // Segments left by a previous run may still be on disk
+            path = Paths.get(logDir, String.format("segment-%013d-%06d.log", System.currentTimeMillis(), segmentCounter++));
+        } while (Files.exists(path));
+        Segment segment = new Segment(path, FileChannel.open(path,
+            StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE, StandardOpenOption.APPEND));
+        segments.add(segment);
+        return segment;
+    }
+
+    private static <T> Optional<T> cachedLookup(Map<Long, T> cache, Long id, Function<Long, Optional<T>> loader) {
+        synchronized (cache) {
+            T cached = cache.get(id);
+            if (cached != null) {
+                return Optional.of(cached);
+            }
+        }
+        Optional<T> loaded = loader.apply(id);
+        loaded.ifPresent(value -> {
+            synchronized (cache) {
+                cache.put(id, value);
+            }
+        });
+        return loaded;
+    }
+
+    private static <T> Map<Long, T> lruCache() {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, T> eldest) {
+                return size() > LOOKUP_CACHE_SIZE;
+            }
+        };
+    }
+
+    private static class Segment {
+        private final Path path;
+        private final FileChannel channel;
+        // Records appended to this segment that are not in the database yet
+        private final AtomicInteger pending = new AtomicInteger();
+        private volatile boolean sealed;
+
+        private Segment(Path path, FileChannel channel) {
+            this.path = path;
+            this.channel = channel;
+        }
+    }
+
+    private static class PendingRecord {
+        private final LogRecord record;
+        private final Segment segment;
+
+        private PendingRecord(LogRecord record, Segment segment) {
+            this.record = record;
+            this.segment = segment;
+        }
+    }
+
+    /**
+     * One line of the append log
+     */
+    public static class LogRecord {
+        private Long id;
+        private Long chatId;
+        private Long senderId;
+        private String content;
+        private String messageType;
+        private String attachmentUrl;
+        private LocalDateTime createdAt;
+        private String clientMessageId;
+
+        static LogRecord of(Message message) {
+            LogRecord record = new LogRecord();
+            record.setId(message.getId());
+            record.setChatId(message.getChat().getId());
+            record.setSenderId(message.getSender().getId());
+            record.setContent(message.getContent());
+            record.setMessageType(message.getMessageType().name());
+            record.setAttachmentUrl(message.getAttachmentUrls().isEmpty() ? null : message.getAttachmentUrls().get(0));
+            record.setCreatedAt(message.getCreatedAt());
+            record.setClientMessageId(message.getClientMessageId());
+            return record;
+        }
+
+        // Getters and setters
+        public Long getId() { return id; }
+        public void setId(Long id) { this.id = id; }
+
+        public Long getChatId() { return chatId; }
+        public void setChatId(Long chatId) { this.chatId = chatId; }
+
+        public Long getSenderId() { return senderId; }
+        public void setSenderId(Long senderId) { this.senderId = senderId; }
+
+        public String getContent() { return content; }
+        public void setContent(String content) { this.content = content; }
+
+        public String getMessageType() { return messageType; }
+        public void setMessageType(String messageType) { this.messageType = messageType; }
+
+        public String getAttachmentUrl() { return attachmentUrl; }
+        public void setAttachmentUrl(String attachmentUrl) { this.attachmentUrl = attachmentUrl; }
+
+        public LocalDateTime getCreatedAt() { return createdAt; }
+        public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+
+        public String getClientMessageId() { return clientMessageId; }
+        public void setClientMessageId(String clientMessageId) { this.clientMessageId = clientMessageId; }
+    }
+}
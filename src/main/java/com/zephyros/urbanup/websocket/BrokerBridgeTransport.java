@@ -0,0 +1,24 @@
+package com.zephyros.urbanup.websocket;
+
+import java.util.function.Consumer;
+
+/**
+ * Pub/sub transport used by {@link ClusterBrokerBridge} to fan broker messages out to other nodes
+ */
+public interface BrokerBridgeTransport {
+
+    /**
+     * Publish an encoded envelope to every node, including this one
+     */
+    void publish(String envelope);
+
+    /**
+     * Register the callback invoked for every envelope published by any node
+     */
+    void subscribe(Consumer<String> listener);
+
+    /**
+     * Remove a callback previously passed to {@link #subscribe}
+     */
+    void unsubscribe(Consumer<String> listener);
+}
@@ -0,0 +1,96 @@
+package com.zephyros.urbanup.websocket;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import com.zephyros.urbanup.repository.ChatRepository;
+import com.zephyros.urbanup.service.ChatMembershipChangedEvent;
+
+/**
+ * Chat membership checks for WebSocket sessions, backed by the per-session cache in {@link WebSocketPrincipal}.
+ * Cached entries are dropped when membership changes on this node and re-checked after a TTL, which
+ * bounds how long a change made on another node can go unnoticed.
+ */
+@Component
+public class ChatAccessGuard {
+
+    @Autowired
+    private ChatRepository chatRepository;
+
+    @Value("${urbanup.websocket.chat-access.ttl-ms:300000}")
+    private long ttlMs;
+
+    // Live principals per user, so membership changes can reach their caches
+    private final Map<Long, Set<WebSocketPrincipal>> principalsByUser = new ConcurrentHashMap<>();
+
+    /**
+     * Seed the session cache with every chat the user participates in
+     */
+    public void preload(WebSocketPrincipal principal) {
+        principal.authorizeAll(chatRepository.findChatIdsByUserId(principal.getUserId()));
+        principalsByUser.computeIfAbsent(principal.getUserId(), id -> ConcurrentHashMap.newKeySet()).add(principal);
+    }
+
+    /**
+     * Check whether the session may use a chat; only chats missing from the cache or past the TTL hit the database
+     */
+    public boolean canAccess(WebSocketPrincipal principal, Long chatId) {
+        if (principal == null || chatId == null) {
+            return false;
+        }
+        if (principal.isAuthorizedFor(chatId, System.currentTimeMillis() - ttlMs)) {
+            return true;
+        }
+        // Chat created after CONNECT, or a stale entry
+        if (chatRepository.isParticipant(chatId, principal.getUserId())) {
+            principal.authorize(chatId);
+            return true;
+        }
+        principal.revoke(chatId);
+        return false;
+    }
+
+    /**
+     * Drop cached authorizations of every session of the user; a null chatId drops all of them
+     */
+    public void evict(Long userId, Long chatId) {
+        Set<WebSocketPrincipal> principals = principalsByUser.get(userId);
+        if (principals == null) {
+            return;
+        }
+        for (WebSocketPrincipal principal : principals) {
+            if (chatId == null) {
+                principal.revokeAll();
+            } else {
+                principal.revoke(chatId);
+            }
+        }
+    }
+
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onMembershipChanged(ChatMembershipChangedEvent event) {
+        evict(event.getUserId(), event.getChatId());
+    }
+
+    @EventListener
+    public void onSessionDisconnect(SessionDisconnectEvent event) {
+        WebSocketPrincipal principal = WebSocketPrincipal.from(SimpMessageHeaderAccessor.wrap(event.getMessage()));
+        if (principal == null) {
+            return;
+        }
+        principalsByUser.computeIfPresent(principal.getUserId(), (userId, principals) -> {
+            principals.remove(principal);
+            return principals.isEmpty() ? null : principals;
+        });
+    }
+}
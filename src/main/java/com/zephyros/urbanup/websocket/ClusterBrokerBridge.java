@@ -0,0 +1,190 @@
+package com.zephyros.urbanup.websocket;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeType;
+import org.springframework.util.StringUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zephyros.urbanup.service.RecentMessageCache;
+
+/**
+ * Bridges the local simple broker to other application nodes over a {@link BrokerBridgeTransport}.
+ *
+ * Every message the application publishes to /topic, /queue or /user destinations is forwarded to
+ * the other nodes, which replay it into their own broker channel. User destinations are replayed
+ * unresolved so each node resolves them against its own sessions.
+ */
+@Component
+@ConditionalOnProperty(name = "urbanup.websocket.broker.mode", havingValue = "redis")
+public class ClusterBrokerBridge implements ChannelInterceptor, SmartLifecycle {
+
+    /**
+     * Header marking a message replayed from another node, so it is not forwarded again
+     */
+    public static final String RELAYED_FROM_HEADER = "urbanupRelayedFrom";
+
+    private static final String[] FORWARDED_PREFIXES = {"/topic/", "/queue/", "/user/"};
+
+    private static final Pattern CHAT_TOPIC = Pattern.compile("^/topic/chat/(\\d+)$");
+
+    private final BrokerBridgeTransport transport;
+    private final MessageChannel brokerChannel;
+    private final String nodeId;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Consumer<String> envelopeListener = this::onEnvelope;
+
+    private volatile boolean running;
+
+    // Kept in step with chat messages sent through other nodes
+    @Autowired(required = false)
+    private RecentMessageCache recentMessageCache;
+
+    @Autowired
+    public ClusterBrokerBridge(BrokerBridgeTransport transport,
+                               @Lazy @Qualifier("brokerChannel") MessageChannel brokerChannel,
+                               @Value("${urbanup.websocket.broker.node-id:}") String nodeId) {
+        this.transport = transport;
+        this.brokerChannel = brokerChannel;
+        this.nodeId = StringUtils.hasText(nodeId) ? nodeId : UUID.randomUUID().toString();
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        if (shouldForward(message)) {
+            try {
+                transport.publish(encode(message));
+            } catch (Exception e) {
+                // Local delivery still proceeds; remote nodes miss this message
+                System.err.println("Failed to forward broker message to cluster: " + e.getMessage());
+            }
+        }
+        return message;
+    }
+
+    private boolean shouldForward(Message<?> message) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+        if (!SimpMessageType.MESSAGE.equals(accessor.getMessageType())) {
+            return false;
+        }
+        // Already replayed from another node, or a user destination this node has resolved
+        if (accessor.getHeader(RELAYED_FROM_HEADER) != null
+                || accessor.getHeader(SimpMessageHeaderAccessor.ORIGINAL_DESTINATION) != null) {
+            return false;
+        }
+        String destination = accessor.getDestination();
+        if (destination == null) {
+            return false;
+        }
+        for (String prefix : FORWARDED_PREFIXES) {
+            if (destination.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String encode(Message<?> message) throws Exception {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+        Object payload = message.getPayload();
+
+        Envelope envelope = new Envelope();
+        envelope.setOrigin(nodeId);
+        envelope.setDestination(accessor.getDestination());
+        envelope.setContentType(accessor.getContentType() != null ? accessor.getContentType().toString() : null);
+        envelope.setPayload(payload instanceof byte[] bytes ? bytes : payload.toString().getBytes(StandardCharsets.UTF_8));
+        return objectMapper.writeValueAsString(envelope);
+    }
+
+    /**
+     * Replay an envelope received from the transport into the local broker channel
+     */
+    void onEnvelope(String raw) {
+        try {
+            Envelope envelope = objectMapper.readValue(raw, Envelope.class);
+            if (nodeId.equals(envelope.getOrigin())) {
+                return;
+            }
+
+            SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+            accessor.setDestination(envelope.getDestination());
+            if (envelope.getContentType() != null) {
+                accessor.setContentType(MimeType.valueOf(envelope.getContentType()));
+            }
+            accessor.setHeader(RELAYED_FROM_HEADER, envelope.getOrigin());
+            accessor.setLeaveMutable(true);
+
+            if (recentMessageCache != null) {
+                Matcher chatTopic = CHAT_TOPIC.matcher(envelope.getDestination());
+                if (chatTopic.matches()) {
+                    recentMessageCache.onRemoteBroadcast(Long.valueOf(chatTopic.group(1)), envelope.getPayload());
+                }
+            }
+
+            brokerChannel.send(MessageBuilder.createMessage(envelope.getPayload(), accessor.getMessageHeaders()));
+        } catch (Exception e) {
+            System.err.println("Failed to replay cluster broker message: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void start() {
+        transport.subscribe(envelopeListener);
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        transport.unsubscribe(envelopeListener);
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Wire format exchanged between nodes
+     */
+    public static class Envelope {
+        private String origin;
+        private String destination;
+        private String contentType;
+        private byte[] payload;
+
+        // Getters and setters
+        public String getOrigin() { return origin; }
+        public void setOrigin(String origin) { this.origin = origin; }
+
+        public String getDestination() { return destination; }
+        public void setDestination(String destination) { this.destination = destination; }
+
+        public String getContentType() { return contentType; }
+        public void setContentType(String contentType) { this.contentType = contentType; }
+
+        public byte[] getPayload() { return payload; }
+        public void setPayload(byte[] payload) { this.payload = payload; }
+    }
+}
@@ -0,0 +1,190 @@
+package com.zephyros.urbanup.websocket;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Compact JSON encoding of outbound STOMP payloads, negotiated per session.
+ *
+ * A client opts in by sending {@code payload-format: compact-v1} on CONNECT. MESSAGE frames to that
+ * session then use the short field names in {@link #FIELD_NAMES}, drop null fields, and carry
+ * timestamps as epoch milliseconds instead of ISO strings. Everyone else keeps the regular JSON.
+ * The payload stays text so it works over SockJS too. A broadcast reaches each subscriber with the
+ * same payload instance, so it is re-encoded once per broadcast rather than once per session.
+ */
+@Component
+public class CompactPayloadCodec implements ChannelInterceptor {
+
+    public static final String FORMAT_HEADER = "payload-format";
+    public static final String COMPACT_V1 = "compact-v1";
+
+    /**
+     * Field name dictionary for compact-v1; names not listed are sent unchanged. Append only.
+     */
+    public static final Map<String, String> FIELD_NAMES = Map.ofEntries(
+            Map.entry("id", "i"),
+            Map.entry("chatId", "c"),
+            Map.entry("senderId", "s"),
+            Map.entry("senderName", "sn"),
+            Map.entry("content", "m"),
+            Map.entry("messageType", "t"),
+            Map.entry("attachmentUrl", "a"),
+            Map.entry("createdAt", "ca"),
+            Map.entry("isRead", "r"),
+            Map.entry("clientMessageId", "k"),
+            Map.entry("messageId", "mi"),
+            Map.entry("sequence", "sq"),
+            Map.entry("userId", "u"),
+            Map.entry("messageCount", "n"),
+            Map.entry("typing", "ty"),
+            Map.entry("typingUserIds", "tu"),
+            Map.entry("changes", "ch"),
+            Map.entry("status", "st"),
+            Map.entry("lastSeenAt", "ls"),
+            Map.entry("timestamp", "ts"),
+            Map.entry("thumbnailUrl", "th"));
+
+    private static final Set<String> TIMESTAMP_FIELDS = Set.of("createdAt", "lastSeenAt", "timestamp");
+
+    private final ObjectMapper objectMapper;
+
+    private final Set<String> compactSessions = ConcurrentHashMap.newKeySet();
+
+    // Last payload encoded on this thread, reused while the broker fans it out to subscribers
+    private final ThreadLocal<Encoded> lastEncoded = new ThreadLocal<>();
+
+    @Autowired
+    public CompactPayloadCodec(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Record the payload format a session asked for on CONNECT
+     */
+    public void negotiate(String sessionId, String requestedFormat) {
+        if (sessionId != null && COMPACT_V1.equalsIgnoreCase(requestedFormat)) {
+            compactSessions.add(sessionId);
+        }
+    }
+
+    public boolean isCompact(String sessionId) {
+        return sessionId != null && compactSessions.contains(sessionId);
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        compactSessions.remove(event.getSessionId());
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        if (compactSessions.isEmpty()
+                || SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) != SimpMessageType.MESSAGE
+                || !isCompact(SimpMessageHeaderAccessor.getSessionId(message.getHeaders()))
+                || !(message.getPayload() instanceof byte[] payload)) {
+            return message;
+        }
+        byte[] compact = encodeCached(payload);
+        if (compact == payload) {
+            return message;
+        }
+        return MessageBuilder.createMessage(compact, message.getHeaders());
+    }
+
+    public int getCompactSessionCount() {
+        return compactSessions.size();
+    }
+
+    private byte[] encodeCached(byte[] payload) {
+        Encoded last = lastEncoded.get();
+        if (last != null && last.source == payload) {
+            return last.result;
+        }
+        byte[] result = encode(payload);
+        lastEncoded.set(new Encoded(payload, result));
+        return result;
+    }
+
+    /**
+     * Re-encode a JSON payload as compact-v1, or return it unchanged if it is not a JSON object or array
+     */
+    public byte[] encode(byte[] json) {
+        try {
+            JsonNode tree = objectMapper.readTree(json);
+            if (tree == null || !tree.isContainerNode()) {
+                return json;
+            }
+            return objectMapper.writeValueAsBytes(compact(tree));
+        } catch (Exception e) {
+            return json;
+        }
+    }
+
+    private JsonNode compact(JsonNode node) {
+        if (node.isObject()) {
+            ObjectNode result = objectMapper.createObjectNode();
+            Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                JsonNode value = field.getValue();
+                if (value.isNull()) {
+                    continue;
+                }
+                String name = field.getKey();
+                if (TIMESTAMP_FIELDS.contains(name) && value.isTextual()) {
+                    value = toEpochMillis(value);
+                }
+                result.set(FIELD_NAMES.getOrDefault(name, name), compact(value));
+            }
+            return result;
+        }
+        if (node.isArray()) {
+            ArrayNode result = objectMapper.createArrayNode();
+            for (JsonNode element : node) {
+                result.add(compact(element));
+            }
+            return result;
+        }
+        return node;
+    }
+
+    private JsonNode toEpochMillis(JsonNode value) {
+        try {
+            long millis = LocalDateTime.parse(value.asText()).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            return objectMapper.getNodeFactory().numberNode(millis);
+        } catch (DateTimeParseException e) {
+            return value;
+        }
+    }
+
+    private static class Encoded {
+        private final byte[] source;
+        private final byte[] result;
+
+        private Encoded(byte[] source, byte[] result) {
+            this.source = source;
+            this.result = result;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.zephyros.urbanup.websocket;
+
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Map;
+
+import org.springframework.web.socket.server.standard.StandardWebSocketUpgradeStrategy;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.websocket.server.ServerEndpointConfig;
+
+/**
+ * Upgrade strategy that controls permessage-deflate for an endpoint.
+ *
+ * Tomcat negotiates its built-in permessage-deflate straight from the handshake request whenever the
+ * client offers it. When compression is switched off, the offer is hidden from the container so
+ * frames go out uncompressed.
+ */
+public class DeflateToggleUpgradeStrategy extends StandardWebSocketUpgradeStrategy {
+
+    private static final String EXTENSIONS_HEADER = "Sec-WebSocket-Extensions";
+
+    private final boolean deflateEnabled;
+
+    public DeflateToggleUpgradeStrategy(boolean deflateEnabled) {
+        this.deflateEnabled = deflateEnabled;
+    }
+
+    public boolean isDeflateEnabled() {
+        return deflateEnabled;
+    }
+
+    @Override
+    protected void upgradeHttpToWebSocket(HttpServletRequest request, HttpServletResponse response,
+                                          ServerEndpointConfig endpointConfig, Map<String, String> pathParams) throws Exception {
+        super.upgradeHttpToWebSocket(deflateEnabled ? request : new WithoutExtensions(request),
+                response, endpointConfig, pathParams);
+    }
+
+    private static class WithoutExtensions extends HttpServletRequestWrapper {
+
+        private WithoutExtensions(HttpServletRequest request) {
+            super(request);
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return EXTENSIONS_HEADER.equalsIgnoreCase(name) ? null : super.getHeader(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaders(String name) {
+            return EXTENSIONS_HEADER.equalsIgnoreCase(name) ? Collections.emptyEnumeration() : super.getHeaders(name);
+        }
+    }
+}
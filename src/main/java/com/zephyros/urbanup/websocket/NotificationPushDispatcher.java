@@ -0,0 +1,177 @@
+package com.zephyros.urbanup.websocket;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.zephyros.urbanup.repository.NotificationRepository;
+import com.zephyros.urbanup.service.NotificationCreatedEvent;
+import com.zephyros.urbanup.service.NotificationsUpdatedEvent;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Pushes new notifications to {@code /user/queue/notifications} instead of leaving clients to poll.
+ *
+ * Notifications are picked up after their transaction commits, so a rolled-back notification is never
+ * pushed. They are held per user for {@code batch-window-ms} and sent as one {@link NotificationBatch}
+ * together with the unread count; a notification updated again within the window (collapsed chat
+ * messages) is sent once in its latest form. Only notifications of users connected to this node are
+ * marked as pushed; the rest are left to the device push worker. Clients that were disconnected
+ * catch up through {@code GET /api/notifications/user/{id}/since}. Bulk reads and deletes are pushed
+ * to {@code /user/queue/notification-updates} as a {@link NotificationUpdate}.
+ */
+@Component
+public class NotificationPushDispatcher {
+
+    public static final String DESTINATION = "/queue/notifications";
+    public static final String UPDATES_DESTINATION = "/queue/notification-updates";
+
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+
+    @Autowired
+    private NotificationRepository notificationRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private PresenceRegistry presenceRegistry;
+
+    @Value("${urbanup.notifications.push.max-batch-size:50}")
+    private int maxBatchSize;
+
+    private TransactionTemplate transactionTemplate;
+
+    private final Map<Long, PendingBatch> pending = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    // fallbackExecution: notifications saved outside a transaction are pushed right away
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onNotificationCreated(NotificationCreatedEvent event) {
+        // compute is atomic per key, so the flush's remove never races with this update
+        pending.compute(event.getUserId(), (id, batch) -> {
+            PendingBatch target = batch != null ? batch : new PendingBatch(event.getUsername());
+            target.notifications.put(event.getNotificationId(), event.getPayload());
+            return target;
+        });
+    }
+
+    /**
+     * Tell the user's clients about a bulk read or delete right away, with the new unread count
+     */
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onNotificationsUpdated(NotificationsUpdatedEvent event) {
+        try {
+            NotificationUpdate update = new NotificationUpdate();
+            update.setAction(event.getAction());
+            update.setAffected(event.getAffected());
+            update.setIds(event.getIds());
+            update.setNotificationType(event.getNotificationType());
+            update.setChatId(event.getChatId());
+            update.setUnreadCount(notificationRepository.countUnreadByUserId(event.getUserId()));
+            messagingTemplate.convertAndSendToUser(event.getUsername(), UPDATES_DESTINATION, update);
+        } catch (Exception e) {
+            System.err.println("Failed to push notification update to user " + event.getUserId() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Send everything collected during the last window, one message per user
+     */
+    @Scheduled(fixedDelayString = "${urbanup.notifications.push.batch-window-ms:250}")
+    public void flush() {
+        for (Long userId : pending.keySet()) {
+            PendingBatch batch = pending.remove(userId);
+            if (batch == null) {
+                continue;
+            }
+            List<Map<String, Object>> notifications = new ArrayList<>(batch.notifications.values());
+            try {
+                Long unread = notificationRepository.countUnreadByUserId(userId);
+                for (int from = 0; from < notifications.size(); from += maxBatchSize) {
+                    NotificationBatch message = new NotificationBatch();
+                    message.setNotifications(notifications.subList(from, Math.min(from + maxBatchSize, notifications.size())));
+                    message.setUnreadCount(unread);
+                    messagingTemplate.convertAndSendToUser(batch.username, DESTINATION, message);
+                }
+                // With a live session here the WebSocket delivery counts; otherwise PushDeliveryWorker sends a device push
+                if (presenceRegistry.isOnline(userId)) {
+                    List<Long> ids = new ArrayList<>(batch.notifications.keySet());
+                    transactionTemplate.executeWithoutResult(status ->
+                            notificationRepository.markNotificationsAsPushed(ids, LocalDateTime.now()));
+                }
+            } catch (Exception e) {
+                System.err.println("Failed to push notifications to user " + userId + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static class PendingBatch {
+        private final String username;
+        // By notification id, so an update within the window replaces the earlier version
+        private final Map<Long, Map<String, Object>> notifications = new LinkedHashMap<>();
+
+        private PendingBatch(String username) {
+            this.username = username;
+        }
+    }
+
+    public static class NotificationBatch {
+        private List<Map<String, Object>> notifications;
+        private Long unreadCount;
+
+        // Getters and setters
+        public List<Map<String, Object>> getNotifications() { return notifications; }
+        public void setNotifications(List<Map<String, Object>> notifications) { this.notifications = notifications; }
+
+        public Long getUnreadCount() { return unreadCount; }
+        public void setUnreadCount(Long unreadCount) { this.unreadCount = unreadCount; }
+    }
+
+    public static class NotificationUpdate {
+        private String action;
+        private int affected;
+        private List<Long> ids;
+        private String notificationType;
+        private Long chatId;
+        private Long unreadCount;
+
+        // Getters and setters
+        public String getAction() { return action; }
+        public void setAction(String action) { this.action = action; }
+
+        public int getAffected() { return affected; }
+        public void setAffected(int affected) { this.affected = affected; }
+
+        public List<Long> getIds() { return ids; }
+        public void setIds(List<Long> ids) { this.ids = ids; }
+
+        public String getNotificationType() { return notificationType; }
+        public void setNotificationType(String notificationType) { this.notificationType = notificationType; }
+
+        public Long getChatId() { return chatId; }
+        public void setChatId(Long chatId) { this.chatId = chatId; }
+
+        public Long getUnreadCount() { return unreadCount; }
+        public void setUnreadCount(Long unreadCount) { this.unreadCount = unreadCount; }
+    }
+}
@@ -0,0 +1,404 @@
+package com.zephyros.urbanup.websocket;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.annotation.JsonRawValue;
+import com.fasterxml.jackson.annotation.JsonSetter;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Bounded per-user queue of real-time events published while the user had no live session.
+ *
+ * Events are serialized when queued and delivered as one {@link OfflineBatch} when the client
+ * subscribes to {@code /app/offline-events} after reconnecting. Each user keeps at most
+ * {@code max-events-per-user} events in memory, and events older than the TTL are discarded. With
+ * Redis spill enabled, events pushed out of memory (by the per-user cap or the LRU over users) move
+ * to a capped Redis list instead of being dropped. Whenever events are lost the batch is flagged as
+ * truncated so the client falls back to a full re-fetch. Events carrying a collapse key replace the
+ * queued event with the same key, in memory and in Redis.
+ *
+ * With the Redis cluster bridge the reconnect may land on any node, so every event goes straight to
+ * the user's Redis list and nothing is kept in memory.
+ */
+@Component
+public class OfflineDeliveryQueue {
+
+    private static final String REDIS_KEY_PREFIX = "urbanup:offline:";
+
+    // KEYS: list, collapse hash, truncated flag, queued marker
+    // ARGV: event, collapse key or '', max events, ttl ms
+    private static final DefaultRedisScript<Long> PUSH_SCRIPT = new DefaultRedisScript<>(
+        "if ARGV[2] ~= '' then\n"
+        + "  local previous = redis.call('HGET', KEYS[2], ARGV[2])\n"
+        + "  if previous then redis.call('LREM', KEYS[1], 1, previous) end\n"
+        + "  redis.call('HSET', KEYS[2], ARGV[2], ARGV[1])\n"
+        + "  redis.call('PEXPIRE', KEYS[2], ARGV[4])\n"
+        + "end\n"
+        + "local size = redis.call('RPUSH', KEYS[1], ARGV[1])\n"
+        + "if size > tonumber(ARGV[3]) then\n"
+        + "  redis.call('LTRIM', KEYS[1], -tonumber(ARGV[3]), -1)\n"
+        + "  redis.call('SET', KEYS[3], '1', 'PX', ARGV[4])\n"
+        + "end\n"
+        + "redis.call('PEXPIRE', KEYS[1], ARGV[4])\n"
+        + "redis.call('SET', KEYS[4], '1', 'PX', 2 * tonumber(ARGV[4]))\n"
+        + "return size",
+        Long.class);
+
+    // KEYS: list, collapse hash; ARGV: collapse key
+    private static final DefaultRedisScript<Long> COLLAPSE_SCRIPT = new DefaultRedisScript<>(
+        "local previous = redis.call('HGET', KEYS[2], ARGV[1])\n"
+        + "if not previous then return 0 end\n"
+        + "redis.call('HDEL', KEYS[2], ARGV[1])\n"
+        + "return redis.call('LREM', KEYS[1], 1, previous)",
+        Long.class);
+
+    // KEYS: list, collapse hash, truncated flag, queued marker
+    // Returns the truncated flag followed by the events; the list outliving its marker means it expired
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> DRAIN_SCRIPT = new DefaultRedisScript<>(
+        "local events = redis.call('LRANGE', KEYS[1], 0, -1)\n"
+        + "local truncated = redis.call('DEL', KEYS[3])\n"
+        + "local queued = redis.call('DEL', KEYS[4])\n"
+        + "if queued == 1 and #events == 0 then truncated = 1 end\n"
+        + "redis.call('DEL', KEYS[1], KEYS[2])\n"
+        + "table.insert(events, 1, tostring(truncated))\n"
+        + "return events",
+        List.class);
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired(required = false)
+    private StringRedisTemplate redisTemplate;
+
+    // Present only in redis broker mode
+    @Autowired(required = false)
+    private ClusterBrokerBridge clusterBridge;
+
+    @Value("${urbanup.websocket.offline.max-events-per-user:200}")
+    private int maxEventsPerUser;
+
+    @Value("${urbanup.websocket.offline.ttl-ms:86400000}")
+    private long ttlMillis;
+
+    @Value("${urbanup.websocket.offline.redis-spill.enabled:false}")
+    private boolean redisSpill;
+
+    // Also the per-user cap when every event is kept in Redis
+    @Value("${urbanup.websocket.offline.redis-spill.max-events-per-user:1000}")
+    private int maxSpilledEventsPerUser;
+
+    private final Map<Long, UserQueue> queues;
+
+    // Events pushed out of memory under the queues lock, spilled once it is released
+    private final List<Overflow> overflow = new ArrayList<>();
+
+    // Users who lost events after their queue was evicted or expired; guarded by the queues lock
+    private final Map<Long, Boolean> lostUsers;
+
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong spilled = new AtomicLong();
+
+    public OfflineDeliveryQueue(@Value("${urbanup.websocket.offline.max-users:100000}") int maxUsers) {
+        this.queues = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, UserQueue> eldest) {
+                if (size() <= maxUsers) {
+                    return false;
+                }
+                for (OfflineEvent event : eldest.getValue().events) {
+                    overflow.add(new Overflow(eldest.getKey(), event));
+                }
+                return true;
+            }
+        };
+        this.lostUsers = new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+                return size() > maxUsers;
+            }
+        };
+    }
+
+    /**
+     * Queue an event for a user who is offline; a non-null collapseKey replaces an older queued event
+     */
+    public void enqueue(Long userId, String type, String destination, Object payload, String collapseKey) {
+        OfflineEvent event = new OfflineEvent();
+        event.setType(type);
+        event.setDestination(destination);
+        event.setCollapseKey(collapseKey);
+        event.setQueuedAt(System.currentTimeMillis());
+        try {
+            event.setPayload(objectMapper.writeValueAsString(payload));
+        } catch (Exception e) {
+            System.err.println("Failed to queue offline event: " + e.getMessage());
+            return;
+        }
+
+        if (isClustered()) {
+            if (pushToRedis(userId, event)) {
+                enqueued.incrementAndGet();
+            } else {
+                dropped.incrementAndGet();
+            }
+            return;
+        }
+        if (collapseKey != null && redisSpill && redisTemplate != null) {
+            collapseSpilled(userId, collapseKey);
+        }
+
+        List<Overflow> pushedOut;
+        synchronized (queues) {
+            UserQueue queue = queues.computeIfAbsent(userId, id -> new UserQueue());
+            if (collapseKey != null) {
+                queue.events.removeIf(queued -> collapseKey.equals(queued.getCollapseKey()));
+            }
+            queue.events.addLast(event);
+            while (queue.events.size() > maxEventsPerUser) {
+                overflow.add(new Overflow(userId, queue.events.pollFirst()));
+            }
+            pushedOut = overflow.isEmpty() ? List.of() : new ArrayList<>(overflow);
+            overflow.clear();
+        }
+        enqueued.incrementAndGet();
+        for (Overflow entry : pushedOut) {
+            spillOrDrop(entry.userId, entry.event);
+        }
+    }
+
+    /**
+     * Remove and return everything queued for a user, oldest first
+     */
+    public OfflineBatch drain(Long userId) {
+        OfflineBatch batch = new OfflineBatch();
+        List<OfflineEvent> events = new ArrayList<>();
+        long cutoff = System.currentTimeMillis() - ttlMillis;
+
+        // Spilled events are always older than the ones still in memory
+        if (isClustered() || (redisSpill && redisTemplate != null)) {
+            try {
+                String key = REDIS_KEY_PREFIX + userId;
+                List<?> result = redisTemplate.execute(DRAIN_SCRIPT,
+                    List.of(key, key + ":collapse", key + ":truncated", key + ":queued"));
+                if (result != null && !result.isEmpty()) {
+                    if (!"0".equals(result.get(0).toString())) {
+                        batch.setTruncated(true);
+                    }
+                    for (Object json : result.subList(1, result.size())) {
+                        events.add(objectMapper.readValue(json.toString(), OfflineEvent.class));
+                    }
+                }
+            } catch (Exception e) {
+                System.err.println("Failed to read spilled offline events: " + e.getMessage());
+                batch.setTruncated(true);
+            }
+        }
+
+        UserQueue queue;
+        synchronized (queues) {
+            queue = queues.remove(userId);
+            if (lostUsers.remove(userId) != null) {
+                batch.setTruncated(true);
+            }
+        }
+        if (queue != null) {
+            events.addAll(queue.events);
+            batch.setTruncated(batch.isTruncated() || queue.truncated);
+        }
+
+        List<OfflineEvent> fresh = new ArrayList<>(events.size());
+        for (OfflineEvent event : events) {
+            if (event.getQueuedAt() >= cutoff) {
+                fresh.add(event);
+            } else {
+                batch.setTruncated(true);
+            }
+        }
+        batch.setEvents(fresh);
+        delivered.addAndGet(fresh.size());
+        return batch;
+    }
+
+    /**
+     * Drop expired events from memory; spilled events expire through the Redis key TTL
+     */
+    @Scheduled(fixedDelayString = "${urbanup.websocket.offline.sweep-interval-ms:60000}")
+    public void expireStaleEvents() {
+        long cutoff = System.currentTimeMillis() - ttlMillis;
+        synchronized (queues) {
+            Iterator<Map.Entry<Long, UserQueue>> it = queues.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Long, UserQueue> entry = it.next();
+                UserQueue queue = entry.getValue();
+                while (!queue.events.isEmpty() && queue.events.peekFirst().getQueuedAt() < cutoff) {
+                    queue.events.pollFirst();
+                    queue.truncated = true;
+                    dropped.incrementAndGet();
+                }
+                if (queue.events.isEmpty()) {
+                    it.remove();
+                    lostUsers.put(entry.getKey(), Boolean.TRUE);
+                }
+            }
+        }
+    }
+
+    public OfflineQueueStats getStats() {
+        OfflineQueueStats stats = new OfflineQueueStats();
+        synchronized (queues) {
+            stats.setUsers(queues.size());
+        }
+        stats.setEnqueued(enqueued.get());
+        stats.setDelivered(delivered.get());
+        stats.setDropped(dropped.get());
+        stats.setSpilled(spilled.get());
+        return stats;
+    }
+
+    private boolean isClustered() {
+        return clusterBridge != null && redisTemplate != null;
+    }
+
+    /**
+     * Append an event to the user's Redis list, replacing a queued event with the same collapse key
+     */
+    private boolean pushToRedis(Long userId, OfflineEvent event) {
+        try {
+            String key = REDIS_KEY_PREFIX + userId;
+            redisTemplate.execute(PUSH_SCRIPT,
+                List.of(key, key + ":collapse", key + ":truncated", key + ":queued"),
+                objectMapper.writeValueAsString(event),
+                event.getCollapseKey() != null ? event.getCollapseKey() : "",
+                String.valueOf(maxSpilledEventsPerUser),
+                String.valueOf(ttlMillis));
+            return true;
+        } catch (Exception e) {
+            System.err.println("Failed to push offline event to Redis: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void collapseSpilled(Long userId, String collapseKey) {
+        try {
+            String key = REDIS_KEY_PREFIX + userId;
+            redisTemplate.execute(COLLAPSE_SCRIPT, List.of(key, key + ":collapse"), collapseKey);
+        } catch (Exception e) {
+            // The older event is delivered as well; the client keeps the newest one
+            System.err.println("Failed to collapse spilled offline event: " + e.getMessage());
+        }
+    }
+
+    private void spillOrDrop(Long userId, OfflineEvent event) {
+        if (redisSpill && redisTemplate != null && pushToRedis(userId, event)) {
+            spilled.incrementAndGet();
+            return;
+        }
+        dropped.incrementAndGet();
+        synchronized (queues) {
+            UserQueue queue = queues.get(userId);
+            if (queue != null) {
+                queue.truncated = true;
+            } else {
+                lostUsers.put(userId, Boolean.TRUE);
+            }
+        }
+    }
+
+    private static class Overflow {
+        private final Long userId;
+        private final OfflineEvent event;
+
+        private Overflow(Long userId, OfflineEvent event) {
+            this.userId = userId;
+            this.event = event;
+        }
+    }
+
+    private static class UserQueue {
+        private final ArrayDeque<OfflineEvent> events = new ArrayDeque<>();
+        private boolean truncated;
+    }
+
+    public static class OfflineEvent {
+        private String type;
+        private String destination;
+        private String payload;
+        private String collapseKey;
+        private long queuedAt;
+
+        // Getters and setters
+        public String getType() { return type; }
+        public void setType(String type) { this.type = type; }
+
+        public String getDestination() { return destination; }
+        public void setDestination(String destination) { this.destination = destination; }
+
+        // Already serialized JSON, embedded as-is
+        @JsonRawValue
+        public String getPayload() { return payload; }
+        public void setPayload(String payload) { this.payload = payload; }
+
+        // Read back from the Redis spill list, where the payload is stored as nested JSON
+        @JsonSetter("payload")
+        public void setPayloadJson(JsonNode payload) { this.payload = payload.toString(); }
+
+        public String getCollapseKey() { return collapseKey; }
+        public void setCollapseKey(String collapseKey) { this.collapseKey = collapseKey; }
+
+        public long getQueuedAt() { return queuedAt; }
+        public void setQueuedAt(long queuedAt) { this.queuedAt = queuedAt; }
+    }
+
+    public static class OfflineBatch {
+        private List<OfflineEvent> events;
+        private boolean truncated;
+
+        // Getters and setters
+        public List<OfflineEvent> getEvents() { return events; }
+        public void setEvents(List<OfflineEvent> events) { this.events = events; }
+
+        public boolean isTruncated() { return truncated; }
+        public void setTruncated(boolean truncated) { this.truncated = truncated; }
+    }
+
+    public static class OfflineQueueStats {
+        private int users;
+        private long enqueued;
+        private long delivered;
+        private long dropped;
+        private long spilled;
+
+        // Getters and setters
+        public int getUsers() { return users; }
+        public void setUsers(int users) { this.users = users; }
+
+        public long getEnqueued() { return enqueued; }
+        public void setEnqueued(long enqueued) { this.enqueued = enqueued; }
+
+        public long getDelivered() { return delivered; }
+        public void setDelivered(long delivered) { this.delivered = delivered; }
+
+        public long getDropped() { return dropped; }
+        public void setDropped(long dropped) { this.dropped = dropped; }
+
+        public long getSpilled() { return spilled; }
+        public void setSpilled(long spilled) { this.spilled = spilled; }
+    }
+}
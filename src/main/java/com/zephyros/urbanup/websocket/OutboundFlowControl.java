@@ -0,0 +1,221 @@
+package com.zephyros.urbanup.websocket;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ExecutorChannelInterceptor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.handler.WebSocketHandlerDecoratorFactory;
+
+/**
+ * Slow-consumer policy for the client outbound channel.
+ *
+ * Counts frames queued for each session between the broker handing them over and the transport
+ * writing them. Past the drop threshold, typing and presence frames for that session are discarded
+ * since the next update supersedes them; past the disconnect threshold the session is closed so the
+ * client reconnects and resyncs instead of pinning outbound threads. Send buffer and time limits on
+ * the transport itself are configured in WebSocketConfig.
+ */
+@Component
+public class OutboundFlowControl implements ExecutorChannelInterceptor, WebSocketHandlerDecoratorFactory {
+
+    // Created by the broker configuration itself, hence lazy
+    @Autowired
+    @Lazy
+    @Qualifier("clientOutboundChannelExecutor")
+    private ThreadPoolTaskExecutor outboundExecutor;
+
+    @Value("${urbanup.websocket.outbound.drop-threshold:50}")
+    private int dropThreshold;
+
+    @Value("${urbanup.websocket.outbound.disconnect-threshold:500}")
+    private int disconnectThreshold;
+
+    private final Map<String, WebSocketSession> sessions = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> pending = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> dropped = new ConcurrentHashMap<>();
+    private final AtomicLong disconnected = new AtomicLong();
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+        AtomicInteger queued = sessionId != null ? pending.get(sessionId) : null;
+        if (queued == null) {
+            return message;
+        }
+        int depth = queued.get();
+        if (depth >= dropThreshold && SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) == SimpMessageType.MESSAGE) {
+            String type = destinationType(SimpMessageHeaderAccessor.getDestination(message.getHeaders()));
+            if (depth >= disconnectThreshold) {
+                countDrop(type);
+                disconnect(sessionId);
+                return null;
+            }
+            if ("typing".equals(type) || "presence".equals(type)) {
+                countDrop(type);
+                return null;
+            }
+        }
+        queued.incrementAndGet();
+        return message;
+    }
+
+    @Override
+    public void afterSendCompletion(Message<?> message, MessageChannel channel, boolean sent, Exception ex) {
+        if (!sent || ex != null) {
+            // Rejected by the bounded outbound executor, so it never reaches afterMessageHandled
+            release(message);
+            if (ex != null) {
+                countDrop(destinationType(SimpMessageHeaderAccessor.getDestination(message.getHeaders())));
+            }
+        }
+    }
+
+    @Override
+    public void afterMessageHandled(Message<?> message, MessageChannel channel, MessageHandler handler, Exception ex) {
+        release(message);
+    }
+
+    /**
+     * Track open sessions so slow ones can be closed
+     */
+    @Override
+    public WebSocketHandler decorate(WebSocketHandler handler) {
+        return new WebSocketHandlerDecorator(handler) {
+            @Override
+            public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+                sessions.put(session.getId(), session);
+                pending.put(session.getId(), new AtomicInteger());
+                super.afterConnectionEstablished(session);
+            }
+
+            @Override
+            public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+                sessions.remove(session.getId());
+                pending.remove(session.getId());
+                super.afterConnectionClosed(session, closeStatus);
+            }
+        };
+    }
+
+    public OutboundStats getStats() {
+        OutboundStats stats = new OutboundStats();
+        int total = 0;
+        int max = 0;
+        for (AtomicInteger queued : pending.values()) {
+            int depth = queued.get();
+            total += depth;
+            max = Math.max(max, depth);
+        }
+        stats.setSessions(sessions.size());
+        stats.setPendingFrames(total);
+        stats.setMaxSessionPendingFrames(max);
+        stats.setExecutorQueueDepth(outboundExecutor.getQueueSize());
+        stats.setExecutorActiveThreads(outboundExecutor.getActiveCount());
+        Map<String, Long> droppedByType = new LinkedHashMap<>();
+        dropped.forEach((type, count) -> droppedByType.put(type, count.get()));
+        stats.setDroppedFrames(droppedByType);
+        stats.setDisconnectedSessions(disconnected.get());
+        return stats;
+    }
+
+    private void release(Message<?> message) {
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+        AtomicInteger queued = sessionId != null ? pending.get(sessionId) : null;
+        if (queued != null) {
+            queued.updateAndGet(depth -> depth > 0 ? depth - 1 : 0);
+        }
+    }
+
+    private void disconnect(String sessionId) {
+        WebSocketSession session = sessions.remove(sessionId);
+        if (session == null) {
+            return; // Already being closed
+        }
+        disconnected.incrementAndGet();
+        try {
+            session.close(CloseStatus.SESSION_NOT_RELIABLE);
+        } catch (IOException e) {
+            System.err.println("Failed to close slow WebSocket session " + sessionId + ": " + e.getMessage());
+        }
+    }
+
+    private void countDrop(String type) {
+        dropped.computeIfAbsent(type, t -> new AtomicLong()).incrementAndGet();
+    }
+
+    /**
+     * Coarse destination category used for the drop policy and metrics
+     */
+    static String destinationType(String destination) {
+        if (destination == null) {
+            return "other";
+        }
+        if (destination.startsWith("/topic/chat/")) {
+            if (destination.endsWith("/typing")) {
+                return "typing";
+            }
+            if (destination.endsWith("/presence")) {
+                return "presence";
+            }
+            if (destination.endsWith("/read")) {
+                return "read";
+            }
+            return "chat";
+        }
+        if (destination.startsWith("/user/") || destination.startsWith("/queue/")) {
+            return "user";
+        }
+        return "other";
+    }
+
+    public static class OutboundStats {
+        private int sessions;
+        private int pendingFrames;
+        private int maxSessionPendingFrames;
+        private int executorQueueDepth;
+        private int executorActiveThreads;
+        private Map<String, Long> droppedFrames;
+        private long disconnectedSessions;
+
+        // Getters and setters
+        public int getSessions() { return sessions; }
+        public void setSessions(int sessions) { this.sessions = sessions; }
+
+        public int getPendingFrames() { return pendingFrames; }
+        public void setPendingFrames(int pendingFrames) { this.pendingFrames = pendingFrames; }
+
+        public int getMaxSessionPendingFrames() { return maxSessionPendingFrames; }
+        public void setMaxSessionPendingFrames(int maxSessionPendingFrames) { this.maxSessionPendingFrames = maxSessionPendingFrames; }
+
+        public int getExecutorQueueDepth() { return executorQueueDepth; }
+        public void setExecutorQueueDepth(int executorQueueDepth) { this.executorQueueDepth = executorQueueDepth; }
+
+        public int getExecutorActiveThreads() { return executorActiveThreads; }
+        public void setExecutorActiveThreads(int executorActiveThreads) { this.executorActiveThreads = executorActiveThreads; }
+
+        public Map<String, Long> getDroppedFrames() { return droppedFrames; }
+        public void setDroppedFrames(Map<String, Long> droppedFrames) { this.droppedFrames = droppedFrames; }
+
+        public long getDisconnectedSessions() { return disconnectedSessions; }
+        public void setDisconnectedSessions(long disconnectedSessions) { this.disconnectedSessions = disconnectedSessions; }
+    }
+}
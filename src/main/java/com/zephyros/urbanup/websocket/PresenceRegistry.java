@@ -0,0 +1,550 @@
+package com.zephyros.urbanup.websocket;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionConnectEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+/**
+ * Server-side presence for users connected to this node.
+ *
+ * Users are online while they hold at least one STOMP session. Sessions are tracked from the
+ * connect/disconnect events, and every inbound frame (including STOMP heartbeats) pushes the
+ * user's expiry forward so sessions that vanish without a disconnect still go offline.
+ * Entries live in independently locked shards, and expiry uses a one-second timing wheel so
+ * each tick only looks at the users due in that second. Status changes are collected per chat
+ * and broadcast as one delta per chat per flush interval. Subscriptions to a chat's message topic
+ * are tracked too, so callers can tell whether a user currently has the chat open.
+ *
+ * With the Redis cluster bridge, each node also records its online users in a per-user Redis hash
+ * (node id to expiry), refreshed on a timer, so {@link #isOnline} answers for the whole cluster.
+ */
+@Component
+public class PresenceRegistry {
+
+    public static final String STATUS_ONLINE = "online";
+    public static final String STATUS_AWAY = "away";
+    public static final String STATUS_BUSY = "busy";
+    public static final String STATUS_OFFLINE = "offline";
+
+    private static final int SHARD_COUNT = 64;
+
+    private static final Pattern CHAT_TOPIC = Pattern.compile("^/topic/chat/(\\d+)$");
+
+    private static final String REDIS_KEY_PREFIX = "urbanup:presence:";
+
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+
+    // Present only in redis broker mode
+    @Autowired(required = false)
+    private ClusterBrokerBridge clusterBridge;
+
+    @Autowired(required = false)
+    private StringRedisTemplate redisTemplate;
+
+    private final long ttlMillis;
+
+    private final Shard[] shards = new Shard[SHARD_COUNT];
+
+    // sessionId -> userId
+    private final Map<String, Long> sessionUsers = new ConcurrentHashMap<>();
+
+    // Slot i holds entries due to be checked in a second s where s % wheel.length == i
+    private final ConcurrentLinkedQueue<PresenceEntry>[] wheel;
+    private long lastTickSecond;
+
+    // chatId -> userId -> latest status since the last flush
+    private final Map<Long, Map<Long, String>> pendingDeltas = new ConcurrentHashMap<>();
+
+    @SuppressWarnings("unchecked")
+    public PresenceRegistry(@Value("${urbanup.websocket.presence.ttl-ms:45000}") long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            shards[i] = new Shard();
+        }
+        wheel = new ConcurrentLinkedQueue[(int) (ttlMillis / 1000) + 2];
+        for (int i = 0; i < wheel.length; i++) {
+            wheel[i] = new ConcurrentLinkedQueue<>();
+        }
+        lastTickSecond = System.currentTimeMillis() / 1000;
+    }
+
+    @EventListener
+    public void onSessionConnect(SessionConnectEvent event) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(event.getMessage());
+        WebSocketPrincipal principal = WebSocketPrincipal.from(accessor);
+        if (principal != null && accessor.getSessionId() != null) {
+            register(accessor.getSessionId(), principal);
+        }
+    }
+
+    @EventListener
+    public void onSessionDisconnect(SessionDisconnectEvent event) {
+        // Published for both the DISCONNECT frame and the transport close; only the first one counts
+        Long userId = sessionUsers.remove(event.getSessionId());
+        if (userId == null) {
+            return;
+        }
+        Shard shard = shardFor(userId);
+        synchronized (shard) {
+            PresenceEntry entry = shard.entries.get(userId);
+            if (entry == null) {
+                return;
+            }
+            entry.sessions.remove(event.getSessionId());
+            entry.chatSubscriptions.remove(event.getSessionId());
+            if (!entry.sessions.isEmpty()) {
+                return;
+            }
+            shard.entries.remove(userId);
+            queueDelta(entry, STATUS_OFFLINE);
+        }
+        clearClusterPresence(userId);
+    }
+
+    @EventListener
+    public void onSubscribe(SessionSubscribeEvent event) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(event.getMessage());
+        String destination = accessor.getDestination();
+        Matcher chatTopic = destination != null ? CHAT_TOPIC.matcher(destination) : null;
+        if (chatTopic == null || !chatTopic.matches()) {
+            return;
+        }
+        Long chatId = Long.valueOf(chatTopic.group(1));
+        withSessionEntry(accessor.getSessionId(), entry ->
+            entry.chatSubscriptions.computeIfAbsent(accessor.getSessionId(), id -> new HashMap<>())
+                .put(accessor.getSubscriptionId(), chatId));
+    }
+
+    @EventListener
+    public void onUnsubscribe(SessionUnsubscribeEvent event) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(event.getMessage());
+        withSessionEntry(accessor.getSessionId(), entry -> {
+            Map<String, Long> subscriptions = entry.chatSubscriptions.get(accessor.getSessionId());
+            if (subscriptions != null) {
+                subscriptions.remove(accessor.getSubscriptionId());
+            }
+        });
+    }
+
+    /**
+     * Whether any of the user's sessions on this node is subscribed to the chat's messages
+     */
+    public boolean isViewingChat(Long userId, Long chatId) {
+        Shard shard = shardFor(userId);
+        synchronized (shard) {
+            PresenceEntry entry = shard.entries.get(userId);
+            if (entry == null) {
+                return false;
+            }
+            for (Map<String, Long> subscriptions : entry.chatSubscriptions.values()) {
+                if (subscriptions.containsValue(chatId)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Record activity on a session; called for every inbound frame, heartbeats included
+     */
+    public void touch(SimpMessageHeaderAccessor accessor) {
+        String sessionId = accessor.getSessionId();
+        if (sessionId == null) {
+            return;
+        }
+        Long userId = sessionUsers.get(sessionId);
+        if (userId == null) {
+            // Expired while the session stayed open; bring it back
+            WebSocketPrincipal principal = WebSocketPrincipal.from(accessor);
+            if (principal != null) {
+                register(sessionId, principal);
+            }
+            return;
+        }
+        Shard shard = shardFor(userId);
+        synchronized (shard) {
+            PresenceEntry entry = shard.entries.get(userId);
+            if (entry != null) {
+                entry.lastSeenAt = System.currentTimeMillis();
+                entry.expiresAt = entry.lastSeenAt + ttlMillis;
+            }
+        }
+    }
+
+    /**
+     * Set a client-reported status (online, away or busy) for a connected user
+     */
+    public boolean updateStatus(Long userId, String status) {
+        if (status == null) {
+            return false;
+        }
+        String normalized = status.toLowerCase();
+        if (!STATUS_ONLINE.equals(normalized) && !STATUS_AWAY.equals(normalized) && !STATUS_BUSY.equals(normalized)) {
+            return false;
+        }
+        Shard shard = shardFor(userId);
+        synchronized (shard) {
+            PresenceEntry entry = shard.entries.get(userId);
+            if (entry == null) {
+                return false;
+            }
+            if (!normalized.equals(entry.status)) {
+                entry.status = normalized;
+                queueDelta(entry, normalized);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Look up the presence of several users at once; users without a session are offline
+     */
+    public List<PresenceView> lookup(List<Long> userIds) {
+        List<PresenceView> result = new ArrayList<>(userIds.size());
+        for (Long userId : userIds) {
+            PresenceView view = new PresenceView();
+            view.setUserId(userId);
+            view.setStatus(STATUS_OFFLINE);
+
+            Shard shard = shardFor(userId);
+            synchronized (shard) {
+                PresenceEntry entry = shard.entries.get(userId);
+                if (entry != null) {
+                    view.setStatus(entry.status);
+                    view.setLastSeenAt(toDateTime(entry.lastSeenAt));
+                }
+            }
+            result.add(view);
+        }
+        return result;
+    }
+
+    /**
+     * Whether the user has a live session on this node or, with the cluster bridge, on any node
+     */
+    public boolean isOnline(Long userId) {
+        Shard shard = shardFor(userId);
+        synchronized (shard) {
+            if (shard.entries.containsKey(userId)) {
+                return true;
+            }
+        }
+        if (!isClustered()) {
+            return false;
+        }
+        try {
+            long now = System.currentTimeMillis();
+            for (Object expiresAt : redisTemplate.opsForHash().values(REDIS_KEY_PREFIX + userId)) {
+                if (Long.parseLong(expiresAt.toString()) > now) {
+                    return true;
+                }
+            }
+        } catch (Exception e) {
+            // Treated as offline, so the event is queued or pushed rather than lost
+            System.err.println("Failed to read cluster presence: " + e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Re-publish this node's online users to Redis before their cluster entries expire
+     */
+    @Scheduled(fixedDelayString = "${urbanup.websocket.presence.cluster-refresh-ms:15000}")
+    public void refreshClusterPresence() {
+        if (!isClustered()) {
+            return;
+        }
+        List<Long> userIds = new ArrayList<>();
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                userIds.addAll(shard.entries.keySet());
+            }
+        }
+        if (userIds.isEmpty()) {
+            return;
+        }
+        try {
+            String expiresAt = String.valueOf(System.currentTimeMillis() + ttlMillis);
+            redisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings({"unchecked", "rawtypes"})
+                public Object execute(RedisOperations operations) {
+                    for (Long userId : userIds) {
+                        String key = REDIS_KEY_PREFIX + userId;
+                        operations.opsForHash().put(key, clusterBridge.getNodeId(), expiresAt);
+                        operations.expire(key, ttlMillis, TimeUnit.MILLISECONDS);
+                    }
+                    return null;
+                }
+            });
+        } catch (Exception e) {
+            System.err.println("Failed to refresh cluster presence: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Advance the timing wheel, expiring users whose sessions stopped sending frames
+     */
+    @Scheduled(fixedRate = 1000)
+    public void expireIdleSessions() {
+        long now = System.currentTimeMillis();
+        long nowSecond = now / 1000;
+        // After a long pause one lap of the wheel covers every slot
+        long from = Math.max(lastTickSecond + 1, nowSecond - wheel.length + 1);
+        for (long second = from; second <= nowSecond; second++) {
+            ConcurrentLinkedQueue<PresenceEntry> slot = wheel[(int) (second % wheel.length)];
+            // Only the entries present now; re-scheduled entries may land in this same slot
+            int due = slot.size();
+            for (int i = 0; i < due; i++) {
+                PresenceEntry entry = slot.poll();
+                if (entry == null) {
+                    break;
+                }
+                if (checkExpiry(entry, now)) {
+                    clearClusterPresence(entry.userId);
+                }
+            }
+        }
+        lastTickSecond = nowSecond;
+    }
+
+    /**
+     * Broadcast the presence changes collected since the last flush, one message per chat
+     */
+    @Scheduled(fixedDelayString = "${urbanup.websocket.presence.flush-interval-ms:1000}")
+    public void flushDeltas() {
+        for (Long chatId : pendingDeltas.keySet()) {
+            Map<Long, String> changes = pendingDeltas.remove(chatId);
+            if (changes == null || changes.isEmpty()) {
+                continue;
+            }
+            PresenceDelta delta = new PresenceDelta();
+            delta.setChatId(chatId);
+            delta.setChanges(changes);
+            delta.setTimestamp(LocalDateTime.now());
+            try {
+                messagingTemplate.convertAndSend("/topic/chat/" + chatId + "/presence", delta);
+            } catch (Exception e) {
+                System.err.println("Failed to broadcast presence delta: " + e.getMessage());
+            }
+        }
+    }
+
+    public int getOnlineUserCount() {
+        int count = 0;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                count += shard.entries.size();
+            }
+        }
+        return count;
+    }
+
+    public int getSessionCount() {
+        return sessionUsers.size();
+    }
+
+    private void register(String sessionId, WebSocketPrincipal principal) {
+        Long userId = principal.getUserId();
+        sessionUsers.put(sessionId, userId);
+        Shard shard = shardFor(userId);
+        boolean cameOnline;
+        synchronized (shard) {
+            long now = System.currentTimeMillis();
+            PresenceEntry entry = shard.entries.get(userId);
+            cameOnline = entry == null;
+            if (entry == null) {
+                entry = new PresenceEntry(userId);
+                entry.expiresAt = now + ttlMillis;
+                shard.entries.put(userId, entry);
+                schedule(entry);
+                entry.sessions.put(sessionId, principal);
+                queueDelta(entry, STATUS_ONLINE);
+            } else {
+                entry.sessions.put(sessionId, principal);
+                entry.expiresAt = now + ttlMillis;
+            }
+            entry.lastSeenAt = now;
+        }
+        if (cameOnline) {
+            publishClusterPresence(userId);
+        }
+    }
+
+    private boolean isClustered() {
+        return clusterBridge != null && redisTemplate != null;
+    }
+
+    private void publishClusterPresence(Long userId) {
+        if (!isClustered()) {
+            return;
+        }
+        try {
+            String key = REDIS_KEY_PREFIX + userId;
+            redisTemplate.opsForHash().put(key, clusterBridge.getNodeId(), String.valueOf(System.currentTimeMillis() + ttlMillis));
+            redisTemplate.expire(key, ttlMillis, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            System.err.println("Failed to publish cluster presence: " + e.getMessage());
+        }
+    }
+
+    private void clearClusterPresence(Long userId) {
+        if (!isClustered()) {
+            return;
+        }
+        try {
+            redisTemplate.opsForHash().delete(REDIS_KEY_PREFIX + userId, clusterBridge.getNodeId());
+        } catch (Exception e) {
+            System.err.println("Failed to clear cluster presence: " + e.getMessage());
+        }
+    }
+
+    private void withSessionEntry(String sessionId, Consumer<PresenceEntry> action) {
+        Long userId = sessionId != null ? sessionUsers.get(sessionId) : null;
+        if (userId == null) {
+            return;
+        }
+        Shard shard = shardFor(userId);
+        synchronized (shard) {
+            PresenceEntry entry = shard.entries.get(userId);
+            if (entry != null && entry.sessions.containsKey(sessionId)) {
+                action.accept(entry);
+            }
+        }
+    }
+
+    /**
+     * Expire the entry if it is still due; returns whether the user went offline
+     */
+    private boolean checkExpiry(PresenceEntry entry, long now) {
+        Shard shard = shardFor(entry.userId);
+        synchronized (shard) {
+            if (shard.entries.get(entry.userId) != entry) {
+                return false; // Already disconnected; a reconnect gets a new entry
+            }
+            if (entry.expiresAt > now) {
+                schedule(entry);
+                return false;
+            }
+            shard.entries.remove(entry.userId);
+            for (String sessionId : entry.sessions.keySet()) {
+                sessionUsers.remove(sessionId, entry.userId);
+            }
+            queueDelta(entry, STATUS_OFFLINE);
+            return true;
+        }
+    }
+
+    private void schedule(PresenceEntry entry) {
+        long second = entry.expiresAt / 1000 + 1;
+        wheel[(int) (second % wheel.length)].add(entry);
+    }
+
+    /**
+     * Record a status change for every chat the user's sessions are authorized for.
+     * Must be called while holding the user's shard lock.
+     */
+    private void queueDelta(PresenceEntry entry, String status) {
+        Set<Long> chatIds = new HashSet<>();
+        for (WebSocketPrincipal principal : entry.sessions.values()) {
+            chatIds.addAll(principal.getAuthorizedChatIds());
+        }
+        for (Long chatId : chatIds) {
+            // compute() keeps this atomic with the flush's remove(), so no change lands in a map already sent
+            pendingDeltas.compute(chatId, (id, changes) -> {
+                Map<Long, String> updated = changes != null ? changes : new HashMap<>();
+                updated.put(entry.userId, status);
+                return updated;
+            });
+        }
+    }
+
+    private Shard shardFor(Long userId) {
+        return shards[(Long.hashCode(userId) & Integer.MAX_VALUE) % SHARD_COUNT];
+    }
+
+    private static LocalDateTime toDateTime(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+    }
+
+    private static class Shard {
+        private final Map<Long, PresenceEntry> entries = new HashMap<>();
+    }
+
+    private static class PresenceEntry {
+        private final Long userId;
+        // sessionId -> principal of that session
+        private final Map<String, WebSocketPrincipal> sessions = new HashMap<>();
+        // sessionId -> subscriptionId -> chatId, for chat message topics
+        private final Map<String, Map<String, Long>> chatSubscriptions = new HashMap<>();
+        private String status = STATUS_ONLINE;
+        private long lastSeenAt;
+        private long expiresAt;
+
+        private PresenceEntry(Long userId) {
+            this.userId = userId;
+        }
+    }
+
+    public static class PresenceView {
+        private Long userId;
+        private String status;
+        private LocalDateTime lastSeenAt;
+
+        // Getters and setters
+        public Long getUserId() { return userId; }
+        public void setUserId(Long userId) { this.userId = userId; }
+
+        public String getStatus() { return status; }
+        public void setStatus(String status) { this.status = status; }
+
+        public LocalDateTime getLastSeenAt() { return lastSeenAt; }
+        public void setLastSeenAt(LocalDateTime lastSeenAt) { this.lastSeenAt = lastSeenAt; }
+    }
+
+    public static class PresenceDelta {
+        private Long chatId;
+        // userId -> new status
+        private Map<Long, String> changes;
+        private LocalDateTime timestamp;
+
+        // Getters and setters
+        public Long getChatId() { return chatId; }
+        public void setChatId(Long chatId) { this.chatId = chatId; }
+
+        public Map<Long, String> getChanges() { return changes; }
+        public void setChanges(Map<Long, String> changes) { this.changes = changes; }
+
+        public LocalDateTime getTimestamp() { return timestamp; }
+        public void setTimestamp(LocalDateTime timestamp) { this.timestamp = timestamp; }
+    }
+}
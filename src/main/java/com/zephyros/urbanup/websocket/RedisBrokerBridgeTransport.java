@@ -0,0 +1,75 @@
+package com.zephyros.urbanup.websocket;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Redis pub/sub transport for the WebSocket cluster bridge
+ */
+@Component
+@ConditionalOnProperty(name = "urbanup.websocket.broker.mode", havingValue = "redis")
+public class RedisBrokerBridgeTransport implements BrokerBridgeTransport {
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Autowired
+    private RedisConnectionFactory connectionFactory;
+
+    @Value("${urbanup.websocket.broker.redis.channel:urbanup:ws:broadcast}")
+    private String channel;
+
+    private RedisMessageListenerContainer listenerContainer;
+
+    private final Map<Consumer<String>, MessageListener> listeners = new ConcurrentHashMap<>();
+
+    @Override
+    public void publish(String envelope) {
+        redisTemplate.convertAndSend(channel, envelope);
+    }
+
+    @Override
+    public synchronized void subscribe(Consumer<String> listener) {
+        if (listenerContainer == null) {
+            listenerContainer = new RedisMessageListenerContainer();
+            listenerContainer.setConnectionFactory(connectionFactory);
+            listenerContainer.afterPropertiesSet();
+            listenerContainer.start();
+        }
+        MessageListener redisListener =
+            (message, pattern) -> listener.accept(new String(message.getBody(), StandardCharsets.UTF_8));
+        listeners.put(listener, redisListener);
+        listenerContainer.addMessageListener(redisListener, new ChannelTopic(channel));
+    }
+
+    @Override
+    public synchronized void unsubscribe(Consumer<String> listener) {
+        MessageListener redisListener = listeners.remove(listener);
+        if (redisListener != null && listenerContainer != null) {
+            listenerContainer.removeMessageListener(redisListener);
+        }
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() throws Exception {
+        if (listenerContainer != null) {
+            listeners.clear();
+            listenerContainer.destroy();
+            listenerContainer = null;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.zephyros.urbanup.websocket;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.zephyros.urbanup.service.RealtimeChatService.TypingIndicator;
+
+/**
+ * Keeps per-chat typing state in memory and coalesces typing frames into state transitions.
+ *
+ * Repeated "typing" frames only refresh the user's expiry. A started/stopped transition is broadcast
+ * at most once per chat per window; transitions inside the window are folded into the next update,
+ * which carries the full set of users still typing. Users who stop sending frames are expired by a
+ * sweep over chats that currently have someone typing.
+ */
+@Component
+public class TypingStateAggregator {
+
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+
+    @Autowired
+    @Qualifier("taskScheduler")
+    private TaskScheduler taskScheduler;
+
+    @Value("${urbanup.websocket.typing.window-ms:300}")
+    private long windowMillis;
+
+    @Value("${urbanup.websocket.typing.ttl-ms:5000}")
+    private long ttlMillis;
+
+    private final Map<Long, ChatTypingState> chats = new ConcurrentHashMap<>();
+
+    /**
+     * Record a typing frame from a user
+     */
+    public void onTyping(Long chatId, Long userId, boolean isTyping) {
+        long now = System.currentTimeMillis();
+        while (true) {
+            ChatTypingState state = isTyping
+                    ? chats.computeIfAbsent(chatId, id -> new ChatTypingState())
+                    : chats.get(chatId);
+            if (state == null) {
+                return; // Nobody typing in this chat, so "stopped" is not a transition
+            }
+
+            TypingIndicator update;
+            synchronized (state) {
+                if (state.retired) {
+                    continue; // Removed by the sweep concurrently; retry on a fresh state
+                }
+                boolean transition;
+                if (isTyping) {
+                    transition = state.typingUntil.put(userId, now + ttlMillis) == null;
+                } else {
+                    transition = state.typingUntil.remove(userId) != null;
+                }
+                if (!transition) {
+                    return;
+                }
+                state.markChanged(userId, isTyping);
+                update = emitOrSchedule(chatId, state, now);
+            }
+            send(update);
+            return;
+        }
+    }
+
+    /**
+     * Expire users whose typing state has not been refreshed within the TTL
+     */
+    @Scheduled(fixedDelayString = "${urbanup.websocket.typing.sweep-interval-ms:1000}")
+    public void expireStaleTyping() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Long, ChatTypingState> entry : chats.entrySet()) {
+            Long chatId = entry.getKey();
+            ChatTypingState state = entry.getValue();
+            TypingIndicator update = null;
+
+            synchronized (state) {
+                Iterator<Map.Entry<Long, Long>> it = state.typingUntil.entrySet().iterator();
+                while (it.hasNext()) {
+                    Map.Entry<Long, Long> typing = it.next();
+                    if (typing.getValue() <= now) {
+                        it.remove();
+                        state.markChanged(typing.getKey(), false);
+                    }
+                }
+                if (state.dirty) {
+                    update = emitOrSchedule(chatId, state, now);
+                }
+                if (state.typingUntil.isEmpty() && !state.dirty && !state.flushScheduled) {
+                    state.retired = true;
+                    chats.remove(chatId, state);
+                }
+            }
+            send(update);
+        }
+    }
+
+    /**
+     * Emit the pending update now if the chat's window has elapsed, otherwise make sure a flush is scheduled.
+     * Must be called while holding the state's lock.
+     */
+    private TypingIndicator emitOrSchedule(Long chatId, ChatTypingState state, long now) {
+        long nextAllowed = state.lastEmitAt + windowMillis;
+        if (now >= nextAllowed) {
+            return state.drain(chatId, now);
+        }
+        if (!state.flushScheduled) {
+            state.flushScheduled = true;
+            taskScheduler.schedule(() -> flush(chatId, state), Instant.ofEpochMilli(nextAllowed));
+        }
+        return null;
+    }
+
+    private void flush(Long chatId, ChatTypingState state) {
+        TypingIndicator update = null;
+        synchronized (state) {
+            state.flushScheduled = false;
+            if (state.dirty) {
+                update = state.drain(chatId, System.currentTimeMillis());
+            }
+        }
+        send(update);
+    }
+
+    private void send(TypingIndicator update) {
+        if (update == null) {
+            return;
+        }
+        try {
+            messagingTemplate.convertAndSend("/topic/chat/" + update.getChatId() + "/typing", update);
+        } catch (Exception e) {
+            System.err.println("Failed to broadcast typing indicator: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Number of chats that currently have typing state
+     */
+    public int getActiveChatCount() {
+        return chats.size();
+    }
+
+    private static class ChatTypingState {
+        // userId -> epoch millis at which the typing state expires
+        private final Map<Long, Long> typingUntil = new HashMap<>();
+        private long lastEmitAt;
+        private boolean dirty;
+        private boolean flushScheduled;
+        private boolean retired;
+        private Long lastChangedUserId;
+        private boolean lastChangedTyping;
+
+        private void markChanged(Long userId, boolean isTyping) {
+            dirty = true;
+            lastChangedUserId = userId;
+            lastChangedTyping = isTyping;
+        }
+
+        private TypingIndicator drain(Long chatId, long now) {
+            dirty = false;
+            lastEmitAt = now;
+
+            Set<Long> typingUserIds = new HashSet<>(typingUntil.keySet());
+            TypingIndicator indicator = new TypingIndicator();
+            indicator.setChatId(chatId);
+            indicator.setUserId(lastChangedUserId);
+            indicator.setIsTyping(lastChangedTyping);
+            indicator.setTypingUserIds(typingUserIds);
+            indicator.setTimestamp(LocalDateTime.now());
+            return indicator;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.zephyros.urbanup.websocket;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+
+import com.zephyros.urbanup.model.User;
+
+/**
+ * Compact view of the connected user, resolved once at STOMP CONNECT and kept in the
+ * WebSocket session attributes so message handlers never have to look the user up again.
+ */
+public class WebSocketPrincipal {
+
+    public static final String SESSION_ATTRIBUTE = "urbanup.principal";
+
+    private final Long userId;
+    private final String email;
+    private final String displayName;
+    private final boolean verified;
+
+    // Chats this session has been authorized for, with the time each check was made
+    private final Map<Long, Long> authorizedChatIds = new ConcurrentHashMap<>();
+
+    public WebSocketPrincipal(Long userId, String email, String displayName, boolean verified) {
+        this.userId = userId;
+        this.email = email;
+        this.displayName = displayName;
+        this.verified = verified;
+    }
+
+    public static WebSocketPrincipal create(User user) {
+        boolean verified = Boolean.TRUE.equals(user.getIsEmailVerified())
+                && Boolean.TRUE.equals(user.getIsPhoneVerified());
+        return new WebSocketPrincipal(user.getId(), user.getEmail(),
+                user.getFirstName() + " " + user.getLastName(), verified);
+    }
+
+    /**
+     * Get the principal stored for the session a message belongs to, or null if the session never authenticated
+     */
+    public static WebSocketPrincipal from(SimpMessageHeaderAccessor accessor) {
+        Map<String, Object> attributes = accessor.getSessionAttributes();
+        if (attributes == null) {
+            return null;
+        }
+        Object principal = attributes.get(SESSION_ATTRIBUTE);
+        return principal instanceof WebSocketPrincipal ? (WebSocketPrincipal) principal : null;
+    }
+
+    // Getters
+    public Long getUserId() { return userId; }
+
+    public String getEmail() { return email; }
+
+    public String getDisplayName() { return displayName; }
+
+    public boolean isVerified() { return verified; }
+
+    public Set<Long> getAuthorizedChatIds() { return authorizedChatIds.keySet(); }
+
+    // Helper methods
+    public boolean isAuthorizedFor(Long chatId) {
+        return authorizedChatIds.containsKey(chatId);
+    }
+
+    /**
+     * Whether the chat was authorized no earlier than the given time
+     */
+    public boolean isAuthorizedFor(Long chatId, long notBeforeMillis) {
+        Long authorizedAt = authorizedChatIds.get(chatId);
+        return authorizedAt != null && authorizedAt >= notBeforeMillis;
+    }
+
+    public void authorize(Long chatId) {
+        authorizedChatIds.put(chatId, System.currentTimeMillis());
+    }
+
+    public void authorizeAll(Collection<Long> chatIds) {
+        long now = System.currentTimeMillis();
+        chatIds.forEach(chatId -> authorizedChatIds.put(chatId, now));
+    }
+
+    public void revoke(Long chatId) {
+        authorizedChatIds.remove(chatId);
+    }
+
+    public void revokeAll() {
+        authorizedChatIds.clear();
+    }
+}
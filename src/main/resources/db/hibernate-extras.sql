@@ -0,0 +1,7 @@
+-- Schema objects JPA cannot declare, for databases whose schema Hibernate manages (ddl-auto update or
+-- create-drop). Runs on every startup outside production, after Hibernate; production gets the same
+-- objects from db/migration. Every statement must be safe to repeat.
+
+-- db/migration V10: one unread notification per user and collapse key
+UPDATE notifications n SET is_read = true, read_at = now() WHERE n.collapse_key IS NOT NULL AND n.is_read = false AND EXISTS (SELECT 1 FROM notifications newer WHERE newer.user_id = n.user_id AND newer.collapse_key = n.collapse_key AND newer.is_read = false AND newer.id > n.id);
+CREATE UNIQUE INDEX IF NOT EXISTS uk_notifications_user_collapse_key_unread ON notifications (user_id, collapse_key) WHERE is_read = false;
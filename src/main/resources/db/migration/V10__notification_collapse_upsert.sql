@@ -0,0 +1,27 @@
+-- One unread notification per user and collapse key, enforced by the database.
+-- NotificationService collapses new-message notifications with INSERT ... ON CONFLICT against the
+-- partial unique index below, and keeps notifications deferred while a chat is open in
+-- notification_deferred_messages instead of in memory.
+
+-- Earlier collapsing was a read followed by a write, so concurrent senders could leave several unread
+-- rows for one key; all but the newest are marked read so the unique index can be built
+UPDATE notifications n SET is_read = true, read_at = now()
+WHERE n.collapse_key IS NOT NULL AND n.is_read = false
+  AND EXISTS (SELECT 1 FROM notifications newer
+              WHERE newer.user_id = n.user_id AND newer.collapse_key = n.collapse_key
+                AND newer.is_read = false AND newer.id > n.id);
+
+CREATE UNIQUE INDEX IF NOT EXISTS uk_notifications_user_collapse_key_unread
+    ON notifications (user_id, collapse_key) WHERE is_read = false;
+
+CREATE TABLE IF NOT EXISTS notification_deferred_messages (
+    id bigint GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    user_id bigint NOT NULL,
+    chat_id bigint NOT NULL,
+    sender_name varchar(255),
+    preview text,
+    message_count integer NOT NULL,
+    first_at timestamp(6) NOT NULL,
+    last_at timestamp(6) NOT NULL,
+    CONSTRAINT uk_notification_deferred_messages_user_chat UNIQUE (user_id, chat_id)
+);
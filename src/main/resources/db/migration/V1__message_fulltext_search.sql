@@ -0,0 +1,6 @@
+-- Full-text search over chat messages.
+-- The tsvector is a generated column, so writers (JPA and the write-behind store) need no changes.
+-- Note: adding a stored generated column rewrites the messages table once.
+ALTER TABLE messages
+    ADD COLUMN IF NOT EXISTS content_tsv tsvector
+    GENERATED ALWAYS AS (to_tsvector('english', coalesce(content, ''))) STORED;
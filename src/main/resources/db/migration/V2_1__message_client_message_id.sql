@@ -0,0 +1,5 @@
+-- Client-generated message ids (ChatIngestionEngine drops resent frames by sender and client id).
+-- Runs before the partitioning in V3, which copies the column from the old table. The column is
+-- nullable without a default, so adding it does not rewrite messages.
+
+ALTER TABLE messages ADD COLUMN IF NOT EXISTS client_message_id varchar(64);
@@ -0,0 +1,3 @@
+-- GIN index for message search, built without blocking writes.
+-- Kept on its own because CREATE INDEX CONCURRENTLY cannot run inside a transaction.
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_messages_content_tsv ON messages USING GIN (content_tsv);
@@ -0,0 +1,83 @@
+-- Monthly range partitioning of chat messages on created_at.
+-- The table is rebuilt once: rows are copied into the partitioned table inside this migration's
+-- transaction, so on a large table run it in a maintenance window.
+-- Unique keys on a partitioned table must contain the partition key, so the primary key becomes
+-- (id, created_at), (sender_id, client_message_id) becomes a plain index, and the foreign key from
+-- message_attachments is dropped. Ids stay unique through the identity sequence.
+-- New partitions are created ahead of time by MessagePartitionMaintenance; old ones can be detached
+-- or moved into messages_archive by the same job.
+
+ALTER TABLE messages RENAME TO messages_legacy;
+
+DO $$
+DECLARE
+    fk record;
+BEGIN
+    FOR fk IN
+        SELECT conrelid::regclass AS table_name, conname
+        FROM pg_constraint
+        WHERE contype = 'f' AND confrelid = 'messages_legacy'::regclass
+    LOOP
+        EXECUTE format('ALTER TABLE %s DROP CONSTRAINT %I', fk.table_name, fk.conname);
+    END LOOP;
+END $$;
+
+CREATE TABLE messages (
+    LIKE messages_legacy INCLUDING DEFAULTS INCLUDING GENERATED INCLUDING IDENTITY INCLUDING CONSTRAINTS
+) PARTITION BY RANGE (created_at);
+
+-- One partition per month from the oldest message to three months ahead, plus a default partition
+-- for anything outside that range
+DO $$
+DECLARE
+    part_month date := date_trunc('month', coalesce((SELECT min(created_at) FROM messages_legacy), now()))::date;
+    last_month date := (date_trunc('month', now()) + interval '3 months')::date;
+BEGIN
+    WHILE part_month <= last_month LOOP
+        EXECUTE format('CREATE TABLE %I PARTITION OF messages FOR VALUES FROM (%L) TO (%L)',
+                       'messages_p' || to_char(part_month, 'YYYYMM'), part_month, (part_month + interval '1 month')::date);
+        part_month := (part_month + interval '1 month')::date;
+    END LOOP;
+END $$;
+
+CREATE TABLE messages_default PARTITION OF messages DEFAULT;
+
+INSERT INTO messages (id, chat_id, sender_id, content, message_type, is_read, is_system_message,
+                      created_at, read_at, system_message_data, client_message_id)
+SELECT id, chat_id, sender_id, content, message_type, is_read, is_system_message,
+       created_at, read_at, system_message_data, client_message_id
+FROM messages_legacy;
+
+SELECT setval(pg_get_serial_sequence('messages', 'id'), coalesce((SELECT max(id) FROM messages), 0) + 1, false);
+
+DROP TABLE messages_legacy;
+
+ALTER TABLE messages ADD CONSTRAINT messages_pkey PRIMARY KEY (id, created_at);
+ALTER TABLE messages ADD CONSTRAINT fk_messages_chat FOREIGN KEY (chat_id) REFERENCES chats (id);
+ALTER TABLE messages ADD CONSTRAINT fk_messages_sender FOREIGN KEY (sender_id) REFERENCES users (id);
+
+-- Indexes on the parent are created on every partition, including future ones
+CREATE INDEX idx_messages_chat_id_id ON messages (chat_id, id);
+CREATE INDEX idx_messages_sender_client_message_id ON messages (sender_id, client_message_id);
+CREATE INDEX idx_messages_content_tsv ON messages USING GIN (content_tsv);
+
+-- Archived messages, kept compact: no search vector or GIN index, and attachment URLs folded into
+-- an array instead of rows in message_attachments
+CREATE TABLE messages_archive (
+    id bigint NOT NULL,
+    chat_id bigint NOT NULL,
+    sender_id bigint,
+    content text,
+    message_type varchar(255) NOT NULL,
+    is_read boolean,
+    is_system_message boolean,
+    created_at timestamp(6) NOT NULL,
+    read_at timestamp(6),
+    system_message_data text,
+    client_message_id varchar(64),
+    attachment_urls text[],
+    archived_at timestamp(6) NOT NULL DEFAULT now(),
+    PRIMARY KEY (id, created_at)
+);
+
+CREATE INDEX idx_messages_archive_chat_id_id ON messages_archive (chat_id, id);
@@ -0,0 +1,15 @@
+-- Device push delivery state for notifications (PushDeliveryWorker).
+-- Nothing delivered device pushes before this, so every existing row would look unpushed; they are
+-- marked as pushed here rather than sent out as a backlog of stale notifications.
+
+ALTER TABLE notifications
+    ADD COLUMN IF NOT EXISTS push_attempts integer NOT NULL DEFAULT 0,
+    ADD COLUMN IF NOT EXISTS next_push_at timestamp,
+    ADD COLUMN IF NOT EXISTS push_error varchar(255),
+    ADD COLUMN IF NOT EXISTS push_dead boolean NOT NULL DEFAULT false;
+
+UPDATE notifications SET is_pushed = true WHERE is_pushed IS DISTINCT FROM true;
+
+-- Only undelivered notifications are indexed, so claiming a batch never scans delivered history
+CREATE INDEX IF NOT EXISTS idx_notifications_push_pending ON notifications (created_at)
+    WHERE is_pushed = false AND push_dead = false;
@@ -0,0 +1,24 @@
+-- Thumbnail queue and derived variants for stored images (ThumbnailService).
+-- Created before V6, which indexes the variant URLs for media access checks.
+
+CREATE TABLE IF NOT EXISTS media_thumbnails (
+    id bigint GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    source_hash varchar(64) NOT NULL,
+    source_url varchar(255) NOT NULL,
+    status varchar(255) NOT NULL,
+    attempts integer NOT NULL,
+    last_error varchar(255),
+    created_at timestamp(6) NOT NULL,
+    updated_at timestamp(6),
+    CONSTRAINT uk_media_thumbnails_source_hash UNIQUE (source_hash)
+);
+
+CREATE INDEX IF NOT EXISTS idx_media_thumbnails_status ON media_thumbnails (status, id);
+
+-- One row per generated size, keyed by the longest edge in pixels
+CREATE TABLE IF NOT EXISTS media_thumbnail_variants (
+    thumbnail_id bigint NOT NULL REFERENCES media_thumbnails (id),
+    size integer NOT NULL,
+    url varchar(255),
+    PRIMARY KEY (thumbnail_id, size)
+);
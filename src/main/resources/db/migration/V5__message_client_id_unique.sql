@@ -0,0 +1,9 @@
+-- Unique client message ids on the partitioned messages table.
+-- A unique index on a partitioned table must contain the partition key, so created_at is part of it:
+-- the database rejects a replay of the same stored message (same timestamp), while retries that get a
+-- new timestamp are still deduplicated by the sender/client id lookup in the ingestion path.
+-- The index is built on every partition and locks writes to messages while it is built.
+
+DROP INDEX IF EXISTS idx_messages_sender_client_message_id;
+
+CREATE UNIQUE INDEX uk_messages_sender_client_message_id ON messages (sender_id, client_message_id, created_at);
@@ -0,0 +1,14 @@
+-- Media downloads are checked against the chats a file was sent in (MediaAccessService).
+-- Files uploaded before this migration have no chat_media rows and stay visible to any signed-in user.
+
+CREATE TABLE IF NOT EXISTS chat_media (
+    id bigint GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    media_hash varchar(64) NOT NULL,
+    chat_id bigint NOT NULL,
+    created_at timestamp(6) NOT NULL,
+    CONSTRAINT uk_chat_media_hash_chat UNIQUE (media_hash, chat_id)
+);
+
+-- Lookups made on every download: task image URLs and thumbnail variant URLs
+CREATE INDEX IF NOT EXISTS idx_task_images_image_url ON task_images (image_url);
+CREATE INDEX IF NOT EXISTS idx_media_thumbnail_variants_url ON media_thumbnail_variants (url);
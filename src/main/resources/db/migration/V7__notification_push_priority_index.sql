@@ -0,0 +1,6 @@
+-- PushDeliveryWorker claims pending notifications one priority at a time, oldest first. With priority
+-- leading the index each claim is an ordered range scan that stops at LIMIT, instead of sorting every
+-- pending row by a priority expression on each claim.
+
+CREATE INDEX IF NOT EXISTS idx_notifications_push_pending_priority ON notifications (priority, created_at)
+    WHERE is_pushed = false AND push_dead = false;
@@ -0,0 +1,38 @@
+-- Notification collapsing, digests and the feed/retention indexes.
+-- The index builds lock writes to notifications while they run; on a large table apply this in a
+-- quiet period.
+
+-- Notifications with the same collapse key share one unread row (NotificationService)
+ALTER TABLE notifications
+    ADD COLUMN IF NOT EXISTS collapse_key varchar(255),
+    ADD COLUMN IF NOT EXISTS collapse_count integer DEFAULT 1;
+
+-- Hibernate created the type column with a check listing the enum values; DIGEST is new
+ALTER TABLE notifications DROP CONSTRAINT IF EXISTS notifications_type_check;
+ALTER TABLE notifications ADD CONSTRAINT notifications_type_check CHECK (type IN (
+    'TASK_CREATED', 'TASK_ACCEPTED', 'TASK_STARTED', 'TASK_COMPLETED', 'TASK_CONFIRMED', 'TASK_CANCELLED',
+    'NEW_MESSAGE', 'PAYMENT_RECEIVED', 'PAYMENT_RELEASED', 'PAYMENT_FAILED', 'REVIEW_RECEIVED',
+    'PROFILE_UPDATE', 'SYSTEM_ANNOUNCEMENT', 'DEADLINE_REMINDER', 'LOCATION_UPDATE', 'DIGEST'));
+
+-- Keyset feed, unread counts and retention (see the indexes on Notification)
+CREATE INDEX IF NOT EXISTS idx_notifications_user_created_at_id ON notifications (user_id, created_at, id);
+CREATE INDEX IF NOT EXISTS idx_notifications_user_is_read ON notifications (user_id, is_read);
+CREATE INDEX IF NOT EXISTS idx_notifications_expires_at ON notifications (expires_at);
+CREATE INDEX IF NOT EXISTS idx_notifications_type_created_at ON notifications (type, created_at);
+
+-- Notifications held back for a digest, one row per user and type (NotificationDigestService)
+CREATE TABLE IF NOT EXISTS notification_digest_entries (
+    id bigint GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    user_id bigint NOT NULL,
+    type varchar(255) NOT NULL,
+    item_count integer NOT NULL,
+    latest_title varchar(255),
+    latest_message text,
+    latest_deep_link_url varchar(255),
+    first_at timestamp(6) NOT NULL,
+    last_at timestamp(6) NOT NULL,
+    due_at timestamp(6) NOT NULL,
+    CONSTRAINT uk_notification_digest_entries_user_type UNIQUE (user_id, type)
+);
+
+CREATE INDEX IF NOT EXISTS idx_notification_digest_entries_due_at ON notification_digest_entries (due_at);
@@ -0,0 +1,24 @@
+-- Client message ids unique per sender.
+-- The unique index from V5 has to include created_at (the partition key), and a resent message gets a
+-- new created_at, so it never rejected a retry. The key now lives in message_client_ids, which is not
+-- partitioned; ChatIngestionEngine and WriteBehindMessageStore claim it with ON CONFLICT DO NOTHING in
+-- the transaction that inserts the message.
+
+CREATE TABLE IF NOT EXISTS message_client_ids (
+    sender_id bigint NOT NULL,
+    client_message_id varchar(64) NOT NULL,
+    created_at timestamp(6) NOT NULL,
+    PRIMARY KEY (sender_id, client_message_id)
+);
+
+-- Earliest stored message per id; duplicates stored before this migration stay as they are
+INSERT INTO message_client_ids (sender_id, client_message_id, created_at)
+SELECT sender_id, client_message_id, min(created_at)
+FROM messages
+WHERE sender_id IS NOT NULL AND client_message_id IS NOT NULL
+GROUP BY sender_id, client_message_id
+ON CONFLICT DO NOTHING;
+
+-- Lookups of the stored message behind a claim no longer need to be unique
+DROP INDEX IF EXISTS uk_messages_sender_client_message_id;
+CREATE INDEX IF NOT EXISTS idx_messages_sender_client_message_id ON messages (sender_id, client_message_id);
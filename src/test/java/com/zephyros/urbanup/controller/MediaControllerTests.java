@@ -0,0 +1,140 @@
+package com.zephyros.urbanup.controller;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Optional;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import com.zephyros.urbanup.service.MediaAccessService;
+import com.zephyros.urbanup.service.MediaStorageService;
+
+/**
+ * Range, If-Range and ETag handling of {@link MediaController} downloads, and the hand-off to sendfile.
+ */
+class MediaControllerTests {
+
+    private static final String HASH = "ab".repeat(32);
+    private static final String NAME = HASH + ".txt";
+    private static final String ETAG = "\"" + HASH + "\"";
+    private static final String BODY = "0123456789abcdefghij";
+
+    @InjectMocks
+    private MediaController mediaController;
+
+    @Mock
+    private MediaStorageService mediaStorageService;
+
+    @Mock
+    private MediaAccessService mediaAccessService;
+
+    private Path blob;
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        MockitoAnnotations.openMocks(this);
+        blob = Files.writeString(Files.createTempFile("media", ".txt"), BODY, StandardCharsets.US_ASCII);
+        when(mediaStorageService.resolve(NAME)).thenReturn(Optional.of(blob));
+        when(mediaStorageService.contentTypeOf(NAME)).thenReturn("text/plain");
+        when(mediaAccessService.canDownload(eq(NAME), any())).thenReturn(true);
+        ReflectionTestUtils.setField(mediaController, "cacheMaxAge", Duration.ofDays(365));
+        mockMvc = MockMvcBuilders.standaloneSetup(mediaController).build();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        Files.deleteIfExists(blob);
+    }
+
+    @Test
+    void singleRangeIsPartialContent() throws Exception {
+        mockMvc.perform(download().header(HttpHeaders.RANGE, "bytes=2-5"))
+            .andExpect(status().isPartialContent())
+            .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 2-5/20"))
+            .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, 4))
+            .andExpect(header().string(HttpHeaders.ETAG, ETAG))
+            .andExpect(content().string("2345"));
+    }
+
+    @Test
+    void suffixRangeServesTheLastBytes() throws Exception {
+        mockMvc.perform(download().header(HttpHeaders.RANGE, "bytes=-4"))
+            .andExpect(status().isPartialContent())
+            .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 16-19/20"))
+            .andExpect(content().string("ghij"));
+    }
+
+    @Test
+    void unsatisfiableRangeIs416WithTheLength() throws Exception {
+        mockMvc.perform(download().header(HttpHeaders.RANGE, "bytes=30-40"))
+            .andExpect(status().isRequestedRangeNotSatisfiable())
+            .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes */20"));
+    }
+
+    @Test
+    void multipleRangesAreAnsweredWithTheWholeFile() throws Exception {
+        mockMvc.perform(download().header(HttpHeaders.RANGE, "bytes=0-1,4-5"))
+            .andExpect(status().isOk())
+            .andExpect(header().doesNotExist(HttpHeaders.CONTENT_RANGE))
+            .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, 20))
+            .andExpect(content().string(BODY));
+    }
+
+    @Test
+    void mismatchedIfRangeIgnoresTheRange() throws Exception {
+        mockMvc.perform(download().header(HttpHeaders.RANGE, "bytes=2-5").header(HttpHeaders.IF_RANGE, "\"stale\""))
+            .andExpect(status().isOk())
+            .andExpect(header().doesNotExist(HttpHeaders.CONTENT_RANGE))
+            .andExpect(content().string(BODY));
+
+        mockMvc.perform(download().header(HttpHeaders.RANGE, "bytes=2-5").header(HttpHeaders.IF_RANGE, ETAG))
+            .andExpect(status().isPartialContent())
+            .andExpect(content().string("2345"));
+    }
+
+    @Test
+    void matchingETagIsNotModified() throws Exception {
+        mockMvc.perform(download().header(HttpHeaders.IF_NONE_MATCH, ETAG))
+            .andExpect(status().isNotModified())
+            .andExpect(content().string(""));
+    }
+
+    @Test
+    void rangeIsHandedToSendfileWhenSupported() throws Exception {
+        mockMvc.perform(download().header(HttpHeaders.RANGE, "bytes=2-5")
+                .requestAttr("org.apache.tomcat.sendfile.support", Boolean.TRUE))
+            .andExpect(status().isPartialContent())
+            .andExpect(request().attribute("org.apache.tomcat.sendfile.filename", blob.toString()))
+            .andExpect(request().attribute("org.apache.tomcat.sendfile.start", 2L))
+            .andExpect(request().attribute("org.apache.tomcat.sendfile.end", 6L))
+            .andExpect(content().string(""));
+    }
+
+    private MockHttpServletRequestBuilder download() {
+        return get("/media/" + NAME).principal(new TestingAuthenticationToken("user@example.com", null));
+    }
+}
@@ -0,0 +1,388 @@
+package com.zephyros.urbanup.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import com.zephyros.urbanup.model.Chat;
+import com.zephyros.urbanup.model.Message;
+import com.zephyros.urbanup.model.User;
+import com.zephyros.urbanup.repository.ChatRepository;
+import com.zephyros.urbanup.repository.MessageClientIdRepository;
+import com.zephyros.urbanup.repository.MessageRepository;
+import com.zephyros.urbanup.repository.UserRepository;
+
+/**
+ * Lane batching, per-request failure isolation and client message id claims in {@link ChatIngestionEngine},
+ * against mocked repositories. The claim repository keeps its keys in a set and, like the ON CONFLICT
+ * insert, reports 0 for a key already taken. The first transaction is held open so the following sends
+ * queue up behind it and reach the lane as one batch.
+ */
+class ChatIngestionEngineTests {
+
+    private static final Long CHAT_ID = 1L;
+    private static final Long POSTER_ID = 10L;
+    private static final Long FULFILLER_ID = 11L;
+
+    @InjectMocks
+    private ChatIngestionEngine engine;
+
+    @Mock
+    private ChatRepository chatRepository;
+
+    @Mock
+    private MessageRepository messageRepository;
+
+    @Mock
+    private UserRepository userRepository;
+
+    @Mock
+    private MessageClientIdRepository messageClientIdRepository;
+
+    @Mock
+    private RealtimeChatService realtimeChatService;
+
+    private GatedTransactionManager transactionManager;
+    private final List<Integer> saveAllSizes = new CopyOnWriteArrayList<>();
+    private final List<Message> stored = new CopyOnWriteArrayList<>();
+    private final List<Message> published = new CopyOnWriteArrayList<>();
+    private final AtomicLong ids = new AtomicLong();
+    // senderId:clientMessageId keys of message_client_ids
+    private final Set<String> claims = ConcurrentHashMap.newKeySet();
+
+    private Chat chat;
+    private User poster;
+    private User fulfiller;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        poster = user(POSTER_ID);
+        fulfiller = user(FULFILLER_ID);
+        chat = new Chat();
+        chat.setId(CHAT_ID);
+        chat.setPoster(poster);
+        chat.setFulfiller(fulfiller);
+
+        when(chatRepository.findById(anyLong())).thenAnswer(invocation ->
+            CHAT_ID.equals(invocation.getArgument(0)) ? Optional.of(chat) : Optional.empty());
+        when(userRepository.findById(anyLong())).thenAnswer(invocation -> {
+            Long id = invocation.getArgument(0);
+            return POSTER_ID.equals(id) ? Optional.of(poster) : FULFILLER_ID.equals(id) ? Optional.of(fulfiller) : Optional.empty();
+        });
+        when(messageRepository.saveAll(anyList())).thenAnswer(invocation -> saveAll(invocation.getArgument(0)));
+        when(messageRepository.findBySenderIdAndClientMessageIdIn(anyLong(), anyCollection())).thenAnswer(invocation -> {
+            Long senderId = invocation.getArgument(0);
+            Collection<String> clientMessageIds = invocation.getArgument(1);
+            return stored.stream()
+                .filter(message -> message.getSender().getId().equals(senderId)
+                    && clientMessageIds.contains(message.getClientMessageId()))
+                .collect(Collectors.toList());
+        });
+        when(messageClientIdRepository.claim(anyLong(), anyString(), any())).thenAnswer(invocation ->
+            claims.add(invocation.getArgument(0) + ":" + invocation.getArgument(1)) ? 1 : 0);
+        doAnswer(invocation -> published.add(invocation.getArgument(1)))
+            .when(realtimeChatService).publishStoredMessage(any(), any(), anyBoolean());
+
+        transactionManager = new GatedTransactionManager();
+        start(transactionManager, 32);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        transactionManager.release();
+        engine.stop();
+    }
+
+    @Test
+    void queuedSendsAreStoredAsOneBatchAndInvalidOnesFailAlone() throws Exception {
+        CompletableFuture<Message> first = send(POSTER_ID, "first");
+        transactionManager.awaitHeld();
+
+        CompletableFuture<Message> hello = send(POSTER_ID, "hello");
+        CompletableFuture<Message> tooLong = send(FULFILLER_ID, "x".repeat(Message.CONTENT_MAX_LENGTH + 1));
+        CompletableFuture<Message> stranger = send(99L, "who am I");
+        CompletableFuture<Message> reply = send(FULFILLER_ID, "hi");
+        transactionManager.release();
+
+        assertEquals("first", first.get(5, TimeUnit.SECONDS).getContent());
+        assertEquals("hello", hello.get(5, TimeUnit.SECONDS).getContent());
+        assertEquals("hi", reply.get(5, TimeUnit.SECONDS).getContent());
+        assertInstanceOf(IllegalArgumentException.class, failureOf(tooLong));
+        assertInstanceOf(IllegalArgumentException.class, failureOf(stranger));
+
+        // One insert for the held send, one for everything queued behind it
+        assertEquals(List.of(1, 2), saveAllSizes);
+        assertEquals(List.of("first", "hello", "hi"), contents(published));
+
+        ChatIngestionEngine.IngestionStats stats = engine.getStats();
+        assertEquals(3L, stats.getPersisted());
+        assertEquals(2L, stats.getFailed());
+        assertEquals(2L, stats.getBatches());
+    }
+
+    @Test
+    void batchRejectedByTheDatabaseIsRetriedOneByOne() throws Exception {
+        CompletableFuture<Message> first = send(POSTER_ID, "first");
+        transactionManager.awaitHeld();
+
+        CompletableFuture<Message> before = send(POSTER_ID, "before");
+        CompletableFuture<Message> poison = send(POSTER_ID, "poison");
+        CompletableFuture<Message> after = send(FULFILLER_ID, "after");
+        transactionManager.release();
+
+        first.get(5, TimeUnit.SECONDS);
+        assertEquals("before", before.get(5, TimeUnit.SECONDS).getContent());
+        assertEquals("after", after.get(5, TimeUnit.SECONDS).getContent());
+        assertInstanceOf(IllegalStateException.class, failureOf(poison));
+
+        assertEquals(List.of(1, 3, 1, 1, 1), saveAllSizes);
+        assertEquals(List.of("first", "before", "after"), contents(stored));
+        assertEquals(List.of("first", "before", "after"), contents(published));
+    }
+
+    @Test
+    void firstSendClaimsItsClientMessageId() throws Exception {
+        transactionManager.release();
+
+        Message result = engine.submit(CHAT_ID, POSTER_ID, "hello", Message.MessageType.TEXT, null, "c-1")
+            .get(5, TimeUnit.SECONDS);
+
+        assertEquals("c-1", result.getClientMessageId());
+        assertEquals(Set.of(POSTER_ID + ":c-1"), claims);
+        assertEquals(List.of("hello"), contents(published));
+    }
+
+    @Test
+    void sendWhoseClaimIsTakenReturnsTheStoredRow() throws Exception {
+        // Stored earlier by another node, outside this node's dedupe window
+        Message winner = new Message();
+        winner.setId(500L);
+        winner.setSender(poster);
+        winner.setContent("hello");
+        winner.setClientMessageId("c-1");
+        stored.add(winner);
+        claims.add(POSTER_ID + ":c-1");
+        transactionManager.release();
+
+        Message result = engine.submit(CHAT_ID, POSTER_ID, "hello", Message.MessageType.TEXT, null, "c-1")
+            .get(5, TimeUnit.SECONDS);
+
+        assertEquals(500L, result.getId());
+        assertEquals(List.of(0), saveAllSizes);
+        assertTrue(published.isEmpty());
+        assertEquals(1L, engine.getStats().getDeduplicated());
+    }
+
+    @Test
+    void sameClientMessageIdFromAnotherSenderIsNotADuplicate() throws Exception {
+        claims.add(FULFILLER_ID + ":c-1");
+        transactionManager.release();
+
+        Message result = engine.submit(CHAT_ID, POSTER_ID, "hello", Message.MessageType.TEXT, null, "c-1")
+            .get(5, TimeUnit.SECONDS);
+
+        assertEquals(1L, result.getId());
+        assertEquals(List.of("hello"), contents(published));
+    }
+
+    @Test
+    void takenClaimWithoutAStoredMessageFails() throws Exception {
+        // The claimed message has been archived since
+        claims.add(POSTER_ID + ":c-1");
+        transactionManager.release();
+
+        CompletableFuture<Message> result = engine.submit(CHAT_ID, POSTER_ID, "hello", Message.MessageType.TEXT, null, "c-1");
+
+        assertInstanceOf(IllegalArgumentException.class, failureOf(result));
+        assertTrue(published.isEmpty());
+    }
+
+    /**
+     * Lane throughput with a simulated 2 ms commit, unbatched versus batched. Excluded from the default
+     * build; run with mvn test -Dtest.excludedGroups= -Dgroups=benchmark.
+     */
+    @Test
+    @Tag("benchmark")
+    void benchmarkBatchedThroughputWithSlowCommits() throws Exception {
+        transactionManager.release();
+        engine.stop();
+
+        double unbatched = messagesPerSecond(1);
+        double batched = messagesPerSecond(32);
+        System.err.printf("chat ingestion, 2 ms commits, 1 lane: batch 1 = %.0f msg/s, batch 32 = %.0f msg/s%n",
+            unbatched, batched);
+        assertTrue(batched > unbatched * 5, "batching should amortize the commit cost");
+    }
+
+    private double messagesPerSecond(int batchSize) throws Exception {
+        start(new SlowCommitTransactionManager(2), batchSize);
+        int messages = 1000;
+        List<CompletableFuture<Message>> futures = new ArrayList<>(messages);
+        long start = System.nanoTime();
+        for (int i = 0; i < messages; i++) {
+            futures.add(send(i % 2 == 0 ? POSTER_ID : FULFILLER_ID, "message " + i));
+        }
+        for (CompletableFuture<Message> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+        engine.stop();
+        return messages / seconds;
+    }
+
+    private void start(PlatformTransactionManager transactionManager, int batchSize) {
+        ReflectionTestUtils.setField(engine, "transactionManager", transactionManager);
+        ReflectionTestUtils.setField(engine, "laneCount", 1);
+        ReflectionTestUtils.setField(engine, "batchSize", batchSize);
+        ReflectionTestUtils.setField(engine, "queueCapacity", 10000);
+        ReflectionTestUtils.setField(engine, "submitTimeoutMillis", 5000L);
+        ReflectionTestUtils.setField(engine, "dedupeWindowMillis", 60000L);
+        engine.start();
+    }
+
+    private CompletableFuture<Message> send(Long senderId, String content) {
+        return engine.submit(CHAT_ID, senderId, content, Message.MessageType.TEXT, null, null);
+    }
+
+    private List<Message> saveAll(Collection<Message> messages) {
+        saveAllSizes.add(messages.size());
+        for (Message message : messages) {
+            if ("poison".equals(message.getContent())) {
+                throw new DataIntegrityViolationException("rejected row");
+            }
+        }
+        for (Message message : messages) {
+            message.setId(ids.incrementAndGet());
+            stored.add(message);
+        }
+        return new ArrayList<>(messages);
+    }
+
+    private static Throwable failureOf(CompletableFuture<Message> future) throws InterruptedException {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            return e.getCause();
+        } catch (Exception e) {
+            return e;
+        }
+        throw new AssertionError("expected the send to fail");
+    }
+
+    private static List<String> contents(List<Message> messages) {
+        List<String> contents = new ArrayList<>();
+        messages.forEach(message -> contents.add(message.getContent()));
+        return contents;
+    }
+
+    private static User user(Long id) {
+        User user = new User();
+        user.setId(id);
+        return user;
+    }
+
+    /**
+     * Holds the first transaction open until released, so later sends pile up in the lane's queue
+     */
+    private static class GatedTransactionManager implements PlatformTransactionManager {
+        private final CountDownLatch held = new CountDownLatch(1);
+        private final CountDownLatch released = new CountDownLatch(1);
+        private final AtomicBoolean first = new AtomicBoolean(true);
+
+        @Override
+        public TransactionStatus getTransaction(TransactionDefinition definition) {
+            if (first.compareAndSet(true, false)) {
+                held.countDown();
+                try {
+                    released.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return new SimpleTransactionStatus();
+        }
+
+        @Override
+        public void commit(TransactionStatus status) {
+        }
+
+        @Override
+        public void rollback(TransactionStatus status) {
+        }
+
+        void awaitHeld() throws InterruptedException {
+            assertTrue(held.await(5, TimeUnit.SECONDS), "lane never started the first batch");
+        }
+
+        void release() {
+            released.countDown();
+        }
+    }
+
+    /**
+     * Every commit costs a fixed delay, standing in for the database round trip and fsync
+     */
+    private static class SlowCommitTransactionManager implements PlatformTransactionManager {
+        private final long commitMillis;
+
+        SlowCommitTransactionManager(long commitMillis) {
+            this.commitMillis = commitMillis;
+        }
+
+        @Override
+        public TransactionStatus getTransaction(TransactionDefinition definition) {
+            return new SimpleTransactionStatus();
+        }
+
+        @Override
+        public void commit(TransactionStatus status) {
+            try {
+                Thread.sleep(commitMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void rollback(TransactionStatus status) {
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.zephyros.urbanup.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import com.zephyros.urbanup.model.Notification;
+import com.zephyros.urbanup.model.NotificationDigestEntry;
+import com.zephyros.urbanup.model.User;
+import com.zephyros.urbanup.repository.NotificationDigestEntryRepository;
+import com.zephyros.urbanup.repository.NotificationRepository;
+import com.zephyros.urbanup.repository.UserRepository;
+import com.zephyros.urbanup.service.NotificationPreferenceService.DigestMode;
+
+/**
+ * Holding back and delivering digests in {@link NotificationDigestService}.
+ */
+class NotificationDigestServiceTests {
+
+    private static final Long USER_ID = 5L;
+
+    @InjectMocks
+    private NotificationDigestService notificationDigestService;
+
+    @Mock
+    private NotificationDigestEntryRepository digestEntryRepository;
+
+    @Mock
+    private NotificationRepository notificationRepository;
+
+    @Mock
+    private UserRepository userRepository;
+
+    @Mock
+    private NotificationPreferenceService preferenceService;
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private User user;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        user = new User();
+        user.setId(USER_ID);
+        user.setEmail("user@example.com");
+        when(userRepository.getReferenceById(USER_ID)).thenReturn(user);
+        when(notificationRepository.save(any(Notification.class))).thenAnswer(invocation -> {
+            Notification notification = invocation.getArgument(0);
+            notification.setId(100L);
+            return notification;
+        });
+        when(preferenceService.getDigestMode(eq(USER_ID), any())).thenReturn(DigestMode.HOURLY);
+        ReflectionTestUtils.setField(notificationDigestService, "maxUsersPerRun", 1000);
+        notificationDigestService.init();
+    }
+
+    @Test
+    void urgentAndImmediateNotificationsAreNotHeld() {
+        Notification high = notification(Notification.NotificationType.TASK_ACCEPTED, "Accepted");
+        high.setPriority(Notification.NotificationPriority.HIGH);
+        assertFalse(notificationDigestService.hold(high));
+
+        when(preferenceService.getDigestMode(eq(USER_ID), any())).thenReturn(DigestMode.IMMEDIATE);
+        assertFalse(notificationDigestService.hold(notification(Notification.NotificationType.TASK_ACCEPTED, "Accepted")));
+
+        verify(digestEntryRepository, never()).accumulate(any(), any(), any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void hourlyNotificationIsHeldUntilTheNextFullHour() {
+        LocalDateTime nextHour = LocalDateTime.now().truncatedTo(ChronoUnit.HOURS).plusHours(1);
+
+        assertTrue(notificationDigestService.hold(notification(Notification.NotificationType.REVIEW_RECEIVED, "New review")));
+
+        verify(digestEntryRepository).accumulate(eq(USER_ID), eq("REVIEW_RECEIVED"), eq("New review"),
+            eq("Message for New review"), any(), any(), eq(nextHour));
+    }
+
+    @Test
+    void dueEntriesBecomeOneDigest() {
+        LocalDateTime due = LocalDateTime.now().minusMinutes(1);
+        entriesDue(
+            entry(1L, Notification.NotificationType.REVIEW_RECEIVED, 3, "Review from Sam", due),
+            entry(2L, Notification.NotificationType.TASK_COMPLETED, 1, "Garden tidy done", due.plusHours(2)));
+
+        notificationDigestService.deliverDueDigests();
+
+        Notification digest = savedDigest();
+        assertEquals(Notification.NotificationType.DIGEST, digest.getType());
+        assertEquals("4 new updates", digest.getTitle());
+        assertEquals("3 x Review Received (latest: Review from Sam); Garden tidy done", digest.getMessage());
+        assertEquals("/notifications", digest.getDeepLinkUrl());
+        assertEquals("3", digest.getData("REVIEW_RECEIVED"));
+        verify(digestEntryRepository).deleteByIds(List.of(1L, 2L));
+        ArgumentCaptor<NotificationCreatedEvent> event = ArgumentCaptor.forClass(NotificationCreatedEvent.class);
+        verify(eventPublisher).publishEvent(event.capture());
+        assertEquals(100L, event.getValue().getNotificationId());
+    }
+
+    @Test
+    void singleEntryDigestKeepsTheOriginalNotification() {
+        entriesDue(entry(1L, Notification.NotificationType.TASK_COMPLETED, 1, "Garden tidy done",
+            LocalDateTime.now().minusMinutes(1)));
+
+        notificationDigestService.deliverDueDigests();
+
+        Notification digest = savedDigest();
+        assertEquals("Garden tidy done", digest.getTitle());
+        assertEquals("Message for Garden tidy done", digest.getMessage());
+        assertEquals("/tasks/1", digest.getDeepLinkUrl());
+    }
+
+    @Test
+    void entriesDeliveredByAnotherNodeAreSkipped() {
+        // Found due, but by the time the lock is taken another node has delivered and a new entry has started
+        entriesDue(entry(3L, Notification.NotificationType.TASK_COMPLETED, 1, "Later", LocalDateTime.now().plusHours(1)));
+
+        notificationDigestService.deliverDueDigests();
+
+        verify(notificationRepository, never()).save(any());
+        verify(digestEntryRepository, never()).deleteByIds(anyList());
+        verify(eventPublisher, never()).publishEvent(any(Object.class));
+    }
+
+    private void entriesDue(NotificationDigestEntry... entries) {
+        when(digestEntryRepository.findUserIdsDue(any(), any())).thenReturn(List.of(USER_ID));
+        when(digestEntryRepository.lockEntriesForUser(USER_ID)).thenReturn(List.of(entries));
+    }
+
+    private Notification savedDigest() {
+        ArgumentCaptor<Notification> saved = ArgumentCaptor.forClass(Notification.class);
+        verify(notificationRepository).save(saved.capture());
+        return saved.getValue();
+    }
+
+    private static Notification notification(Notification.NotificationType type, String title) {
+        User user = new User();
+        user.setId(USER_ID);
+        Notification notification = new Notification();
+        notification.setUser(user);
+        notification.setType(type);
+        notification.setPriority(Notification.NotificationPriority.NORMAL);
+        notification.setTitle(title);
+        notification.setMessage("Message for " + title);
+        return notification;
+    }
+
+    private static NotificationDigestEntry entry(Long id, Notification.NotificationType type, int count, String title,
+                                                 LocalDateTime dueAt) {
+        NotificationDigestEntry entry = new NotificationDigestEntry();
+        entry.setId(id);
+        entry.setUserId(USER_ID);
+        entry.setType(type);
+        entry.setItemCount(count);
+        entry.setLatestTitle(title);
+        entry.setLatestMessage("Message for " + title);
+        entry.setLatestDeepLinkUrl("/tasks/" + id);
+        entry.setDueAt(dueAt);
+        return entry;
+    }
+}
@@ -0,0 +1,243 @@
+package com.zephyros.urbanup.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import com.zephyros.urbanup.model.Chat;
+import com.zephyros.urbanup.model.DeferredMessageNotification;
+import com.zephyros.urbanup.model.Notification;
+import com.zephyros.urbanup.model.Task;
+import com.zephyros.urbanup.model.User;
+import com.zephyros.urbanup.repository.ChatRepository;
+import com.zephyros.urbanup.repository.DeferredMessageNotificationRepository;
+import com.zephyros.urbanup.repository.MessageRepository;
+import com.zephyros.urbanup.repository.NotificationRepository;
+import com.zephyros.urbanup.repository.UserRepository;
+import com.zephyros.urbanup.websocket.OfflineDeliveryQueue;
+import com.zephyros.urbanup.websocket.PresenceRegistry;
+
+/**
+ * Keyset cursors of the notification feed, the since catch-up, and collapsing and deferring
+ * new-message notifications in {@link NotificationService}.
+ */
+class NotificationServiceTests {
+
+    private static final Long USER_ID = 7L;
+    private static final LocalDateTime T = LocalDateTime.of(2026, 3, 1, 12, 30, 15);
+
+    @InjectMocks
+    private NotificationService notificationService;
+
+    @Mock
+    private NotificationRepository notificationRepository;
+
+    @Mock
+    private DeferredMessageNotificationRepository deferredMessageRepository;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Mock
+    private PresenceRegistry presenceRegistry;
+
+    @Mock
+    private OfflineDeliveryQueue offlineDeliveryQueue;
+
+    @Mock
+    private NotificationDigestService notificationDigestService;
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    @Mock
+    private MessageRepository messageRepository;
+
+    @Mock
+    private UserRepository userRepository;
+
+    @Mock
+    private ChatRepository chatRepository;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private User recipient;
+    private Chat chat;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        notificationService.init();
+        recipient = new User();
+        recipient.setId(USER_ID);
+        recipient.setEmail("recipient@example.com");
+        Task task = new Task();
+        task.setTitle("Garden tidy");
+        chat = new Chat();
+        chat.setId(3L);
+        chat.setTask(task);
+        when(presenceRegistry.isOnline(USER_ID)).thenReturn(true);
+    }
+
+    @Test
+    void feedFirstPageHasNoLowerBoundAndFullPageYieldsCursor() {
+        when(notificationRepository.findFeedForUser(USER_ID, PageRequest.of(0, 2)))
+            .thenReturn(List.of(notification(5L, T.plusMinutes(1)), notification(4L, T)));
+
+        NotificationService.NotificationFeedPage page = notificationService.getNotificationFeed(USER_ID, 2, null);
+
+        assertEquals(T + "_4", page.getNextCursor());
+    }
+
+    @Test
+    void feedCursorIsPassedAsKeysetBoundAndShortPageEndsTheFeed() {
+        when(notificationRepository.findFeedForUserBefore(USER_ID, T, 4L, PageRequest.of(0, 2)))
+            .thenReturn(List.of(notification(3L, T.minusMinutes(1))));
+
+        NotificationService.NotificationFeedPage page = notificationService.getNotificationFeed(USER_ID, 2, T + "_4");
+
+        assertEquals(1, page.getNotifications().size());
+        assertNull(page.getNextCursor());
+    }
+
+    @Test
+    void sinceAloneSkipsEverythingAtExactlySince() {
+        when(notificationRepository.findCreatedAfterForUser(USER_ID, T, Long.MAX_VALUE, PageRequest.of(0, 50)))
+            .thenReturn(List.of(notification(9L, T.plusSeconds(1))));
+
+        NotificationService.NotificationFeedPage page = notificationService.getNotificationsSince(USER_ID, T, null, 50);
+
+        assertEquals(T.plusSeconds(1) + "_9", page.getNextCursor());
+    }
+
+    @Test
+    void sinceCursorTakesPrecedenceAndIsEchoedWhenNothingIsNew() {
+        when(notificationRepository.findCreatedAfterForUser(eq(USER_ID), any(), any(), any())).thenReturn(List.of());
+
+        NotificationService.NotificationFeedPage page = notificationService.getNotificationsSince(
+            USER_ID, T.minusDays(1), T + "_12", 50);
+
+        verify(notificationRepository).findCreatedAfterForUser(USER_ID, T, 12L, PageRequest.of(0, 50));
+        assertTrue(page.getNotifications().isEmpty());
+        assertEquals(T + "_12", page.getNextCursor());
+    }
+
+    @Test
+    void invalidOrMissingCursorIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> notificationService.getNotificationFeed(USER_ID, 20, "yesterday"));
+        assertThrows(IllegalArgumentException.class, () -> notificationService.getNotificationsSince(USER_ID, null, "12", 50));
+        assertThrows(IllegalArgumentException.class, () -> notificationService.getNotificationsSince(USER_ID, null, null, 50));
+    }
+
+    @Test
+    void newMessageWhileTheChatIsOpenIsDeferredInTheDatabase() {
+        when(presenceRegistry.isViewingChat(USER_ID, 3L)).thenReturn(true);
+
+        assertNull(notificationService.sendNewMessageNotification(recipient, chat, "Sam Lee", "hi", 1));
+
+        verify(deferredMessageRepository).accumulate(eq(USER_ID), eq(3L), eq("Sam Lee"), eq("hi"), eq(1), any());
+        verify(jdbcTemplate, never()).queryForMap(anyString(), any(MapSqlParameterSource.class));
+    }
+
+    @Test
+    void newMessageIsCollapsedByOneUpsertAndAnnounced() {
+        when(jdbcTemplate.queryForMap(anyString(), any(MapSqlParameterSource.class))).thenReturn(Map.of(
+            "id", 42L, "collapse_count", 3, "title", "3 New Messages",
+            "message", "You have 3 new messages from Sam Lee about 'Garden tidy': \"hi\""));
+
+        Notification sent = notificationService.sendNewMessageNotification(recipient, chat, "Sam Lee", "hi", 1);
+
+        ArgumentCaptor<MapSqlParameterSource> params = ArgumentCaptor.forClass(MapSqlParameterSource.class);
+        verify(jdbcTemplate).queryForMap(anyString(), params.capture());
+        assertEquals("chat:3", params.getValue().getValue("collapseKey"));
+        assertEquals("You have a new message from Sam Lee about 'Garden tidy': \"hi\"", params.getValue().getValue("message"));
+        assertEquals(" new messages from Sam Lee about 'Garden tidy': \"hi\"", params.getValue().getValue("pluralMessage"));
+        assertEquals(42L, sent.getId());
+        assertEquals(3, sent.getCollapseCount());
+        assertEquals("3 New Messages", sent.getTitle());
+        ArgumentCaptor<NotificationCreatedEvent> event = ArgumentCaptor.forClass(NotificationCreatedEvent.class);
+        verify(eventPublisher).publishEvent(event.capture());
+        assertEquals(42L, event.getValue().getNotificationId());
+    }
+
+    @Test
+    void releasedDeferralIsRemovedAndSentWhenMessagesAreStillUnread() {
+        DeferredMessageNotification deferred = deferred(8L);
+        when(deferredMessageRepository.findOldest(PageRequest.of(0, 500))).thenReturn(List.of(deferred));
+        when(deferredMessageRepository.lockById(8L)).thenReturn(Optional.of(deferred));
+        when(messageRepository.countUnreadMessagesByChatIdAndRecipientId(3L, USER_ID)).thenReturn(2L);
+        when(userRepository.findById(USER_ID)).thenReturn(Optional.of(recipient));
+        when(chatRepository.findById(3L)).thenReturn(Optional.of(chat));
+        when(jdbcTemplate.queryForMap(anyString(), any(MapSqlParameterSource.class))).thenReturn(Map.of(
+            "id", 42L, "collapse_count", 2, "title", "2 New Messages", "message", "You have 2 new messages"));
+
+        notificationService.releaseDeferredMessages();
+
+        verify(deferredMessageRepository).deleteEntry(8L);
+        ArgumentCaptor<MapSqlParameterSource> params = ArgumentCaptor.forClass(MapSqlParameterSource.class);
+        verify(jdbcTemplate).queryForMap(anyString(), params.capture());
+        assertEquals(2, params.getValue().getValue("count"));
+    }
+
+    @Test
+    void deferralIsKeptWhileTheChatIsOpenAndSkippedWhenAnotherNodeHasIt() {
+        DeferredMessageNotification open = deferred(8L);
+        DeferredMessageNotification taken = deferred(9L);
+        taken.setChatId(4L);
+        when(deferredMessageRepository.findOldest(PageRequest.of(0, 500))).thenReturn(List.of(open, taken));
+        when(presenceRegistry.isViewingChat(USER_ID, 3L)).thenReturn(true);
+        when(deferredMessageRepository.lockById(9L)).thenReturn(Optional.empty());
+
+        notificationService.releaseDeferredMessages();
+
+        verify(deferredMessageRepository, never()).lockById(8L);
+        verify(deferredMessageRepository, never()).deleteEntry(anyLong());
+        verify(messageRepository, never()).countUnreadMessagesByChatIdAndRecipientId(anyLong(), anyLong());
+        verify(jdbcTemplate, never()).queryForMap(anyString(), any(MapSqlParameterSource.class));
+    }
+
+    private static DeferredMessageNotification deferred(Long id) {
+        DeferredMessageNotification deferred = new DeferredMessageNotification();
+        deferred.setId(id);
+        deferred.setUserId(USER_ID);
+        deferred.setChatId(3L);
+        deferred.setSenderName("Sam Lee");
+        deferred.setPreview("hi");
+        deferred.setMessageCount(2);
+        return deferred;
+    }
+
+    private static Notification notification(Long id, LocalDateTime createdAt) {
+        Notification notification = new Notification();
+        notification.setId(id);
+        notification.setCreatedAt(createdAt);
+        return notification;
+    }
+}
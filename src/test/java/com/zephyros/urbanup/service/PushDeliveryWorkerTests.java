@@ -0,0 +1,307 @@
+package com.zephyros.urbanup.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.zephyros.urbanup.service.PushProvider.PushMessage;
+import com.zephyros.urbanup.service.PushProvider.PushResult;
+import com.zephyros.urbanup.websocket.PresenceRegistry;
+
+/**
+ * Claiming and settling push batches in {@link PushDeliveryWorker}, with a JdbcTemplate that hands each
+ * pending row to one claim only, the way FOR UPDATE SKIP LOCKED and the lease do, and records the updates
+ * the worker writes back.
+ */
+class PushDeliveryWorkerTests {
+
+    private static final long ONLINE_USER = 99L;
+
+    @InjectMocks
+    private PushDeliveryWorker pushDeliveryWorker;
+
+    @Spy
+    private FakeJdbcTemplate jdbc = new FakeJdbcTemplate();
+
+    @Mock
+    private PushProvider pushProvider;
+
+    @Mock
+    private PresenceRegistry presenceRegistry;
+
+    // Outcome per notification id; anything else is sent
+    private final Map<Long, PushResult> results = new HashMap<>();
+    private final List<Long> sent = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(pushProvider.maxBatchSize()).thenReturn(25);
+        when(pushProvider.send(anyList())).thenAnswer(invocation -> {
+            List<PushResult> out = new ArrayList<>();
+            for (PushMessage message : invocation.<List<PushMessage>>getArgument(0)) {
+                sent.add(message.getNotificationId());
+                out.add(results.getOrDefault(message.getNotificationId(), PushResult.sent()));
+            }
+            return out;
+        });
+        when(presenceRegistry.isOnline(anyLong())).thenAnswer(invocation -> invocation.<Long>getArgument(0) == ONLINE_USER);
+        ReflectionTestUtils.setField(pushDeliveryWorker, "graceMillis", 10000L);
+        ReflectionTestUtils.setField(pushDeliveryWorker, "leaseMillis", 300000L);
+        ReflectionTestUtils.setField(pushDeliveryWorker, "maxAttempts", 5);
+        ReflectionTestUtils.setField(pushDeliveryWorker, "backoffBaseMillis", 1000L);
+        ReflectionTestUtils.setField(pushDeliveryWorker, "backoffMaxMillis", 60000L);
+        ReflectionTestUtils.setField(pushDeliveryWorker, "maxAgeMillis", 86400000L);
+    }
+
+    @Test
+    void claimSkipsLockedRowsAndLeasesThemPastNow() {
+        jdbc.pending(row(1L, 10L, "NORMAL", "token-1"));
+
+        deliverBatch();
+
+        assertTrue(jdbc.claimSql.get(0).contains("FOR UPDATE SKIP LOCKED"));
+        SqlParameterSource params = jdbc.claimParams.get(0);
+        Timestamp now = (Timestamp) params.getValue("now");
+        assertTrue(((Timestamp) params.getValue("leaseUntil")).after(now));
+        assertTrue(((Timestamp) params.getValue("graceCutoff")).before(now));
+        long maxAge = now.getTime() - ((Timestamp) params.getValue("maxAgeCutoff")).getTime();
+        assertEquals(86400000L, maxAge);
+    }
+
+    @Test
+    void batchIsFilledMostUrgentFirst() {
+        for (long id = 1; id <= 30; id++) {
+            jdbc.pending(row(id, 1000 + id, "NORMAL", "token-" + id));
+        }
+        jdbc.pending(row(31L, 2000L, "LOW", "token-31"), row(32L, 2001L, "URGENT", "token-32"),
+            row(33L, 2002L, "HIGH", "token-33"));
+
+        assertEquals(25, deliverBatch());
+
+        // One claim per priority until the provider's batch is full; LOW is never asked for
+        assertEquals(List.of("URGENT:25", "HIGH:24", "NORMAL:23"), jdbc.claims);
+        assertEquals(List.of(32L, 33L, 1L), sent.subList(0, 3));
+    }
+
+    @Test
+    void enabledWithoutAProviderFailsStartup() {
+        PushDeliveryWorker worker = new PushDeliveryWorker();
+        ReflectionTestUtils.setField(worker, "enabled", true);
+
+        assertThrows(IllegalStateException.class, worker::start);
+    }
+
+    @Test
+    void readTokenlessAndOnlineRowsAreSettledWithoutACall() {
+        Map<String, Object> read = row(1L, 10L, "NORMAL", "token-1");
+        read.put("is_read", true);
+        jdbc.pending(read, row(2L, 11L, "NORMAL", null), row(3L, ONLINE_USER, "NORMAL", "token-3"),
+            row(4L, 12L, "NORMAL", "token-4"));
+
+        assertEquals(4, deliverBatch());
+
+        assertEquals(List.of(4L), sent);
+        assertEquals(Set.of(1L, 2L, 3L, 4L), Set.copyOf(jdbc.settled));
+    }
+
+    @Test
+    void failuresBackOffAndRejectionsAreDeadLettered() {
+        Map<String, Object> retried = row(2L, 11L, "NORMAL", "token-2");
+        retried.put("push_attempts", 2);
+        jdbc.pending(row(1L, 10L, "NORMAL", "token-1"), retried, row(3L, 12L, "NORMAL", "token-3"));
+        results.put(2L, new PushResult(PushProvider.Outcome.RETRY, "throttled"));
+        results.put(3L, new PushResult(PushProvider.Outcome.REJECTED, "unregistered"));
+
+        deliverBatch();
+
+        assertEquals(List.of(1L), jdbc.settled);
+        SqlParameterSource retry = jdbc.failure(2L);
+        assertEquals(3, retry.getValue("attempts"));
+        assertEquals(false, retry.getValue("dead"));
+        assertEquals("throttled", retry.getValue("error"));
+        long backoff = ((Timestamp) retry.getValue("nextPushAt")).getTime() - System.currentTimeMillis();
+        // base 1000 ms << (3 - 1)
+        assertTrue(backoff > 3000 && backoff <= 4000, "backoff " + backoff);
+        SqlParameterSource rejected = jdbc.failure(3L);
+        assertEquals(true, rejected.getValue("dead"));
+        assertNull(rejected.getValue("nextPushAt"));
+    }
+
+    @Test
+    void lastAttemptIsDeadLettered() {
+        Map<String, Object> row = row(1L, 10L, "NORMAL", "token-1");
+        row.put("push_attempts", 4);
+        jdbc.pending(row);
+        results.put(1L, new PushResult(PushProvider.Outcome.RETRY, "timeout"));
+
+        deliverBatch();
+
+        assertEquals(true, jdbc.failure(1L).getValue("dead"));
+    }
+
+    @Test
+    void concurrentWorkersPushEachNotificationOnce() throws Exception {
+        for (long id = 1; id <= 200; id++) {
+            jdbc.pending(row(id, 1000 + id, "NORMAL", "token-" + id));
+        }
+        int workers = 4;
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> done = new ArrayList<>();
+            for (int i = 0; i < workers; i++) {
+                done.add(pool.submit(() -> {
+                    start.await();
+                    while (deliverBatch() > 0) {
+                        // drain
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : done) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertEquals(200, sent.size());
+        assertEquals(200, Set.copyOf(sent).size());
+        assertEquals(200, Set.copyOf(jdbc.settled).size());
+    }
+
+    private int deliverBatch() {
+        Integer claimed = ReflectionTestUtils.invokeMethod(pushDeliveryWorker, "deliverBatch");
+        return claimed;
+    }
+
+    private static Map<String, Object> row(long id, long userId, String priority, String token) {
+        Map<String, Object> row = new HashMap<>();
+        row.put("id", id);
+        row.put("user_id", userId);
+        row.put("title", "Title " + id);
+        row.put("message", "Message " + id);
+        row.put("deep_link_url", null);
+        row.put("priority", priority);
+        row.put("push_attempts", 0);
+        row.put("is_read", false);
+        row.put("fcm_token", token);
+        return row;
+    }
+
+    /**
+     * Pending rows in claim order; a claimed row is gone for every later claim until it is written back
+     */
+    private static class FakeJdbcTemplate extends NamedParameterJdbcTemplate {
+        private final List<Map<String, Object>> pending = new ArrayList<>();
+        private final List<String> claimSql = new CopyOnWriteArrayList<>();
+        private final List<SqlParameterSource> claimParams = new CopyOnWriteArrayList<>();
+        // priority:limit of each claim, as asked for
+        private final List<String> claims = new CopyOnWriteArrayList<>();
+        private final List<Long> settled = new CopyOnWriteArrayList<>();
+        private final Map<Long, SqlParameterSource> failures = new ConcurrentHashMap<>();
+
+        FakeJdbcTemplate() {
+            super(new JdbcTemplate());
+        }
+
+        @SafeVarargs
+        final void pending(Map<String, Object>... rows) {
+            pending.addAll(List.of(rows));
+        }
+
+        SqlParameterSource failure(long id) {
+            return failures.get(id);
+        }
+
+        @Override
+        public <T> List<T> query(String sql, SqlParameterSource params, RowMapper<T> rowMapper) {
+            claimSql.add(sql);
+            claimParams.add(params);
+            int limit = (Integer) params.getValue("limit");
+            Object priority = params.getValue("priority");
+            claims.add(priority + ":" + limit);
+            List<Map<String, Object>> claimed = new ArrayList<>();
+            synchronized (pending) {
+                for (var it = pending.iterator(); it.hasNext() && claimed.size() < limit; ) {
+                    Map<String, Object> row = it.next();
+                    if (priority.equals(row.get("priority"))) {
+                        claimed.add(row);
+                        it.remove();
+                    }
+                }
+            }
+            List<T> mapped = new ArrayList<>();
+            try {
+                for (int i = 0; i < claimed.size(); i++) {
+                    mapped.add(rowMapper.mapRow(resultSet(claimed.get(i)), i));
+                }
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+            return mapped;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public int update(String sql, SqlParameterSource params) {
+            Collection<Long> ids = (Collection<Long>) params.getValue("ids");
+            settled.addAll(ids);
+            return ids.size();
+        }
+
+        @Override
+        public int[] batchUpdate(String sql, SqlParameterSource[] batchArgs) {
+            for (SqlParameterSource args : batchArgs) {
+                failures.put((Long) args.getValue("id"), args);
+            }
+            return new int[batchArgs.length];
+        }
+
+        private static ResultSet resultSet(Map<String, Object> row) throws SQLException {
+            ResultSet rs = mock(ResultSet.class);
+            when(rs.getLong(anyString())).thenAnswer(invocation -> ((Number) row.get(invocation.getArgument(0))).longValue());
+            when(rs.getInt(anyString())).thenAnswer(invocation -> ((Number) row.get(invocation.getArgument(0))).intValue());
+            when(rs.getBoolean(anyString())).thenAnswer(invocation -> Boolean.TRUE.equals(row.get(invocation.getArgument(0))));
+            when(rs.getString(anyString())).thenAnswer(invocation -> (String) row.get(invocation.getArgument(0)));
+            return rs;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.zephyros.urbanup.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.zephyros.urbanup.model.Chat;
+import com.zephyros.urbanup.model.Message;
+import com.zephyros.urbanup.model.User;
+import com.zephyros.urbanup.repository.ChatRepository;
+import com.zephyros.urbanup.repository.UserRepository;
+
+/**
+ * Flush, poison-record isolation and recovery in {@link WriteBehindMessageStore}, with a JdbcTemplate
+ * that records inserted rows instead of talking to Postgres.
+ */
+class WriteBehindMessageStoreTests {
+
+    @InjectMocks
+    private WriteBehindMessageStore store;
+
+    // Same log directory and database as store, after a crash
+    @InjectMocks
+    private WriteBehindMessageStore restarted;
+
+    @Spy
+    private FakeJdbcTemplate jdbc = new FakeJdbcTemplate();
+
+    @Spy
+    private ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+
+    @Mock
+    private ChatRepository chatRepository;
+
+    @Mock
+    private UserRepository userRepository;
+
+    @Mock
+    private RealtimeChatService realtimeChatService;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private Path logDir;
+    private Chat chat;
+    private User sender;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        MockitoAnnotations.openMocks(this);
+        logDir = Files.createTempDirectory("message-log");
+        sender = new User();
+        sender.setId(10L);
+        User recipient = new User();
+        recipient.setId(11L);
+        chat = new Chat();
+        chat.setId(1L);
+        chat.setPoster(sender);
+        chat.setFulfiller(recipient);
+        when(chatRepository.findById(chat.getId())).thenReturn(Optional.of(chat));
+        when(userRepository.findById(sender.getId())).thenReturn(Optional.of(sender));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(logDir)) {
+            files.sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    void poisonRecordIsDeadLetteredAndTheRestIsFlushed() throws Exception {
+        start(store);
+        store.append(List.of(message("one"), message("two"), message("poison"), message("four"), message("five")));
+
+        store.flush();
+
+        assertEquals(List.of("one", "two", "four", "five"), jdbc.insertedContents);
+        assertEquals(0, store.getPendingCount());
+        assertEquals(1, store.getDeadLetterCount());
+        List<String> deadLetters = Files.readAllLines(logDir.resolve("dead-letter.jsonl"), StandardCharsets.UTF_8);
+        assertEquals(1, deadLetters.size());
+        assertTrue(deadLetters.get(0).contains("\"poison\""));
+    }
+
+    @Test
+    void unreachableDatabaseKeepsTheBatchForTheNextFlush() throws Exception {
+        start(store);
+        store.append(List.of(message("one"), message("two")));
+
+        jdbc.unreachable = true;
+        store.flush();
+        assertEquals(2, store.getPendingCount());
+        assertEquals(0, store.getDeadLetterCount());
+
+        jdbc.unreachable = false;
+        store.flush();
+        assertEquals(List.of("one", "two"), jdbc.insertedContents);
+        assertEquals(0, store.getPendingCount());
+    }
+
+    @Test
+    void oversizedContentIsRejectedBeforeItIsLogged() throws Exception {
+        start(store);
+
+        assertThrows(IllegalArgumentException.class,
+            () -> store.append(List.of(message("x".repeat(Message.CONTENT_MAX_LENGTH + 1)))));
+        assertEquals(0, store.getPendingCount());
+    }
+
+    @Test
+    void leftoverSegmentsAreReplayedEvenWhenTheDatabaseIsDownAtStartup() throws Exception {
+        start(store);
+        store.append(List.of(message("survivor")));
+        // Crash: the segment is never flushed and ends in a torn write
+        Path leftover;
+        try (Stream<Path> files = Files.list(logDir)) {
+            leftover = files.filter(path -> path.toString().endsWith(".log")).findFirst().orElseThrow();
+        }
+        Files.writeString(leftover, "{torn", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        jdbc.unreachable = true;
+        start(restarted);
+        assertEquals(1, restarted.getPendingCount());
+        assertTrue(Files.exists(leftover));
+
+        jdbc.unreachable = false;
+        restarted.flush();
+        assertEquals(List.of("survivor"), jdbc.insertedContents);
+        assertTrue(Files.notExists(leftover));
+    }
+
+    private void start(WriteBehindMessageStore store) throws IOException {
+        ReflectionTestUtils.setField(store, "logDir", logDir.toString());
+        ReflectionTestUtils.setField(store, "segmentBytes", 16L * 1024 * 1024);
+        ReflectionTestUtils.setField(store, "maxPending", 1000);
+        store.start();
+    }
+
+    private Message message(String content) {
+        Message message = new Message();
+        message.setChat(chat);
+        message.setSender(sender);
+        message.setContent(content);
+        message.setMessageType(Message.MessageType.TEXT);
+        message.setCreatedAt(LocalDateTime.now());
+        return message;
+    }
+
+    /**
+     * Hands out sequence values and accepts inserts, except for rows whose content is "poison"
+     */
+    private static class FakeJdbcTemplate extends JdbcTemplate {
+        private final AtomicLong sequence = new AtomicLong();
+        private final List<String> insertedContents = new CopyOnWriteArrayList<>();
+        private volatile boolean unreachable;
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> List<T> queryForList(String sql, Class<T> elementType, Object... args) {
+            if (sql.startsWith("SELECT nextval")) {
+                List<T> ids = new ArrayList<>();
+                for (int i = 0; i < (Integer) args[0]; i++) {
+                    ids.add((T) Long.valueOf(sequence.incrementAndGet()));
+                }
+                return ids;
+            }
+            if (unreachable) {
+                throw new DataAccessResourceFailureException("connection refused");
+            }
+            // Seven parameters per row: id, chat_id, sender_id, content, message_type, created_at, client_message_id
+            List<T> ids = new ArrayList<>();
+            List<String> contents = new ArrayList<>();
+            for (int i = 0; i < args.length; i += 7) {
+                if ("poison".equals(args[i + 3])) {
+                    throw new DataIntegrityViolationException("value rejected");
+                }
+                ids.add((T) args[i]);
+                contents.add((String) args[i + 3]);
+            }
+            insertedContents.addAll(contents);
+            return ids;
+        }
+
+        @Override
+        public int[] batchUpdate(String sql, List<Object[]> batchArgs) {
+            return new int[batchArgs.size()];
+        }
+    }
+}
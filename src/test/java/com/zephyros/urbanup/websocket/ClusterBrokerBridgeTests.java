@@ -0,0 +1,177 @@
+package com.zephyros.urbanup.websocket;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.security.Principal;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+import org.springframework.messaging.simp.user.DefaultUserDestinationResolver;
+import org.springframework.messaging.simp.user.UserDestinationMessageHandler;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.socket.messaging.DefaultSimpUserRegistry;
+import org.springframework.web.socket.messaging.SessionConnectedEvent;
+
+/**
+ * Multi-node fan-out through {@link ClusterBrokerBridge}, with two in-process nodes sharing an
+ * in-memory stand-in for the Redis pub/sub channel.
+ */
+class ClusterBrokerBridgeTests {
+
+    private InMemoryTransport transport;
+    private Node nodeA;
+    private Node nodeB;
+
+    @BeforeEach
+    void setUp() {
+        transport = new InMemoryTransport();
+        nodeA = new Node("node-a", transport);
+        nodeB = new Node("node-b", transport);
+    }
+
+    @Test
+    void topicMessageReachesSubscribersOnEveryNode() {
+        nodeA.connect("a-session", "alice@urbanup.com");
+        nodeB.connect("b-session", "bob@urbanup.com");
+        nodeA.subscribe("a-session", "/topic/chat/42");
+        nodeB.subscribe("b-session", "/topic/chat/42");
+
+        nodeA.template.convertAndSend("/topic/chat/42", Map.of("content", "hello"));
+
+        assertEquals(1, nodeA.delivered.size());
+        assertEquals(1, nodeB.delivered.size());
+        assertEquals("/topic/chat/42", SimpMessageHeaderAccessor.getDestination(nodeB.delivered.get(0).getHeaders()));
+        assertTrue(payloadOf(nodeB.delivered.get(0)).contains("hello"));
+        assertEquals(1, transport.published.size());
+    }
+
+    @Test
+    void userDestinationResolvesOnTheNodeHoldingTheSession() {
+        nodeB.connect("b-session", "bob@urbanup.com");
+        nodeB.subscribe("b-session", "/queue/notifications-userb-session");
+
+        nodeA.template.convertAndSendToUser("bob@urbanup.com", "/queue/notifications", Map.of("title", "New Message"));
+
+        assertEquals(0, nodeA.delivered.size());
+        assertEquals(1, nodeB.delivered.size());
+        assertTrue(payloadOf(nodeB.delivered.get(0)).contains("New Message"));
+    }
+
+    @Test
+    void replayedMessagesAreNotForwardedAgain() {
+        nodeB.connect("b-session", "bob@urbanup.com");
+        nodeB.subscribe("b-session", "/topic/chat/7/typing");
+
+        nodeA.template.convertAndSend("/topic/chat/7/typing", Map.of("isTyping", true));
+        nodeB.template.convertAndSend("/topic/chat/7/typing", Map.of("isTyping", false));
+
+        assertEquals(2, transport.published.size());
+        assertEquals(2, nodeB.delivered.size());
+    }
+
+    @Test
+    void stoppedNodeNoLongerReceivesFromTheTransport() {
+        nodeB.connect("b-session", "bob@urbanup.com");
+        nodeB.subscribe("b-session", "/topic/chat/42");
+
+        nodeB.bridge.stop();
+        nodeA.template.convertAndSend("/topic/chat/42", Map.of("content", "hello"));
+
+        assertEquals(1, transport.published.size());
+        assertEquals(1, transport.listeners.size());
+        assertEquals(0, nodeB.delivered.size());
+    }
+
+    private static String payloadOf(Message<?> message) {
+        return new String((byte[]) message.getPayload(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * One application node: simple broker, user destination resolution and the cluster bridge
+     */
+    private static class Node {
+        final ExecutorSubscribableChannel clientInbound = new ExecutorSubscribableChannel();
+        final ExecutorSubscribableChannel clientOutbound = new ExecutorSubscribableChannel();
+        final ExecutorSubscribableChannel brokerChannel = new ExecutorSubscribableChannel();
+        final DefaultSimpUserRegistry userRegistry = new DefaultSimpUserRegistry();
+        final List<Message<?>> delivered = new CopyOnWriteArrayList<>();
+        final SimpleBrokerMessageHandler broker;
+        final SimpMessagingTemplate template;
+        final ClusterBrokerBridge bridge;
+
+        Node(String nodeId, BrokerBridgeTransport transport) {
+            broker = new SimpleBrokerMessageHandler(clientInbound, clientOutbound, brokerChannel, List.of("/topic", "/queue"));
+            UserDestinationMessageHandler userHandler = new UserDestinationMessageHandler(
+                clientInbound, brokerChannel, new DefaultUserDestinationResolver(userRegistry));
+            bridge = new ClusterBrokerBridge(transport, brokerChannel, nodeId);
+
+            brokerChannel.addInterceptor(bridge);
+            clientOutbound.subscribe(delivered::add);
+
+            broker.start();
+            userHandler.start();
+            bridge.start();
+
+            template = new SimpMessagingTemplate(brokerChannel);
+            template.setMessageConverter(new MappingJackson2MessageConverter());
+        }
+
+        void connect(String sessionId, String userName) {
+            Principal user = () -> userName;
+            SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.CONNECT);
+            accessor.setSessionId(sessionId);
+            accessor.setUser(user);
+            accessor.setHeader(SimpMessageHeaderAccessor.HEART_BEAT_HEADER, new long[] {0, 0});
+            Message<byte[]> message = MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+
+            broker.handleMessage(message);
+            userRegistry.onApplicationEvent(new SessionConnectedEvent(this, message, user));
+            delivered.clear();
+        }
+
+        void subscribe(String sessionId, String destination) {
+            SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.SUBSCRIBE);
+            accessor.setSessionId(sessionId);
+            accessor.setSubscriptionId("sub-" + destination);
+            accessor.setDestination(destination);
+            broker.handleMessage(MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders()));
+        }
+    }
+
+    /**
+     * In-process stand-in for the Redis channel: synchronous delivery to every node
+     */
+    private static class InMemoryTransport implements BrokerBridgeTransport {
+        final List<String> published = new CopyOnWriteArrayList<>();
+        final List<Consumer<String>> listeners = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void publish(String envelope) {
+            published.add(envelope);
+            listeners.forEach(listener -> listener.accept(envelope));
+        }
+
+        @Override
+        public void subscribe(Consumer<String> listener) {
+            listeners.add(listener);
+        }
+
+        @Override
+        public void unsubscribe(Consumer<String> listener) {
+            listeners.remove(listener);
+        }
+    }
+}
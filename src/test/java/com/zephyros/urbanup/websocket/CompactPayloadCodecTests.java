@@ -0,0 +1,173 @@
+package com.zephyros.urbanup.websocket;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.zephyros.urbanup.service.RealtimeChatService.MessageBroadcast;
+import com.zephyros.urbanup.service.RealtimeChatService.TypingIndicator;
+
+/**
+ * Compact payload encoding and its size against the regular JSON frames, plus a benchmark-tagged
+ * CPU comparison that only runs on request.
+ */
+class CompactPayloadCodecTests {
+
+    private ObjectMapper objectMapper;
+    private CompactPayloadCodec codec;
+
+    @BeforeEach
+    void setUp() {
+        // Same settings as JacksonConfig
+        objectMapper = new ObjectMapper();
+        objectMapper.registerModule(new JavaTimeModule());
+        objectMapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        codec = new CompactPayloadCodec(objectMapper);
+    }
+
+    @Test
+    void shortensFieldNamesDropsNullsAndConvertsTimestamps() throws Exception {
+        JsonNode compact = objectMapper.readTree(codec.encode(objectMapper.writeValueAsBytes(sampleMessage())));
+
+        assertEquals(981234L, compact.get("i").asLong());
+        assertEquals(42L, compact.get("c").asLong());
+        assertEquals("On my way, 5 minutes out", compact.get("m").asText());
+        assertTrue(compact.get("ca").isNumber());
+        assertFalse(compact.has("a")); // attachmentUrl was null
+        assertFalse(compact.has("content"));
+    }
+
+    @Test
+    void onlyNegotiatedSessionsGetCompactFrames() {
+        codec.negotiate("compact-session", CompactPayloadCodec.COMPACT_V1);
+        codec.negotiate("json-session", null);
+        byte[] payload = "{\"chatId\":42}".getBytes(StandardCharsets.UTF_8);
+
+        Message<?> compact = codec.preSend(frame("compact-session", payload), null);
+        Message<?> json = codec.preSend(frame("json-session", payload), null);
+
+        assertEquals("{\"c\":42}", new String((byte[]) compact.getPayload(), StandardCharsets.UTF_8));
+        assertSame(payload, json.getPayload());
+    }
+
+    @Test
+    void broadcastPayloadIsEncodedOncePerFanOut() {
+        codec.negotiate("s1", CompactPayloadCodec.COMPACT_V1);
+        codec.negotiate("s2", CompactPayloadCodec.COMPACT_V1);
+        byte[] payload = "{\"chatId\":42}".getBytes(StandardCharsets.UTF_8);
+
+        Message<?> first = codec.preSend(frame("s1", payload), null);
+        Message<?> second = codec.preSend(frame("s2", payload), null);
+
+        assertSame(first.getPayload(), second.getPayload());
+    }
+
+    @Test
+    void compactFramesAreSmallerThanJsonBeforeAndAfterDeflate() throws Exception {
+        for (Object payload : new Object[] {sampleMessage(), sampleTyping()}) {
+            byte[] json = objectMapper.writeValueAsBytes(payload);
+            byte[] compact = codec.encode(json);
+
+            assertTrue(compact.length < json.length, payload.getClass().getSimpleName() + " raw size");
+            assertTrue(deflatedSize(compact) <= deflatedSize(json), payload.getClass().getSimpleName() + " deflated size");
+        }
+    }
+
+    /**
+     * Rough serialize and encode cost per frame. Excluded from the default build; run with
+     * mvn test -Dtest.excludedGroups= -Dgroups=benchmark.
+     */
+    @Test
+    @Tag("benchmark")
+    void benchmarkBytesPerMessageAndEncodeCost() throws Exception {
+        for (Object payload : new Object[] {sampleMessage(), sampleTyping()}) {
+            byte[] json = objectMapper.writeValueAsBytes(payload);
+            byte[] compact = codec.encode(json);
+
+            int iterations = 20_000;
+            for (int i = 0; i < iterations; i++) {
+                codec.encode(json); // warm up
+            }
+            long jsonNanos = time(iterations, () -> objectMapper.writeValueAsBytes(payload));
+            long compactNanos = time(iterations, () -> codec.encode(objectMapper.writeValueAsBytes(payload)));
+
+            System.err.printf("%s: json %d bytes (%d deflated), compact %d bytes (%d deflated); "
+                    + "serialize %.2f us, serialize+compact %.2f us%n",
+                    payload.getClass().getSimpleName(), json.length, deflatedSize(json),
+                    compact.length, deflatedSize(compact),
+                    jsonNanos / 1000.0 / iterations, compactNanos / 1000.0 / iterations);
+        }
+    }
+
+    private TypingIndicator sampleTyping() {
+        TypingIndicator typing = new TypingIndicator();
+        typing.setChatId(42L);
+        typing.setUserId(7L);
+        typing.setIsTyping(true);
+        typing.setTypingUserIds(Set.of(7L));
+        typing.setTimestamp(LocalDateTime.now());
+        return typing;
+    }
+
+    private MessageBroadcast sampleMessage() {
+        MessageBroadcast message = new MessageBroadcast();
+        message.setId(981234L);
+        message.setChatId(42L);
+        message.setSenderId(7L);
+        message.setSenderName("Alice Johnson");
+        message.setContent("On my way, 5 minutes out");
+        message.setMessageType("TEXT");
+        message.setCreatedAt(LocalDateTime.now());
+        message.setIsRead(false);
+        message.setClientMessageId("c0a8e5b2-3f1d-4d1e-9a57-1b2f0e6d9c41");
+        return message;
+    }
+
+    private Message<byte[]> frame(String sessionId, byte[] payload) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setSessionId(sessionId);
+        accessor.setDestination("/topic/chat/42");
+        return MessageBuilder.createMessage(payload, accessor.getMessageHeaders());
+    }
+
+    private long time(int iterations, ThrowingRunnable body) throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            body.run();
+        }
+        return System.nanoTime() - start;
+    }
+
+    // Single frame without context takeover, so an upper bound on what permessage-deflate sends
+    private int deflatedSize(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] buffer = new byte[data.length + 64];
+        int size = deflater.deflate(buffer);
+        deflater.end();
+        return size;
+    }
+
+    private interface ThrowingRunnable {
+        void run() throws Exception;
+    }
+}
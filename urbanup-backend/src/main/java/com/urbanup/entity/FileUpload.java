@@ -5,7 +5,7 @@ import javax.validation.constraints.NotNull;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "file_uploads")
+@Table(name = "file_uploads", indexes = @Index(name = "idx_file_uploads_file_path", columnList = "filePath"))
 public class FileUpload {
 
     @Id
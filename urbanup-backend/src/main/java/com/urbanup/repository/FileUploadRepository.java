@@ -2,9 +2,16 @@ package com.urbanup.repository;
 
 import com.urbanup.entity.FileUpload;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
+
 @Repository
 public interface FileUploadRepository extends JpaRepository<FileUpload, Long> {
-    // Additional query methods can be defined here if needed
-}
\ No newline at end of file
+
+    @Query("SELECT DISTINCT f.filePath FROM FileUpload f WHERE f.filePath IN :paths")
+    List<String> findFilePathsIn(@Param("paths") Collection<String> paths);
+}
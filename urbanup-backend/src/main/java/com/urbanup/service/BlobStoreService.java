@@ -0,0 +1,153 @@
+package com.urbanup.service;
+
+import com.urbanup.exception.FileUploadException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed file bytes on disk. Blobs live at ab/cd/{sha256} under the upload directory;
+ * uploads are streamed through a fixed buffer into a temp file and moved into place atomically.
+ */
+@Service
+public class BlobStoreService {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Pattern BLOB_PATH = Pattern.compile("[0-9a-f]{2}/[0-9a-f]{2}/[0-9a-f]{64}");
+
+    private final Path root;
+    private final Path tmpDir;
+    private final long maxFileSize;
+
+    public BlobStoreService(@Value("${urbanup.file.upload-dir:uploads}") String uploadDir,
+                            @Value("${urbanup.file.max-file-size-bytes:10485760}") long maxFileSize) {
+        this.root = Paths.get(uploadDir).toAbsolutePath().normalize();
+        this.tmpDir = root.resolve("tmp");
+        this.maxFileSize = maxFileSize;
+    }
+
+    public StoredBlob store(InputStream in) throws IOException {
+        Files.createDirectories(tmpDir);
+        Path tmp = Files.createTempFile(tmpDir, "upload-", ".part");
+        try {
+            MessageDigest digest = sha256();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long size = 0;
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    size += read;
+                    if (size > maxFileSize) {
+                        throw new FileUploadException("File exceeds the maximum size of " + maxFileSize + " bytes");
+                    }
+                    digest.update(buffer, 0, read);
+                    out.write(buffer, 0, read);
+                }
+            }
+
+            String hash = toHex(digest.digest());
+            String path = hash.substring(0, 2) + "/" + hash.substring(2, 4) + "/" + hash;
+            Path blob = root.resolve(path);
+            if (!Files.exists(blob)) {
+                Files.createDirectories(blob.getParent());
+                // Replacing a blob that appeared concurrently is harmless: the content is identical
+                Files.move(tmp, blob, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                // A reused blob may be old and unreferenced until this upload's row commits; touching it
+                // keeps the orphan sweep's grace period from deleting it in between
+                Files.setLastModifiedTime(blob, FileTime.fromMillis(System.currentTimeMillis()));
+            }
+            return new StoredBlob(path, size);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    public Path resolve(String path) {
+        if (path == null || !BLOB_PATH.matcher(path).matches()) {
+            throw new FileUploadException("Invalid blob path: " + path);
+        }
+        return root.resolve(path);
+    }
+
+    public boolean delete(String path) throws IOException {
+        return Files.deleteIfExists(resolve(path));
+    }
+
+    // Relative paths of all blobs last modified before the given time
+    public List<String> listBlobsOlderThan(long cutoffMillis) throws IOException {
+        if (!Files.isDirectory(root)) {
+            return new ArrayList<>();
+        }
+        try (Stream<Path> files = Files.walk(root, 3)) {
+            return files.filter(Files::isRegularFile)
+                    .filter(file -> file.toFile().lastModified() < cutoffMillis)
+                    .map(file -> root.relativize(file).toString().replace('\\', '/'))
+                    .filter(path -> BLOB_PATH.matcher(path).matches())
+                    .collect(Collectors.toList());
+        }
+    }
+
+    public void deleteTempFilesOlderThan(long cutoffMillis) throws IOException {
+        if (!Files.isDirectory(tmpDir)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(tmpDir, "upload-*.part")) {
+            for (Path file : files) {
+                if (file.toFile().lastModified() < cutoffMillis) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    public static class StoredBlob {
+        private final String path;
+        private final long size;
+
+        public StoredBlob(String path, long size) {
+            this.path = path;
+            this.size = size;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+    }
+}
@@ -3,29 +3,52 @@ package com.urbanup.service;
 import com.urbanup.entity.FileUpload;
 import com.urbanup.exception.FileUploadException;
 import com.urbanup.repository.FileUploadRepository;
+import com.urbanup.service.BlobStoreService.StoredBlob;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Upload metadata lives in file_uploads; the bytes live in the {@link BlobStoreService}. filePath holds
+ * the blob's relative path, so identical uploads share one file on disk.
+ */
 @Service
 public class FileUploadService {
 
+    // Blobs younger than this may belong to an upload whose row is not committed yet
+    private static final long ORPHAN_GRACE_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final int ORPHAN_BATCH_SIZE = 500;
+
     private final FileUploadRepository fileUploadRepository;
+    private final BlobStoreService blobStoreService;
 
     @Autowired
-    public FileUploadService(FileUploadRepository fileUploadRepository) {
+    public FileUploadService(FileUploadRepository fileUploadRepository, BlobStoreService blobStoreService) {
         this.fileUploadRepository = fileUploadRepository;
+        this.blobStoreService = blobStoreService;
     }
 
     public FileUpload uploadFile(MultipartFile file) throws FileUploadException {
-        try {
-            // Logic to save the file and create a FileUpload entity
+        if (file.isEmpty()) {
+            throw new FileUploadException("Failed to store empty file: " + file.getOriginalFilename());
+        }
+        try (InputStream in = file.getInputStream()) {
+            StoredBlob blob = blobStoreService.store(in);
             FileUpload fileUpload = new FileUpload();
             fileUpload.setFileName(file.getOriginalFilename());
-            fileUpload.setFileType(file.getContentType());
-            fileUpload.setData(file.getBytes());
+            fileUpload.setFileType(file.getContentType() != null ? file.getContentType() : "application/octet-stream");
+            fileUpload.setFilePath(blob.getPath());
+            fileUpload.setSize(blob.getSize());
+            fileUpload.setUploadTime(LocalDateTime.now());
             return fileUploadRepository.save(fileUpload);
         } catch (IOException e) {
             throw new FileUploadException("Failed to upload file: " + file.getOriginalFilename(), e);
@@ -36,4 +59,37 @@ public class FileUploadService {
         return fileUploadRepository.findById(fileId)
                 .orElseThrow(() -> new FileUploadException("File not found with id: " + fileId));
     }
-}
\ No newline at end of file
+
+    public Path getFileContent(Long fileId) throws FileUploadException {
+        return blobStoreService.resolve(getFile(fileId).getFilePath());
+    }
+
+    // Only the row is removed; the blob goes with the next orphan sweep once nothing else references it
+    public void deleteFile(Long fileId) throws FileUploadException {
+        fileUploadRepository.delete(getFile(fileId));
+    }
+
+    /**
+     * Delete blobs no file_uploads row references, and stale temp files, older than an hour.
+     * Not scheduled here: this module has no application class or scheduler of its own, so the
+     * application hosting the service calls this periodically, e.g. hourly from a @Scheduled method.
+     */
+    public void sweepOrphanedBlobs() {
+        long cutoff = System.currentTimeMillis() - ORPHAN_GRACE_MILLIS;
+        try {
+            blobStoreService.deleteTempFilesOlderThan(cutoff);
+            List<String> candidates = blobStoreService.listBlobsOlderThan(cutoff);
+            for (int i = 0; i < candidates.size(); i += ORPHAN_BATCH_SIZE) {
+                List<String> batch = candidates.subList(i, Math.min(i + ORPHAN_BATCH_SIZE, candidates.size()));
+                Set<String> referenced = new HashSet<>(fileUploadRepository.findFilePathsIn(batch));
+                for (String path : batch) {
+                    if (!referenced.contains(path)) {
+                        blobStoreService.delete(path);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Orphaned blob sweep failed: " + e.getMessage());
+        }
+    }
+}
@@ -4,33 +4,48 @@ import org.springframework.web.multipart.MultipartFile;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.UUID;
 
 public class FileUtil {
 
     private static final String UPLOAD_DIR = "uploads/";
 
+    // Streams the upload to disk under a unique name; returns the stored name, not the original one
     public static String saveFile(MultipartFile file) throws IOException {
         if (file.isEmpty()) {
             throw new IOException("Failed to store empty file.");
         }
 
-        String fileName = file.getOriginalFilename();
+        String fileName = UUID.randomUUID() + "_" + sanitize(file.getOriginalFilename());
         Path path = Paths.get(UPLOAD_DIR + fileName);
         Files.createDirectories(path.getParent());
-        Files.copy(file.getInputStream(), path);
+        try (InputStream in = file.getInputStream()) {
+            Files.copy(in, path);
+        }
 
         return fileName;
     }
 
     public static File getFile(String fileName) {
-        return new File(UPLOAD_DIR + fileName);
+        return new File(UPLOAD_DIR + sanitize(fileName));
     }
 
     public static boolean deleteFile(String fileName) {
         File file = getFile(fileName);
         return file.delete();
     }
-}
\ No newline at end of file
+
+    // Keeps only the last path segment and safe characters, so names cannot escape the upload directory
+    private static String sanitize(String fileName) {
+        if (fileName == null || fileName.isEmpty()) {
+            return "file";
+        }
+        String name = Paths.get(fileName.replace('\\', '/')).getFileName().toString();
+        name = name.replaceAll("[^A-Za-z0-9._-]", "_");
+        return name.isEmpty() || name.startsWith(".") ? "file" + name : name;
+    }
+}